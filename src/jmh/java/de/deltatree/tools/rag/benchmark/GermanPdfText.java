@@ -0,0 +1,106 @@
+package de.deltatree.tools.rag.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic German text that looks like Tika output of a typical PDF manual:
+ * wrapped lines, hyphenation across line breaks, page numbers, footnotes and tables.
+ */
+public final class GermanPdfText {
+
+    private static final String[] WORDS = {
+            "Die", "Entwicklung", "der", "Anwendung", "erfolgt", "gemäß", "den", "Vorgaben",
+            "des", "Qualitätsmanagements", "und", "wird", "regelmäßig", "überprüft", "Für",
+            "Mitarbeiterinnen", "Mitarbeiter", "gelten", "besondere", "Regelungen", "bezüglich",
+            "Arbeitszeit", "Datenschutz", "Informationssicherheit", "Verantwortlichkeiten",
+            "Abteilung", "Geschäftsführung", "Antrag", "Genehmigung", "Frist", "Werktage",
+            "Ansprechpartner", "Dokumentation", "Verfahren", "Prüfung", "Freigabe", "Änderung",
+            "Betriebsvereinbarung", "Urlaubsanspruch", "Krankmeldung", "Dienstreise", "Erstattung",
+            "zuständig", "verpflichtet", "ausschließlich", "grundsätzlich", "schriftlich", "innerhalb"
+    };
+
+    private static final String[] HYPHENATED = {
+            "Ent-\nwicklung", "Verant-\nwortung", "Geschäfts-\nführung", "Daten-\nschutz",
+            "Be-\ntriebsvereinbarung", "Informations-\nsicherheit", "Genehmi-\ngung"
+    };
+
+    private GermanPdfText() {
+    }
+
+    /**
+     * Build a document of roughly the given number of characters.
+     */
+    public static String document(int approxChars, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(approxChars + 512);
+        int page = 1;
+        while (text.length() < approxChars) {
+            appendHeading(text, random, page);
+            for (int paragraph = 0; paragraph < 4; paragraph++) {
+                appendParagraph(text, random);
+                text.append('\n');
+            }
+            if (random.nextInt(3) == 0) {
+                appendTable(text, random);
+            }
+            text.append("Seite ").append(page++).append("\n\n\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * A single cleaned chunk of roughly the given size, as it reaches the quality filter.
+     */
+    public static String chunk(int approxChars, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(approxChars + 64);
+        while (text.length() < approxChars) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            if (random.nextInt(12) == 0) {
+                text.append(random.nextInt(100)).append(". ");
+            }
+        }
+        return text.toString().trim();
+    }
+
+    private static void appendHeading(StringBuilder text, Random random, int page) {
+        text.append(page).append(". ")
+                .append(WORDS[random.nextInt(WORDS.length)]).append(' ')
+                .append(WORDS[random.nextInt(WORDS.length)]).append('\n');
+    }
+
+    private static void appendParagraph(StringBuilder text, Random random) {
+        int lineLength = 0;
+        int words = 40 + random.nextInt(40);
+        for (int i = 0; i < words; i++) {
+            String word = random.nextInt(25) == 0
+                    ? HYPHENATED[random.nextInt(HYPHENATED.length)]
+                    : WORDS[random.nextInt(WORDS.length)];
+            text.append(word);
+            if (random.nextInt(30) == 0) {
+                text.append(" [").append(1 + random.nextInt(9)).append(']');
+            }
+            lineLength += word.length() + 1;
+            if (lineLength > 80) {
+                text.append('\n');
+                lineLength = 0;
+            } else {
+                text.append(' ');
+            }
+            if (random.nextInt(15) == 0) {
+                text.append(". ");
+            }
+        }
+        text.append(".\n");
+    }
+
+    private static void appendTable(StringBuilder text, Random random) {
+        text.append("| Nr | Bezeichnung | Zuständigkeit |\n");
+        text.append("|---|---|---|\n");
+        for (int row = 1; row <= 5; row++) {
+            text.append("| ").append(row).append(" | ")
+                    .append(WORDS[random.nextInt(WORDS.length)]).append(" | ")
+                    .append(WORDS[random.nextInt(WORDS.length)]).append(" |\n");
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package de.deltatree.tools.rag.benchmark;
+
+import de.deltatree.tools.rag.service.StructureAwareTextSplitter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TokenTextSplitterBenchmark {
+
+    @Param({"20000", "200000"})
+    public int documentChars;
+
+    private List<Document> documents;
+    private StructureAwareTextSplitter structureAwareSplitter;
+
+    @Setup
+    public void setUp() {
+        documents = List.of(new Document(GermanPdfText.document(documentChars, 42L),
+                Map.of("filename", "handbuch.pdf")));
+        structureAwareSplitter = new StructureAwareTextSplitter(800, 80, 50, 10000);
+    }
+
+    /**
+     * Settings used by UploadController, including building the splitter per upload
+     */
+    @Benchmark
+    public List<Document> uploadSplitter() {
+        TokenTextSplitter splitter = TokenTextSplitter.builder()
+                .withChunkSize(800)
+                .withMinChunkSizeChars(200)
+                .withMinChunkLengthToEmbed(50)
+                .withMaxNumChunks(10000)
+                .withKeepSeparator(true)
+                .build();
+        return splitter.apply(documents);
+    }
+
+    /**
+     * Default splitter used by UrlController
+     */
+    @Benchmark
+    public List<Document> urlSplitter() {
+        return new TokenTextSplitter().apply(documents);
+    }
+
+    /**
+     * Shared splitter now used for uploads and URLs, default rag.splitter.* settings
+     */
+    @Benchmark
+    public List<Document> structureAwareSplitter() {
+        return structureAwareSplitter.apply(documents);
+    }
+}
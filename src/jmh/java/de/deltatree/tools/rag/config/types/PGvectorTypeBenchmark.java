@@ -0,0 +1,66 @@
+package de.deltatree.tools.rag.config.types;
+
+import com.pgvector.PGvector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.postgresql.util.PGobject;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PGvectorTypeBenchmark {
+
+    @Param({"768", "1024"})
+    public int dimensions;
+
+    private PGvectorType type;
+    private ResultSet resultSet;
+
+    @Setup
+    public void setUp() throws SQLException {
+        type = new PGvectorType();
+
+        // pgvector's text representation as returned by the driver: "[0.0123,-0.456,...]"
+        Random random = new Random(42L);
+        StringBuilder value = new StringBuilder("[");
+        for (int i = 0; i < dimensions; i++) {
+            if (i > 0) {
+                value.append(',');
+            }
+            value.append(random.nextFloat() * 2 - 1);
+        }
+        value.append(']');
+
+        PGobject pgObject = new PGobject();
+        pgObject.setType("vector");
+        pgObject.setValue(value.toString());
+
+        // Only getObject(int) is needed by nullSafeGet
+        resultSet = (ResultSet) Proxy.newProxyInstance(
+                ResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    if ("getObject".equals(method.getName()) && args.length == 1) {
+                        return pgObject;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Benchmark
+    public PGvector nullSafeGet() throws SQLException {
+        return type.nullSafeGet(resultSet, 1, null, null);
+    }
+}
@@ -0,0 +1,70 @@
+package de.deltatree.tools.rag.controller;
+
+import de.deltatree.tools.rag.benchmark.GermanPdfText;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChatControllerBenchmark {
+
+    private static final String QUESTION = "Wie viele Werktage hat man Zeit, um eine Dienstreise zur Erstattung einzureichen?";
+    private static final String GENERAL_QUESTION = "Wie hoch ist die Zugspitze?";
+
+    private List<Document> retrieved;
+    private List<Document> deduplicated;
+    private String context;
+
+    @Setup
+    public void setUp() {
+        // 20 hits as requested by ChatController, a quarter of them duplicates
+        retrieved = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int source = i % 4 == 3 ? i - 1 : i;
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("filename", "handbuch-" + (source % 3) + ".pdf");
+            metadata.put("id", (long) source);
+            retrieved.add(new Document(GermanPdfText.chunk(3200, source), metadata));
+        }
+        deduplicated = ChatController.deduplicateDocuments(retrieved, 8);
+        context = ChatController.buildContext(deduplicated);
+    }
+
+    @Benchmark
+    public String buildContext() {
+        return ChatController.buildContext(deduplicated);
+    }
+
+    @Benchmark
+    public String createUserMessage() {
+        return ChatController.createUserMessage(context, QUESTION);
+    }
+
+    @Benchmark
+    public List<Document> deduplicateDocuments() {
+        return ChatController.deduplicateDocuments(retrieved, 8);
+    }
+
+    @Benchmark
+    public boolean classifyDocumentQuestion() {
+        return ChatController.isGeneralKnowledgeQuestion(QUESTION, deduplicated);
+    }
+
+    @Benchmark
+    public boolean classifyGeneralKnowledgeQuestion() {
+        return ChatController.isGeneralKnowledgeQuestion(GENERAL_QUESTION, deduplicated);
+    }
+}
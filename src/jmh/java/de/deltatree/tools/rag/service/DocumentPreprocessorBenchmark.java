@@ -0,0 +1,43 @@
+package de.deltatree.tools.rag.service;
+
+import de.deltatree.tools.rag.benchmark.GermanPdfText;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DocumentPreprocessorBenchmark {
+
+    @Param({"20000", "200000"})
+    public int documentChars;
+
+    private DocumentPreprocessor preprocessor;
+    private String document;
+    private String chunk;
+
+    @Setup
+    public void setUp() {
+        preprocessor = new DocumentPreprocessor();
+        document = GermanPdfText.document(documentChars, 42L);
+        chunk = preprocessor.cleanContent(GermanPdfText.document(3200, 7L));
+    }
+
+    @Benchmark
+    public String cleanContent() {
+        return preprocessor.cleanContent(document);
+    }
+
+    @Benchmark
+    public boolean isQualityChunk() {
+        return preprocessor.isQualityChunk(chunk);
+    }
+}
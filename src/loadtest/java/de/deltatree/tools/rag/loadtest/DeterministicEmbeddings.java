@@ -0,0 +1,68 @@
+package de.deltatree.tools.rag.loadtest;
+
+import java.util.Locale;
+
+/**
+ * Stand-in for the embedding model: hashes the words of a text into a fixed number of
+ * signed buckets and L2-normalizes the result. The same text always gets the same vector,
+ * and texts sharing words end up close in cosine distance, so retrieval stays meaningful.
+ */
+public final class DeterministicEmbeddings {
+
+    private DeterministicEmbeddings() {
+    }
+
+    public static float[] embed(String text, int dimensions) {
+        float[] vector = new float[dimensions];
+        if (text != null) {
+            for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (word.length() < 2) {
+                    continue;
+                }
+                int hash = murmurMix(word.hashCode());
+                int bucket = Math.floorMod(hash, dimensions);
+                vector[bucket] += (hash & 0x40000000) == 0 ? 1f : -1f;
+            }
+        }
+
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            // Empty input: return a valid unit vector instead of zeros
+            vector[0] = 1f;
+            return vector;
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    public static double cosineSimilarity(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        if (normA == 0 || normB == 0) {
+            return 0;
+        }
+        return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    private static int murmurMix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
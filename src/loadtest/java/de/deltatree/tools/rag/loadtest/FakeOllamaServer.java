@@ -0,0 +1,319 @@
+package de.deltatree.tools.rag.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process HTTP server speaking enough of the Ollama API for the application:
+ * /api/generate and /api/chat (streaming and non-streaming), /api/embed, /api/embeddings, /api/tags,
+ * /api/ps, /api/show and /api/pull. It also serves generated HTML under /pages/{n}
+ * as a target for /process-url.
+ */
+public class FakeOllamaServer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(FakeOllamaServer.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * @param firstTokenLatencyMs time before the first token (model queueing plus prompt evaluation)
+     * @param tokensPerSecond     generation speed after the first token
+     * @param responseTokens      tokens generated per request
+     * @param embedLatencyMs      latency of one embed call, independent of batch size
+     * @param dimensions          embedding dimensions
+     * @param pageCount           number of HTML pages under /pages
+     */
+    public record Settings(long firstTokenLatencyMs, double tokensPerSecond, int responseTokens,
+                           long embedLatencyMs, int dimensions, int pageCount) {
+
+        public static Settings defaults() {
+            return new Settings(200, 40, 120, 15, 1024, 50);
+        }
+    }
+
+    private final Settings settings;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong generateCalls = new AtomicLong();
+    private final AtomicLong embedCalls = new AtomicLong();
+    private final AtomicLong embeddedTexts = new AtomicLong();
+    private final AtomicLong chatCalls = new AtomicLong();
+    private final AtomicLong reusedPromptChars = new AtomicLong();
+    // Prompt of the previous /api/chat call, to model Ollama's prompt prefix reuse
+    private final AtomicReference<String> lastChatPrompt = new AtomicReference<>("");
+
+    public FakeOllamaServer(Settings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/api/generate", exchange -> handle(exchange, this::generate));
+        server.createContext("/api/chat", exchange -> handle(exchange, this::chat));
+        server.createContext("/api/embed", exchange -> handle(exchange, this::embed));
+        server.createContext("/api/embeddings", exchange -> handle(exchange, this::legacyEmbed));
+        server.createContext("/api/tags", exchange -> handle(exchange, this::tags));
+        server.createContext("/api/ps", exchange -> handle(exchange, this::tags));
+        server.createContext("/api/show", exchange -> handle(exchange, ex -> writeJson(ex, Map.of("details", Map.of()))));
+        server.createContext("/api/pull", exchange -> handle(exchange, ex -> writeJson(ex, Map.of("status", "success"))));
+        server.createContext("/pages/", exchange -> handle(exchange, this::page));
+    }
+
+    public FakeOllamaServer start() {
+        server.start();
+        LOG.info("Fake Ollama listening on {} with {}", baseUrl(), settings);
+        return this;
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("generateCalls", generateCalls.get());
+        stats.put("embedCalls", embedCalls.get());
+        stats.put("embeddedTexts", embeddedTexts.get());
+        stats.put("chatCalls", chatCalls.get());
+        stats.put("reusedPromptChars", reusedPromptChars.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            handler.handle(exchange);
+        } catch (IOException e) {
+            // Client went away mid-stream; nothing left to answer
+            LOG.debug("Fake Ollama request aborted: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            LOG.error("Fake Ollama handler failed", e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void generate(HttpExchange exchange) throws IOException {
+        generateCalls.incrementAndGet();
+        JsonNode request = readJson(exchange);
+        String model = request.path("model").asText("llama3.2");
+        String prompt = request.path("prompt").asText("");
+        boolean stream = request.path("stream").asBoolean(true);
+        int promptTokens = Math.max(1, prompt.length() / 4);
+        long tokenNanos = (long) (1_000_000_000L / settings.tokensPerSecond());
+
+        sleepMillis(settings.firstTokenLatencyMs());
+
+        if (!stream) {
+            sleepNanos(tokenNanos * settings.responseTokens());
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < settings.responseTokens(); i++) {
+                text.append(token(i));
+            }
+            Map<String, Object> body = doneMessage(model, promptTokens, tokenNanos);
+            body.put("response", text.toString());
+            writeJson(exchange, body);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        for (int i = 0; i < settings.responseTokens(); i++) {
+            Map<String, Object> chunk = new LinkedHashMap<>();
+            chunk.put("model", model);
+            chunk.put("created_at", Instant.now().toString());
+            chunk.put("response", token(i));
+            chunk.put("done", false);
+            out.write(MAPPER.writeValueAsBytes(chunk));
+            out.write('\n');
+            out.flush();
+            sleepNanos(tokenNanos);
+        }
+        Map<String, Object> last = doneMessage(model, promptTokens, tokenNanos);
+        last.put("response", "");
+        out.write(MAPPER.writeValueAsBytes(last));
+        out.write('\n');
+        out.flush();
+    }
+
+    /**
+     * Like /api/generate, but the part of the prompt shared with the previous chat call counts as
+     * cached: it is not in prompt_eval_count and does not add to the first-token latency.
+     */
+    private void chat(HttpExchange exchange) throws IOException {
+        chatCalls.incrementAndGet();
+        JsonNode request = readJson(exchange);
+        String model = request.path("model").asText("llama3.2");
+        StringBuilder promptBuilder = new StringBuilder();
+        for (JsonNode message : request.path("messages")) {
+            promptBuilder.append(message.path("role").asText()).append(':')
+                    .append(message.path("content").asText()).append('\n');
+        }
+        String prompt = promptBuilder.toString();
+        String previous = lastChatPrompt.getAndSet(prompt);
+        int reused = 0;
+        while (reused < Math.min(prompt.length(), previous.length()) && prompt.charAt(reused) == previous.charAt(reused)) {
+            reused++;
+        }
+        reusedPromptChars.addAndGet(reused);
+        int promptTokens = Math.max(1, (prompt.length() - reused) / 4);
+        long firstTokenMillis = settings.firstTokenLatencyMs() * (prompt.length() - reused) / Math.max(1, prompt.length());
+        boolean stream = request.path("stream").asBoolean(true);
+        long tokenNanos = (long) (1_000_000_000L / settings.tokensPerSecond());
+
+        sleepMillis(firstTokenMillis);
+
+        if (!stream) {
+            sleepNanos(tokenNanos * settings.responseTokens());
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < settings.responseTokens(); i++) {
+                text.append(token(i));
+            }
+            Map<String, Object> body = doneMessage(model, promptTokens, tokenNanos);
+            body.put("prompt_eval_duration", TimeUnit.MILLISECONDS.toNanos(firstTokenMillis));
+            body.put("message", Map.of("role", "assistant", "content", text.toString()));
+            writeJson(exchange, body);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        for (int i = 0; i < settings.responseTokens(); i++) {
+            Map<String, Object> chunk = new LinkedHashMap<>();
+            chunk.put("model", model);
+            chunk.put("created_at", Instant.now().toString());
+            chunk.put("message", Map.of("role", "assistant", "content", token(i)));
+            chunk.put("done", false);
+            out.write(MAPPER.writeValueAsBytes(chunk));
+            out.write('\n');
+            out.flush();
+            sleepNanos(tokenNanos);
+        }
+        Map<String, Object> last = doneMessage(model, promptTokens, tokenNanos);
+        last.put("prompt_eval_duration", TimeUnit.MILLISECONDS.toNanos(firstTokenMillis));
+        last.put("message", Map.of("role", "assistant", "content", ""));
+        out.write(MAPPER.writeValueAsBytes(last));
+        out.write('\n');
+        out.flush();
+    }
+
+    private Map<String, Object> doneMessage(String model, int promptTokens, long tokenNanos) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("model", model);
+        body.put("created_at", Instant.now().toString());
+        body.put("done", true);
+        body.put("done_reason", "stop");
+        body.put("prompt_eval_count", promptTokens);
+        body.put("prompt_eval_duration", TimeUnit.MILLISECONDS.toNanos(settings.firstTokenLatencyMs()));
+        body.put("eval_count", settings.responseTokens());
+        body.put("eval_duration", tokenNanos * settings.responseTokens());
+        return body;
+    }
+
+    private void embed(HttpExchange exchange) throws IOException {
+        JsonNode request = readJson(exchange);
+        List<String> inputs = new ArrayList<>();
+        JsonNode input = request.path("input");
+        if (input.isArray()) {
+            input.forEach(node -> inputs.add(node.asText()));
+        } else {
+            inputs.add(input.asText(""));
+        }
+        embedCalls.incrementAndGet();
+        embeddedTexts.addAndGet(inputs.size());
+        sleepMillis(settings.embedLatencyMs());
+
+        List<float[]> embeddings = new ArrayList<>(inputs.size());
+        for (String text : inputs) {
+            embeddings.add(DeterministicEmbeddings.embed(text, settings.dimensions()));
+        }
+        writeJson(exchange, Map.of("model", request.path("model").asText(), "embeddings", embeddings));
+    }
+
+    private void legacyEmbed(HttpExchange exchange) throws IOException {
+        JsonNode request = readJson(exchange);
+        embedCalls.incrementAndGet();
+        embeddedTexts.incrementAndGet();
+        sleepMillis(settings.embedLatencyMs());
+        writeJson(exchange, Map.of("embedding",
+                DeterministicEmbeddings.embed(request.path("prompt").asText(""), settings.dimensions())));
+    }
+
+    private void tags(HttpExchange exchange) throws IOException {
+        writeJson(exchange, Map.of("models", List.of(
+                Map.of("name", "llama3.2:latest", "model", "llama3.2:latest"),
+                Map.of("name", "jina/jina-embeddings-v2-base-de:latest", "model", "jina/jina-embeddings-v2-base-de:latest"))));
+    }
+
+    private void page(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        int page;
+        try {
+            page = Integer.parseInt(path.substring("/pages/".length()));
+        } catch (NumberFormatException e) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        byte[] html = LoadTestCorpus.htmlPage(page, settings.pageCount()).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(200, html.length);
+        exchange.getResponseBody().write(html);
+    }
+
+    private static String token(int i) {
+        String word = LoadTestCorpus.WORDS[i % LoadTestCorpus.WORDS.length];
+        return i == 0 ? word : " " + word.toLowerCase();
+    }
+
+    private static JsonNode readJson(HttpExchange exchange) throws IOException {
+        return MAPPER.readTree(exchange.getRequestBody().readAllBytes());
+    }
+
+    private static void writeJson(HttpExchange exchange, Object body) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sleepMillis(long millis) {
+        sleepNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static void sleepNanos(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package de.deltatree.tools.rag.loadtest;
+
+import de.deltatree.tools.rag.model.DocumentEmbedding;
+import de.deltatree.tools.rag.repository.DocumentEmbeddingRepository;
+import de.deltatree.tools.rag.repository.DocumentEmbeddingRepositoryCustom.StoredFingerprint;
+import de.deltatree.tools.rag.vectorstore.SimHash;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Exact, brute-force in-memory replacement for the pgvector-backed repository.
+ * Only the methods the application calls are implemented; everything else throws,
+ * so a new repository call in the application shows up immediately in the harness.
+ */
+public class InMemoryDocumentEmbeddingRepository implements InvocationHandler {
+
+    private final List<DocumentEmbedding> rows = new ArrayList<>();
+    private final Set<String> collections = new TreeSet<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong ids = new AtomicLong();
+
+    public static DocumentEmbeddingRepository create() {
+        return (DocumentEmbeddingRepository) Proxy.newProxyInstance(
+                DocumentEmbeddingRepository.class.getClassLoader(),
+                new Class<?>[]{DocumentEmbeddingRepository.class},
+                new InMemoryDocumentEmbeddingRepository());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "save" -> save((DocumentEmbedding) args[0]);
+            case "saveAll" -> {
+                List<DocumentEmbedding> saved = new ArrayList<>();
+                ((Iterable<DocumentEmbedding>) args[0]).forEach(row -> saved.add(save(row)));
+                yield saved;
+            }
+            case "count" -> read(() -> (long) rows.size());
+            case "findById" -> read(() -> rows.stream().filter(row -> row.getId().equals(args[0])).findFirst());
+            case "deleteById" -> {
+                write(() -> rows.removeIf(row -> row.getId().equals(args[0])));
+                yield null;
+            }
+            case "findNearestNeighbors" -> nearest((float[]) args[0], null, (Integer) args[1], -1);
+            case "findNearestNeighborsWithThreshold" ->
+                    nearest((float[]) args[0], null, (Integer) args[1], (Double) args[2]);
+            case "searchNearest" -> {
+                if (args[4] != null) {
+                    throw new UnsupportedOperationException("Metadata filters are not supported by the in-memory repository");
+                }
+                double threshold = (Double) args[3];
+                yield nearest((float[]) args[0], (String) args[1], (Integer) args[2], threshold > 0 ? threshold : -1);
+            }
+            case "explainNearest" -> List.of("In-memory scan (no query plan)");
+            case "createCollectionIfMissing" -> {
+                write(() -> collections.add((String) args[0]));
+                yield null;
+            }
+            case "dropCollection" -> {
+                write(() -> {
+                    collections.remove((String) args[0]);
+                    rows.removeIf(row -> Objects.equals(row.getCollection(), args[0]));
+                });
+                yield null;
+            }
+            case "findCollections" -> read(() -> List.copyOf(collections));
+            case "findFingerprintCandidates" -> fingerprintCandidates((String) args[0], (Collection<Long>) args[1]);
+            case "addDuplicateSource" -> {
+                write(() -> rows.stream()
+                        .filter(row -> row.getId().equals(args[0]) && Objects.equals(row.getCollection(), args[1]))
+                        .forEach(row -> {
+                            List<Object> alsoIn = new ArrayList<>((List<Object>) row.getMetadata().getOrDefault("also_in", List.of()));
+                            if (!alsoIn.contains(args[2])) {
+                                alsoIn.add(args[2]);
+                            }
+                            row.getMetadata().put("also_in", alsoIn);
+                        }));
+                yield null;
+            }
+            case "countByCollection" -> read(() -> rows.stream()
+                    .filter(row -> Objects.equals(row.getCollection(), args[0])).count());
+            case "findByCollectionOrderByCreatedAtDesc" -> read(() -> rows.stream()
+                    .filter(row -> Objects.equals(row.getCollection(), args[0]))
+                    .sorted(Comparator.comparing(DocumentEmbedding::getCreatedAt).reversed()).toList());
+            case "deleteAllById" -> {
+                Set<Object> ids = new HashSet<>();
+                ((Iterable<?>) args[0]).forEach(ids::add);
+                write(() -> rows.removeIf(row -> ids.contains(row.getId())));
+                yield null;
+            }
+            case "findByFileNameAndCollection" -> read(() -> rows.stream()
+                    .filter(row -> Objects.equals(row.getFileName(), args[0]))
+                    .filter(row -> Objects.equals(row.getCollection(), args[1])).toList());
+            case "findByFileName" -> read(() -> rows.stream()
+                    .filter(row -> Objects.equals(row.getFileName(), args[0])).toList());
+            case "countByFileName" -> read(() -> rows.stream()
+                    .filter(row -> Objects.equals(row.getFileName(), args[0])).count());
+            case "findDistinctFileNames" -> read(() -> rows.stream()
+                    .map(DocumentEmbedding::getFileName).distinct().toList());
+            case "findAllOrderByCreatedAtDesc", "findAll" -> read(() -> rows.stream()
+                    .sorted(Comparator.comparing(DocumentEmbedding::getCreatedAt).reversed()).toList());
+            case "toString" -> "InMemoryDocumentEmbeddingRepository";
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            default -> throw new UnsupportedOperationException(
+                    "Not supported by the in-memory repository: " + method.getName());
+        };
+    }
+
+    private DocumentEmbedding save(DocumentEmbedding row) {
+        if (row.getId() == null) {
+            row.setId(ids.incrementAndGet());
+        }
+        if (row.getCreatedAt() == null) {
+            row.setCreatedAt(LocalDateTime.now());
+        }
+        write(() -> rows.add(row));
+        return row;
+    }
+
+    private List<StoredFingerprint> fingerprintCandidates(String collection, Collection<Long> fingerprints) {
+        Set<Integer> bands = new HashSet<>();
+        for (long fingerprint : fingerprints) {
+            for (int band = 0; band < SimHash.BANDS; band++) {
+                bands.add(band << 16 | SimHash.band(fingerprint, band));
+            }
+        }
+        return read(() -> rows.stream()
+                .filter(row -> collection.equals(row.getCollection()) && row.getSimhash() != null)
+                .filter(row -> {
+                    for (int band = 0; band < SimHash.BANDS; band++) {
+                        if (bands.contains(band << 16 | SimHash.band(row.getSimhash(), band))) {
+                            return true;
+                        }
+                    }
+                    return false;
+                })
+                .map(row -> new StoredFingerprint(row.getId(), row.getFileName(), row.getSimhash()))
+                .toList());
+    }
+
+    private List<DocumentEmbedding> nearest(float[] query, String collection, int k, double threshold) {
+        record Scored(DocumentEmbedding row, double similarity) {
+        }
+        return read(() -> rows.stream()
+                .filter(row -> collection == null || collection.equals(row.getCollection()))
+                .map(row -> new Scored(row, DeterministicEmbeddings.cosineSimilarity(query, row.getEmbedding().toArray())))
+                .filter(scored -> scored.similarity() >= threshold)
+                .sorted(Comparator.comparingDouble(Scored::similarity).reversed())
+                .limit(k)
+                .map(Scored::row)
+                .toList());
+    }
+
+    private <T> T read(Supplier<T> action) {
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Runnable action) {
+        lock.writeLock().lock();
+        try {
+            action.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
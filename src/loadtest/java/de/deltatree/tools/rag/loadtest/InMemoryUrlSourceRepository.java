@@ -0,0 +1,78 @@
+package de.deltatree.tools.rag.loadtest;
+
+import de.deltatree.tools.rag.model.UrlSource;
+import de.deltatree.tools.rag.repository.UrlSourceRepository;
+import org.springframework.data.domain.Pageable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory replacement for the URL source registry, same approach as
+ * {@link InMemoryDocumentEmbeddingRepository}.
+ */
+public class InMemoryUrlSourceRepository implements InvocationHandler {
+
+    private final Map<Long, UrlSource> sources = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    public static UrlSourceRepository create() {
+        return (UrlSourceRepository) Proxy.newProxyInstance(
+                UrlSourceRepository.class.getClassLoader(),
+                new Class<?>[]{UrlSourceRepository.class},
+                new InMemoryUrlSourceRepository());
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "save" -> {
+                UrlSource source = (UrlSource) args[0];
+                if (source.getId() == null) {
+                    source.setId(ids.incrementAndGet());
+                }
+                sources.put(source.getId(), source);
+                yield source;
+            }
+            case "findById" -> Optional.ofNullable(sources.get(args[0]));
+            case "findByUrlAndCollection" -> sources.values().stream()
+                    .filter(source -> source.getUrl().equals(args[0]))
+                    .filter(source -> source.getCollection().equals(args[1]))
+                    .findFirst();
+            case "findDueForRefresh" -> {
+                LocalDateTime cutoff = (LocalDateTime) args[0];
+                yield sources.values().stream()
+                        .filter(source -> source.getLastCheckedAt() == null || source.getLastCheckedAt().isBefore(cutoff))
+                        .sorted(Comparator.comparing(UrlSource::getLastCheckedAt,
+                                Comparator.nullsFirst(Comparator.naturalOrder())))
+                        .limit(((Pageable) args[1]).getPageSize())
+                        .toList();
+            }
+            case "findAllOrderByCollectionAndUrl" -> sources.values().stream()
+                    .sorted(Comparator.comparing(UrlSource::getCollection).thenComparing(UrlSource::getUrl))
+                    .toList();
+            case "deleteByCollection" -> {
+                List<Long> removed = sources.values().stream()
+                        .filter(source -> Objects.equals(source.getCollection(), args[0]))
+                        .map(UrlSource::getId)
+                        .toList();
+                removed.forEach(sources::remove);
+                yield (long) removed.size();
+            }
+            case "toString" -> "InMemoryUrlSourceRepository";
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            default -> throw new UnsupportedOperationException(
+                    "Not supported by the in-memory repository: " + method.getName());
+        };
+    }
+}
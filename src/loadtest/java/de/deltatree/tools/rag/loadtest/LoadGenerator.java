@@ -0,0 +1,114 @@
+package de.deltatree.tools.rag.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Closed-loop load generator: a fixed number of workers send requests back to back
+ * until the duration is over, recording the latency of every completed request.
+ */
+public class LoadGenerator {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadGenerator.class);
+
+    public record ScenarioResult(String scenario, int concurrency, long requests, long errors,
+                                 double throughputPerSecond, double p50Ms, double p95Ms,
+                                 double p99Ms, double maxMs) {
+    }
+
+    private final HttpClient client;
+
+    public LoadGenerator() {
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    /**
+     * @param requestFactory builds the n-th request of the run
+     */
+    public ScenarioResult run(String scenario, int concurrency, Duration duration,
+                              IntFunction<HttpRequest> requestFactory) throws InterruptedException {
+        LOG.info("Running scenario '{}' with {} concurrent clients for {}", scenario, concurrency, duration);
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        AtomicLong sequence = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.submit(() -> {
+                while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                    HttpRequest request = requestFactory.apply((int) sequence.getAndIncrement());
+                    long requestStart = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() >= 400) {
+                            errors.incrementAndGet();
+                            LOG.debug("{} request failed with {}: {}", scenario, response.statusCode(), response.body());
+                            continue;
+                        }
+                        latencies.add(System.nanoTime() - requestStart);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                        LOG.debug("{} request failed: {}", scenario, e.getMessage());
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        // In-flight requests may outlive the deadline; give them the usual read timeout
+        if (!workers.awaitTermination(duration.toSeconds() + 180, TimeUnit.SECONDS)) {
+            workers.shutdownNow();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        ScenarioResult result = new ScenarioResult(scenario, concurrency, sorted.length, errors.get(),
+                sorted.length / elapsedSeconds,
+                percentileMs(sorted, 50), percentileMs(sorted, 95), percentileMs(sorted, 99),
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+        LOG.info("Scenario '{}' finished: {}", scenario, result);
+        return result;
+    }
+
+    /**
+     * Nearest-rank percentile over sorted nanosecond latencies
+     */
+    static double percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))] / 1e6;
+    }
+
+    public static String table(List<ScenarioResult> results) {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("%-12s %6s %9s %7s %10s %10s %10s %10s %10s",
+                "scenario", "conc", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (ScenarioResult r : results) {
+            lines.add(String.format("%-12s %6d %9d %7d %10.2f %10.1f %10.1f %10.1f %10.1f",
+                    r.scenario(), r.concurrency(), r.requests(), r.errors(), r.throughputPerSecond(),
+                    r.p50Ms(), r.p95Ms(), r.p99Ms(), r.maxMs()));
+        }
+        return String.join(System.lineSeparator(), lines);
+    }
+}
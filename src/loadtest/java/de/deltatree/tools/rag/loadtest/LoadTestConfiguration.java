@@ -0,0 +1,34 @@
+package de.deltatree.tools.rag.loadtest;
+
+import de.deltatree.tools.rag.repository.DocumentEmbeddingRepository;
+import de.deltatree.tools.rag.repository.UrlSourceRepository;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * Replaces the JPA repositories with in-memory ones. This class only exists on the
+ * loadtest classpath; LoadTestRunner also excludes the DataSource/JPA auto-configurations.
+ */
+@Configuration(proxyBeanMethods = false)
+public class LoadTestConfiguration {
+
+    static final String[] EXCLUDED_AUTO_CONFIGURATIONS = {
+            "org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration",
+            "org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration",
+            "org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration",
+            "org.springframework.boot.autoconfigure.data.jpa.JpaRepositoriesAutoConfiguration"
+    };
+
+    @Bean
+    @Primary
+    DocumentEmbeddingRepository inMemoryDocumentEmbeddingRepository() {
+        return InMemoryDocumentEmbeddingRepository.create();
+    }
+
+    @Bean
+    @Primary
+    UrlSourceRepository inMemoryUrlSourceRepository() {
+        return InMemoryUrlSourceRepository.create();
+    }
+}
@@ -0,0 +1,77 @@
+package de.deltatree.tools.rag.loadtest;
+
+import java.util.Random;
+
+/**
+ * Generated German documents and questions that share vocabulary, so that questions
+ * retrieve context and every chat request goes all the way to generation.
+ */
+public final class LoadTestCorpus {
+
+    static final String[] WORDS = {
+            "Urlaubsanspruch", "Arbeitszeit", "Dienstreise", "Erstattung", "Datenschutz",
+            "Informationssicherheit", "Betriebsvereinbarung", "Krankmeldung", "Genehmigung",
+            "Geschäftsführung", "Abteilung", "Antrag", "Frist", "Werktage", "Verfahren",
+            "Freigabe", "Prüfung", "Dokumentation", "Zuständigkeit", "Vorgesetzte",
+            "Reisekosten", "Homeoffice", "Gleitzeit", "Überstunden", "Schulung"
+    };
+
+    private static final String[] FILLER = {
+            "die", "der", "das", "und", "wird", "ist", "für", "mit", "nach", "gemäß",
+            "innerhalb", "schriftlich", "grundsätzlich", "jeweils", "bei", "durch"
+    };
+
+    private static final String[] QUESTION_TEMPLATES = {
+            "Welche Frist gilt für %s und %s?",
+            "Wer ist für %s bei %s zuständig?",
+            "Wie funktioniert das Verfahren zur %s im Zusammenhang mit %s?",
+            "Was muss ich bei %s und %s beachten?"
+    };
+
+    private LoadTestCorpus() {
+    }
+
+    public static String document(int paragraphs, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        for (int p = 0; p < paragraphs; p++) {
+            text.append(p + 1).append(". ").append(WORDS[random.nextInt(WORDS.length)]).append("\n\n");
+            for (int sentence = 0; sentence < 6; sentence++) {
+                int words = 12 + random.nextInt(10);
+                for (int w = 0; w < words; w++) {
+                    String word = random.nextInt(3) == 0
+                            ? WORDS[random.nextInt(WORDS.length)]
+                            : FILLER[random.nextInt(FILLER.length)];
+                    text.append(w == 0 ? capitalize(word) : word).append(w == words - 1 ? ". " : " ");
+                }
+            }
+            text.append("\n\n");
+        }
+        return text.toString();
+    }
+
+    public static String question(Random random) {
+        String template = QUESTION_TEMPLATES[random.nextInt(QUESTION_TEMPLATES.length)];
+        return String.format(template,
+                WORDS[random.nextInt(WORDS.length)], WORDS[random.nextInt(WORDS.length)]);
+    }
+
+    public static String htmlPage(int page, int pageCount) {
+        StringBuilder html = new StringBuilder("<html><head><title>Wiki Seite ")
+                .append(page).append("</title></head><body><h1>Wiki Seite ").append(page).append("</h1>");
+        for (String paragraph : document(4, page).split("\n\n")) {
+            html.append("<p>").append(paragraph).append("</p>");
+        }
+        html.append("<ul>");
+        for (int link = 1; link <= 3; link++) {
+            int target = (page + link) % pageCount;
+            html.append("<li><a href=\"/pages/").append(target).append("\">Seite ").append(target).append("</a></li>");
+        }
+        html.append("</ul></body></html>");
+        return html.toString();
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
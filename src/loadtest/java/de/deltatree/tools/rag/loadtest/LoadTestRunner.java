@@ -0,0 +1,228 @@
+package de.deltatree.tools.rag.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.deltatree.tools.rag.SpringAiChatRagApplication;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * Self-contained end-to-end load test: starts the fake Ollama server, boots the application
+ * against it with the in-memory repository, and drives /chat, /upload and /process-url.
+ * The crawl scenario runs one /crawl job over the fake server's linked /pages.
+ * <p>
+ * Arguments (all optional, {@code --name=value}): concurrency, duration (seconds),
+ * scenarios (comma separated: upload,url,chat,crawl), first-token-ms, tokens-per-second,
+ * response-tokens, embed-ms, seed-documents, crawl-delay-ms, output (JSON report path).
+ */
+public class LoadTestRunner {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTestRunner.class);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "30")));
+        List<String> scenarios = List.of(options.getOrDefault("scenarios", "upload,url,chat").split(","));
+        Path output = Path.of(options.getOrDefault("output", "build/loadtest/results.json"));
+        FakeOllamaServer.Settings defaults = FakeOllamaServer.Settings.defaults();
+        FakeOllamaServer.Settings settings = new FakeOllamaServer.Settings(
+                Long.parseLong(options.getOrDefault("first-token-ms", String.valueOf(defaults.firstTokenLatencyMs()))),
+                Double.parseDouble(options.getOrDefault("tokens-per-second", String.valueOf(defaults.tokensPerSecond()))),
+                Integer.parseInt(options.getOrDefault("response-tokens", String.valueOf(defaults.responseTokens()))),
+                Long.parseLong(options.getOrDefault("embed-ms", String.valueOf(defaults.embedLatencyMs()))),
+                defaults.dimensions(),
+                defaults.pageCount());
+        int seedDocuments = Integer.parseInt(options.getOrDefault("seed-documents", "5"));
+
+        try (FakeOllamaServer ollama = new FakeOllamaServer(settings).start();
+             ConfigurableApplicationContext app = startApplication(ollama.baseUrl(), options)) {
+            int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+            String baseUrl = "http://127.0.0.1:" + port;
+            LOG.info("Application under test listening on {}", baseUrl);
+
+            seedCorpus(baseUrl, seedDocuments);
+
+            LoadGenerator generator = new LoadGenerator();
+            List<LoadGenerator.ScenarioResult> results = new ArrayList<>();
+            for (String scenario : scenarios) {
+                results.add(switch (scenario.trim()) {
+                    case "chat" -> generator.run("chat", concurrency, duration, chatRequests(baseUrl));
+                    case "upload" -> generator.run("upload", concurrency, duration, uploadRequests(baseUrl));
+                    case "url" -> generator.run("url", concurrency, duration,
+                            urlRequests(baseUrl, ollama.baseUrl(), settings.pageCount()));
+                    case "crawl" -> runCrawl(baseUrl, ollama.baseUrl(), settings.pageCount(), concurrency);
+                    default -> throw new IllegalArgumentException("Unknown scenario: " + scenario);
+                });
+            }
+
+            System.out.println(LoadGenerator.table(results));
+            writeReport(output, options, settings, results, ollama.stats());
+        }
+    }
+
+    static ConfigurableApplicationContext startApplication(String ollamaUrl, Map<String, String> options) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.autoconfigure.exclude", String.join(",", LoadTestConfiguration.EXCLUDED_AUTO_CONFIGURATIONS));
+        properties.put("spring.ai.ollama.base-url", ollamaUrl);
+        properties.put("spring.ai.embedding.ollama.base-url", ollamaUrl);
+        properties.put("rag.vectorstore.schema.initialize", "false");
+        properties.put("rag.snapshot.enabled", "false");
+        properties.put("rag.reembed.enabled", "false");
+        properties.put("rag.sources.refresh.enabled", "false");
+        properties.put("rag.crawler.per-host-delay-ms", options.getOrDefault("crawl-delay-ms", "0"));
+        properties.put("rag.crawler.max-concurrent-fetches", options.getOrDefault("concurrency", "16"));
+        // Hashed bag-of-words similarities are lower than real embedding similarities
+        properties.put("rag.vectorstore.similarity-threshold", options.getOrDefault("similarity-threshold", "0.05"));
+        properties.put("logging.level.de.deltatree.tools.rag", options.getOrDefault("log-level", "WARN"));
+
+        // As command line arguments, so they override application.properties (default properties would not)
+        String[] args = properties.entrySet().stream()
+                .map(entry -> "--" + entry.getKey() + "=" + entry.getValue())
+                .toArray(String[]::new);
+        return new SpringApplicationBuilder(SpringAiChatRagApplication.class, LoadTestConfiguration.class)
+                .run(args);
+    }
+
+    private static void seedCorpus(String baseUrl, int documents) throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        for (int i = 0; i < documents; i++) {
+            HttpResponse<String> response = client.send(uploadRequest(baseUrl, i), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() >= 400) {
+                throw new IllegalStateException("Seeding the corpus failed: " + response.body());
+            }
+        }
+        LOG.info("Seeded corpus with {} documents", documents);
+    }
+
+    /**
+     * One crawl over all pages. Requests are fetched pages, throughput is pages per second;
+     * the crawl's wall time is reported as max, per-page latencies are not visible from outside.
+     */
+    @SuppressWarnings("unchecked")
+    private static LoadGenerator.ScenarioResult runCrawl(String baseUrl, String pagesBaseUrl, int pageCount,
+                                                         int concurrency) throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, Object> crawl = Map.of(
+                "seeds", List.of(pagesBaseUrl + "/pages/0"),
+                "maxDepth", pageCount,
+                "maxPages", pageCount,
+                "collection", "crawl");
+        long start = System.nanoTime();
+        HttpResponse<String> started = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/crawl"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json(crawl)))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        if (started.statusCode() != 202) {
+            throw new IllegalStateException("Starting the crawl failed: " + started.body());
+        }
+        String id = (String) mapper.readValue(started.body(), Map.class).get("id");
+
+        Map<String, Object> progress;
+        do {
+            Thread.sleep(200);
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/crawl/" + id))
+                    .GET().build(), HttpResponse.BodyHandlers.ofString());
+            progress = mapper.readValue(response.body(), Map.class);
+        } while ("RUNNING".equals(progress.get("status")));
+
+        double elapsedMs = (System.nanoTime() - start) / 1e6;
+        long fetched = ((Number) progress.get("fetched")).longValue();
+        long failed = ((Number) progress.get("failed")).longValue();
+        LOG.info("Crawl finished: {}", progress);
+        return new LoadGenerator.ScenarioResult("crawl", concurrency, fetched, failed,
+                fetched / (elapsedMs / 1000), 0, 0, 0, elapsedMs);
+    }
+
+    private static IntFunction<HttpRequest> chatRequests(String baseUrl) {
+        return n -> {
+            String question = LoadTestCorpus.question(new Random(n));
+            return HttpRequest.newBuilder(URI.create(baseUrl + "/chat"))
+                    .timeout(Duration.ofMinutes(3))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(json(Map.of("question", question))))
+                    .build();
+        };
+    }
+
+    private static IntFunction<HttpRequest> uploadRequests(String baseUrl) {
+        return n -> uploadRequest(baseUrl, 1000 + n);
+    }
+
+    private static IntFunction<HttpRequest> urlRequests(String baseUrl, String pagesBaseUrl, int pageCount) {
+        return n -> HttpRequest.newBuilder(URI.create(baseUrl + "/process-url"))
+                .timeout(Duration.ofMinutes(3))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json(Map.of("url", pagesBaseUrl + "/pages/" + (n % pageCount)))))
+                .build();
+    }
+
+    private static HttpRequest uploadRequest(String baseUrl, int documentNumber) {
+        String boundary = "----loadtest" + UUID.randomUUID();
+        // Unique names: UploadController stores the upload under its original file name
+        String fileName = "handbuch-" + documentNumber + "-" + UUID.randomUUID() + ".txt";
+        String body = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: text/plain; charset=UTF-8\r\n\r\n"
+                + LoadTestCorpus.document(12, documentNumber) + "\r\n"
+                + "--" + boundary + "--\r\n";
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/upload"))
+                .timeout(Duration.ofMinutes(3))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build();
+    }
+
+    private static void writeReport(Path output, Map<String, String> options, FakeOllamaServer.Settings settings,
+                                    List<LoadGenerator.ScenarioResult> results, Map<String, Long> ollamaStats) throws Exception {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("options", options);
+        report.put("fakeOllama", settings);
+        report.put("fakeOllamaStats", ollamaStats);
+        report.put("results", results);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(output.toFile(), report);
+        LOG.info("Wrote load test report to {}", output.toAbsolutePath());
+    }
+
+    private static String json(Object value) {
+        try {
+            return new ObjectMapper().writeValueAsString(value);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        return options;
+    }
+}
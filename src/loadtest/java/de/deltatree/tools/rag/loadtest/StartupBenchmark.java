@@ -0,0 +1,126 @@
+package de.deltatree.tools.rag.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Starts the application from build/startup (see the startupJar task) several times per JVM
+ * configuration and reports the "process running for" time Spring Boot logs once the
+ * application is started: JVM start, class loading, context refresh and Tomcat start.
+ * Configurations: default, cds (needs app.jsa from cdsArchive), aot and cds-aot (need a
+ * -PstartupOptimized build). The application runs without Postgres and Ollama.
+ * <p>
+ * Options (--key=value): runs (default 5), modes (comma separated), app-dir, java, aot,
+ * app-args (space separated application arguments), output.
+ */
+public class StartupBenchmark {
+    private static final Logger LOG = LoggerFactory.getLogger(StartupBenchmark.class);
+    private static final Pattern STARTED = Pattern.compile("Started \\S+ in ([\\d.]+) seconds \\(process running for ([\\d.]+)\\)");
+
+    public record ModeResult(String mode, List<Double> seconds, double min, double median, double gainPercent) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadTestRunner.parseArgs(args);
+        int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+        File appDir = new File(options.getOrDefault("app-dir", "build/startup"));
+        String java = options.getOrDefault("java", Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        boolean aot = Boolean.parseBoolean(options.getOrDefault("aot", "false"));
+        boolean cds = new File(appDir, "app.jsa").isFile();
+        List<String> appArgs = options.getOrDefault("app-args", "").isBlank()
+                ? List.of()
+                : Arrays.asList(options.get("app-args").trim().split("\\s+"));
+
+        List<String> modes = new ArrayList<>();
+        for (String mode : options.getOrDefault("modes", "default,cds,aot,cds-aot").split(",")) {
+            mode = mode.trim();
+            if (mode.contains("cds") && !cds) {
+                LOG.warn("Skipping {}: no app.jsa in {}, run the cdsArchive task first", mode, appDir);
+            } else if (mode.contains("aot") && !aot) {
+                LOG.warn("Skipping {}: build with -PstartupOptimized to include the AOT output", mode);
+            } else {
+                modes.add(mode);
+            }
+        }
+
+        List<ModeResult> results = new ArrayList<>();
+        double baseline = 0;
+        for (String mode : modes) {
+            List<String> command = new ArrayList<>(List.of(java));
+            if (mode.contains("cds")) {
+                command.add("-XX:SharedArchiveFile=app.jsa");
+            }
+            if (mode.contains("aot")) {
+                command.add("-Dspring.aot.enabled=true");
+            }
+            command.addAll(List.of("-jar", "app.jar"));
+            command.addAll(appArgs);
+
+            // One discarded run to warm the OS page cache
+            startOnce(command, appDir);
+            List<Double> seconds = new ArrayList<>();
+            for (int i = 0; i < runs; i++) {
+                seconds.add(startOnce(command, appDir));
+            }
+            List<Double> sorted = seconds.stream().sorted().toList();
+            double median = sorted.get(sorted.size() / 2);
+            if (mode.equals("default")) {
+                baseline = median;
+            }
+            double gain = baseline > 0 ? 100.0 * (baseline - median) / baseline : 0;
+            results.add(new ModeResult(mode, seconds, sorted.get(0), median, gain));
+            LOG.info("{}: median {} s, min {} s ({} % faster than default)", mode, median, sorted.get(0),
+                    String.format("%.1f", gain));
+        }
+
+        Path output = Path.of(options.getOrDefault("output", "build/startup/results.json"));
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("runs", runs);
+        report.put("java", java);
+        report.put("results", results);
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(output.toFile(), report);
+        LOG.info("Wrote startup benchmark report to {}", output.toAbsolutePath());
+    }
+
+    private static double startOnce(List<String> command, File appDir) throws Exception {
+        Process process = new ProcessBuilder(command)
+                .directory(appDir)
+                .redirectErrorStream(true)
+                .start();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = STARTED.matcher(line);
+                if (matcher.find()) {
+                    return Double.parseDouble(matcher.group(2));
+                }
+            }
+            throw new IllegalStateException("Application exited with " + process.waitFor() + " before it started");
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+}
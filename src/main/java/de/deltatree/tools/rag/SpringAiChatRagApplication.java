@@ -1,14 +1,14 @@
 package de.deltatree.tools.rag;
 
-import org.springframework.ai.autoconfigure.openai.OpenAiAutoConfiguration;
 import org.springframework.boot.SpringApplication;
-import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-@SpringBootApplication
-@EnableAutoConfiguration(exclude = { OpenAiAutoConfiguration.class })
+// Answers are generated by OllamaService, Spring AI's ChatClient is not used
+@SpringBootApplication(excludeName = "org.springframework.ai.autoconfigure.chat.client.ChatClientAutoConfiguration")
+@EnableScheduling
 public class SpringAiChatRagApplication extends SpringBootServletInitializer {
 
     @Override
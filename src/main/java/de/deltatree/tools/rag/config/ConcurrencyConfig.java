@@ -0,0 +1,123 @@
+package de.deltatree.tools.rag.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestClientCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threading for blocking I/O (Ollama and JDBC calls). With spring.threads.virtual.enabled=true
+ * Spring Boot runs servlet requests on virtual threads and the ingestion workers below do the same.
+ */
+@Configuration
+public class ConcurrencyConfig {
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyConfig.class);
+
+    /**
+     * Executor for the ingestion fan-out. Virtual threads are unbounded, so callers limit
+     * their own parallelism; in platform mode the pool size is the limit.
+     */
+    @Bean(destroyMethod = "shutdown")
+    ExecutorService ragIoExecutor(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${rag.ingest.parallelism:4}") int parallelism) {
+        if (virtualThreads) {
+            LOG.info("Using virtual threads for RAG I/O workers");
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("rag-io-", 0).factory());
+        }
+        LOG.info("Using {} platform threads for RAG I/O workers", parallelism);
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "rag-io-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(parallelism, factory);
+    }
+
+    /**
+     * Pool for crawler page tasks. Its size is the number of concurrent fetches across all crawls.
+     * Separate from ragIoExecutor: a page task waits for vectorStore.add, which runs on ragIoExecutor.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    ScheduledExecutorService crawlerExecutor(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${rag.crawler.max-concurrent-fetches:8}") int maxConcurrentFetches) {
+        ThreadFactory factory = virtualThreads
+                ? Thread.ofVirtual().name("rag-crawler-", 0).factory()
+                : Thread.ofPlatform().name("rag-crawler-", 0).daemon().factory();
+        return Executors.newScheduledThreadPool(maxConcurrentFetches, factory);
+    }
+
+    /**
+     * Runs streamed answers (/chat/stream) off the servlet thread. In platform mode the pool size
+     * caps concurrent streams; more wait in its queue, the Ollama scheduler limits generation anyway.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    ExecutorService chatExecutor(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${rag.chat.stream.threads:64}") int threads) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("rag-chat-", 0).factory());
+        }
+        return Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("rag-chat-", 0).daemon().factory());
+    }
+
+    /**
+     * Generates the answers shared by identical questions, so that no caller's client writes run
+     * on the thread reading from Ollama. Not bounded: each task has a request thread waiting for
+     * it, and the Ollama scheduler limits generation.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    ExecutorService sharedAnswerExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("rag-shared-answer-", 0).factory());
+        }
+        return Executors.newCachedThreadPool(Thread.ofPlatform().name("rag-shared-answer-", 0).daemon().factory());
+    }
+
+    /**
+     * Sends the keep-alive comments of open answer streams; a failed write is how a closed tab shows.
+     * A write to a slow client blocks one of the threads until it completes or fails, the other
+     * streams keep theirs; a stream's next keep-alive is only scheduled after its last one.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    ScheduledExecutorService chatHeartbeatExecutor(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${rag.chat.stream.heartbeat-threads:4}") int threads) {
+        ThreadFactory factory = virtualThreads
+                ? Thread.ofVirtual().name("rag-chat-heartbeat-", 0).factory()
+                : Thread.ofPlatform().name("rag-chat-heartbeat-", 0).daemon().factory();
+        return Executors.newScheduledThreadPool(Math.max(1, threads), factory);
+    }
+
+    /**
+     * The JDK HttpClient instead of the HttpURLConnection default for Spring AI's Ollama client.
+     * HttpURLConnection blocks inside synchronized code and pins the carrier thread of a virtual thread.
+     */
+    @Bean
+    RestClientCustomizer jdkHttpClientRestClientCustomizer() {
+        return builder -> builder.requestFactory(jdkRequestFactory(Duration.ofSeconds(10), Duration.ofMinutes(2)));
+    }
+
+    public static JdkClientHttpRequestFactory jdkRequestFactory(Duration connectTimeout, Duration readTimeout) {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .build();
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(httpClient);
+        factory.setReadTimeout(readTimeout);
+        return factory;
+    }
+}
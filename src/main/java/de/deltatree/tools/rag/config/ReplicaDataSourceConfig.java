@@ -0,0 +1,85 @@
+package de.deltatree.tools.rag.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Optional read replica. Writes use spring.datasource (pool settings under spring.datasource.hikari),
+ * read-only transactions use rag.datasource.replica (pool settings under rag.datasource.replica.hikari).
+ * Each pool has its own name, so Hikari metrics are tagged pool=rag-primary and pool=rag-replica.
+ */
+@Configuration
+@ConditionalOnProperty(name = "rag.datasource.replica.enabled", havingValue = "true")
+public class ReplicaDataSourceConfig {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicaDataSourceConfig.class);
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("rag-primary");
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("rag.datasource.replica.hikari")
+    HikariDataSource replicaDataSource(
+            DataSourceProperties properties,
+            @Value("${rag.datasource.replica.url}") String url,
+            @Value("${rag.datasource.replica.username:${spring.datasource.username}}") String username,
+            @Value("${rag.datasource.replica.password:${spring.datasource.password}}") String password) {
+        HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .driverClassName(properties.determineDriverClassName())
+                .url(url)
+                .username(username)
+                .password(password)
+                .build();
+        dataSource.setPoolName("rag-replica");
+        dataSource.setReadOnly(true);
+        LOG.info("Read replica enabled at {}", url);
+        return dataSource;
+    }
+
+    @Bean
+    ReplicaRoutingDataSource replicaRoutingDataSource(
+            @Qualifier("primaryDataSource") DataSource primary,
+            @Qualifier("replicaDataSource") DataSource replica,
+            MeterRegistry meterRegistry) {
+        return new ReplicaRoutingDataSource(primary, replica, meterRegistry);
+    }
+
+    /**
+     * The data source JPA uses. The lazy proxy delays fetching a connection until the first
+     * statement, when the routing data source can see whether the transaction is read-only.
+     */
+    @Bean
+    @Primary
+    DataSource dataSource(ReplicaRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    @Bean
+    ReplicaLagMonitor replicaLagMonitor(
+            @Qualifier("primaryDataSource") DataSource primary,
+            @Qualifier("replicaDataSource") DataSource replica,
+            ReplicaRoutingDataSource routingDataSource,
+            @Value("${rag.datasource.replica.max-lag-ms:5000}") long maxLagMillis,
+            MeterRegistry meterRegistry) {
+        return new ReplicaLagMonitor(primary, replica, routingDataSource, maxLagMillis, meterRegistry);
+    }
+}
@@ -0,0 +1,74 @@
+package de.deltatree.tools.rag.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Measures how far the replica is behind the primary and takes it out of the read path
+ * while the lag exceeds rag.datasource.replica.max-lag-ms or the replica is unreachable.
+ * A replica that has replayed the primary's current WAL position has no lag, even when
+ * the last replayed transaction is old because nothing was written.
+ */
+public class ReplicaLagMonitor {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+    private final JdbcTemplate primary;
+    private final JdbcTemplate replica;
+    private final ReplicaRoutingDataSource routingDataSource;
+    private final long maxLagMillis;
+    private volatile double lagMillis;
+
+    public ReplicaLagMonitor(DataSource primary, DataSource replica, ReplicaRoutingDataSource routingDataSource,
+                             long maxLagMillis, MeterRegistry meterRegistry) {
+        this.primary = new JdbcTemplate(primary);
+        this.replica = new JdbcTemplate(replica);
+        this.routingDataSource = routingDataSource;
+        this.maxLagMillis = maxLagMillis;
+        Gauge.builder("rag.datasource.replica.lag", this, monitor -> monitor.lagMillis)
+                .description("Replication lag of the read replica")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("rag.datasource.replica.usable", routingDataSource, ds -> ds.isReplicaUsable() ? 1 : 0)
+                .description("Whether reads are routed to the replica (1) or fall back to the primary (0)")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${rag.datasource.replica.lag-check-interval-ms:5000}")
+    public void checkLag() {
+        try {
+            String primaryLsn = primary.queryForObject("SELECT pg_current_wal_lsn()::text", String.class);
+            Map<String, Object> state = replica.queryForMap(
+                    "SELECT pg_wal_lsn_diff(CAST(? AS pg_lsn), pg_last_wal_replay_lsn()) AS behind_bytes, "
+                            + "EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 AS behind_ms",
+                    primaryLsn);
+            Number behindBytes = (Number) state.get("behind_bytes");
+            Number behindMillis = (Number) state.get("behind_ms");
+            // NULLs: the "replica" is not in recovery (e.g. a second connection to the primary)
+            lagMillis = behindBytes == null || behindBytes.longValue() <= 0 || behindMillis == null
+                    ? 0
+                    : behindMillis.doubleValue();
+            update(lagMillis <= maxLagMillis, "lag " + Math.round(lagMillis) + " ms");
+        } catch (Exception e) {
+            lagMillis = Double.NaN;
+            update(false, "lag check failed: " + e.getMessage());
+        }
+    }
+
+    private void update(boolean usable, String reason) {
+        if (usable != routingDataSource.isReplicaUsable()) {
+            if (usable) {
+                LOG.info("Routing reads to the replica again ({})", reason);
+            } else {
+                LOG.warn("Routing reads to the primary, replica is stale or unavailable ({})", reason);
+            }
+        }
+        routingDataSource.setReplicaUsable(usable);
+    }
+}
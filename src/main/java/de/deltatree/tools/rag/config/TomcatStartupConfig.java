@@ -0,0 +1,45 @@
+package de.deltatree.tools.rag.config;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Wrapper;
+import org.apache.tomcat.util.scan.StandardJarScanFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Keeps the JSP engine out of the embedded Tomcat startup. Jasper scans every jar on the
+ * classpath for tag library descriptors, although only a few jars contain the taglibs the
+ * views use, and the JSP servlet is initialized eagerly. Only the listed jars are scanned,
+ * and the JSP servlet is initialized by the first JSP request. An external servlet
+ * container deploying the war is not affected.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "rag.startup.lazy-jsp", havingValue = "true", matchIfMissing = true)
+public class TomcatStartupConfig {
+    private static final Logger LOG = LoggerFactory.getLogger(TomcatStartupConfig.class);
+
+    @Bean
+    WebServerFactoryCustomizer<TomcatServletWebServerFactory> lazyJspCustomizer(
+            @Value("${rag.startup.tld-scan-jars:jakarta.servlet.jsp.jstl-*.jar,spring-security-taglibs-*.jar,spring-webmvc-*.jar}")
+            String tldScanJars) {
+        return factory -> factory.addContextCustomizers(context -> {
+            // Runs after Spring Boot configured its own skip patterns, so this filter replaces them
+            StandardJarScanFilter filter = new StandardJarScanFilter();
+            filter.setTldSkip("*.jar");
+            filter.setTldScan(tldScanJars);
+            context.getJarScanner().setJarScanFilter(filter);
+
+            Container jsp = context.findChild("jsp");
+            if (jsp instanceof Wrapper wrapper) {
+                wrapper.setLoadOnStartup(-1);
+            }
+            LOG.info("JSP servlet initialized on first use, TLDs scanned in {}", tldScanJars);
+        });
+    }
+}
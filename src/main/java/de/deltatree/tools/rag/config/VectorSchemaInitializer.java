@@ -0,0 +1,174 @@
+package de.deltatree.tools.rag.config;
+
+import de.deltatree.tools.rag.model.CollectionName;
+import de.deltatree.tools.rag.repository.DocumentEmbeddingRepositoryImpl;
+import de.deltatree.tools.rag.vectorstore.SimHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Schema that Hibernate's ddl-auto does not manage. Runs after Hibernate has updated the table.
+ * <ul>
+ *     <li>Converts the embeddings table, once, into a table list-partitioned by collection,
+ *     with one partition per collection (registered in document_collections)</li>
+ *     <li>Creates the HNSW index for the embeddings, a GIN index for metadata containment
+ *     filters, a b-tree index on file_name and one expression index per SimHash band. Indexes
+ *     on the partitioned table are created for every partition, including partitions added later</li>
+ *     <li>Computes the SimHash of chunks stored before near-duplicate detection existed</li>
+ * </ul>
+ */
+@Component
+@DependsOn("entityManagerFactory")
+@ConditionalOnProperty(name = "rag.vectorstore.schema.initialize", havingValue = "true", matchIfMissing = true)
+public class VectorSchemaInitializer implements InitializingBean {
+    private static final Logger LOG = LoggerFactory.getLogger(VectorSchemaInitializer.class);
+    static final String TABLE = "document_embeddings_ollama";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int hnswM;
+    private final int hnswEfConstruction;
+    private final int dedupMinWords;
+
+    public VectorSchemaInitializer(JdbcTemplate jdbcTemplate,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${rag.vectorstore.hnsw.m:16}") int hnswM,
+                                   @Value("${rag.vectorstore.hnsw.ef-construction:64}") int hnswEfConstruction,
+            @Value("${rag.ingest.dedup.min-words:20}") int dedupMinWords) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.hnswM = hnswM;
+        this.hnswEfConstruction = hnswEfConstruction;
+        this.dedupMinWords = dedupMinWords;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS document_collections ("
+                + "name varchar(48) PRIMARY KEY, "
+                + "partition_name varchar(63) NOT NULL UNIQUE, "
+                + "created_at timestamptz NOT NULL DEFAULT now())");
+        String kind = jdbcTemplate.queryForObject(
+                "SELECT relkind::text FROM pg_class WHERE oid = to_regclass(?)", String.class, TABLE);
+        if ("r".equals(kind)) {
+            transactionTemplate.executeWithoutResult(status -> migrateToPartitionedTable());
+        }
+
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ALTER COLUMN metadata SET DEFAULT '{}'::jsonb");
+        int backfilled = jdbcTemplate.update("UPDATE " + TABLE + " SET metadata = '{}'::jsonb WHERE metadata IS NULL");
+        if (backfilled > 0) {
+            LOG.info("Initialized empty metadata for {} existing chunks", backfilled);
+        }
+
+        createIndex(TABLE + "_metadata_idx", "USING gin (metadata jsonb_path_ops)");
+        createIndex(TABLE + "_file_name_idx", "(file_name)");
+        createIndex(TABLE + "_embedding_hnsw_idx", String.format(
+                "USING hnsw (embedding vector_cosine_ops) WITH (m = %d, ef_construction = %d)",
+                hnswM, hnswEfConstruction));
+        for (int band = 0; band < SimHash.BANDS; band++) {
+            createIndex(TABLE + "_simhash_b" + band + "_idx",
+                    "(" + DocumentEmbeddingRepositoryImpl.bandExpression(band) + ") WHERE simhash IS NOT NULL");
+        }
+        backfillFingerprints();
+    }
+
+    /**
+     * Fingerprint existing chunks in batches, walking the ids; chunks too short for a
+     * fingerprint stay NULL and are skipped on the next start as well
+     */
+    private void backfillFingerprints() {
+        long start = System.nanoTime();
+        long lastId = 0;
+        int updated = 0;
+        while (true) {
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList("SELECT id, collection, chunk FROM " + TABLE
+                    + " WHERE simhash IS NULL AND id > ? ORDER BY id LIMIT 500", lastId);
+            if (rows.isEmpty()) {
+                break;
+            }
+            List<Object[]> fingerprints = new ArrayList<>();
+            for (Map<String, Object> row : rows) {
+                lastId = ((Number) row.get("id")).longValue();
+                Object chunk = row.get("chunk");
+                Long fingerprint = chunk == null ? null : SimHash.fingerprint(chunk.toString(), dedupMinWords);
+                if (fingerprint != null) {
+                    fingerprints.add(new Object[]{fingerprint, lastId, row.get("collection")});
+                }
+            }
+            jdbcTemplate.batchUpdate("UPDATE " + TABLE + " SET simhash = ? WHERE id = ? AND collection = ?", fingerprints);
+            updated += fingerprints.size();
+        }
+        if (updated > 0) {
+            LOG.info("Computed the SimHash of {} existing chunks in {} ms", updated, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Replace the plain table Hibernate created with a partitioned copy. The primary key of a
+     * partitioned table must contain the partition key, and identity columns are not supported
+     * on partitioned tables before PostgreSQL 17, so ids come from a sequence default instead.
+     */
+    private void migrateToPartitionedTable() {
+        String legacy = TABLE + "_unpartitioned";
+        long start = System.nanoTime();
+        LOG.info("Converting {} into a table partitioned by collection", TABLE);
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " RENAME TO " + legacy);
+        jdbcTemplate.update("UPDATE " + legacy + " SET collection = ? WHERE collection IS NULL", CollectionName.DEFAULT);
+        jdbcTemplate.execute("CREATE TABLE " + TABLE + " (LIKE " + legacy + " INCLUDING DEFAULTS) PARTITION BY LIST (collection)");
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ALTER COLUMN collection SET NOT NULL");
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + TABLE + "_row_id_seq OWNED BY " + TABLE + ".id");
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ALTER COLUMN id SET DEFAULT nextval('" + TABLE + "_row_id_seq')");
+
+        List<String> collections = jdbcTemplate.queryForList("SELECT DISTINCT collection FROM " + legacy, String.class);
+        if (!collections.contains(CollectionName.DEFAULT)) {
+            collections = new ArrayList<>(collections);
+            collections.add(CollectionName.DEFAULT);
+        }
+        for (String collection : collections) {
+            String name = CollectionName.normalize(collection);
+            String partition = DocumentEmbeddingRepositoryImpl.partitionName(name);
+            jdbcTemplate.execute("CREATE TABLE " + partition + " PARTITION OF " + TABLE + " FOR VALUES IN ('" + name + "')");
+            jdbcTemplate.update("INSERT INTO document_collections (name, partition_name) VALUES (?, ?) "
+                    + "ON CONFLICT (name) DO NOTHING", name, partition);
+        }
+
+        int rows = jdbcTemplate.update("INSERT INTO " + TABLE + " SELECT * FROM " + legacy);
+        jdbcTemplate.execute("SELECT setval('" + TABLE + "_row_id_seq', COALESCE((SELECT max(id) FROM " + TABLE + "), 0) + 1, false)");
+        // Dropping the old table also drops its indexes, so the ones below are recreated per partition
+        jdbcTemplate.execute("DROP TABLE " + legacy);
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ADD PRIMARY KEY (id, collection)");
+        LOG.info("Moved {} chunks into {} collection partitions in {} ms",
+                rows, collections.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void createIndex(String name, String definition) {
+        // A failed build leaves an invalid index behind that IF NOT EXISTS would keep
+        List<Boolean> valid = jdbcTemplate.queryForList(
+                "SELECT i.indisvalid FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid WHERE c.relname = ?",
+                Boolean.class, name);
+        if (!valid.isEmpty() && valid.get(0)) {
+            return;
+        }
+        if (!valid.isEmpty()) {
+            LOG.warn("Dropping invalid index {}", name);
+            jdbcTemplate.execute("DROP INDEX IF EXISTS " + name);
+        }
+        // CONCURRENTLY is not supported on partitioned tables; this builds one index per partition
+        LOG.info("Creating index {} on {}", name, TABLE);
+        long start = System.nanoTime();
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + name + " ON " + TABLE + " " + definition);
+        LOG.info("Created index {} in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -1,20 +1,119 @@
 package de.deltatree.tools.rag.config;
 
+import ai.onnxruntime.OrtException;
+import de.deltatree.tools.rag.embedding.OnnxEmbeddingModel;
+import de.deltatree.tools.rag.embedding.PooledOllamaEmbeddingModel;
+import de.deltatree.tools.rag.service.OllamaEndpointPool;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import de.deltatree.tools.rag.repository.DocumentEmbeddingRepository;
+import de.deltatree.tools.rag.service.OllamaScheduler;
+import de.deltatree.tools.rag.service.ReembeddingService;
+import de.deltatree.tools.rag.vectorstore.CorpusVersions;
+import de.deltatree.tools.rag.vectorstore.NearDuplicateFilter;
 import de.deltatree.tools.rag.vectorstore.PostgresVectorStore;
+import de.deltatree.tools.rag.vectorstore.QueryEmbeddingBatcher;
+import de.deltatree.tools.rag.vectorstore.RetrievalDiagnostics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
 
 @Configuration
 public class VectorStoreConfig {
+    private static final Logger LOG = LoggerFactory.getLogger(VectorStoreConfig.class);
+
+    /**
+     * Embeddings through Ollama, spread over rag.ollama.endpoints. Replaces Spring AI's
+     * single-endpoint model (spring.ai.ollama.embedding.enabled=false).
+     */
+    @Bean
+    PooledOllamaEmbeddingModel ollamaEmbeddingModel(
+            OllamaEndpointPool endpointPool,
+            @Value("${spring.ai.ollama.embedding.model}") String model,
+            @Value("${rag.ollama.keep-alive.embedding:30m}") String keepAlive) {
+        return new PooledOllamaEmbeddingModel(endpointPool, model, keepAlive);
+    }
+
+    /**
+     * In-process embedding model, used instead of Ollama with rag.embedding.engine=onnx. It must be
+     * an export of the same model that embedded the stored chunks, otherwise the vectors do not match.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "rag.embedding.engine", havingValue = "onnx")
+    OnnxEmbeddingModel onnxEmbeddingModel(
+            @Value("${rag.embedding.onnx.model-path}") String modelPath,
+            @Value("${rag.embedding.onnx.tokenizer-path}") String tokenizerPath,
+            @Value("${rag.embedding.onnx.pool-size:0}") int poolSize,
+            @Value("${rag.embedding.onnx.intra-op-threads:0}") int intraOpThreads,
+            @Value("${rag.embedding.onnx.max-batch-size:32}") int maxBatchSize,
+            @Value("${rag.embedding.onnx.max-length:1024}") int maxLength,
+            MeterRegistry meterRegistry) throws IOException, OrtException {
+        // By default a session per four cores, and the cores split between the sessions
+        int cores = Runtime.getRuntime().availableProcessors();
+        int sessions = poolSize > 0 ? poolSize : Math.max(1, cores / 4);
+        int threads = intraOpThreads > 0 ? intraOpThreads : Math.max(1, cores / sessions);
+        return new OnnxEmbeddingModel(Path.of(modelPath), Path.of(tokenizerPath), sessions, threads,
+                maxBatchSize, maxLength, meterRegistry);
+    }
 
     @Bean
+    QueryEmbeddingBatcher queryEmbeddingBatcher(
+            @Qualifier("ollamaEmbeddingModel") EmbeddingModel ollamaEmbeddingModel,
+            ObjectProvider<OnnxEmbeddingModel> onnxEmbeddingModel,
+            OllamaScheduler scheduler,
+            MeterRegistry meterRegistry,
+            @Value("${rag.embedding.batching.enabled:true}") boolean enabled,
+            @Value("${rag.embedding.batching.window-ms:3}") long windowMillis,
+            @Value("${rag.embedding.batching.max-batch-size:16}") int maxBatchSize) {
+        OnnxEmbeddingModel local = onnxEmbeddingModel.getIfAvailable();
+        // A local model bounds its concurrency with its session pool, Ollama's admission control does not apply
+        return local != null
+                ? new QueryEmbeddingBatcher(local, null, enabled, windowMillis, maxBatchSize, meterRegistry)
+                : new QueryEmbeddingBatcher(ollamaEmbeddingModel, scheduler, enabled, windowMillis, maxBatchSize, meterRegistry);
+    }
+
+    @Bean
+    NearDuplicateFilter nearDuplicateFilter(
+            DocumentEmbeddingRepository repository,
+            MeterRegistry meterRegistry,
+            @Value("${rag.ingest.dedup.mode:drop}") String mode,
+            @Value("${rag.ingest.dedup.max-distance:3}") int maxDistance,
+            @Value("${rag.ingest.dedup.min-words:20}") int minWords) {
+        return new NearDuplicateFilter(repository, mode, maxDistance, minWords, meterRegistry);
+    }
+
+    @Bean
     PostgresVectorStore vectorStore(
-            @Qualifier("ollamaEmbeddingModel") EmbeddingModel embeddingModel,
-            DocumentEmbeddingRepository repository) {
-        System.out.println("Creating Ollama VectorStore");
-        return new PostgresVectorStore(repository, embeddingModel);
+            @Qualifier("ollamaEmbeddingModel") EmbeddingModel ollamaEmbeddingModel,
+            ObjectProvider<OnnxEmbeddingModel> onnxEmbeddingModel,
+            DocumentEmbeddingRepository repository,
+            QueryEmbeddingBatcher queryEmbeddingBatcher,
+            NearDuplicateFilter nearDuplicateFilter,
+            RetrievalDiagnostics retrievalDiagnostics,
+            CorpusVersions corpusVersions,
+            ObjectProvider<ReembeddingService> reembeddingService,
+            OllamaScheduler scheduler,
+            MeterRegistry meterRegistry,
+            @Qualifier("ragIoExecutor") ExecutorService ioExecutor,
+            @Value("${rag.ingest.parallelism:4}") int ingestParallelism) {
+        LOG.info("Creating Ollama VectorStore");
+        OnnxEmbeddingModel local = onnxEmbeddingModel.getIfAvailable();
+        ReembeddingService reembedding = reembeddingService.getIfAvailable();
+        if (local != null) {
+            LOG.info("Embedding chunks and queries in-process with ONNX");
+            return new PostgresVectorStore(repository, local, queryEmbeddingBatcher, nearDuplicateFilter,
+                    retrievalDiagnostics, corpusVersions, reembedding, null, meterRegistry, ioExecutor, ingestParallelism);
+        }
+        return new PostgresVectorStore(repository, ollamaEmbeddingModel, queryEmbeddingBatcher, nearDuplicateFilter,
+                retrievalDiagnostics, corpusVersions, reembedding, scheduler, meterRegistry, ioExecutor, ingestParallelism);
     }
 }
@@ -1,18 +1,42 @@
 package de.deltatree.tools.rag.controller;
 
 import de.deltatree.tools.rag.model.Answer;
+import de.deltatree.tools.rag.model.CollectionName;
 import de.deltatree.tools.rag.model.Question;
+import de.deltatree.tools.rag.service.CancellationSignal;
+import de.deltatree.tools.rag.service.GenerationCancelledException;
+import de.deltatree.tools.rag.service.OllamaOverloadedException;
+import de.deltatree.tools.rag.service.OllamaPriority;
+import de.deltatree.tools.rag.service.OllamaScheduler;
 import de.deltatree.tools.rag.service.OllamaService;
+import de.deltatree.tools.rag.service.SingleFlight;
+import de.deltatree.tools.rag.session.ConversationSession;
+import de.deltatree.tools.rag.session.ConversationStore;
+import de.deltatree.tools.rag.session.RetrievalPrefetchCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
+import de.deltatree.tools.rag.vectorstore.CorpusVersions;
 import de.deltatree.tools.rag.vectorstore.PostgresVectorStore;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @RestController
@@ -21,79 +45,306 @@ public class ChatController {
     private static final Logger LOG = LoggerFactory.getLogger(ChatController.class);
     private final PostgresVectorStore vectorStore;
     private final OllamaService ollamaService;
+    private final ConversationStore conversations;
     private final double similarityThreshold;
+    private final ExecutorService chatExecutor;
+    private final ScheduledExecutorService heartbeatExecutor;
+    private final MeterRegistry meterRegistry;
+    private final long streamTimeoutMillis;
+    private final long heartbeatMillis;
+    private final CorpusVersions corpusVersions;
+    private final boolean coalesce;
+    private final SingleFlight<Reply> identicalQuestions;
+    private final RetrievalPrefetchCache prefetches;
+    private final OllamaScheduler scheduler;
+
+    // Must stay byte-identical between requests: it is the prompt prefix Ollama reuses
+    static final String SYSTEM_PROMPT = """
+            Du bist ein hilfsbereiter KI-Assistent und beantwortest Fragen ausschließlich auf Basis des Dokumentenkontexts in der Nutzernachricht. Externes Wissen darfst du nicht verwenden.
+
+            **WICHTIGE REGELN:**
+            1. **Nur der bereitgestellte Kontext**: Antworte nur mit Informationen, die im Kontext vorkommen.
+            2. **Kein externes Wissen**: Beantworte keine allgemeinen Themen oder Aktuelles außerhalb des Kontexts.
+            3. **Sei strikt**: Falls die Antwort nicht im Kontext steht, sage "Dazu habe ich keine Informationen in meiner Wissensbasis."
+            4. **Quellen nennen**: Wenn du passende Informationen findest, gib an, aus welchem Dokument sie stammen.
+            5. **Hilfreich bleiben**: Enthält der Kontext relevante Informationen, liefere eine ausführliche Antwort.
+
+            **ANTWORTREGELN:**
+            - Enthält der Kontext relevante Informationen, gib eine umfassende Antwort mit Quellenangaben.
+            - Deckt der Kontext die Frage nur teilweise ab, beantworte nur, was enthalten ist, und verweise auf fehlende Informationen.
+            - Ist kein passender Kontext vorhanden, antworte: "Dazu habe ich keine Informationen in meiner Wissensbasis. Bitte stelle Fragen zu den hochgeladenen Dokumenten."
+
+            **BEISPIELE, WAS NICHT BEANTWORTET WIRD:**
+            - Allgemeinwissen (z.B. Höhe von Bergen, historische Daten, sofern nicht im Dokument enthalten)
+            - Aktuelle Ereignisse, die nicht im Dokument stehen
+            - Mathematische Berechnungen ohne Bezug zum Dokument
+            - Persönliche Ratschläge oder Meinungen
+            """;
+
+    private static final Comparator<Document> CONTEXT_ORDER = Comparator
+            .comparing((Document doc) -> doc.getMetadata().getOrDefault("filename", "").toString())
+            .thenComparing(doc -> doc.getMetadata().get("id") instanceof Number id ? id.longValue() : Long.MAX_VALUE)
+            .thenComparing(Document::getContent);
 
     public ChatController(PostgresVectorStore vectorStore,
                           OllamaService ollamaService,
-                          @Value("${rag.vectorstore.similarity-threshold:0.3}") double similarityThreshold) {
+                          ConversationStore conversations,
+                          @Value("${rag.vectorstore.similarity-threshold:0.3}") double similarityThreshold,
+                          @Qualifier("chatExecutor") ExecutorService chatExecutor,
+                          @Qualifier("chatHeartbeatExecutor") ScheduledExecutorService heartbeatExecutor,
+                          MeterRegistry meterRegistry,
+                          @Value("${rag.chat.stream.timeout-ms:300000}") long streamTimeoutMillis,
+                          @Value("${rag.chat.stream.heartbeat-ms:2000}") long heartbeatMillis,
+                          CorpusVersions corpusVersions,
+                          @Value("${rag.chat.coalesce.enabled:true}") boolean coalesce,
+                          RetrievalPrefetchCache prefetches,
+                          @Qualifier("sharedAnswerExecutor") ExecutorService sharedAnswerExecutor,
+                          OllamaScheduler scheduler) {
         this.vectorStore = vectorStore;
         this.ollamaService = ollamaService;
+        this.conversations = conversations;
         this.similarityThreshold = similarityThreshold;
+        this.chatExecutor = chatExecutor;
+        this.heartbeatExecutor = heartbeatExecutor;
+        this.meterRegistry = meterRegistry;
+        this.streamTimeoutMillis = streamTimeoutMillis;
+        this.heartbeatMillis = heartbeatMillis;
+        this.corpusVersions = corpusVersions;
+        this.coalesce = coalesce;
+        this.identicalQuestions = new SingleFlight<>("chat", sharedAnswerExecutor, meterRegistry);
+        this.prefetches = prefetches;
+        this.scheduler = scheduler;
         LOG.info("ChatController initialized successfully");
     }
 
     @PostMapping
     public Answer chat(@RequestBody Question question, Authentication user) {
+        return respond(question, CancellationSignal.NONE, token -> {
+        });
+    }
+
+    /**
+     * The answer of POST /chat as server-sent events: "token" events with the text as Ollama
+     * produces it, then "answer" with the final {@link Answer}, or "error". A closed connection
+     * shows as a failed write of the next token or keep-alive comment and cancels the answer:
+     * it leaves the Ollama queue, or its upstream call is aborted and Ollama stops generating.
+     */
+    @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(@RequestBody Question question) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+        CancellationSignal cancellation = new CancellationSignal();
+        emitter.onTimeout(() -> cancel(cancellation, "timeout"));
+        emitter.onError(error -> cancel(cancellation, "disconnect"));
+        ScheduledFuture<?> heartbeat = heartbeatExecutor.scheduleWithFixedDelay(
+                () -> send(emitter, cancellation, SseEmitter.event().comment("")),
+                heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        try {
+            chatExecutor.execute(() -> stream(question, emitter, cancellation, heartbeat));
+        } catch (RejectedExecutionException e) {
+            heartbeat.cancel(false);
+            LOG.warn("Rejecting streamed answer: {}", e.getMessage());
+            send(emitter, cancellation, SseEmitter.event().name("error").data(Map.of(
+                    "error", "The server is busy. Please try again shortly.")));
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    private void stream(Question question, SseEmitter emitter, CancellationSignal cancellation,
+                        ScheduledFuture<?> heartbeat) {
+        try {
+            Answer answer = respond(question, cancellation, token ->
+                    send(emitter, cancellation, SseEmitter.event().name("token").data(Map.of("text", token))));
+            send(emitter, cancellation, SseEmitter.event().name("answer").data(answer));
+        } catch (GenerationCancelledException e) {
+            LOG.debug("Streamed answer abandoned: {}", e.getMessage());
+        } catch (OllamaOverloadedException e) {
+            send(emitter, cancellation, SseEmitter.event().name("error").data(Map.of(
+                    "error", "The AI model is busy. Please try again shortly.",
+                    "retryAfterSeconds", e.getRetryAfterSeconds())));
+        } catch (RuntimeException e) {
+            LOG.error("Streamed answer failed", e);
+            send(emitter, cancellation, SseEmitter.event().name("error").data(Map.of("error", String.valueOf(e.getMessage()))));
+        } finally {
+            heartbeat.cancel(false);
+            emitter.complete();
+        }
+    }
+
+    /**
+     * Retrieve the chunks for a question that is still being typed, so that POST /chat and
+     * /chat/stream with the same draft id start generating right away. Sent by the chat page,
+     * debounced, while the user types; the latest draft of each id is kept. Skipped while
+     * query embeddings wait for Ollama: drafts share their class with the questions sent.
+     */
+    @PostMapping("/retrieve")
+    public ResponseEntity<Void> retrieve(@RequestBody Question draft) {
+        if (draft.getQuestion() == null || draft.getQuestion().isBlank() || isGreeting(draft.getQuestion())) {
+            return ResponseEntity.noContent().build();
+        }
+        if (!scheduler.hasFreeSlot(OllamaPriority.INTERACTIVE_QUERY)) {
+            meterRegistry.counter("rag.chat.prefetch.skipped").increment();
+            return ResponseEntity.noContent().build();
+        }
+        String collection = CollectionName.normalize(draft.getCollection());
+        prefetches.prefetch(draft.getDraftId(), draft.getQuestion(), collection, draft.getFilter(),
+                () -> search(draft, collection));
+        return ResponseEntity.noContent().build();
+    }
+
+    // A failed write means the client is gone
+    private void send(SseEmitter emitter, CancellationSignal cancellation, SseEmitter.SseEventBuilder event) {
+        if (cancellation.isCancelled()) {
+            return;
+        }
+        try {
+            emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+            cancel(cancellation, "disconnect");
+        }
+    }
+
+    private void cancel(CancellationSignal cancellation, String reason) {
+        if (cancellation.cancel()) {
+            LOG.info("Cancelling answer, client gone ({})", reason);
+            Counter.builder("rag.chat.cancelled")
+                    .description("Answers abandoned because the client disconnected or the stream timed out")
+                    .tag("reason", reason)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    private Answer respond(Question question, CancellationSignal cancellation, Consumer<String> onToken) {
         LOG.info("Received question: {}", question.getQuestion());
+        String collection = CollectionName.normalize(question.getCollection());
 
         // Handle simple greetings without context
         if (isGreeting(question.getQuestion())) {
-            return new Answer("Hello! I'm here to help you with questions about the documents in my knowledge base. What would you like to know?");
+            return new Answer("Hello! I'm here to help you with questions about the documents in my knowledge base. What would you like to know?",
+                    question.getSessionId());
         }
 
-        // 1. Retrieve relevant documents
-        List<Document> retrievedDocs = vectorStore.similaritySearch(
-                SearchRequest.query(question.getQuestion())
-                        .withTopK(20) // fetch more in case of duplicates
-                        .withSimilarityThreshold(similarityThreshold)
-
-        );
+        ConversationSession session = conversations.open(question.getSessionId(), collection);
+        session.lock().lock();
+        try {
+            long start = System.nanoTime();
+            Reply reply;
+            if (coalesce && !session.isFollowUp()) {
+                // A first turn depends on nothing but the question and the chunks, so identical
+                // questions asked at the same time share one retrieval and one generation
+                reply = identicalQuestions.execute(coalescingKey(question, collection), cancellation, onToken,
+                        (shared, onSharedToken) -> answer(question, session, shared, onSharedToken));
+            } else {
+                reply = answer(question, session, cancellation, onToken);
+            }
+            if (reply.turn() != null) {
+                conversations.addDocuments(session, reply.newDocs());
+                conversations.recordTurn(session, reply.turn(), System.nanoTime() - start);
+            }
+            return new Answer(reply.answer(), session.getId());
+        } finally {
+            session.lock().unlock();
+        }
+    }
+
+    private String coalescingKey(Question question, String collection) {
+        String normalized = RetrievalPrefetchCache.normalize(question.getQuestion());
+        return collection + "\n" + Objects.toString(question.getFilter(), "").trim() + "\n" + normalized
+                + "\n" + corpusVersions.current(collection);
+    }
+
+    /**
+     * The answer text, and the turn to record in the conversation or null if there is none to
+     * record. Recording is left to the caller: an answer may be shared by several conversations.
+     */
+    private record Reply(String answer, List<Document> newDocs, ConversationSession.Turn turn) {
+        Reply(String answer) {
+            this(answer, List.of(), null);
+        }
+    }
+
+    @DeleteMapping("/session/{sessionId}")
+    public ResponseEntity<Void> endSession(@PathVariable String sessionId) {
+        return conversations.end(sessionId) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    // Called with the session lock held, so the turns of one conversation are answered in order
+    private Reply answer(Question question, ConversationSession session, CancellationSignal cancellation,
+                         Consumer<String> onToken) {
+        String collection = session.getCollection();
+
+        // 1. Retrieve relevant documents, unless that was done while the question was typed
+        List<Document> retrievedDocs = prefetches
+                .take(question.getDraftId(), question.getQuestion(), collection, question.getFilter())
+                .orElseGet(() -> search(question, collection));
 
         LOG.info("Retrieved {} documents from vector store", retrievedDocs.size());
 
         // Remove duplicate chunks and limit to top 8
         List<Document> documents = deduplicateDocuments(retrievedDocs, 8);
 
+        // A follow-up like "und wie lange?" often retrieves little on its own; the chunks of the
+        // earlier turns are still part of the conversation and count as its context
+        boolean followUp = session.isFollowUp();
+        List<Document> earlierDocs = session.getDocuments();
+        Set<String> known = earlierDocs.stream().map(Document::getContent).collect(Collectors.toSet());
+        List<Document> newDocs = documents.stream().filter(doc -> !known.contains(doc.getContent())).toList();
+        List<Document> relevantDocs = new ArrayList<>(earlierDocs);
+        relevantDocs.addAll(newDocs);
+
         // 2. Check if we have relevant context AND if it's actually related to the question
-        if (documents.isEmpty()) {
-            long count = vectorStore.getDocumentCount();
+        if (relevantDocs.isEmpty()) {
+            long count = vectorStore.getDocumentCount(collection);
             if (count == 0) {
-                return new Answer("My knowledge base is empty. Please upload documents before asking questions.");
+                return new Reply("My knowledge base is empty. Please upload documents before asking questions.");
             }
-            return new Answer("I don't have information about that topic in my knowledge base. Please try rephrasing your question or check if relevant documents have been uploaded.");
+            return new Reply("I don't have information about that topic in my knowledge base. Please try rephrasing your question or check if relevant documents have been uploaded.");
         }
 
         // 3. Quick relevance check - if the question seems completely unrelated to document content
-        if (isGeneralKnowledgeQuestion(question.getQuestion(), documents)) {
-            return new Answer("I don't have information about that in my knowledge base. Please ask questions related to the uploaded documents.");
-        }
-
-        // 3. Format the context with source information
-        StringBuilder contextBuilder = new StringBuilder();
-        for (int i = 0; i < documents.size(); i++) {
-            Document doc = documents.get(i);
-            String filename = doc.getMetadata().getOrDefault("filename", "unknown").toString();
-//            contextBuilder.append(String.format("Source %d (from %s):\n%s\n\n",
-//                    i + 1, filename, doc.getContent()));
-            contextBuilder.append(String.format("From %s:\n%s\n\n",
-                    filename, doc.getContent()));
-//            String cleanFilename = filename.replace(".pdf", "").replace(".md", "").replace("-", " ");
-//            contextBuilder.append(String.format("From %s:\n%s\n\n", cleanFilename, doc.getContent()));
+        if (isGeneralKnowledgeQuestion(question.getQuestion(), relevantDocs)) {
+            return new Reply("I don't have information about that in my knowledge base. Please ask questions related to the uploaded documents.");
         }
 
-        String context = contextBuilder.toString();
-        LOG.info("Context length: {} characters from {} sources", context.length(), documents.size());
+        // 3. Format the context with source information; a follow-up only adds chunks the
+        // conversation has not seen yet, earlier ones are already in the history
+        String context = buildContext(newDocs);
+        LOG.info("Context length: {} characters from {} new sources ({} turn)", context.length(), newDocs.size(),
+                followUp ? "follow-up" : "first");
 
-        // 4. Create an improved prompt
-        String prompt = createImprovedPrompt(context, question.getQuestion());
+        // 4. The fixed instructions go into the system message, which Ollama evaluates only once.
+        // Earlier turns are resent unchanged, so they are the prefix Ollama already evaluated.
+        String userMessage = followUp
+                ? createFollowUpMessage(context, question.getQuestion())
+                : createUserMessage(context, question.getQuestion());
+        List<Map<String, String>> messages = new ArrayList<>();
+        messages.add(Map.of("role", "system", "content", SYSTEM_PROMPT));
+        for (ConversationSession.Turn turn : session.getTurns()) {
+            messages.add(Map.of("role", "user", "content", turn.userMessage()));
+            messages.add(Map.of("role", "assistant", "content", turn.answer()));
+        }
+        messages.add(Map.of("role", "user", "content", userMessage));
 
-        // 5. Get response from Ollama
-        String response = ollamaService.generateResponse(prompt);
+        // 5. Get response from Ollama, unless the client left during retrieval
+        cancellation.throwIfCancelled();
+        String response = ollamaService.generateChatResponse(messages, cancellation, onToken);
+        ConversationSession.Turn turn = response.startsWith("Error:") ? null : new ConversationSession.Turn(userMessage, response);
 
         // 6. Post-process the response
-        String finalResponse = postProcessResponse(response, documents);
+        String finalResponse = postProcessResponse(response, relevantDocs);
+
+        return new Reply(finalResponse, newDocs, turn);
+    }
 
-        return new Answer(finalResponse);
+    private List<Document> search(Question question, String collection) {
+        SearchRequest searchRequest = SearchRequest.query(question.getQuestion())
+                .withTopK(20) // fetch more in case of duplicates
+                .withSimilarityThreshold(similarityThreshold);
+        if (question.getFilter() != null && !question.getFilter().isBlank()) {
+            searchRequest = searchRequest.withFilterExpression(question.getFilter());
+        }
+        return vectorStore.similaritySearch(searchRequest, collection);
     }
 
     private boolean isGreeting(String text) {
@@ -101,7 +352,7 @@ public class ChatController {
         return lowerText.matches("^(hi|hello|hey|good morning|good afternoon|good evening|how are you|what's up|greetings|hallo|guten morgen|guten tag|guten abend|servus|moin|gr\u00fc\u00df gott).*");
     }
 
-    private boolean isGeneralKnowledgeQuestion(String question, List<Document> documents) {
+    static boolean isGeneralKnowledgeQuestion(String question, List<Document> documents) {
         String lowerQuestion = question.toLowerCase();
 
         // Common patterns for general knowledge questions
@@ -135,14 +386,14 @@ public class ChatController {
         return false;
     }
 
-    private String getDocumentTopics(List<Document> documents) {
+    private static String getDocumentTopics(List<Document> documents) {
         // Extract key terms from documents to help identify if question might be relevant
         return documents.stream()
                 .map(doc -> doc.getMetadata().getOrDefault("filename", "").toString())
                 .collect(Collectors.joining("|"));
     }
 
-    private boolean documentsContainRelevantTerms(String question, List<Document> documents) {
+    private static boolean documentsContainRelevantTerms(String question, List<Document> documents) {
         String[] questionWords = question.toLowerCase().split("\\s+");
 
         // Check if any significant words from the question appear in the documents
@@ -165,34 +416,42 @@ public class ChatController {
         return false;
     }
 
-    private String createImprovedPrompt(String context, String question) {
+    /**
+     * Context blocks ordered by source and chunk, not by score, so the same retrieved chunks
+     * always produce the same prompt bytes
+     */
+    static String buildContext(List<Document> documents) {
+        List<Document> ordered = new ArrayList<>(documents);
+        ordered.sort(CONTEXT_ORDER);
+        StringBuilder contextBuilder = new StringBuilder();
+        for (Document doc : ordered) {
+            String filename = doc.getMetadata().getOrDefault("filename", "unknown").toString();
+            contextBuilder.append(String.format("From %s:\n%s\n\n",
+                    filename, doc.getContent()));
+        }
+        return contextBuilder.toString();
+    }
+
+    static String createFollowUpMessage(String context, String question) {
+        if (context.isEmpty()) {
+            return String.format("""
+                **NUTZERFRAGE:** %s
+                """, question);
+        }
+        return String.format("""
+            **WEITERER KONTEXT AUS DEN DOKUMENTEN:**
+            %s
+
+            **NUTZERFRAGE:** %s
+            """, context, question);
+    }
+
+    static String createUserMessage(String context, String question) {
         return String.format("""
-            Du bist ein hilfsbereiter KI-Assistent und beantwortest Fragen ausschließlich auf Basis des folgenden Dokumentenkontexts. Externes Wissen darfst du nicht verwenden.
-
-            **WICHTIGE REGELN:**
-            1. **Nur der bereitgestellte Kontext**: Antworte nur mit Informationen, die im Kontext unten vorkommen.
-            2. **Kein externes Wissen**: Beantworte keine allgemeinen Themen oder Aktuelles außerhalb des Kontexts.
-            3. **Sei strikt**: Falls die Antwort nicht im Kontext steht, sage "Dazu habe ich keine Informationen in meiner Wissensbasis."
-            4. **Quellen nennen**: Wenn du passende Informationen findest, gib an, aus welchem Dokument sie stammen.
-            5. **Hilfreich bleiben**: Enthält der Kontext relevante Informationen, liefere eine ausführliche Antwort.
-
-            **ANTWORTREGELN:**
-            - Enthält der Kontext relevante Informationen, gib eine umfassende Antwort mit Quellenangaben.
-            - Deckt der Kontext die Frage nur teilweise ab, beantworte nur, was enthalten ist, und verweise auf fehlende Informationen.
-            - Ist kein passender Kontext vorhanden, antworte: "Dazu habe ich keine Informationen in meiner Wissensbasis. Bitte stelle Fragen zu den hochgeladenen Dokumenten."
-
-            **BEISPIELE, WAS NICHT BEANTWORTET WIRD:**
-            - Allgemeinwissen (z.B. Höhe von Bergen, historische Daten, sofern nicht im Dokument enthalten)
-            - Aktuelle Ereignisse, die nicht im Dokument stehen
-            - Mathematische Berechnungen ohne Bezug zum Dokument
-            - Persönliche Ratschläge oder Meinungen
-
             **KONTEXT AUS DEN DOKUMENTEN:**
             %s
 
             **NUTZERFRAGE:** %s
-
-            **DEINE ANTWORT:**
             """, context, question);
     }
 
@@ -214,7 +473,7 @@ public class ChatController {
         return response;
     }
 
-    private List<Document> deduplicateDocuments(List<Document> docs, int max) {
+    static List<Document> deduplicateDocuments(List<Document> docs, int max) {
         Set<String> seen = new HashSet<>();
         List<Document> unique = new ArrayList<>();
         for (Document doc : docs) {
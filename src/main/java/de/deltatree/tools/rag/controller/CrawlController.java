@@ -0,0 +1,65 @@
+package de.deltatree.tools.rag.controller;
+
+import de.deltatree.tools.rag.crawler.CrawlJob;
+import de.deltatree.tools.rag.crawler.CrawlRequest;
+import de.deltatree.tools.rag.crawler.SiteCrawler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/crawl")
+public class CrawlController {
+    private static final Logger LOG = LoggerFactory.getLogger(CrawlController.class);
+    private final SiteCrawler crawler;
+
+    public CrawlController(SiteCrawler crawler) {
+        this.crawler = crawler;
+    }
+
+    // Starts a background crawl; poll GET /crawl/{id} for progress
+    @PostMapping
+    public ResponseEntity<?> startCrawl(@RequestBody CrawlRequest request) {
+        try {
+            CrawlJob job = crawler.start(request);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.progress());
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid crawl request: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping
+    public List<CrawlJob.Progress> listCrawls() {
+        return crawler.jobs().stream()
+                .map(CrawlJob::progress)
+                .sorted(Comparator.comparing(CrawlJob.Progress::startedAt).reversed())
+                .toList();
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<CrawlJob.Progress> getCrawl(@PathVariable String id) {
+        return crawler.find(id)
+                .map(job -> ResponseEntity.ok(job.progress()))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @PostMapping("/{id}/cancel")
+    public ResponseEntity<CrawlJob.Progress> cancelCrawl(@PathVariable String id) {
+        if (!crawler.cancel(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        return getCrawl(id);
+    }
+}
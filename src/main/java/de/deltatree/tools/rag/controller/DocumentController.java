@@ -1,31 +1,57 @@
 package de.deltatree.tools.rag.controller;
 
+import de.deltatree.tools.rag.model.CollectionName;
 import de.deltatree.tools.rag.repository.DocumentEmbeddingRepository;
+import de.deltatree.tools.rag.repository.UrlSourceRepository;
+import de.deltatree.tools.rag.vectorstore.CorpusVersions;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @Controller
 @RequestMapping("/documents")
 public class DocumentController {
     private final DocumentEmbeddingRepository repository;
+    private final UrlSourceRepository urlSourceRepository;
+    private final CorpusVersions corpusVersions;
 
-    public DocumentController(DocumentEmbeddingRepository repository) {
+    public DocumentController(DocumentEmbeddingRepository repository, UrlSourceRepository urlSourceRepository,
+                              CorpusVersions corpusVersions) {
         this.repository = repository;
+        this.urlSourceRepository = urlSourceRepository;
+        this.corpusVersions = corpusVersions;
     }
 
     @GetMapping
-    public String listDocuments(Model model) {
-        model.addAttribute("documents", repository.findAllOrderByCreatedAtDesc());
+    public String listDocuments(@RequestParam(value = "collection", required = false) String collection, Model model) {
+        if (collection == null || collection.isBlank()) {
+            model.addAttribute("documents", repository.findAllOrderByCreatedAtDesc());
+        } else {
+            model.addAttribute("documents", repository.findByCollectionOrderByCreatedAtDesc(CollectionName.normalize(collection)));
+            model.addAttribute("collection", collection);
+        }
+        model.addAttribute("collections", repository.findCollections());
         return "documents";
     }
 
     @PostMapping("/delete/{id}")
     public String deleteDocument(@PathVariable Long id) {
         repository.deleteById(id);
+        corpusVersions.changedAll();
+        return "redirect:/documents";
+    }
+
+    // Drops the collection's partition instead of deleting its rows one by one
+    @PostMapping("/collections/delete/{collection}")
+    public String deleteCollection(@PathVariable String collection) {
+        String name = CollectionName.normalize(collection);
+        repository.dropCollection(name);
+        urlSourceRepository.deleteByCollection(name);
+        corpusVersions.changed(name);
         return "redirect:/documents";
     }
 }
@@ -0,0 +1,68 @@
+package de.deltatree.tools.rag.controller;
+
+import de.deltatree.tools.rag.service.ReembeddingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Control of migrations, which alter the embeddings table, without access control: only with
+ * rag.reembed.endpoint.enabled=true
+ */
+@RestController
+@ConditionalOnExpression("${rag.reembed.enabled:true} and ${rag.reembed.endpoint.enabled:false}")
+@RequestMapping("/embedding-migration")
+public class EmbeddingMigrationController {
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddingMigrationController.class);
+    private final ReembeddingService reembeddingService;
+
+    public EmbeddingMigrationController(ReembeddingService reembeddingService) {
+        this.reembeddingService = reembeddingService;
+    }
+
+    @GetMapping
+    public ResponseEntity<?> status() {
+        return reembeddingService.status()
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.noContent().build());
+    }
+
+    @PostMapping("/start")
+    public ResponseEntity<?> start(@RequestParam("model") String model) {
+        return transition(() -> reembeddingService.start(model));
+    }
+
+    @PostMapping("/pause")
+    public ResponseEntity<?> pause() {
+        return transition(reembeddingService::pause);
+    }
+
+    @PostMapping("/resume")
+    public ResponseEntity<?> resume() {
+        return transition(reembeddingService::resume);
+    }
+
+    @PostMapping("/cancel")
+    public ResponseEntity<?> cancel() {
+        return transition(reembeddingService::cancel);
+    }
+
+    private ResponseEntity<?> transition(Supplier<ReembeddingService.Status> action) {
+        try {
+            return ResponseEntity.ok(action.get());
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            LOG.warn("Embedding migration request rejected: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+    }
+}
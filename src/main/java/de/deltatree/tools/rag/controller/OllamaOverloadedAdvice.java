@@ -0,0 +1,29 @@
+package de.deltatree.tools.rag.controller;
+
+import de.deltatree.tools.rag.service.OllamaOverloadedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestControllerAdvice
+public class OllamaOverloadedAdvice {
+    private static final Logger LOG = LoggerFactory.getLogger(OllamaOverloadedAdvice.class);
+
+    @ExceptionHandler(OllamaOverloadedException.class)
+    public ResponseEntity<Map<String, Object>> handleOverloaded(OllamaOverloadedException e) {
+        LOG.warn("Returning 429 for {} request, retry after {}s", e.getPriority().propertyName(), e.getRetryAfterSeconds());
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", "The AI model is busy. Please try again shortly.");
+        response.put("retryAfterSeconds", e.getRetryAfterSeconds());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(response);
+    }
+}
@@ -0,0 +1,60 @@
+package de.deltatree.tools.rag.controller;
+
+import de.deltatree.tools.rag.service.VectorSnapshotService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Export and restore of the whole corpus, without access control: only with rag.snapshot.endpoint.enabled=true
+ */
+@RestController
+@ConditionalOnExpression("${rag.snapshot.enabled:true} and ${rag.snapshot.endpoint.enabled:false}")
+@RequestMapping("/snapshot")
+public class SnapshotController {
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotController.class);
+    private final VectorSnapshotService snapshotService;
+
+    public SnapshotController(VectorSnapshotService snapshotService) {
+        this.snapshotService = snapshotService;
+    }
+
+    // Written straight to the response instead of a StreamingResponseBody, which the async request timeout would cut off
+    @GetMapping
+    public void exportSnapshot(@RequestParam(value = "collection", required = false) List<String> collections,
+                               HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename("rag-snapshot-" + LocalDate.now() + ".bin").build().toString());
+        snapshotService.export(response.getOutputStream(), collections);
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> restoreSnapshot(@RequestParam(value = "force", defaultValue = "false") boolean force,
+                                             @RequestParam(value = "skipExisting", defaultValue = "false") boolean skipExisting,
+                                             HttpServletRequest request) throws IOException {
+        try {
+            return ResponseEntity.ok(snapshotService.restore(request.getInputStream(), force, skipExisting));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            LOG.warn("Snapshot not restored: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+    }
+}
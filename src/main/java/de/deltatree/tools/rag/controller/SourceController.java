@@ -0,0 +1,49 @@
+package de.deltatree.tools.rag.controller;
+
+import de.deltatree.tools.rag.model.UrlSource;
+import de.deltatree.tools.rag.service.UrlSourceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+@RestController
+@RequestMapping("/sources")
+public class SourceController {
+    private static final Logger LOG = LoggerFactory.getLogger(SourceController.class);
+    private final UrlSourceService urlSourceService;
+
+    public SourceController(UrlSourceService urlSourceService) {
+        this.urlSourceService = urlSourceService;
+    }
+
+    @GetMapping
+    public List<UrlSource> listSources() {
+        return urlSourceService.findAll();
+    }
+
+    // Re-checks one source right away instead of waiting for its refresh interval
+    @PostMapping("/{id}/refresh")
+    public ResponseEntity<?> refreshSource(@PathVariable Long id) {
+        Optional<UrlSource> source = urlSourceService.find(id);
+        if (source.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(urlSourceService.refresh(source.get()));
+        } catch (IOException e) {
+            LOG.error("Refreshing {} failed: {}", source.get().getUrl(), e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(Map.of("error", e.getMessage()));
+        }
+    }
+}
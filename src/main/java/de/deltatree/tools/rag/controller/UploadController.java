@@ -1,12 +1,16 @@
 package de.deltatree.tools.rag.controller;
 
+import de.deltatree.tools.rag.model.CollectionName;
 import de.deltatree.tools.rag.model.UploadResponse;
 import de.deltatree.tools.rag.service.DocumentPreprocessor;
+import de.deltatree.tools.rag.service.StructureAwareTextSplitter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.reader.tika.TikaDocumentReader;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -26,15 +30,33 @@ public class UploadController {
     private static final Logger LOG = LoggerFactory.getLogger(UploadController.class);
     private final VectorStore vectorStore;
     private final DocumentPreprocessor preprocessor;
+    private final StructureAwareTextSplitter splitter;
+    private final MeterRegistry meterRegistry;
+    private final Counter acceptedChunks;
+    private final Counter rejectedChunks;
 
-    public UploadController(VectorStore vectorStore, DocumentPreprocessor preprocessor) {
+    public UploadController(VectorStore vectorStore, DocumentPreprocessor preprocessor,
+                            StructureAwareTextSplitter splitter, MeterRegistry meterRegistry) {
         this.vectorStore = vectorStore;
         this.preprocessor = preprocessor;
+        this.splitter = splitter;
+        this.meterRegistry = meterRegistry;
+        this.acceptedChunks = Counter.builder("rag.ingest.chunks")
+                .description("Chunks passing or failing the quality filter")
+                .tag("result", "accepted")
+                .register(meterRegistry);
+        this.rejectedChunks = Counter.builder("rag.ingest.chunks")
+                .description("Chunks passing or failing the quality filter")
+                .tag("result", "rejected")
+                .register(meterRegistry);
     }
 
     @PostMapping("/upload")
-    public UploadResponse upload(@RequestParam("file") MultipartFile file) throws IOException {
-        LOG.info("Starting file upload: {}", file.getOriginalFilename());
+    public UploadResponse upload(@RequestParam("file") MultipartFile file,
+                                 @RequestParam(value = "tags", required = false) List<String> tags,
+                                 @RequestParam(value = "collection", required = false) String collection) throws IOException {
+        String targetCollection = CollectionName.normalize(collection);
+        LOG.info("Starting file upload: {} into collection {}", file.getOriginalFilename(), targetCollection);
 
         // Create temp directory and save file
         Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"), "rgdai-uploads");
@@ -47,15 +69,24 @@ public class UploadController {
         }
 
         // Read document
+        Timer.Sample parseSample = Timer.start(meterRegistry);
         TikaDocumentReader documentReader = new TikaDocumentReader(destinationFile.toUri().toString());
         List<Document> documents = documentReader.get();
+        parseSample.stop(stageTimer("parse"));
         documents.forEach(doc -> {
             doc.getMetadata().put("filename", file.getOriginalFilename());
+            doc.getMetadata().put("type", "upload");
+            doc.getMetadata().put("collection", targetCollection);
+            if (tags != null && !tags.isEmpty()) {
+                doc.getMetadata().put("tags", tags);
+            }
         });
         LOG.info("Read document with {} characters", documents.get(0).getContent().length());
 
         // STEP 1: Universal preprocessing for ANY document type
+        Timer.Sample preprocessSample = Timer.start(meterRegistry);
         List<Document> preprocessedDocs = preprocessor.preprocessDocuments(documents);
+        preprocessSample.stop(stageTimer("preprocess"));
         LOG.info("Preprocessed into {} clean documents", preprocessedDocs.size());
 
         if (preprocessedDocs.isEmpty()) {
@@ -63,16 +94,10 @@ public class UploadController {
             throw new RuntimeException("Document preprocessing failed - no usable content found");
         }
 
-        // STEP 2: Split into chunks with correct Spring AI settings
-        TokenTextSplitter splitter = TokenTextSplitter.builder()
-                .withChunkSize(800)                // Target chunk size in tokens
-                .withMinChunkSizeChars(200)        // Minimum characters per chunk
-                .withMinChunkLengthToEmbed(50)     // Minimum length to embed
-                .withMaxNumChunks(10000)           // Maximum number of chunks
-                .withKeepSeparator(true)           // Keep separators for readability
-                .build();
-
+        // STEP 2: Split into chunks along headings, paragraphs and sentences (rag.splitter.*)
+        Timer.Sample splitSample = Timer.start(meterRegistry);
         List<Document> splitDocuments = splitter.apply(preprocessedDocs);
+        splitSample.stop(stageTimer("split"));
         LOG.info("Split into {} chunks after preprocessing", splitDocuments.size());
 
         // Log sample of processed content
@@ -84,9 +109,13 @@ public class UploadController {
         }
 
         // STEP 3: Universal quality check - filter out poor quality chunks
+        Timer.Sample filterSample = Timer.start(meterRegistry);
         List<Document> qualityChunks = splitDocuments.stream()
                 .filter(doc -> preprocessor.isQualityChunk(doc.getContent()))
                 .toList();
+        filterSample.stop(stageTimer("quality_filter"));
+        acceptedChunks.increment(qualityChunks.size());
+        rejectedChunks.increment(splitDocuments.size() - qualityChunks.size());
 
         LOG.info("Quality filtered: {} chunks retained out of {}", qualityChunks.size(), splitDocuments.size());
 
@@ -108,6 +137,14 @@ public class UploadController {
 
         return new UploadResponse(file.getOriginalFilename(), file.getContentType(), file.getSize());
     }
+
+    // Embed and persist are timed per chunk inside the vector store under the same metric name
+    private Timer stageTimer(String stage) {
+        return Timer.builder("rag.ingest.stage")
+                .description("Latency of a single ingestion stage")
+                .tag("stage", stage)
+                .register(meterRegistry);
+    }
 }
 
 //old code
@@ -0,0 +1,148 @@
+package de.deltatree.tools.rag.crawler;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * State and progress of one crawl. Pages are counted as discovered when they enter the
+ * frontier; {@code pending} counts queued plus in-progress pages, so the crawl is done when it
+ * drops to zero (a page enqueues its links before it is counted as finished). Reading the
+ * sitemap counts as one pending task until its last page is queued.
+ */
+public class CrawlJob {
+    public enum Status { RUNNING, COMPLETED, CANCELLED, FAILED }
+
+    private static final int MAX_RECENT_ERRORS = 20;
+
+    private final String id;
+    private final CrawlRequest request;
+    private final String collection;
+    private final Set<String> allowedHosts;
+    private final List<Pattern> includePatterns;
+    private final List<Pattern> excludePatterns;
+    private final Instant startedAt = Instant.now();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger fetched = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger chunks = new AtomicInteger();
+    private final Deque<String> recentErrors = new ConcurrentLinkedDeque<>();
+    private volatile Status status = Status.RUNNING;
+    private volatile Instant finishedAt;
+
+    CrawlJob(String id, CrawlRequest request, String collection, Set<String> allowedHosts) {
+        this.id = id;
+        this.request = request;
+        this.collection = collection;
+        this.allowedHosts = ConcurrentHashMap.newKeySet();
+        this.allowedHosts.addAll(allowedHosts);
+        this.includePatterns = request.getIncludePatterns().stream().map(Pattern::compile).toList();
+        this.excludePatterns = request.getExcludePatterns().stream().map(Pattern::compile).toList();
+    }
+
+    public record Progress(String id, Status status, String collection, int discovered, int pending,
+                           int fetched, int failed, int skipped, int chunks,
+                           Instant startedAt, Instant finishedAt, List<String> recentErrors) {
+    }
+
+    public Progress progress() {
+        return new Progress(id, status, collection, seen.size(), pending.get(), fetched.get(), failed.get(),
+                skipped.get(), chunks.get(), startedAt, finishedAt, new ArrayList<>(recentErrors));
+    }
+
+    /**
+     * @return true if the URL is new, within limits, and was claimed for fetching
+     */
+    boolean claim(String url, String host, int depth) {
+        if (status != Status.RUNNING || depth > request.getMaxDepth()) {
+            return false;
+        }
+        if (request.isSameHost() && !allowedHosts.contains(host)) {
+            return false;
+        }
+        if (!includePatterns.isEmpty() && includePatterns.stream().noneMatch(p -> p.matcher(url).find())) {
+            return false;
+        }
+        if (excludePatterns.stream().anyMatch(p -> p.matcher(url).find())) {
+            return false;
+        }
+        if (seen.size() >= request.getMaxPages() || !seen.add(url)) {
+            return false;
+        }
+        pending.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Keep the crawl running while a task other than a page fetch may still queue pages,
+     * released with {@link #pageDone()}
+     */
+    void hold() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * @return true if this was the last pending page
+     */
+    boolean pageDone() {
+        return pending.decrementAndGet() == 0;
+    }
+
+    void allowHost(String host) {
+        allowedHosts.add(host);
+    }
+
+    void fetched(int chunkCount) {
+        fetched.incrementAndGet();
+        chunks.addAndGet(chunkCount);
+    }
+
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    void failed(String url, String message) {
+        failed.incrementAndGet();
+        recentErrors.addLast(url + ": " + message);
+        while (recentErrors.size() > MAX_RECENT_ERRORS) {
+            recentErrors.pollFirst();
+        }
+    }
+
+    void finish(Status finalStatus) {
+        if (status == Status.RUNNING || finalStatus == Status.CANCELLED) {
+            status = finalStatus;
+        }
+        if (finishedAt == null) {
+            finishedAt = Instant.now();
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    String getCollection() {
+        return collection;
+    }
+
+    int maxDepth() {
+        return request.getMaxDepth();
+    }
+
+    boolean isRunning() {
+        return status == Status.RUNNING;
+    }
+}
@@ -0,0 +1,83 @@
+package de.deltatree.tools.rag.crawler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CrawlRequest {
+    private List<String> seeds = new ArrayList<>();
+    private String sitemap;
+    private int maxDepth = 2;
+    private int maxPages = 500;
+    private boolean sameHost = true;
+    // Regular expressions matched against the full URL
+    private List<String> includePatterns = new ArrayList<>();
+    private List<String> excludePatterns = new ArrayList<>();
+    private String collection;
+
+    public CrawlRequest() {
+    }
+
+    public List<String> getSeeds() {
+        return seeds;
+    }
+
+    public void setSeeds(List<String> seeds) {
+        this.seeds = seeds;
+    }
+
+    public String getSitemap() {
+        return sitemap;
+    }
+
+    public void setSitemap(String sitemap) {
+        this.sitemap = sitemap;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    public void setMaxPages(int maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    public boolean isSameHost() {
+        return sameHost;
+    }
+
+    public void setSameHost(boolean sameHost) {
+        this.sameHost = sameHost;
+    }
+
+    public List<String> getIncludePatterns() {
+        return includePatterns;
+    }
+
+    public void setIncludePatterns(List<String> includePatterns) {
+        this.includePatterns = includePatterns;
+    }
+
+    public List<String> getExcludePatterns() {
+        return excludePatterns;
+    }
+
+    public void setExcludePatterns(List<String> excludePatterns) {
+        this.excludePatterns = excludePatterns;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public void setCollection(String collection) {
+        this.collection = collection;
+    }
+}
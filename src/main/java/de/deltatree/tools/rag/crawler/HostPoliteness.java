@@ -0,0 +1,111 @@
+package de.deltatree.tools.rag.crawler;
+
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-host crawl etiquette: a minimum delay between requests to the same host, and the
+ * Disallow rules for "User-agent: *" (or our own agent) from the host's robots.txt. The first
+ * page of a host loads its robots.txt outside the map, while other pages of that host wait for it.
+ */
+class HostPoliteness {
+    private static final Logger LOG = LoggerFactory.getLogger(HostPoliteness.class);
+
+    private final long delayMillis;
+    private final boolean respectRobots;
+    private final String userAgent;
+    private final Map<String, Long> nextSlot = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<List<String>>> disallowed = new ConcurrentHashMap<>();
+
+    HostPoliteness(long delayMillis, boolean respectRobots, String userAgent) {
+        this.delayMillis = delayMillis;
+        this.respectRobots = respectRobots;
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * Reserve the next request slot for the host.
+     *
+     * @return milliseconds to wait before the request may be sent
+     */
+    long reserve(String host) {
+        long now = System.currentTimeMillis();
+        long slot = nextSlot.merge(host, now + delayMillis,
+                (reserved, ignored) -> Math.max(reserved, now) + delayMillis) - delayMillis;
+        return Math.max(0, slot - now);
+    }
+
+    boolean isAllowed(URI uri) {
+        if (!respectRobots) {
+            return true;
+        }
+        String hostKey = uri.getScheme() + "://" + uri.getRawAuthority();
+        CompletableFuture<List<String>> loaded = disallowed.get(hostKey);
+        if (loaded == null) {
+            CompletableFuture<List<String>> loading = new CompletableFuture<>();
+            loaded = disallowed.putIfAbsent(hostKey, loading);
+            if (loaded == null) {
+                loaded = loading;
+                try {
+                    loading.complete(loadRobots(hostKey));
+                } finally {
+                    loading.complete(List.of());
+                }
+            }
+        }
+        List<String> rules = loaded.join();
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        return rules.stream().noneMatch(path::startsWith);
+    }
+
+    private List<String> loadRobots(String hostKey) {
+        List<String> rules = new ArrayList<>();
+        try {
+            Connection.Response response = Jsoup.connect(hostKey + "/robots.txt")
+                    .userAgent(userAgent)
+                    .ignoreContentType(true)
+                    .ignoreHttpErrors(true)
+                    .timeout(10_000)
+                    .execute();
+            if (response.statusCode() != 200) {
+                return rules;
+            }
+            boolean applies = false;
+            boolean inAgentBlock = false;
+            for (String rawLine : response.body().split("\n")) {
+                String line = rawLine.replaceAll("#.*", "").trim();
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String field = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                if (field.equals("user-agent")) {
+                    // Consecutive User-agent lines form one group
+                    applies = (inAgentBlock && applies) || value.equals("*")
+                            || userAgent.toLowerCase(Locale.ROOT).contains(value.toLowerCase(Locale.ROOT));
+                    inAgentBlock = true;
+                } else {
+                    inAgentBlock = false;
+                    if (applies && field.equals("disallow") && !value.isEmpty()) {
+                        rules.add(value);
+                    }
+                }
+            }
+            LOG.info("robots.txt of {} disallows {} path prefixes", hostKey, rules.size());
+        } catch (Exception e) {
+            LOG.debug("No robots.txt for {}: {}", hostKey, e.getMessage());
+        }
+        return rules;
+    }
+}
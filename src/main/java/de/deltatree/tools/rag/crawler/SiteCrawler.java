@@ -0,0 +1,291 @@
+package de.deltatree.tools.rag.crawler;
+
+import de.deltatree.tools.rag.model.CollectionName;
+import de.deltatree.tools.rag.service.UrlSourceService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+import org.jsoup.UnsupportedMimeTypeException;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background crawler feeding pages into the URL ingestion pipeline. Every page is one task on
+ * the shared crawler pool, whose size bounds the concurrent fetches across all jobs. A task
+ * waiting for its host's politeness delay is rescheduled instead of blocking a pool thread.
+ * Sitemaps are read the same way, one task per sitemap, so starting a crawl never fetches.
+ */
+@Service
+public class SiteCrawler {
+    private static final Logger LOG = LoggerFactory.getLogger(SiteCrawler.class);
+    private static final int MAX_SITEMAPS = 50;
+    private static final int MAX_RETAINED_JOBS = 100;
+
+    private final UrlSourceService urlSourceService;
+    private final ScheduledExecutorService executor;
+    private final HostPoliteness politeness;
+    private final String userAgent;
+    private final int timeoutMillis;
+    private final Map<String, CrawlJob> jobs = new ConcurrentHashMap<>();
+    private final Timer fetchTimer;
+    private final Counter fetchedPages;
+    private final Counter failedPages;
+    private final Counter skippedPages;
+
+    public SiteCrawler(UrlSourceService urlSourceService,
+                       @Qualifier("crawlerExecutor") ScheduledExecutorService executor,
+                       @Value("${rag.crawler.per-host-delay-ms:500}") long perHostDelayMillis,
+                       @Value("${rag.crawler.respect-robots:true}") boolean respectRobots,
+                       @Value("${rag.crawler.user-agent:rag4all-crawler}") String userAgent,
+                       @Value("${rag.crawler.timeout-ms:30000}") int timeoutMillis,
+                       MeterRegistry meterRegistry) {
+        this.urlSourceService = urlSourceService;
+        this.executor = executor;
+        this.politeness = new HostPoliteness(perHostDelayMillis, respectRobots, userAgent);
+        this.userAgent = userAgent;
+        this.timeoutMillis = timeoutMillis;
+        this.fetchTimer = Timer.builder("rag.crawler.fetch")
+                .description("Latency of fetching one page")
+                .register(meterRegistry);
+        this.fetchedPages = pageCounter(meterRegistry, "fetched");
+        this.failedPages = pageCounter(meterRegistry, "failed");
+        this.skippedPages = pageCounter(meterRegistry, "skipped");
+    }
+
+    public CrawlJob start(CrawlRequest request) {
+        String collection = CollectionName.normalize(request.getCollection());
+        Set<String> seeds = new LinkedHashSet<>();
+        for (String seed : request.getSeeds()) {
+            seeds.add(normalize(URI.create(seed.trim())));
+        }
+        String sitemap = request.getSitemap() == null ? "" : request.getSitemap().trim();
+        if (seeds.isEmpty() && sitemap.isEmpty()) {
+            throw new IllegalArgumentException("A crawl needs at least one seed URL or a sitemap");
+        }
+        if (!sitemap.isEmpty()) {
+            // A malformed sitemap URL is rejected with the request, not in the background
+            URI.create(sitemap);
+        }
+        Set<String> hosts = new HashSet<>();
+        seeds.forEach(seed -> hosts.add(hostOf(URI.create(seed))));
+
+        CrawlJob job = new CrawlJob(UUID.randomUUID().toString(), request, collection, hosts);
+        retain(job);
+        LOG.info("Crawl {} started with {} seeds into collection {}", job.getId(), seeds.size(), collection);
+        if (!sitemap.isEmpty()) {
+            // Held until the last sitemap is read, so the crawl cannot complete before its pages are queued
+            job.hold();
+            scheduleSitemap(job, new ArrayList<>(List.of(sitemap)), 0);
+        }
+        int claimed = 0;
+        for (String seed : seeds) {
+            if (job.claim(seed, hostOf(URI.create(seed)), 0)) {
+                claimed++;
+                schedule(job, seed, 0);
+            }
+        }
+        if (claimed == 0 && sitemap.isEmpty()) {
+            job.finish(CrawlJob.Status.COMPLETED);
+        }
+        return job;
+    }
+
+    public Optional<CrawlJob> find(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public Collection<CrawlJob> jobs() {
+        return jobs.values();
+    }
+
+    public boolean cancel(String id) {
+        CrawlJob job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        job.finish(CrawlJob.Status.CANCELLED);
+        LOG.info("Crawl {} cancelled", id);
+        return true;
+    }
+
+    private void schedule(CrawlJob job, String url, int depth) {
+        URI uri = URI.create(url);
+        long waitMillis = politeness.reserve(hostOf(uri));
+        executor.schedule(() -> crawl(job, uri, depth), waitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void crawl(CrawlJob job, URI uri, int depth) {
+        String url = uri.toString();
+        try {
+            if (!job.isRunning()) {
+                return;
+            }
+            if (!politeness.isAllowed(uri)) {
+                job.skipped();
+                skippedPages.increment();
+                return;
+            }
+
+            Timer.Sample sample = Timer.start();
+            Connection.Response response = Jsoup.connect(url)
+                    .userAgent(userAgent)
+                    .timeout(timeoutMillis)
+                    .execute();
+            org.jsoup.nodes.Document page = response.parse();
+            sample.stop(fetchTimer);
+
+            // Links first: converting the page to text strips parts of the DOM
+            if (depth < job.maxDepth()) {
+                for (Element link : page.select("a[href]")) {
+                    String target = link.absUrl("href");
+                    if (target.startsWith("http://") || target.startsWith("https://")) {
+                        enqueue(job, target, depth + 1);
+                    }
+                }
+            }
+
+            // Registered as a URL source, so a re-crawl only embeds what changed
+            int chunkCount = urlSourceService.ingestFetched(url, job.getCollection(), response, page).chunkCount();
+            job.fetched(chunkCount);
+            fetchedPages.increment();
+            LOG.debug("Crawl {}: {} (depth {}) -> {} chunks", job.getId(), url, depth, chunkCount);
+        } catch (UnsupportedMimeTypeException e) {
+            job.skipped();
+            skippedPages.increment();
+        } catch (Exception e) {
+            job.failed(url, e.getMessage());
+            failedPages.increment();
+            LOG.warn("Crawl {}: fetching {} failed: {}", job.getId(), url, e.getMessage());
+        } finally {
+            done(job);
+        }
+    }
+
+    private void done(CrawlJob job) {
+        if (job.pageDone()) {
+            job.finish(CrawlJob.Status.COMPLETED);
+            LOG.info("Crawl {} finished: {}", job.getId(), job.progress());
+        }
+    }
+
+    private void enqueue(CrawlJob job, String target, int depth) {
+        URI uri;
+        try {
+            uri = URI.create(target);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        String normalized = normalize(uri);
+        if (job.claim(normalized, hostOf(uri), depth)) {
+            schedule(job, normalized, depth);
+        }
+    }
+
+    private void scheduleSitemap(CrawlJob job, List<String> sitemaps, int index) {
+        long waitMillis = politeness.reserve(hostOf(URI.create(sitemaps.get(index))));
+        executor.schedule(() -> readSitemap(job, sitemaps, index), waitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue the pages of one sitemap as seeds, then schedule the next one of the sitemap indexes
+     * followed so far. The last sitemap releases the job's hold.
+     */
+    private void readSitemap(CrawlJob job, List<String> sitemaps, int index) {
+        String sitemapUrl = sitemaps.get(index);
+        try {
+            if (!job.isRunning() || !politeness.isAllowed(URI.create(sitemapUrl))) {
+                return;
+            }
+            org.jsoup.nodes.Document xml = Jsoup.connect(sitemapUrl)
+                    .userAgent(userAgent)
+                    .timeout(timeoutMillis)
+                    .ignoreContentType(true)
+                    .parser(Parser.xmlParser())
+                    .get();
+            for (Element loc : xml.select("sitemap > loc")) {
+                if (sitemaps.size() < MAX_SITEMAPS && isUri(loc.text().trim())) {
+                    sitemaps.add(loc.text().trim());
+                }
+            }
+            int pages = 0;
+            for (Element loc : xml.select("url > loc")) {
+                if (isUri(loc.text().trim())) {
+                    URI page = URI.create(loc.text().trim());
+                    // Listed pages are seeds: their hosts are in scope of a same-host crawl
+                    job.allowHost(hostOf(page));
+                    enqueue(job, page.toString(), 0);
+                    pages++;
+                }
+            }
+            LOG.info("Crawl {}: sitemap {} lists {} pages", job.getId(), sitemapUrl, pages);
+        } catch (Exception e) {
+            LOG.warn("Crawl {}: reading sitemap {} failed: {}", job.getId(), sitemapUrl, e.getMessage());
+        } finally {
+            if (job.isRunning() && index + 1 < sitemaps.size()) {
+                scheduleSitemap(job, sitemaps, index + 1);
+            } else {
+                done(job);
+            }
+        }
+    }
+
+    private static boolean isUri(String url) {
+        try {
+            URI.create(url);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void retain(CrawlJob job) {
+        jobs.put(job.getId(), job);
+        if (jobs.size() > MAX_RETAINED_JOBS) {
+            jobs.values().stream()
+                    .filter(candidate -> !candidate.isRunning())
+                    .min(Comparator.comparing(candidate -> candidate.progress().startedAt()))
+                    .ifPresent(oldest -> jobs.remove(oldest.getId()));
+        }
+    }
+
+    // Without fragment, so that page#a and page#b are fetched once
+    private static String normalize(URI uri) {
+        String url = uri.normalize().toString();
+        int fragment = url.indexOf('#');
+        return fragment >= 0 ? url.substring(0, fragment) : url;
+    }
+
+    private static String hostOf(URI uri) {
+        return String.valueOf(uri.getRawAuthority()).toLowerCase(Locale.ROOT);
+    }
+
+    private static Counter pageCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("rag.crawler.pages")
+                .description("Pages handled by the crawler")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
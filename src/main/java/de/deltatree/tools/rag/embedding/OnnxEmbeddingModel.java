@@ -0,0 +1,202 @@
+package de.deltatree.tools.rag.embedding;
+
+import ai.djl.huggingface.tokenizers.Encoding;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Embedding model running an ONNX export of a sentence embedding model in the JVM, on the CPU.
+ * Inference runs on a pool of sessions: every session has its own intra-op threads, so a few
+ * concurrent small batches use the cores better than one session shared by all callers. Texts
+ * are tokenized with the model's tokenizer.json, padded to the longest text of the batch and
+ * mean pooled over the attention mask (unless the model already has a sentence_embedding
+ * output), then L2-normalized.
+ */
+public class OnnxEmbeddingModel implements EmbeddingModel, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(OnnxEmbeddingModel.class);
+    private static final String POOLED_OUTPUT = "sentence_embedding";
+
+    private final OrtEnvironment environment = OrtEnvironment.getEnvironment();
+    private final List<OrtSession> allSessions = new ArrayList<>();
+    private final BlockingQueue<OrtSession> idleSessions;
+    private final HuggingFaceTokenizer tokenizer;
+    private final int maxBatchSize;
+    private final boolean hasTokenTypeIds;
+    private final boolean pooledOutput;
+    private final Timer inferenceTimer;
+    private final DistributionSummary batchSize;
+
+    public OnnxEmbeddingModel(Path modelFile, Path tokenizerFile, int poolSize, int intraOpThreads,
+                              int maxBatchSize, int maxLength, MeterRegistry meterRegistry)
+            throws IOException, OrtException {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.tokenizer = HuggingFaceTokenizer.builder()
+                .optTokenizerPath(tokenizerFile)
+                .optMaxLength(maxLength)
+                .optTruncation(true)
+                .optPadding(true)
+                .build();
+        int sessions = Math.max(1, poolSize);
+        this.idleSessions = new ArrayBlockingQueue<>(sessions);
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            options.setIntraOpNumThreads(Math.max(1, intraOpThreads));
+            options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+            for (int i = 0; i < sessions; i++) {
+                OrtSession session = environment.createSession(modelFile.toString(), options);
+                allSessions.add(session);
+                idleSessions.add(session);
+            }
+        }
+        OrtSession first = allSessions.get(0);
+        this.hasTokenTypeIds = first.getInputNames().contains("token_type_ids");
+        this.pooledOutput = first.getOutputNames().contains(POOLED_OUTPUT);
+
+        this.inferenceTimer = Timer.builder("rag.embedding.onnx.inference")
+                .description("Latency of one batched ONNX inference")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("rag.embedding.onnx.batch.size")
+                .description("Texts per ONNX inference")
+                .register(meterRegistry);
+        Gauge.builder("rag.embedding.onnx.sessions.idle", idleSessions, BlockingQueue::size)
+                .description("ONNX sessions not running an inference")
+                .register(meterRegistry);
+        LOG.info("ONNX embedding model {} loaded: {} sessions with {} intra-op threads, max batch size {}, max length {}",
+                modelFile, sessions, intraOpThreads, this.maxBatchSize, maxLength);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int from = 0; from < texts.size(); from += maxBatchSize) {
+            List<String> batch = texts.subList(from, Math.min(texts.size(), from + maxBatchSize));
+            float[][] vectors = infer(batch);
+            for (int i = 0; i < vectors.length; i++) {
+                embeddings.add(new Embedding(vectors[i], from + i));
+            }
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getContent());
+    }
+
+    private float[][] infer(List<String> texts) {
+        Encoding[] encodings = tokenizer.batchEncode(texts);
+        int length = encodings[0].getIds().length;
+        long[][] ids = new long[texts.size()][];
+        long[][] mask = new long[texts.size()][];
+        long[][] types = new long[texts.size()][];
+        for (int i = 0; i < encodings.length; i++) {
+            ids[i] = encodings[i].getIds();
+            mask[i] = encodings[i].getAttentionMask();
+            types[i] = encodings[i].getTypeIds();
+        }
+
+        OrtSession session = acquire();
+        Timer.Sample sample = Timer.start();
+        Map<String, OnnxTensor> inputs = new HashMap<>();
+        try {
+            inputs.put("input_ids", OnnxTensor.createTensor(environment, ids));
+            inputs.put("attention_mask", OnnxTensor.createTensor(environment, mask));
+            if (hasTokenTypeIds) {
+                inputs.put("token_type_ids", OnnxTensor.createTensor(environment, types));
+            }
+            try (OrtSession.Result result = session.run(inputs)) {
+                float[][] vectors = pooledOutput
+                        ? (float[][]) result.get(POOLED_OUTPUT).orElseThrow().getValue()
+                        : meanPool((float[][][]) result.get(0).getValue(), mask, length);
+                for (float[] vector : vectors) {
+                    normalize(vector);
+                }
+                return vectors;
+            }
+        } catch (OrtException e) {
+            throw new IllegalStateException("ONNX inference failed", e);
+        } finally {
+            inputs.values().forEach(OnnxTensor::close);
+            sample.stop(inferenceTimer);
+            batchSize.record(texts.size());
+            idleSessions.add(session);
+        }
+    }
+
+    private OrtSession acquire() {
+        try {
+            return idleSessions.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an ONNX session", e);
+        }
+    }
+
+    // Average of the token vectors, padding tokens excluded
+    private static float[][] meanPool(float[][][] tokenVectors, long[][] mask, int length) {
+        float[][] pooled = new float[tokenVectors.length][];
+        for (int i = 0; i < tokenVectors.length; i++) {
+            float[] sum = new float[tokenVectors[i][0].length];
+            int tokens = 0;
+            for (int t = 0; t < length; t++) {
+                if (mask[i][t] == 0) {
+                    continue;
+                }
+                tokens++;
+                float[] vector = tokenVectors[i][t];
+                for (int d = 0; d < sum.length; d++) {
+                    sum[d] += vector[d];
+                }
+            }
+            for (int d = 0; d < sum.length; d++) {
+                sum[d] /= Math.max(1, tokens);
+            }
+            pooled[i] = sum;
+        }
+        return pooled;
+    }
+
+    private static void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 0) {
+            for (int d = 0; d < vector.length; d++) {
+                vector[d] /= (float) norm;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws OrtException {
+        for (OrtSession session : allSessions) {
+            session.close();
+        }
+        tokenizer.close();
+    }
+}
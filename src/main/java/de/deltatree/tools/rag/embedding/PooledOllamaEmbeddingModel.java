@@ -0,0 +1,86 @@
+package de.deltatree.tools.rag.embedding;
+
+import de.deltatree.tools.rag.config.ConcurrencyConfig;
+import de.deltatree.tools.rag.service.OllamaEndpointPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Embedding model calling Ollama's /api/embed through the endpoint pool, so chunk and query
+ * embeddings are spread over all Ollama instances. Embedding is idempotent, so calls are hedged.
+ */
+public class PooledOllamaEmbeddingModel implements EmbeddingModel {
+    private static final Logger LOG = LoggerFactory.getLogger(PooledOllamaEmbeddingModel.class);
+    private static final String PATH = "/api/embed";
+
+    private final OllamaEndpointPool endpointPool;
+    private volatile String model;
+    private final String keepAlive;
+    private final RestTemplate restTemplate;
+
+    public PooledOllamaEmbeddingModel(OllamaEndpointPool endpointPool, String model, String keepAlive) {
+        this.endpointPool = endpointPool;
+        this.model = model;
+        this.keepAlive = keepAlive;
+        this.restTemplate = new RestTemplate(ConcurrencyConfig.jdkRequestFactory(
+                Duration.ofSeconds(10), Duration.ofMinutes(1)));
+        LOG.info("Embedding with Ollama model {} on {}", model, endpointPool.availableEndpoints());
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        String model = this.model;
+        HttpEntity<Map<String, Object>> body = new HttpEntity<>(
+                Map.of("model", model, "input", texts, "keep_alive", keepAlive), headers);
+
+        Map<?, ?> response = endpointPool.executeHedged(PATH,
+                baseUrl -> restTemplate.postForObject(baseUrl + PATH, body, Map.class));
+        if (response == null || !(response.get("embeddings") instanceof List<?> vectors) || vectors.size() != texts.size()) {
+            throw new IllegalStateException("Ollama returned no embeddings for " + texts.size() + " texts");
+        }
+        List<Embedding> embeddings = new ArrayList<>(vectors.size());
+        for (int i = 0; i < vectors.size(); i++) {
+            List<?> values = (List<?>) vectors.get(i);
+            float[] vector = new float[values.size()];
+            for (int j = 0; j < vector.length; j++) {
+                vector[j] = ((Number) values.get(j)).floatValue();
+            }
+            embeddings.add(new Embedding(vector, i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * Embed with another model from now on, once an embedding migration has switched the stored vectors over
+     */
+    public void useModel(String model) {
+        LOG.info("Switching embeddings from {} to {}", this.model, model);
+        this.model = model;
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getContent());
+    }
+}
@@ -2,6 +2,8 @@ package de.deltatree.tools.rag.model;
 
 public class Answer {
     private String answer;
+    // Conversation to continue with the next question
+    private String sessionId;
 
     public Answer() {
     }
@@ -10,6 +12,11 @@ public class Answer {
         this.answer = answer;
     }
 
+    public Answer(String answer, String sessionId) {
+        this.answer = answer;
+        this.sessionId = sessionId;
+    }
+
     public String getAnswer() {
         return answer;
     }
@@ -17,4 +24,12 @@ public class Answer {
     public void setAnswer(String answer) {
         this.answer = answer;
     }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
 }
@@ -0,0 +1,33 @@
+package de.deltatree.tools.rag.model;
+
+import de.deltatree.tools.rag.service.InvalidCollectionNameException;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Collection names as they arrive from requests. Each collection is stored in its own
+ * partition, and the name becomes part of the partition table name, hence the strict pattern.
+ */
+public final class CollectionName {
+    public static final String DEFAULT = "default";
+    private static final Pattern VALID = Pattern.compile("[a-z0-9][a-z0-9_]{0,47}");
+
+    private CollectionName() {
+    }
+
+    /**
+     * @return the lower-cased name, or {@link #DEFAULT} for a missing one
+     * @throws InvalidCollectionNameException if the name does not match the allowed pattern
+     */
+    public static String normalize(String collection) {
+        if (collection == null || collection.isBlank()) {
+            return DEFAULT;
+        }
+        String normalized = collection.trim().toLowerCase(Locale.ROOT);
+        if (!VALID.matcher(normalized).matches()) {
+            throw new InvalidCollectionNameException(collection);
+        }
+        return normalized;
+    }
+}
@@ -4,7 +4,12 @@ package de.deltatree.tools.rag.model;
 import jakarta.persistence.*;
 import com.pgvector.PGvector;
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.annotations.Type;
+import org.hibernate.type.SqlTypes;
 import de.deltatree.tools.rag.config.types.PGvectorType;
 
 @Entity
@@ -19,6 +24,8 @@ public class DocumentEmbedding {
 //    private PGvector embedding;
     @Type(PGvectorType.class)
 //    @Column(name = "embedding", columnDefinition = "vector(1536)")
+    // The dimensions only apply when Hibernate creates the column; an embedding migration
+    // (ReembeddingService) replaces it with one of the new model's dimensions
     @Column(name = "embedding", columnDefinition = "vector(1024)")
     private PGvector embedding;
 
@@ -28,9 +35,27 @@ public class DocumentEmbedding {
     @Column(name = "file_name")
     private String fileName;
 
+    // Partition key: every collection is stored in its own partition
+    @ColumnDefault("'default'")
+    @Column(name = "collection", length = 48)
+    private String collection = CollectionName.DEFAULT;
+
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
+    // SimHash of the chunk text for near-duplicate detection, null for very short chunks
+    @Column(name = "simhash")
+    private Long simhash;
+
+    // Ollama model that produced the embedding, so vectors written during a model switch can be found
+    @Column(name = "embedding_model")
+    private String embeddingModel;
+
+    // Source, type, title, url, tags, ... (filename lives in file_name)
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "metadata", columnDefinition = "jsonb")
+    private Map<String, Object> metadata = new HashMap<>();
+
     public DocumentEmbedding() {}
 
     // Getters and Setters
@@ -66,6 +91,14 @@ public class DocumentEmbedding {
         this.fileName = fileName;
     }
 
+    public String getCollection() {
+        return collection;
+    }
+
+    public void setCollection(String collection) {
+        this.collection = collection;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -73,4 +106,28 @@ public class DocumentEmbedding {
     public void setCreatedAt(LocalDateTime createdAt) {
         this.createdAt = createdAt;
     }
+
+    public Long getSimhash() {
+        return simhash;
+    }
+
+    public void setSimhash(Long simhash) {
+        this.simhash = simhash;
+    }
+
+    public String getEmbeddingModel() {
+        return embeddingModel;
+    }
+
+    public void setEmbeddingModel(String embeddingModel) {
+        this.embeddingModel = embeddingModel;
+    }
+
+    public Map<String, Object> getMetadata() {
+        return metadata;
+    }
+
+    public void setMetadata(Map<String, Object> metadata) {
+        this.metadata = metadata;
+    }
 }
\ No newline at end of file
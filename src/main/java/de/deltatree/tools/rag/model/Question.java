@@ -2,6 +2,14 @@ package de.deltatree.tools.rag.model;
 
 public class Question {
     private String question;
+    // Optional metadata filter, e.g. "type == 'url' && tags == 'hr'"
+    private String filter;
+    // Collection to search, "default" if missing
+    private String collection;
+    // Conversation of a follow-up question, from the previous answer
+    private String sessionId;
+    // Draft sent to POST /chat/retrieve while the question was typed, whose retrieval it reuses
+    private String draftId;
 
     public Question() {
     }
@@ -17,4 +25,36 @@ public class Question {
     public void setQuestion(String question) {
         this.question = question;
     }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public void setCollection(String collection) {
+        this.collection = collection;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public String getDraftId() {
+        return draftId;
+    }
+
+    public void setDraftId(String draftId) {
+        this.draftId = draftId;
+    }
 }
@@ -2,6 +2,7 @@ package de.deltatree.tools.rag.model;
 
 public class UrlRequest {
     private String url;
+    private String collection;
 
     public UrlRequest() {
     }
@@ -17,4 +18,12 @@ public class UrlRequest {
     public void setUrl(String url) {
         this.url = url;
     }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public void setCollection(String collection) {
+        this.collection = collection;
+    }
 }
\ No newline at end of file
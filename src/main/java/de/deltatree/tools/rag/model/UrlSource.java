@@ -0,0 +1,141 @@
+package de.deltatree.tools.rag.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * A page ingested from a URL, with what is needed to re-check it cheaply: the validators for
+ * a conditional GET and a hash of the extracted text.
+ */
+@Entity
+@Table(name = "url_sources", uniqueConstraints = @UniqueConstraint(columnNames = {"url", "collection"}))
+public class UrlSource {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(columnDefinition = "text", nullable = false)
+    private String url;
+
+    @Column(length = 48, nullable = false)
+    private String collection;
+
+    private String title;
+
+    // Validators from the last 200 response, sent back as If-None-Match / If-Modified-Since
+    private String etag;
+
+    @Column(name = "last_modified")
+    private String lastModified;
+
+    // SHA-256 of the extracted text
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "chunk_count")
+    private int chunkCount;
+
+    @Column(name = "last_checked_at")
+    private LocalDateTime lastCheckedAt;
+
+    @Column(name = "last_changed_at")
+    private LocalDateTime lastChangedAt;
+
+    @Column(name = "last_error", columnDefinition = "text")
+    private String lastError;
+
+    public UrlSource() {}
+
+    public UrlSource(String url, String collection) {
+        this.url = url;
+        this.collection = collection;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public void setCollection(String collection) {
+        this.collection = collection;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public void setChunkCount(int chunkCount) {
+        this.chunkCount = chunkCount;
+    }
+
+    public LocalDateTime getLastCheckedAt() {
+        return lastCheckedAt;
+    }
+
+    public void setLastCheckedAt(LocalDateTime lastCheckedAt) {
+        this.lastCheckedAt = lastCheckedAt;
+    }
+
+    public LocalDateTime getLastChangedAt() {
+        return lastChangedAt;
+    }
+
+    public void setLastChangedAt(LocalDateTime lastChangedAt) {
+        this.lastChangedAt = lastChangedAt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+}
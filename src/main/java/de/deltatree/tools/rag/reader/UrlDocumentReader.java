@@ -31,25 +31,29 @@ public class UrlDocumentReader implements DocumentReader {
                     .timeout(timeout)
                     .get();
 
-            jsoupDoc.select("script, style, iframe, noscript").remove();
-            String content = jsoupDoc.text();
-
-            String title = jsoupDoc.title();
-
-            Map<String, Object> metadata = Map.of(
-                    "source", url,
-                    "title", title,
-                    "type", "url"
-            );
+            org.springframework.ai.document.Document document = toDocument(url, jsoupDoc);
 
             LOG.info("Successfully fetched content from URL: {}, title: {}, content length: {} chars",
-                    url, title, content.length());
+                    url, document.getMetadata().get("title"), document.getContent().length());
 
-            return List.of(new org.springframework.ai.document.Document(content, metadata));
+            return List.of(document);
         }
         catch (IOException e) {
             LOG.error("Failed to fetch URL content: {}", url, e);
             return Collections.emptyList();
         }
     }
+
+    /**
+     * Text and metadata of a fetched page. Removes scripts, styles and frames from the given document.
+     */
+    public static org.springframework.ai.document.Document toDocument(String url, Document jsoupDoc) {
+        jsoupDoc.select("script, style, iframe, noscript").remove();
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("source", url);
+        metadata.put("url", url);
+        metadata.put("title", jsoupDoc.title());
+        metadata.put("type", "url");
+        return new org.springframework.ai.document.Document(jsoupDoc.text(), metadata);
+    }
 }
\ No newline at end of file
@@ -5,11 +5,16 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
+// Declared queries are read-only, so they are routed to the read replica when one is configured;
+// inherited save/delete methods keep their read-write transactions
 @Repository
-public interface DocumentEmbeddingRepository extends JpaRepository<DocumentEmbedding, Long> {
+@Transactional(readOnly = true)
+public interface DocumentEmbeddingRepository extends JpaRepository<DocumentEmbedding, Long>,
+        DocumentEmbeddingRepositoryCustom {
 
     // Find nearest neighbors using cosine distance
     @Query(value = "SELECT * FROM document_embeddings_ollama ORDER BY embedding <=> CAST(:queryEmbedding AS vector) LIMIT :k", nativeQuery = true)
@@ -44,6 +49,18 @@ public interface DocumentEmbeddingRepository extends JpaRepository<DocumentEmbed
     // Get the most recent documents
     @Query("SELECT d FROM DocumentEmbedding d ORDER BY d.createdAt DESC")
     List<DocumentEmbedding> findAllOrderByCreatedAtDesc();
+
+    // Get the most recent documents of one collection
+    @Query("SELECT d FROM DocumentEmbedding d WHERE d.collection = :collection ORDER BY d.createdAt DESC")
+    List<DocumentEmbedding> findByCollectionOrderByCreatedAtDesc(@Param("collection") String collection);
+
+    // Count documents in a collection
+    long countByCollection(String collection);
+
+    // Chunks of one source document (the URL for web pages) within a collection. Read from the
+    // primary: incremental re-ingestion diffs against it and must see its own latest writes
+    @Transactional
+    List<DocumentEmbedding> findByFileNameAndCollection(String fileName, String collection);
 }
 
 //old code
@@ -0,0 +1,64 @@
+package de.deltatree.tools.rag.repository;
+
+import de.deltatree.tools.rag.model.DocumentEmbedding;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Nearest neighbor search with an optional metadata filter, built as dynamic SQL, the
+ * partition management behind collections and the SimHash lookups for near-duplicate chunks
+ */
+public interface DocumentEmbeddingRepositoryCustom {
+
+    /**
+     * @param collection only this collection's partition is searched
+     * @param threshold  minimum cosine similarity, 0 or less for none
+     * @param filter     metadata filter, or null
+     */
+    List<DocumentEmbedding> searchNearest(float[] queryEmbedding, String collection, int k, double threshold,
+                                          Filter.Expression filter);
+
+    /**
+     * Run the same query as {@link #searchNearest} under EXPLAIN (ANALYZE, BUFFERS)
+     *
+     * @return the lines of the text plan
+     */
+    List<String> explainNearest(float[] queryEmbedding, String collection, int k, double threshold,
+                                Filter.Expression filter);
+
+    /**
+     * Create the partition for a collection unless it exists
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void createCollectionIfMissing(String collection);
+
+    /**
+     * Detach and drop the collection's partition together with all its chunks
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void dropCollection(String collection);
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    List<String> findCollections();
+
+    /**
+     * Stored chunks of the collection that share at least one SimHash band with one of the
+     * fingerprints. Reads the primary, so chunks added just before are seen.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    List<StoredFingerprint> findFingerprintCandidates(String collection, Collection<Long> fingerprints);
+
+    /**
+     * Record on a stored chunk that a near-duplicate from another source was not stored
+     * (metadata list {@code also_in})
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void addDuplicateSource(long id, String collection, String fileName);
+
+    record StoredFingerprint(long id, String fileName, long simhash) {
+    }
+}
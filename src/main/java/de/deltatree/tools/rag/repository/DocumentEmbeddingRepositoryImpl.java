@@ -0,0 +1,280 @@
+package de.deltatree.tools.rag.repository;
+
+import de.deltatree.tools.rag.model.CollectionName;
+import de.deltatree.tools.rag.model.DocumentEmbedding;
+import de.deltatree.tools.rag.service.InvalidCollectionNameException;
+import de.deltatree.tools.rag.vectorstore.SimHash;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Filtered nearest neighbor search. An HNSW index scan stops after ef_search candidates, so a
+ * selective filter can leave fewer than k rows. Depending on rag.vectorstore.filtered-scan:
+ * <ul>
+ *     <li>{@code exact}: skip the vector index, filter first (GIN index) and sort the matches exactly</li>
+ *     <li>{@code iterative}: let pgvector 0.8+ keep scanning the index until k rows pass the filter</li>
+ *     <li>{@code auto}: exact when at most rag.vectorstore.exact-scan-max-rows rows match, else iterative</li>
+ * </ul>
+ * Unfiltered searches always use the index. The collection condition restricts every search
+ * to the collection's partition and its own HNSW index.
+ */
+public class DocumentEmbeddingRepositoryImpl implements DocumentEmbeddingRepositoryCustom {
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentEmbeddingRepositoryImpl.class);
+    private static final String TABLE = "document_embeddings_ollama";
+    private static final String PARTITION_PREFIX = "doc_emb_";
+
+    private final EntityManager entityManager;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final TransactionTemplate withoutTransaction;
+    private final String scanMode;
+    private final int exactScanMaxRows;
+    private final int maxScanTuples;
+    private volatile Boolean iterativeScanSupported;
+    private final Set<String> knownCollections = ConcurrentHashMap.newKeySet();
+
+    public DocumentEmbeddingRepositoryImpl(
+            EntityManager entityManager,
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            @Value("${rag.vectorstore.filtered-scan:auto}") String scanMode,
+            @Value("${rag.vectorstore.exact-scan-max-rows:10000}") int exactScanMaxRows,
+            @Value("${rag.vectorstore.iterative-scan-max-tuples:20000}") int maxScanTuples) {
+        this.entityManager = entityManager;
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.withoutTransaction = new TransactionTemplate(transactionManager);
+        this.withoutTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_NOT_SUPPORTED);
+        this.scanMode = scanMode.toLowerCase(Locale.ROOT);
+        this.exactScanMaxRows = exactScanMaxRows;
+        this.maxScanTuples = maxScanTuples;
+    }
+
+    @Override
+    public List<DocumentEmbedding> searchNearest(float[] queryEmbedding, String collection, int k, double threshold,
+                                                 Filter.Expression filter) {
+        // SET LOCAL-style settings only last until the end of this transaction
+        return readOnlyTransaction.execute(status -> {
+            @SuppressWarnings("unchecked")
+            List<DocumentEmbedding> rows = nearestQuery("", queryEmbedding, collection, k, threshold, filter)
+                    .getResultList();
+            return rows;
+        });
+    }
+
+    @Override
+    public List<String> explainNearest(float[] queryEmbedding, String collection, int k, double threshold,
+                                       Filter.Expression filter) {
+        return readOnlyTransaction.execute(status -> {
+            List<?> lines = nearestQuery("EXPLAIN (ANALYZE, BUFFERS) ", queryEmbedding, collection, k, threshold, filter)
+                    .getResultList();
+            return lines.stream().map(String::valueOf).toList();
+        });
+    }
+
+    // Must run inside a transaction: the scan mode is set with transaction-local settings
+    private Query nearestQuery(String prefix, float[] queryEmbedding, String collection, int k, double threshold,
+                               Filter.Expression filter) {
+        MetadataFilterTranslator.SqlFilter sqlFilter = filter == null ? null : MetadataFilterTranslator.translate(filter);
+        String where = "collection = :collection" + (sqlFilter == null ? "" : " AND " + sqlFilter.sql());
+        if (threshold > 0) {
+            where += " AND embedding <=> CAST(:query AS vector) <= :maxDistance";
+        }
+        if (sqlFilter != null) {
+            applyScanMode(collection, sqlFilter);
+        }
+        // Iterative scans in relaxed order may return neighbors slightly out of order: sort again
+        String sql = prefix + "WITH candidates AS MATERIALIZED ("
+                + "SELECT *, embedding <=> CAST(:query AS vector) AS distance FROM " + TABLE
+                + " WHERE " + where
+                + " ORDER BY embedding <=> CAST(:query AS vector) LIMIT :k) "
+                + "SELECT * FROM candidates ORDER BY distance";
+        Query query = prefix.isEmpty()
+                ? entityManager.createNativeQuery(sql, DocumentEmbedding.class)
+                : entityManager.createNativeQuery(sql);
+        query.setParameter("query", queryEmbedding)
+                .setParameter("collection", collection)
+                .setParameter("k", k);
+        if (threshold > 0) {
+            query.setParameter("maxDistance", 1 - threshold);
+        }
+        bind(query, sqlFilter);
+        return query;
+    }
+
+    private void applyScanMode(String collection, MetadataFilterTranslator.SqlFilter sqlFilter) {
+        String mode = scanMode;
+        if ("auto".equals(mode)) {
+            mode = countMatches(collection, sqlFilter) <= exactScanMaxRows || !isIterativeScanSupported() ? "exact" : "iterative";
+        } else if ("iterative".equals(mode) && !isIterativeScanSupported()) {
+            LOG.warn("Iterative index scans need pgvector 0.8 or newer, using an exact scan");
+            mode = "exact";
+        }
+        LOG.debug("Filtered similarity search using {} scan", mode);
+        if ("exact".equals(mode)) {
+            setLocal("enable_indexscan", "off");
+        } else {
+            setLocal("hnsw.iterative_scan", "relaxed_order");
+            setLocal("hnsw.max_scan_tuples", String.valueOf(maxScanTuples));
+        }
+    }
+
+    /**
+     * Number of matching rows, capped just above the exact scan limit so it stays cheap
+     */
+    private long countMatches(String collection, MetadataFilterTranslator.SqlFilter sqlFilter) {
+        Query query = entityManager.createNativeQuery("SELECT count(*) FROM (SELECT 1 FROM " + TABLE
+                + " WHERE collection = :collection AND " + sqlFilter.sql() + " LIMIT :limit) matches");
+        query.setParameter("collection", collection);
+        query.setParameter("limit", exactScanMaxRows + 1);
+        bind(query, sqlFilter);
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
+    private boolean isIterativeScanSupported() {
+        Boolean supported = iterativeScanSupported;
+        if (supported == null) {
+            Object version = entityManager.createNativeQuery(
+                    "SELECT extversion FROM pg_extension WHERE extname = 'vector'").getResultList()
+                    .stream().findFirst().orElse("0");
+            String[] parts = version.toString().split("\\.");
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            supported = major > 0 || minor >= 8;
+            iterativeScanSupported = supported;
+            LOG.info("pgvector {} {} iterative index scans", version, supported ? "supports" : "does not support");
+        }
+        return supported;
+    }
+
+    @Override
+    public void createCollectionIfMissing(String collection) {
+        if (knownCollections.contains(collection)) {
+            return;
+        }
+        String partition = partitionName(collection);
+        try {
+            // partitionName only accepts names matching CollectionName, so they are safe to inline into DDL
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF " + TABLE
+                    + " FOR VALUES IN ('" + collection + "')");
+        } catch (DataAccessException e) {
+            // Another instance may have created it concurrently
+            if (jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, partition) != Boolean.TRUE) {
+                throw e;
+            }
+        }
+        jdbcTemplate.update("INSERT INTO document_collections (name, partition_name) VALUES (?, ?) "
+                + "ON CONFLICT (name) DO NOTHING", collection, partition);
+        knownCollections.add(collection);
+        LOG.info("Collection {} stored in partition {}", collection, partition);
+    }
+
+    @Override
+    public void dropCollection(String collection) {
+        String partition = partitionName(collection);
+        knownCollections.remove(collection);
+        // DETACH ... CONCURRENTLY is refused inside a transaction block, so any transaction of the
+        // caller is suspended and each statement runs on its own in autocommit
+        withoutTransaction.executeWithoutResult(status -> {
+            if (jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, partition) == Boolean.TRUE) {
+                // Detaching concurrently only briefly locks the parent table, so searches in other collections continue
+                jdbcTemplate.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + partition + " CONCURRENTLY");
+                jdbcTemplate.execute("DROP TABLE " + partition);
+            }
+            jdbcTemplate.update("DELETE FROM document_collections WHERE name = ?", collection);
+        });
+        LOG.info("Dropped collection {} (partition {})", collection, partition);
+    }
+
+    @Override
+    public List<String> findCollections() {
+        return jdbcTemplate.queryForList("SELECT name FROM document_collections ORDER BY name", String.class);
+    }
+
+    @Override
+    public List<StoredFingerprint> findFingerprintCandidates(String collection, Collection<Long> fingerprints) {
+        if (fingerprints.isEmpty()) {
+            return List.of();
+        }
+        StringBuilder sql = new StringBuilder("SELECT id, file_name, simhash FROM " + TABLE
+                + " WHERE collection = ? AND simhash IS NOT NULL AND (");
+        for (int band = 0; band < SimHash.BANDS; band++) {
+            sql.append(band == 0 ? "" : " OR ").append(bandExpression(band)).append(" = ANY (?)");
+        }
+        sql.append(")");
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql.toString());
+            statement.setString(1, collection);
+            for (int band = 0; band < SimHash.BANDS; band++) {
+                int b = band;
+                Long[] values = fingerprints.stream()
+                        .map(fingerprint -> (long) SimHash.band(fingerprint, b))
+                        .distinct()
+                        .toArray(Long[]::new);
+                Array array = connection.createArrayOf("bigint", values);
+                statement.setArray(band + 2, array);
+            }
+            return statement;
+        }, (rs, rowNum) -> new StoredFingerprint(rs.getLong("id"), rs.getString("file_name"), rs.getLong("simhash")));
+    }
+
+    @Override
+    public void addDuplicateSource(long id, String collection, String fileName) {
+        jdbcTemplate.update("UPDATE " + TABLE + " SET metadata = jsonb_set(metadata, '{also_in}', "
+                + "COALESCE(metadata->'also_in', '[]'::jsonb) || jsonb_build_array(?::text)) "
+                + "WHERE id = ? AND collection = ? "
+                + "AND NOT COALESCE(metadata->'also_in', '[]'::jsonb) @> jsonb_build_array(?::text)",
+                fileName, id, collection, fileName);
+    }
+
+    /**
+     * One 16-bit band of the SimHash, as indexed by VectorSchemaInitializer
+     */
+    public static String bandExpression(int band) {
+        return "((simhash >> " + band * 16 + ") & 65535)";
+    }
+
+    /**
+     * @throws InvalidCollectionNameException unless the name is a normalized {@link CollectionName}
+     */
+    public static String partitionName(String collection) {
+        if (collection == null || !CollectionName.normalize(collection).equals(collection)) {
+            throw new InvalidCollectionNameException(collection);
+        }
+        return PARTITION_PREFIX + collection;
+    }
+
+    private void setLocal(String name, String value) {
+        entityManager.createNativeQuery("SELECT set_config(:name, :value, true)")
+                .setParameter("name", name)
+                .setParameter("value", value)
+                .getSingleResult();
+    }
+
+    private static void bind(Query query, MetadataFilterTranslator.SqlFilter sqlFilter) {
+        if (sqlFilter != null) {
+            for (Map.Entry<String, Object> parameter : sqlFilter.parameters().entrySet()) {
+                query.setParameter(parameter.getKey(), parameter.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package de.deltatree.tools.rag.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translates a Spring AI filter expression into a SQL condition with named bind parameters.
+ * <p>
+ * {@code filename} maps to the file_name column; every other key is looked up in the JSONB
+ * metadata column. Equality and IN become containment checks ({@code metadata @> '{"key": value}'})
+ * so they can use the GIN index; for list-valued keys such as {@code tags} equality means
+ * "contains the tag". Range comparisons read {@code metadata ->> key} and cannot use the index.
+ */
+public final class MetadataFilterTranslator {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Set<String> LIST_KEYS = Set.of("tags");
+    private static final Map<String, String> COLUMN_KEYS = Map.of("filename", "file_name");
+
+    private final Map<String, Object> parameters = new LinkedHashMap<>();
+
+    private MetadataFilterTranslator() {
+    }
+
+    public record SqlFilter(String sql, Map<String, Object> parameters) {
+    }
+
+    public static SqlFilter translate(Filter.Expression expression) {
+        MetadataFilterTranslator translator = new MetadataFilterTranslator();
+        String sql = translator.operand(expression);
+        return new SqlFilter(sql, translator.parameters);
+    }
+
+    private String operand(Filter.Operand operand) {
+        if (operand instanceof Filter.Group group) {
+            return "(" + operand(group.content()) + ")";
+        }
+        if (operand instanceof Filter.Expression expression) {
+            return expression(expression);
+        }
+        throw new IllegalArgumentException("Unexpected filter operand: " + operand);
+    }
+
+    private String expression(Filter.Expression expression) {
+        return switch (expression.type()) {
+            case AND -> "(" + operand(expression.left()) + " AND " + operand(expression.right()) + ")";
+            case OR -> "(" + operand(expression.left()) + " OR " + operand(expression.right()) + ")";
+            case NOT -> "NOT (" + operand(expression.left()) + ")";
+            case EQ -> equal(key(expression), value(expression));
+            case NE -> "NOT (" + equal(key(expression), value(expression)) + ")";
+            case IN -> in(key(expression), values(expression));
+            case NIN -> "NOT (" + in(key(expression), values(expression)) + ")";
+            case GT -> compare(key(expression), ">", value(expression));
+            case GTE -> compare(key(expression), ">=", value(expression));
+            case LT -> compare(key(expression), "<", value(expression));
+            case LTE -> compare(key(expression), "<=", value(expression));
+        };
+    }
+
+    private String equal(String key, Object value) {
+        String column = COLUMN_KEYS.get(key);
+        if (column != null) {
+            return column + " = :" + bind(String.valueOf(value));
+        }
+        Object contained = LIST_KEYS.contains(key) ? List.of(value) : value;
+        return "metadata @> CAST(:" + bind(json(Map.of(key, contained))) + " AS jsonb)";
+    }
+
+    private String in(String key, List<?> values) {
+        if (values.isEmpty()) {
+            return "FALSE";
+        }
+        String column = COLUMN_KEYS.get(key);
+        if (column != null) {
+            return column + " IN (:" + bind(values.stream().map(String::valueOf).toList()) + ")";
+        }
+        List<String> alternatives = new ArrayList<>();
+        for (Object value : values) {
+            alternatives.add(equal(key, value));
+        }
+        return "(" + String.join(" OR ", alternatives) + ")";
+    }
+
+    private String compare(String key, String operator, Object value) {
+        String column = COLUMN_KEYS.get(key);
+        if (column != null) {
+            return column + " " + operator + " :" + bind(String.valueOf(value));
+        }
+        String field = "metadata ->> CAST(:" + bind(key) + " AS text)";
+        if (value instanceof Number number) {
+            return "CAST(" + field + " AS numeric) " + operator + " :" + bind(number);
+        }
+        return field + " " + operator + " :" + bind(String.valueOf(value));
+    }
+
+    private String bind(Object value) {
+        String name = "filter" + parameters.size();
+        parameters.put(name, value);
+        return name;
+    }
+
+    private static String key(Filter.Expression expression) {
+        if (!(expression.left() instanceof Filter.Key key)) {
+            throw new IllegalArgumentException("Expected a metadata key on the left of " + expression.type());
+        }
+        String name = key.key();
+        // The text parser keeps quotes around keys written as 'my key' or "my key"
+        if (name.length() > 1 && (name.startsWith("'") && name.endsWith("'") || name.startsWith("\"") && name.endsWith("\""))) {
+            name = name.substring(1, name.length() - 1);
+        }
+        return name;
+    }
+
+    private static Object value(Filter.Expression expression) {
+        if (!(expression.right() instanceof Filter.Value value)) {
+            throw new IllegalArgumentException("Expected a value on the right of " + expression.type());
+        }
+        return value.value();
+    }
+
+    private static List<?> values(Filter.Expression expression) {
+        Object value = value(expression);
+        return value instanceof List<?> list ? list : List.of(value);
+    }
+
+    private static String json(Object value) {
+        try {
+            return MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Filter value cannot be converted to JSON: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package de.deltatree.tools.rag.repository;
+
+import de.deltatree.tools.rag.model.UrlSource;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UrlSourceRepository extends JpaRepository<UrlSource, Long> {
+
+    Optional<UrlSource> findByUrlAndCollection(String url, String collection);
+
+    // Sources not checked since the cutoff, least recently checked first
+    @Query("SELECT s FROM UrlSource s WHERE s.lastCheckedAt IS NULL OR s.lastCheckedAt < :cutoff ORDER BY s.lastCheckedAt ASC NULLS FIRST")
+    List<UrlSource> findDueForRefresh(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+    // Marks a due source as checked now; 0 if another node has claimed it since the cutoff
+    @Modifying
+    @Transactional
+    @Query("UPDATE UrlSource s SET s.lastCheckedAt = :now WHERE s.id = :id AND (s.lastCheckedAt IS NULL OR s.lastCheckedAt < :cutoff)")
+    int claimForRefresh(@Param("id") Long id, @Param("cutoff") LocalDateTime cutoff, @Param("now") LocalDateTime now);
+
+    @Query("SELECT s FROM UrlSource s ORDER BY s.collection, s.url")
+    List<UrlSource> findAllOrderByCollectionAndUrl();
+
+    @Transactional
+    long deleteByCollection(String collection);
+}
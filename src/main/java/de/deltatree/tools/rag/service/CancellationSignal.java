@@ -0,0 +1,72 @@
+package de.deltatree.tools.rag.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set when the client of an answer goes away. Whatever the answer holds at that moment (its place
+ * in the Ollama queue, the upstream response) registers a callback with {@link #onCancel} and is
+ * released right away instead of when the generation would have finished.
+ */
+public final class CancellationSignal {
+    private static final Logger LOG = LoggerFactory.getLogger(CancellationSignal.class);
+
+    /**
+     * Never cancelled, for callers that cannot tell when their client leaves
+     */
+    public static final CancellationSignal NONE = new CancellationSignal();
+
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    /**
+     * Cancel and run the registered callbacks; false if already cancelled
+     */
+    public boolean cancel() {
+        List<Runnable> pending;
+        synchronized (this) {
+            if (cancelled || this == NONE) {
+                return false;
+            }
+            cancelled = true;
+            pending = List.copyOf(callbacks);
+            callbacks.clear();
+        }
+        for (Runnable callback : pending) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                LOG.debug("Cancellation callback failed: {}", e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Run the callback on cancellation, or now if already cancelled
+     */
+    public void onCancel(Runnable callback) {
+        synchronized (this) {
+            if (!cancelled) {
+                if (this != NONE) {
+                    callbacks.add(callback);
+                }
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new GenerationCancelledException();
+        }
+    }
+}
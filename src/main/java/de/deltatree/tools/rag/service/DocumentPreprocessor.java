@@ -49,7 +49,7 @@ public class DocumentPreprocessor {
         return processedDocs;
     }
 
-    private String cleanContent(String content) {
+    String cleanContent(String content) {
         if (content == null || content.trim().isEmpty()) {
             return "";
         }
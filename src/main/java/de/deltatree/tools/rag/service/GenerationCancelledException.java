@@ -0,0 +1,11 @@
+package de.deltatree.tools.rag.service;
+
+/**
+ * Thrown when the client an answer was for has gone and the generation was abandoned
+ */
+public class GenerationCancelledException extends RuntimeException {
+
+    public GenerationCancelledException() {
+        super("Generation cancelled, the client is gone");
+    }
+}
@@ -0,0 +1,13 @@
+package de.deltatree.tools.rag.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidCollectionNameException extends IllegalArgumentException {
+
+    public InvalidCollectionNameException(String collection) {
+        super("Invalid collection name '" + collection
+                + "': use 1-48 lowercase letters, digits or '_', starting with a letter or digit");
+    }
+}
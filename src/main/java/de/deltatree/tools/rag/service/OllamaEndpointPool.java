@@ -0,0 +1,443 @@
+package de.deltatree.tools.rag.service;
+
+import de.deltatree.tools.rag.config.ConcurrencyConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Client-side load balancing over the Ollama instances in rag.ollama.endpoints. A call goes to
+ * the available endpoint with the fewest outstanding requests, weighted by its recent latency
+ * for that operation. Calls with an affinity key prefer the same endpoint while it is at most
+ * rag.ollama.pool.affinity-slack requests busier than the best one, so the turns of a
+ * conversation keep reaching the instance that has their prompt prefix cached.
+ * <p>
+ * Connection errors, timeouts, 5xx and 404 (model missing on that instance) are retried on
+ * another endpoint. Hedged calls (embeddings) are also sent to a second endpoint when the
+ * first has not answered within rag.ollama.pool.hedge-delay-ms, for at most
+ * rag.ollama.pool.hedge-max-ratio of the calls and only while the OllamaScheduler has a slot
+ * nobody waits for; the first response wins.
+ * <p>
+ * An endpoint is ejected after consecutive failures or a failed health check (/api/tags), and
+ * returns after a successful health check once its ejection time is over. When every endpoint
+ * is ejected, calls are spread over all of them anyway.
+ */
+@Service
+public class OllamaEndpointPool implements HealthIndicator, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(OllamaEndpointPool.class);
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final int maxAttempts;
+    private final int ejectAfterFailures;
+    private final long minEjectionNanos;
+    private final long hedgeDelayNanos;
+    private final double hedgeMaxRatio;
+    private final int affinitySlack;
+    private final RestTemplate healthCheckClient;
+    private final ExecutorService hedgeExecutor;
+    private final MeterRegistry meterRegistry;
+    // Lazy: the scheduler sizes its limits by this pool
+    private final ObjectProvider<OllamaScheduler> scheduler;
+    private final AtomicLong hedgeableCalls = new AtomicLong();
+    private final AtomicLong hedgedCalls = new AtomicLong();
+
+    public OllamaEndpointPool(
+            @Value("${rag.ollama.endpoints:${spring.ai.ollama.base-url}}") List<String> urls,
+            @Value("${rag.ollama.pool.max-attempts:2}") int maxAttempts,
+            @Value("${rag.ollama.pool.eject-after-failures:3}") int ejectAfterFailures,
+            @Value("${rag.ollama.pool.min-ejection-ms:30000}") long minEjectionMs,
+            @Value("${rag.ollama.pool.hedge-delay-ms:250}") long hedgeDelayMs,
+            @Value("${rag.ollama.pool.hedge-max-ratio:0.1}") double hedgeMaxRatio,
+            @Value("${rag.ollama.pool.affinity-slack:2}") int affinitySlack,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            ObjectProvider<OllamaScheduler> scheduler,
+            MeterRegistry meterRegistry) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+        this.minEjectionNanos = TimeUnit.MILLISECONDS.toNanos(minEjectionMs);
+        this.hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, hedgeDelayMs));
+        this.hedgeMaxRatio = hedgeMaxRatio;
+        this.affinitySlack = Math.max(0, affinitySlack);
+        this.meterRegistry = meterRegistry;
+        this.scheduler = scheduler;
+        this.healthCheckClient = new RestTemplate(ConcurrencyConfig.jdkRequestFactory(
+                Duration.ofSeconds(2), Duration.ofSeconds(5)));
+        this.hedgeExecutor = Executors.newThreadPerTaskExecutor(virtualThreads
+                ? Thread.ofVirtual().name("ollama-call-", 0).factory()
+                : Thread.ofPlatform().name("ollama-call-", 0).daemon().factory());
+
+        for (String url : urls) {
+            String normalized = url.strip().replaceAll("/+$", "");
+            if (!normalized.isEmpty() && endpoints.stream().noneMatch(e -> e.url.equals(normalized))) {
+                endpoints.add(new Endpoint(normalized));
+            }
+        }
+        if (endpoints.isEmpty()) {
+            throw new IllegalStateException("No Ollama endpoint configured (rag.ollama.endpoints)");
+        }
+        for (Endpoint endpoint : endpoints) {
+            Gauge.builder("rag.ollama.endpoint.outstanding", endpoint, e -> e.outstanding.get())
+                    .description("Requests currently sent to the Ollama instance")
+                    .tag("node", endpoint.url)
+                    .register(meterRegistry);
+            Gauge.builder("rag.ollama.endpoint.available", endpoint, e -> e.ejected ? 0 : 1)
+                    .description("Whether the Ollama instance receives traffic (1) or is ejected (0)")
+                    .tag("node", endpoint.url)
+                    .register(meterRegistry);
+        }
+        LOG.info("Ollama endpoint pool: {} (max attempts {}, hedge delay {} ms)",
+                endpoints.stream().map(e -> e.url).toList(), this.maxAttempts, hedgeDelayMs);
+    }
+
+    /**
+     * Run the call against a chosen endpoint, retrying failed calls on other endpoints
+     *
+     * @param operation   the Ollama API path, used for latency tracking and metrics
+     * @param affinityKey calls with the same key prefer the same endpoint, or null
+     * @param call        receives the base URL of the endpoint
+     */
+    public <T> T execute(String operation, String affinityKey, Function<String, T> call) {
+        return attempt(operation, affinityKey, call, new ArrayList<>(), null);
+    }
+
+    /**
+     * Like {@link #execute}, but also sends the call to a second endpoint when the first is slow.
+     * Only for idempotent calls.
+     */
+    public <T> T executeHedged(String operation, Function<String, T> call) {
+        if (hedgeDelayNanos <= 0 || endpoints.size() < 2) {
+            return execute(operation, null, call);
+        }
+        List<Endpoint> tried = new ArrayList<>();
+        try {
+            return race(operation, call, tried);
+        } catch (RuntimeException e) {
+            if (!isRetryable(e)) {
+                throw e;
+            }
+            return attempt(operation, null, call, tried, e);
+        }
+    }
+
+    /**
+     * Number of configured endpoints, available or not
+     */
+    public int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * Base URLs of the endpoints that currently receive traffic, or of all endpoints if none does
+     */
+    public List<String> availableEndpoints() {
+        List<String> available = endpoints.stream().filter(e -> !e.ejected).map(e -> e.url).toList();
+        return available.isEmpty() ? endpoints.stream().map(e -> e.url).toList() : available;
+    }
+
+    private <T> T attempt(String operation, String affinityKey, Function<String, T> call,
+                          List<Endpoint> tried, RuntimeException failure) {
+        while (tried.size() < maxAttempts) {
+            Endpoint endpoint = choose(operation, affinityKey, tried);
+            if (endpoint == null) {
+                break;
+            }
+            if (failure != null) {
+                retryCounter(operation).increment();
+                LOG.warn("Retrying {} on {} after: {}", operation, endpoint.url, failure.getMessage());
+            }
+            tried.add(endpoint);
+            try {
+                return invoke(endpoint, operation, call);
+            } catch (RuntimeException e) {
+                if (!isRetryable(e)) {
+                    throw e;
+                }
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    private <T> T race(String operation, Function<String, T> call, List<Endpoint> tried) {
+        long calls = hedgeableCalls.incrementAndGet();
+        ExecutorCompletionService<T> race = new ExecutorCompletionService<>(hedgeExecutor);
+        List<Future<T>> running = new ArrayList<>(2);
+        OllamaScheduler admission = scheduler.getIfAvailable();
+        boolean extraSlot = false;
+        Endpoint primary = choose(operation, null, tried);
+        tried.add(primary);
+        running.add(race.submit(() -> invoke(primary, operation, call)));
+        try {
+            Future<T> done = race.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            if (done == null) {
+                Endpoint second = hedgedCalls.get() < hedgeMaxRatio * calls ? choose(operation, null, tried) : null;
+                // The caller's slot covers the first request only
+                if (second != null && admission != null) {
+                    extraSlot = admission.tryAcquireExtraSlot();
+                    if (!extraSlot) {
+                        hedgeCounter(operation, "no-slot").increment();
+                        second = null;
+                    }
+                }
+                if (second != null) {
+                    hedgedCalls.incrementAndGet();
+                    hedgeCounter(operation, "sent").increment();
+                    tried.add(second);
+                    Endpoint hedge = second;
+                    running.add(race.submit(() -> invoke(hedge, operation, call)));
+                }
+                done = race.take();
+            }
+            for (int pending = running.size(); ; ) {
+                try {
+                    T result = done.get();
+                    if (running.size() > 1 && done == running.get(1)) {
+                        hedgeCounter(operation, "won").increment();
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    if (--pending == 0) {
+                        throw e.getCause() instanceof RuntimeException runtimeException
+                                ? runtimeException
+                                : new IllegalStateException("Ollama call failed", e.getCause());
+                    }
+                    done = race.take();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for Ollama", e);
+        } finally {
+            // Interrupts the slower call; its outcome is recorded as cancelled, not as a failure
+            running.forEach(future -> future.cancel(true));
+            if (extraSlot) {
+                admission.releaseExtraSlot();
+            }
+        }
+    }
+
+    private <T> T invoke(Endpoint endpoint, String operation, Function<String, T> call) {
+        endpoint.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            T result = call.apply(endpoint.url);
+            outcome = "success";
+            return result;
+        } catch (RuntimeException e) {
+            if (Thread.currentThread().isInterrupted() || e instanceof GenerationCancelledException) {
+                outcome = "cancelled";
+            } else if (isRetryable(e)) {
+                recordFailure(endpoint, e);
+            }
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            endpoint.outstanding.decrementAndGet();
+            if ("success".equals(outcome)) {
+                endpoint.consecutiveFailures.set(0);
+                endpoint.latency(operation).update(elapsed);
+            }
+            Timer.builder("rag.ollama.endpoint.calls")
+                    .description("Calls to one Ollama instance")
+                    .tag("node", endpoint.url)
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(elapsed, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * The available endpoint with the lowest (outstanding + 1) * latency, or the affinity key's
+     * endpoint while it is not much busier. Ties are broken randomly.
+     */
+    private Endpoint choose(String operation, String affinityKey, List<Endpoint> exclude) {
+        List<Endpoint> candidates = endpoints.stream().filter(e -> !exclude.contains(e) && !e.ejected).toList();
+        if (candidates.isEmpty()) {
+            candidates = endpoints.stream().filter(e -> !exclude.contains(e)).toList();
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        int offset = ThreadLocalRandom.current().nextInt(candidates.size());
+        Endpoint best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            Endpoint endpoint = candidates.get((offset + i) % candidates.size());
+            double score = (endpoint.outstanding.get() + 1) * endpoint.latency(operation).millis();
+            if (score < bestScore) {
+                bestScore = score;
+                best = endpoint;
+            }
+        }
+        if (affinityKey != null && candidates.size() > 1) {
+            Endpoint preferred = null;
+            long preferredWeight = Long.MIN_VALUE;
+            for (Endpoint endpoint : candidates) {
+                long weight = rendezvousWeight(affinityKey, endpoint.url);
+                if (weight > preferredWeight) {
+                    preferredWeight = weight;
+                    preferred = endpoint;
+                }
+            }
+            if (preferred.outstanding.get() <= best.outstanding.get() + affinitySlack) {
+                return preferred;
+            }
+        }
+        return best;
+    }
+
+    private void recordFailure(Endpoint endpoint, RuntimeException e) {
+        int failures = endpoint.consecutiveFailures.incrementAndGet();
+        if (failures >= ejectAfterFailures && !endpoint.ejected) {
+            eject(endpoint, failures + " consecutive failures, last: " + e.getMessage());
+        }
+    }
+
+    private void eject(Endpoint endpoint, String reason) {
+        endpoint.ejectedUntil = System.nanoTime() + minEjectionNanos;
+        endpoint.ejected = true;
+        Counter.builder("rag.ollama.endpoint.ejections")
+                .description("Times an Ollama instance was taken out of the pool")
+                .tag("node", endpoint.url)
+                .register(meterRegistry)
+                .increment();
+        LOG.warn("Ejecting Ollama endpoint {}: {}", endpoint.url, reason);
+    }
+
+    @Scheduled(initialDelayString = "${rag.ollama.pool.health-check-interval-ms:10000}",
+            fixedDelayString = "${rag.ollama.pool.health-check-interval-ms:10000}")
+    public void checkHealth() {
+        for (Endpoint endpoint : endpoints) {
+            try {
+                healthCheckClient.getForObject(endpoint.url + "/api/tags", Map.class);
+                endpoint.lastError = null;
+                if (endpoint.ejected && System.nanoTime() - endpoint.ejectedUntil >= 0) {
+                    endpoint.consecutiveFailures.set(0);
+                    endpoint.ejected = false;
+                    LOG.info("Ollama endpoint {} is healthy again", endpoint.url);
+                }
+            } catch (Exception e) {
+                endpoint.lastError = e.getMessage();
+                if (!endpoint.ejected) {
+                    eject(endpoint, "health check failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public Health health() {
+        Map<String, Object> details = new LinkedHashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            Map<String, Object> state = new LinkedHashMap<>();
+            state.put("status", endpoint.ejected ? "ejected" : "available");
+            state.put("outstanding", endpoint.outstanding.get());
+            if (endpoint.lastError != null) {
+                state.put("error", endpoint.lastError);
+            }
+            details.put(endpoint.url, state);
+        }
+        boolean anyAvailable = endpoints.stream().anyMatch(e -> !e.ejected);
+        return (anyAvailable ? Health.up() : Health.down()).withDetails(details).build();
+    }
+
+    @Override
+    public void close() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    static boolean isRetryable(RuntimeException e) {
+        return e instanceof ResourceAccessException
+                || e instanceof HttpServerErrorException
+                || e instanceof HttpClientErrorException clientError && clientError.getStatusCode() == HttpStatus.NOT_FOUND;
+    }
+
+    // Highest random weight hashing: the key's endpoint only changes if that endpoint leaves the pool
+    private static long rendezvousWeight(String key, String url) {
+        long hash = key.hashCode() * 0x9E3779B97F4A7C15L ^ url.hashCode();
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private Counter retryCounter(String operation) {
+        return Counter.builder("rag.ollama.pool.retries")
+                .description("Ollama calls retried on another instance")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    private Counter hedgeCounter(String operation, String result) {
+        return Counter.builder("rag.ollama.pool.hedges")
+                .description("Hedged Ollama calls sent to a second instance, and how often that one answered first")
+                .tag("operation", operation)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static final class Endpoint {
+        private final String url;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+        private volatile boolean ejected;
+        private volatile long ejectedUntil;
+        private volatile String lastError;
+
+        private Endpoint(String url) {
+            this.url = url;
+        }
+
+        private Latency latency(String operation) {
+            return latencies.computeIfAbsent(operation, op -> new Latency());
+        }
+    }
+
+    // Exponentially weighted average of successful call durations; unknown counts as fast, so a new endpoint gets probed
+    private static final class Latency {
+        private volatile double averageNanos;
+
+        // Unsynchronized: a lost update under contention is harmless, a lock would pin virtual threads
+        private void update(long nanos) {
+            averageNanos = averageNanos == 0 ? nanos : 0.8 * averageNanos + 0.2 * nanos;
+        }
+
+        private double millis() {
+            return Math.max(1, averageNanos / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package de.deltatree.tools.rag.service;
+
+import de.deltatree.tools.rag.embedding.PooledOllamaEmbeddingModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the chat and the embedding model resident in Ollama so that no user request pays
+ * for a cold model load. Both models are loaded after startup, and the readiness group
+ * reports OUT_OF_SERVICE until they are. A periodic /api/ps check loads a model again
+ * when Ollama unloaded it, and renews its keep_alive shortly before it would expire. After an
+ * embedding migration has switched models, the new embedding model is kept resident instead.
+ */
+@Service
+public class OllamaModelWarmer implements HealthIndicator {
+    private static final Logger LOG = LoggerFactory.getLogger(OllamaModelWarmer.class);
+
+    private final OllamaService ollamaService;
+    private final boolean enabled;
+    private final Duration retryInterval;
+    private final Duration refreshBefore;
+    private final PooledOllamaEmbeddingModel embeddingModel;
+    private volatile List<ManagedModel> models;
+    private final MeterRegistry meterRegistry;
+    private final Timer loadTimer;
+    private volatile boolean warmedUp;
+
+    public OllamaModelWarmer(
+            OllamaService ollamaService,
+            PooledOllamaEmbeddingModel embeddingModel,
+            @Value("${rag.ollama.keep-alive.chat:30m}") String chatKeepAlive,
+            @Value("${rag.ollama.keep-alive.embedding:30m}") String embeddingKeepAlive,
+            @Value("${rag.ollama.warmup.enabled:true}") boolean enabled,
+            @Value("${rag.ollama.warmup.retry-interval-ms:10000}") long retryIntervalMs,
+            @Value("${rag.ollama.warmup.check-interval-ms:30000}") long checkIntervalMs,
+            @Value("${rag.embedding.engine:ollama}") String embeddingEngine,
+            MeterRegistry meterRegistry) {
+        this.ollamaService = ollamaService;
+        this.embeddingModel = embeddingModel;
+        this.enabled = enabled;
+        this.retryInterval = Duration.ofMillis(retryIntervalMs);
+        // Renew residency two checks ahead of the unload, so a slow check never misses it
+        this.refreshBefore = Duration.ofMillis(2 * checkIntervalMs);
+        this.meterRegistry = meterRegistry;
+        ManagedModel chat = new ManagedModel(ollamaService.getModel(), chatKeepAlive, false);
+        // An in-process embedding model needs no Ollama residency
+        this.models = "ollama".equals(embeddingEngine)
+                ? List.of(chat, new ManagedModel(embeddingModel.getModel(), embeddingKeepAlive, true))
+                : List.of(chat);
+        this.loadTimer = Timer.builder("rag.ollama.model.load")
+                .description("Time to load a model into Ollama during warm-up")
+                .register(meterRegistry);
+        models.forEach(this::registerGauge);
+    }
+
+    private void registerGauge(ManagedModel model) {
+        Gauge.builder("rag.ollama.model.resident", model, m -> m.resident ? 1 : 0)
+                .description("Whether the model is loaded in Ollama (1) or not (0)")
+                .tag("model", model.name)
+                .register(meterRegistry);
+    }
+
+    // Ollama unloads the old embedding model once its keep_alive runs out, as nothing renews it
+    private void followEmbeddingModel() {
+        List<ManagedModel> current = models;
+        String active = embeddingModel.getModel();
+        for (ManagedModel model : current) {
+            if (model.embedding && !model.name.equals(active)) {
+                model.resident = false;
+                ManagedModel switched = new ManagedModel(active, model.keepAlive, true);
+                registerGauge(switched);
+                models = current.stream().map(m -> m == model ? switched : m).toList();
+                LOG.info("Embedding model switched from {} to {}, keeping the new one resident", model.name, active);
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        if (!enabled) {
+            LOG.info("Ollama model warm-up disabled");
+            warmedUp = true;
+            return;
+        }
+        // Off the startup thread: the application starts, but stays unready until the models are loaded
+        Thread.ofPlatform().daemon().name("ollama-warmup").start(this::warmUntilResident);
+    }
+
+    private void warmUntilResident() {
+        long started = System.nanoTime();
+        while (!warmAll("startup")) {
+            LOG.warn("Ollama models not loaded yet, retrying in {} ms", retryInterval.toMillis());
+            try {
+                Thread.sleep(retryInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        warmedUp = true;
+        LOG.info("Ollama models warm after {} ms, accepting traffic", (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @Scheduled(initialDelayString = "${rag.ollama.warmup.check-interval-ms:30000}",
+            fixedDelayString = "${rag.ollama.warmup.check-interval-ms:30000}")
+    public void rewarmUnloadedModels() {
+        if (!enabled || !warmedUp) {
+            return;
+        }
+        followEmbeddingModel();
+        Map<String, Instant> resident;
+        try {
+            resident = ollamaService.getResidentModels();
+        } catch (Exception e) {
+            LOG.warn("Could not list resident Ollama models: {}", e.getMessage());
+            return;
+        }
+        Instant refreshDeadline = Instant.now().plus(refreshBefore);
+        for (ManagedModel model : models) {
+            Instant expiresAt = resident.get(OllamaService.withTag(model.name));
+            if (expiresAt == null) {
+                model.resident = false;
+                LOG.info("Model {} was unloaded by Ollama, loading it again", model.name);
+                warm(model, "unloaded");
+            } else if (expiresAt.isBefore(refreshDeadline)) {
+                LOG.debug("Model {} expires at {}, renewing keep_alive", model.name, expiresAt);
+                warm(model, "expiring");
+            } else {
+                model.resident = true;
+            }
+        }
+    }
+
+    private boolean warmAll(String reason) {
+        followEmbeddingModel();
+        boolean allResident = true;
+        for (ManagedModel model : models) {
+            allResident &= model.resident || warm(model, reason);
+        }
+        return allResident;
+    }
+
+    private boolean warm(ManagedModel model, String reason) {
+        long start = System.nanoTime();
+        try {
+            ollamaService.loadModel(model.name, model.keepAlive, model.embedding);
+            long elapsed = System.nanoTime() - start;
+            loadTimer.record(Duration.ofNanos(elapsed));
+            model.resident = true;
+            Counter.builder("rag.ollama.model.warmups")
+                    .description("Model loads triggered by the warmer")
+                    .tag("model", model.name)
+                    .tag("reason", reason)
+                    .register(meterRegistry)
+                    .increment();
+            LOG.info("Loaded model {} ({}) in {} ms, keep_alive {}",
+                    model.name, reason, elapsed / 1_000_000, model.keepAlive);
+            return true;
+        } catch (Exception e) {
+            model.resident = false;
+            LOG.warn("Loading model {} failed: {}", model.name, e.getMessage());
+            return false;
+        }
+    }
+
+    public boolean isWarmedUp() {
+        return warmedUp;
+    }
+
+    @Override
+    public Health health() {
+        Map<String, Object> details = new LinkedHashMap<>();
+        for (ManagedModel model : models) {
+            details.put(model.name, model.resident ? "resident" : "not loaded");
+        }
+        Health.Builder builder = warmedUp ? Health.up() : Health.outOfService();
+        return builder.withDetails(details).build();
+    }
+
+    private static final class ManagedModel {
+        private final String name;
+        private final String keepAlive;
+        private final boolean embedding;
+        private volatile boolean resident;
+
+        private ManagedModel(String name, String keepAlive, boolean embedding) {
+            this.name = name;
+            this.keepAlive = keepAlive;
+            this.embedding = embedding;
+        }
+    }
+}
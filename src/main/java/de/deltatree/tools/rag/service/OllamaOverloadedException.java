@@ -0,0 +1,23 @@
+package de.deltatree.tools.rag.service;
+
+/**
+ * Thrown when the queue of a priority class is full; mapped to 429 with Retry-After
+ */
+public class OllamaOverloadedException extends RuntimeException {
+    private final OllamaPriority priority;
+    private final long retryAfterSeconds;
+
+    public OllamaOverloadedException(OllamaPriority priority, long retryAfterSeconds) {
+        super("Too many queued " + priority.propertyName() + " requests for Ollama");
+        this.priority = priority;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public OllamaPriority getPriority() {
+        return priority;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,23 @@
+package de.deltatree.tools.rag.service;
+
+/**
+ * Priority classes for calls to Ollama, each with its own queue in the OllamaScheduler
+ */
+public enum OllamaPriority {
+    INTERACTIVE_QUERY("interactive-query"),
+    INTERACTIVE_GENERATE("interactive-generate"),
+    BACKGROUND_INGEST("background-ingest");
+
+    private final String propertyName;
+
+    OllamaPriority(String propertyName) {
+        this.propertyName = propertyName;
+    }
+
+    /**
+     * Name used in configuration keys and metric tags
+     */
+    public String propertyName() {
+        return propertyName;
+    }
+}
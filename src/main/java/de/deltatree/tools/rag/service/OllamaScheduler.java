@@ -0,0 +1,298 @@
+package de.deltatree.tools.rag.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Admission control in front of all Ollama traffic. Every call waits in the queue of its
+ * priority class until both the global and the per-class in-flight limits allow it to run.
+ * Free slots go to the class with the smallest virtual start time (start-time fair queuing),
+ * so with weights 8:4:1 interactive traffic gets most of the capacity during a big upload
+ * without starving ingestion. A full queue rejects immediately with a Retry-After estimate.
+ * In-flight limits that are not configured are per Ollama instance, so they grow with the pool.
+ */
+@Service
+public class OllamaScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(OllamaScheduler.class);
+
+    private static final int DEFAULT_MAX_IN_FLIGHT_PER_ENDPOINT = 4;
+    private static final Map<OllamaPriority, int[]> DEFAULTS = Map.of(
+            // weight, max in-flight per endpoint, max queued
+            OllamaPriority.INTERACTIVE_QUERY, new int[]{8, 4, 100},
+            OllamaPriority.INTERACTIVE_GENERATE, new int[]{4, 2, 32},
+            OllamaPriority.BACKGROUND_INGEST, new int[]{1, 2, 10000});
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<OllamaPriority, PriorityClass> classes = new EnumMap<>(OllamaPriority.class);
+    private final int maxInFlight;
+    private int inFlight;
+    private double systemVirtualTime;
+
+    public OllamaScheduler(Environment environment, OllamaEndpointPool endpointPool, MeterRegistry meterRegistry) {
+        int endpoints = Math.max(1, endpointPool.size());
+        this.maxInFlight = environment.getProperty("rag.ollama.scheduler.max-in-flight", Integer.class,
+                DEFAULT_MAX_IN_FLIGHT_PER_ENDPOINT * endpoints);
+        for (OllamaPriority priority : OllamaPriority.values()) {
+            String prefix = "rag.ollama.scheduler." + priority.propertyName() + ".";
+            int[] defaults = DEFAULTS.get(priority);
+            PriorityClass state = new PriorityClass(priority,
+                    environment.getProperty(prefix + "weight", Integer.class, defaults[0]),
+                    environment.getProperty(prefix + "max-in-flight", Integer.class, defaults[1] * endpoints),
+                    environment.getProperty(prefix + "max-queued", Integer.class, defaults[2]),
+                    meterRegistry);
+            classes.put(priority, state);
+            LOG.info("Ollama scheduler class {}: weight {}, max in-flight {}, max queued {}",
+                    priority.propertyName(), state.weight, state.maxInFlight, state.maxQueued);
+        }
+        LOG.info("Ollama scheduler initialized with global max in-flight {} for {} Ollama instance(s)",
+                maxInFlight, endpoints);
+    }
+
+    /**
+     * Run the call once the scheduler admits it.
+     *
+     * @throws OllamaOverloadedException if the queue of the priority class is full
+     */
+    public <T> T execute(OllamaPriority priority, Supplier<T> call) {
+        return execute(priority, CancellationSignal.NONE, call);
+    }
+
+    /**
+     * Run the call once the scheduler admits it, unless the cancellation comes first: then the
+     * call leaves the queue and its slot goes to the next one.
+     *
+     * @throws OllamaOverloadedException    if the queue of the priority class is full
+     * @throws GenerationCancelledException if cancelled while waiting
+     */
+    public <T> T execute(OllamaPriority priority, CancellationSignal cancellation, Supplier<T> call) {
+        Ticket ticket = acquire(priority, cancellation);
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            release(ticket, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Whether a call of the class would run right away instead of waiting in its queue. For
+     * optional work that should only use capacity nobody is waiting for.
+     */
+    public boolean hasFreeSlot(OllamaPriority priority) {
+        PriorityClass state = classes.get(priority);
+        lock.lock();
+        try {
+            return state.queue.isEmpty() && state.inFlight < state.maxInFlight && inFlight < maxInFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A global slot for an extra call made on behalf of one already admitted, such as a hedged
+     * request. Never queued: only taken while a slot is free and no call is waiting for one.
+     *
+     * @return whether the slot was taken; give it back with {@link #releaseExtraSlot()}
+     */
+    public boolean tryAcquireExtraSlot() {
+        lock.lock();
+        try {
+            if (inFlight >= maxInFlight || classes.values().stream().anyMatch(state -> !state.queue.isEmpty())) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void releaseExtraSlot() {
+        lock.lock();
+        try {
+            inFlight--;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Ticket acquire(OllamaPriority priority, CancellationSignal cancellation) {
+        cancellation.throwIfCancelled();
+        PriorityClass state = classes.get(priority);
+        Ticket ticket = new Ticket(state);
+
+        lock.lock();
+        try {
+            if (state.queue.isEmpty() && state.inFlight < state.maxInFlight && inFlight < maxInFlight) {
+                grant(ticket);
+            } else if (state.queue.size() >= state.maxQueued) {
+                state.rejected.increment();
+                long retryAfter = state.estimateWaitSeconds();
+                LOG.warn("Rejecting {} request: {} queued, retry after {}s",
+                        priority.propertyName(), state.queue.size(), retryAfter);
+                throw new OllamaOverloadedException(priority, retryAfter);
+            } else {
+                state.queue.addLast(ticket);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        cancellation.onCancel(() -> ticket.granted.cancel(false));
+        try {
+            ticket.granted.get();
+        } catch (CancellationException e) {
+            abandon(ticket);
+            state.cancelled.increment();
+            throw new GenerationCancelledException();
+        } catch (InterruptedException e) {
+            abandon(ticket);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an Ollama slot", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ollama slot could not be granted", e.getCause());
+        }
+        state.waitTimer.record(System.nanoTime() - ticket.enqueuedAt, TimeUnit.NANOSECONDS);
+        return ticket;
+    }
+
+    private void release(Ticket ticket, long serviceNanos) {
+        lock.lock();
+        try {
+            PriorityClass state = ticket.priorityClass;
+            state.inFlight--;
+            inFlight--;
+            state.recordServiceTime(serviceNanos);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A waiter gave up: drop it from its queue, or hand the slot back if it was granted meanwhile
+     */
+    private void abandon(Ticket ticket) {
+        lock.lock();
+        try {
+            if (!ticket.priorityClass.queue.remove(ticket)) {
+                ticket.priorityClass.inFlight--;
+                inFlight--;
+                dispatch();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private void dispatch() {
+        while (inFlight < maxInFlight) {
+            PriorityClass next = null;
+            double nextStart = Double.MAX_VALUE;
+            for (PriorityClass state : classes.values()) {
+                if (state.queue.isEmpty() || state.inFlight >= state.maxInFlight) {
+                    continue;
+                }
+                double start = Math.max(state.finishTag, systemVirtualTime);
+                if (start < nextStart) {
+                    nextStart = start;
+                    next = state;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            grant(next.queue.pollFirst());
+        }
+    }
+
+    // Called with the lock held
+    private void grant(Ticket ticket) {
+        PriorityClass state = ticket.priorityClass;
+        double start = Math.max(state.finishTag, systemVirtualTime);
+        systemVirtualTime = start;
+        state.finishTag = start + 1.0 / state.weight;
+        state.inFlight++;
+        inFlight++;
+        ticket.granted.complete(null);
+    }
+
+    private static final class Ticket {
+        private final PriorityClass priorityClass;
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<Void> granted = new CompletableFuture<>();
+
+        private Ticket(PriorityClass priorityClass) {
+            this.priorityClass = priorityClass;
+        }
+    }
+
+    private static final class PriorityClass {
+        private final double weight;
+        private final int maxInFlight;
+        private final int maxQueued;
+        private final ArrayDeque<Ticket> queue = new ArrayDeque<>();
+        private final Timer waitTimer;
+        private final Counter rejected;
+        private final Counter cancelled;
+        private int inFlight;
+        private double finishTag;
+        // Exponentially weighted average of call duration, for Retry-After estimates
+        private double averageServiceNanos;
+
+        private PriorityClass(OllamaPriority priority, int weight, int maxInFlight, int maxQueued,
+                              MeterRegistry meterRegistry) {
+            this.weight = Math.max(1, weight);
+            this.maxInFlight = Math.max(1, maxInFlight);
+            this.maxQueued = Math.max(0, maxQueued);
+            String tag = priority.propertyName();
+            this.waitTimer = Timer.builder("rag.ollama.queue.wait")
+                    .description("Time spent waiting for an Ollama slot")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            this.rejected = Counter.builder("rag.ollama.queue.rejected")
+                    .description("Requests rejected because the queue was full")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            this.cancelled = Counter.builder("rag.ollama.queue.cancelled")
+                    .description("Requests that left the queue because their client was gone")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            Gauge.builder("rag.ollama.queue.depth", queue, ArrayDeque::size)
+                    .description("Requests waiting for an Ollama slot")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            Gauge.builder("rag.ollama.in.flight", this, state -> state.inFlight)
+                    .description("Ollama calls currently running")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+        }
+
+        private void recordServiceTime(long nanos) {
+            averageServiceNanos = averageServiceNanos == 0 ? nanos : 0.8 * averageServiceNanos + 0.2 * nanos;
+        }
+
+        private long estimateWaitSeconds() {
+            double seconds = (queue.size() + 1) * averageServiceNanos / maxInFlight / 1e9;
+            return Math.max(1, (long) Math.ceil(seconds));
+        }
+    }
+}
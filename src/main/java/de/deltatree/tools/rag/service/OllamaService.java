@@ -1,74 +1,308 @@
 package de.deltatree.tools.rag.service;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import de.deltatree.tools.rag.config.ConcurrencyConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Service
 public class OllamaService {
     private static final Logger LOG = LoggerFactory.getLogger(OllamaService.class);
-    private final String baseUrl;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> JSON_OBJECT = new TypeReference<>() {
+    };
+    private final OllamaEndpointPool endpointPool;
     private final String model;
+    private final String keepAlive;
     private final RestTemplate restTemplate;
+    private final MeterRegistry meterRegistry;
+    private final OllamaScheduler scheduler;
+
+    // Metrics for the generation stage
+    private final DistributionSummary promptSize;
+    private final Timer promptEvalTimer;
+    private final Timer evalTimer;
+    private final DistributionSummary promptTokensPerSecond;
+    private final DistributionSummary completionTokensPerSecond;
+    private final Counter promptTokens;
+    private final Counter completionTokens;
+    private final DistributionSummary promptEvalTokens;
+    private final DistributionSummary promptCharsPerEvalToken;
+    private final Counter cancelledTokens;
+
+    // Identical for every request: changed options (e.g. num_ctx) make Ollama reload the model
+    // and discard its prompt cache
+    private final Map<String, Object> options;
 
     public OllamaService(
-            @Value("${spring.ai.ollama.base-url}") String baseUrl,
-            @Value("${spring.ai.ollama.chat.model}") String model) {
-        this.baseUrl = baseUrl;
+            OllamaEndpointPool endpointPool,
+            @Value("${spring.ai.ollama.chat.model}") String model,
+            @Value("${rag.ollama.keep-alive.chat:30m}") String keepAlive,
+            @Value("${rag.ollama.num-ctx:8192}") int numCtx,
+            MeterRegistry meterRegistry,
+            OllamaScheduler scheduler) {
+        this.endpointPool = endpointPool;
         this.model = model;
+        this.keepAlive = keepAlive;
+        this.meterRegistry = meterRegistry;
+        this.scheduler = scheduler;
+        this.promptSize = DistributionSummary.builder("rag.prompt.size")
+                .description("Size of the prompt sent to Ollama")
+                .baseUnit("characters")
+                .register(meterRegistry);
+        this.promptEvalTimer = Timer.builder("rag.ollama.prompt.eval")
+                .description("Time Ollama spent evaluating the prompt (prompt_eval_duration)")
+                .register(meterRegistry);
+        this.evalTimer = Timer.builder("rag.ollama.eval")
+                .description("Time Ollama spent generating the response (eval_duration)")
+                .register(meterRegistry);
+        this.promptTokensPerSecond = DistributionSummary.builder("rag.ollama.tokens.per.second")
+                .description("Token throughput reported by Ollama")
+                .tag("phase", "prompt")
+                .register(meterRegistry);
+        this.completionTokensPerSecond = DistributionSummary.builder("rag.ollama.tokens.per.second")
+                .description("Token throughput reported by Ollama")
+                .tag("phase", "completion")
+                .register(meterRegistry);
+        this.promptTokens = Counter.builder("rag.ollama.tokens")
+                .description("Tokens processed by Ollama")
+                .tag("phase", "prompt")
+                .register(meterRegistry);
+        this.completionTokens = Counter.builder("rag.ollama.tokens")
+                .description("Tokens processed by Ollama")
+                .tag("phase", "completion")
+                .register(meterRegistry);
+        this.promptEvalTokens = DistributionSummary.builder("rag.ollama.prompt.eval.tokens")
+                .description("Prompt tokens Ollama evaluated per request, excluding a reused prefix")
+                .register(meterRegistry);
+        this.promptCharsPerEvalToken = DistributionSummary.builder("rag.ollama.prompt.chars.per.eval.token")
+                .description("Prompt characters sent per evaluated prompt token (about 4 without prefix reuse)")
+                .register(meterRegistry);
+        this.cancelledTokens = Counter.builder("rag.ollama.cancelled.tokens")
+                .description("Tokens generated for clients that had gone, until the generation was aborted")
+                .register(meterRegistry);
 
-        // Configure RestTemplate with longer timeouts
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(10000);  // 10 seconds
-        factory.setReadTimeout(120000);    // 2 minutes for complex responses
-        this.restTemplate = new RestTemplate(factory);
+        // Optimized options for better, more consistent responses
+        Map<String, Object> chatOptions = new LinkedHashMap<>();
+        chatOptions.put("temperature", 0.1);      // Lower temperature for more consistent responses
+        chatOptions.put("top_p", 0.9);           // Focus on most likely tokens
+        chatOptions.put("top_k", 40);            // Limit token choices
+        chatOptions.put("num_predict", 2048);    // Allow longer responses
+        chatOptions.put("num_ctx", numCtx);      // Large enough for system message, context and answer
+        chatOptions.put("stop", List.of("Human:", "USER:", "Question:", "QUESTION:"));  // Stop sequences
+        this.options = Collections.unmodifiableMap(chatOptions);
 
-        LOG.info("OllamaService initialized with model: {} at {}", model, baseUrl);
+        // Configure RestTemplate with longer timeouts (JDK HttpClient, safe on virtual threads)
+        this.restTemplate = new RestTemplate(ConcurrencyConfig.jdkRequestFactory(
+                Duration.ofSeconds(10),     // connect timeout
+                Duration.ofMinutes(2)));    // read timeout for complex responses
+
+        LOG.info("OllamaService initialized with model: {} at {}", model, endpointPool.availableEndpoints());
     }
 
     public String generateResponse(String prompt) {
         LOG.info("Generating response for prompt length: {} characters", prompt.length());
+        promptSize.record(prompt.length());
         LOG.debug("Prompt preview: {}...", prompt.substring(0, Math.min(200, prompt.length())));
 
-        String url = baseUrl + "/api/generate";
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("model", model);
         requestBody.put("prompt", prompt);
         requestBody.put("stream", false); // Disable streaming for simpler response handling
+        requestBody.put("keep_alive", keepAlive); // Every request renews the residency of the model
+        requestBody.put("options", options);
 
-        // Optimized options for better, more consistent responses
-        Map<String, Object> options = new HashMap<>();
-        options.put("temperature", 0.1);      // Lower temperature for more consistent responses
-        options.put("top_p", 0.9);           // Focus on most likely tokens
-        options.put("top_k", 40);            // Limit token choices
-        options.put("num_predict", 2048);    // Allow longer responses
-        options.put("stop", new String[]{"Human:", "USER:", "Question:", "QUESTION:"});  // Stop sequences
+        HttpEntity<Map<String, Object>> request = jsonRequest(requestBody);
+        return call("/api/generate", null, prompt.length(), CancellationSignal.NONE,
+                baseUrl -> restTemplate.postForObject(baseUrl + "/api/generate", request, Map.class),
+                response -> (String) response.get("response"));
+    }
+
+    /**
+     * Generate an answer through /api/chat. The system message should be byte-identical across
+     * requests and everything that varies belongs in the user message: Ollama keeps the evaluated
+     * prompt of its last requests and only evaluates the part after the longest common prefix,
+     * so a stable system message is evaluated once instead of on every request.
+     */
+    public String generateChatResponse(String systemMessage, String userMessage) {
+        return generateChatResponse(List.of(
+                Map.of("role", "system", "content", systemMessage),
+                Map.of("role", "user", "content", userMessage)));
+    }
+
+    /**
+     * Generate the next assistant message of a conversation. Earlier turns must be passed exactly
+     * as they were sent and answered before, then they form the prefix Ollama already evaluated.
+     */
+    public String generateChatResponse(List<Map<String, String>> messages) {
+        return generateChatResponse(messages, CancellationSignal.NONE, token -> {
+        });
+    }
+
+    /**
+     * Like {@link #generateChatResponse(List)}, streaming the answer: every piece of text is passed
+     * to onToken as Ollama produces it. On cancellation the call leaves the Ollama queue, or the
+     * upstream connection is closed, which makes Ollama stop generating.
+     *
+     * @throws GenerationCancelledException if cancelled before the answer was complete
+     */
+    public String generateChatResponse(List<Map<String, String>> messages, CancellationSignal cancellation,
+                                       Consumer<String> onToken) {
+        int promptChars = messages.stream().mapToInt(message -> message.get("content").length()).sum();
+        String last = messages.get(messages.size() - 1).get("content");
+        LOG.info("Generating chat response for {} messages, prompt length: {} characters", messages.size(), promptChars);
+        promptSize.record(promptChars);
+        LOG.debug("User message preview: {}...", last.substring(0, Math.min(200, last.length())));
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("messages", messages);
+        // Streamed so that a cancelled answer can be cut off after any token
+        requestBody.put("stream", true);
+        requestBody.put("keep_alive", keepAlive);
         requestBody.put("options", options);
 
+        // The opening messages are the same in every turn of a conversation: its turns go to the
+        // same Ollama instance, which has their prefix cached
+        String affinityKey = messages.get(Math.min(1, messages.size() - 1)).get("content");
+        HttpEntity<Map<String, Object>> request = jsonRequest(requestBody);
+        return call("/api/chat", affinityKey, promptChars, cancellation,
+                baseUrl -> restTemplate.execute(baseUrl + "/api/chat", HttpMethod.POST,
+                        restTemplate.httpEntityCallback(request),
+                        response -> readChatStream(response, cancellation, onToken)),
+                response -> response.get("message") instanceof Map<?, ?> message ? (String) message.get("content") : null);
+    }
+
+    /**
+     * Collect the NDJSON chunks of a streamed /api/chat answer into one response like the
+     * non-streamed one: the final chunk's stats with the whole text as its message
+     */
+    private Map<String, Object> readChatStream(ClientHttpResponse response, CancellationSignal cancellation,
+                                               Consumer<String> onToken) throws IOException {
+        // Closing the body stream aborts the exchange and Ollama stops generating; response.close()
+        // would first read the rest of the answer. The cancelling thread is usually shared by all
+        // streams, so the close runs on a thread of its own.
+        InputStream body = response.getBody();
+        cancellation.onCancel(() -> Thread.ofVirtual().name("ollama-abort").start(() -> closeQuietly(body)));
+        StringBuilder text = new StringBuilder();
+        int tokens = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            while (!cancellation.isCancelled() && (line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Map<String, Object> chunk = MAPPER.readValue(line, JSON_OBJECT);
+                if (chunk.get("error") != null) {
+                    throw new IllegalStateException("Ollama: " + chunk.get("error"));
+                }
+                if (chunk.get("message") instanceof Map<?, ?> message
+                        && message.get("content") instanceof String delta && !delta.isEmpty()) {
+                    text.append(delta);
+                    tokens++;
+                    onToken.accept(delta);
+                }
+                if (Boolean.TRUE.equals(chunk.get("done"))) {
+                    Map<String, Object> complete = new HashMap<>(chunk);
+                    complete.put("message", Map.of("role", "assistant", "content", text.toString()));
+                    return complete;
+                }
+            }
+        } catch (IOException e) {
+            if (!cancellation.isCancelled()) {
+                failIfPartial(tokens, e);
+                throw e;
+            }
+        }
+        if (cancellation.isCancelled()) {
+            cancelledTokens.increment(tokens);
+            LOG.info("Answer cancelled after {} tokens, the client is gone", tokens);
+            throw new GenerationCancelledException();
+        }
+        IOException truncated = new IOException("Stream ended before the final chunk");
+        failIfPartial(tokens, truncated);
+        throw truncated;
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            LOG.debug("Closing cancelled Ollama stream failed: {}", e.getMessage());
+        }
+    }
+
+    // Before the first token an I/O error is retried on another endpoint; after it the caller
+    // already has part of this answer and a retry would repeat it
+    private static void failIfPartial(int tokens, IOException cause) {
+        if (tokens > 0) {
+            throw new IllegalStateException("Ollama stream broke off after " + tokens + " tokens", cause);
+        }
+    }
+
+    private static HttpEntity<Map<String, Object>> jsonRequest(Map<String, Object> requestBody) {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
+        return new HttpEntity<>(requestBody, headers);
+    }
 
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-
+    private String call(String path, String affinityKey, int promptChars, CancellationSignal cancellation,
+                        Function<String, Map<String, Object>> send,
+                        Function<Map<String, Object>, String> responseText) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
         try {
-            LOG.debug("Sending request to Ollama at: {}", url);
-            Map<String, Object> response = restTemplate.postForObject(url, request, Map.class);
+            Map<String, Object> response = scheduler.execute(OllamaPriority.INTERACTIVE_GENERATE, cancellation,
+                    () -> endpointPool.execute(path, affinityKey, baseUrl -> {
+                        LOG.debug("Sending request to Ollama at: {}{}", baseUrl, path);
+                        try {
+                            return send.apply(baseUrl);
+                        } catch (RuntimeException e) {
+                            // A closed connection after cancellation is not a failure of the endpoint
+                            if (cancellation.isCancelled()) {
+                                throw new GenerationCancelledException();
+                            }
+                            throw e;
+                        }
+                    }));
 
             if (response == null) {
                 LOG.error("Received null response from Ollama");
                 return "Error: No response received from the AI model.";
             }
 
-            String generatedText = (String) response.get("response");
+            recordGenerationStats(response, promptChars);
+
+            String generatedText = responseText.apply(response);
             if (generatedText == null || generatedText.trim().isEmpty()) {
                 LOG.error("Received empty response from Ollama");
                 return "Error: Empty response from the AI model.";
@@ -76,7 +310,7 @@ public class OllamaService {
 
             // Check if the response was cut off
             Boolean done = (Boolean) response.get("done");
-            if (done != null && !done) {
+            if ((done != null && !done) || "length".equals(response.get("done_reason"))) {
                 LOG.warn("Response may have been truncated");
                 generatedText += "\n\n[Note: Response may have been truncated due to length limits]";
             }
@@ -84,8 +318,15 @@ public class OllamaService {
             LOG.info("Generated response length: {} characters", generatedText.length());
             LOG.debug("Response preview: {}...", generatedText.substring(0, Math.min(200, generatedText.length())));
 
+            outcome = "success";
             return generatedText.trim();
 
+        } catch (OllamaOverloadedException e) {
+            outcome = "rejected";
+            throw e;
+        } catch (GenerationCancelledException e) {
+            outcome = "cancelled";
+            throw e;
         } catch (Exception e) {
             LOG.error("Error generating response from Ollama", e);
 
@@ -97,14 +338,54 @@ public class OllamaService {
             } else {
                 return "Error: " + e.getMessage();
             }
+        } finally {
+            sample.stop(Timer.builder("rag.ollama.generate")
+                    .description("End-to-end latency of an Ollama generate call")
+                    .tag("outcome", outcome)
+                    .tag("endpoint", path)
+                    .register(meterRegistry));
         }
     }
 
+    /**
+     * Record token counts and throughput from the timing fields Ollama returns
+     * (eval_count, eval_duration, prompt_eval_count, prompt_eval_duration; durations in nanoseconds)
+     */
+    private void recordGenerationStats(Map<String, Object> response, int promptChars) {
+        long promptEvalCount = asLong(response.get("prompt_eval_count"));
+        long promptEvalNanos = asLong(response.get("prompt_eval_duration"));
+        long evalCount = asLong(response.get("eval_count"));
+        long evalNanos = asLong(response.get("eval_duration"));
+
+        promptTokens.increment(promptEvalCount);
+        completionTokens.increment(evalCount);
+        // prompt_eval_count only counts tokens Ollama actually evaluated, a reused prefix is not
+        // included. Without reuse a token is about 4 characters, so higher values mean cache hits.
+        promptEvalTokens.record(promptEvalCount);
+        if (promptEvalCount > 0) {
+            promptCharsPerEvalToken.record((double) promptChars / promptEvalCount);
+        }
+        if (promptEvalNanos > 0) {
+            promptEvalTimer.record(Duration.ofNanos(promptEvalNanos));
+            promptTokensPerSecond.record(promptEvalCount * 1_000_000_000.0 / promptEvalNanos);
+        }
+        if (evalNanos > 0) {
+            evalTimer.record(Duration.ofNanos(evalNanos));
+            completionTokensPerSecond.record(evalCount * 1_000_000_000.0 / evalNanos);
+        }
+
+        LOG.info("Ollama stats - prompt tokens: {} in {} ms, completion tokens: {} in {} ms",
+                promptEvalCount, promptEvalNanos / 1_000_000, evalCount, evalNanos / 1_000_000);
+    }
+
+    private static long asLong(Object value) {
+        return value instanceof Number number ? number.longValue() : 0L;
+    }
+
     // Health check method
     public boolean isOllamaHealthy() {
         try {
-            String url = baseUrl + "/api/tags";
-            restTemplate.getForObject(url, Map.class);
+            endpointPool.execute("/api/tags", null, baseUrl -> restTemplate.getForObject(baseUrl + "/api/tags", Map.class));
             return true;
         } catch (Exception e) {
             LOG.warn("Ollama health check failed: {}", e.getMessage());
@@ -112,11 +393,97 @@ public class OllamaService {
         }
     }
 
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * Load a model into memory on every available Ollama instance without generating anything.
+     * A generate request with an empty prompt loads a chat model, an embed request with a tiny
+     * input loads an embedding model. Fails only if no instance loaded it.
+     */
+    public void loadModel(String modelName, String modelKeepAlive, boolean embedding) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", modelName);
+        requestBody.put("keep_alive", modelKeepAlive);
+        if (embedding) {
+            requestBody.put("input", "warm-up");
+        } else {
+            requestBody.put("prompt", "");
+            requestBody.put("stream", false);
+            // Same options as the answers, otherwise the first answer reloads the model
+            requestBody.put("options", options);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        String path = embedding ? "/api/embed" : "/api/generate";
+        List<String> baseUrls = endpointPool.availableEndpoints();
+        if (baseUrls.isEmpty()) {
+            throw new IllegalStateException("No Ollama endpoint available to load model " + modelName);
+        }
+        RuntimeException failure = null;
+        boolean loaded = false;
+        for (String baseUrl : baseUrls) {
+            try {
+                restTemplate.postForObject(baseUrl + path, new HttpEntity<>(requestBody, headers), Map.class);
+                loaded = true;
+            } catch (RuntimeException e) {
+                LOG.warn("Loading model {} on {} failed: {}", modelName, baseUrl, e.getMessage());
+                failure = e;
+            }
+        }
+        if (!loaded) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Models held in memory (/api/ps) by every available Ollama instance, keyed by tagged name,
+     * with the earliest time an instance will unload them ({@link Instant#MAX} if none says).
+     * A model missing on one instance is missing, so the warmer loads it again.
+     */
+    public Map<String, Instant> getResidentModels() {
+        Map<String, Instant> resident = null;
+        for (String baseUrl : endpointPool.availableEndpoints()) {
+            Map<String, Instant> onEndpoint = getResidentModels(baseUrl);
+            if (resident == null) {
+                resident = onEndpoint;
+            } else {
+                resident.keySet().retainAll(onEndpoint.keySet());
+                resident.replaceAll((name, expiresAt) ->
+                        expiresAt.isBefore(onEndpoint.get(name)) ? expiresAt : onEndpoint.get(name));
+            }
+        }
+        return resident == null ? Map.of() : resident;
+    }
+
+    private Map<String, Instant> getResidentModels(String baseUrl) {
+        Map<?, ?> response = restTemplate.getForObject(baseUrl + "/api/ps", Map.class);
+        Map<String, Instant> resident = new HashMap<>();
+        if (response != null && response.get("models") instanceof List<?> models) {
+            for (Object entry : models) {
+                if (entry instanceof Map<?, ?> loaded && loaded.get("name") instanceof String name) {
+                    Instant expiresAt = loaded.get("expires_at") instanceof String expires
+                            ? OffsetDateTime.parse(expires).toInstant()
+                            : Instant.MAX;
+                    resident.put(withTag(name), expiresAt);
+                }
+            }
+        }
+        return resident;
+    }
+
+    /**
+     * Ollama reports "llama3.2:latest" for a model configured as "llama3.2"
+     */
+    public static String withTag(String modelName) {
+        return modelName.contains(":") ? modelName : modelName + ":latest";
+    }
+
     // Get available models
     public Map<String, Object> getAvailableModels() {
         try {
-            String url = baseUrl + "/api/tags";
-            return restTemplate.getForObject(url, Map.class);
+            return endpointPool.execute("/api/tags", null, baseUrl -> restTemplate.getForObject(baseUrl + "/api/tags", Map.class));
         } catch (Exception e) {
             LOG.error("Failed to get available models", e);
             return Map.of("error", e.getMessage());
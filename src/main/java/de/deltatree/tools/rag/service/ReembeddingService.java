@@ -0,0 +1,585 @@
+package de.deltatree.tools.rag.service;
+
+import com.pgvector.PGvector;
+import de.deltatree.tools.rag.embedding.OnnxEmbeddingModel;
+import de.deltatree.tools.rag.embedding.PooledOllamaEmbeddingModel;
+import de.deltatree.tools.rag.model.DocumentEmbedding;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Moves the stored chunks to another Ollama embedding model while searches keep using the
+ * current one:
+ * <ol>
+ *     <li>start: adds the shadow column embedding_next with the new model's dimensions, and
+ *     embedding_next_model for the model of each of its vectors</li>
+ *     <li>backfill: re-embeds the stored chunks in batches at BACKGROUND_INGEST priority, at most
+ *     rag.reembed.max-chunks-per-second, with the last (id, collection) as checkpoint. Chunks
+ *     added meanwhile get vectors from both models</li>
+ *     <li>index: builds the HNSW index of the shadow column, concurrently and one partition at a time</li>
+ *     <li>switch: replaces the embedding columns by the shadow columns in one transaction, and
+ *     embeds queries and new chunks with the new model from then on</li>
+ * </ol>
+ * The state lives in embedding_migrations. One node at a time works on a running migration and
+ * renews its lease every poll; another node takes over once the lease has expired. Every node
+ * follows a switch within rag.reembed.poll-interval-ms, then embeds again the chunks it stored
+ * with the old model in the meantime, found by their embedding_model.
+ */
+@Service
+@DependsOn("entityManagerFactory")
+@ConditionalOnProperty(name = "rag.reembed.enabled", havingValue = "true", matchIfMissing = true)
+public class ReembeddingService implements InitializingBean, DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(ReembeddingService.class);
+    private static final String TABLE = "document_embeddings_ollama";
+    private static final String INDEX = TABLE + "_embedding_hnsw_idx";
+    private static final String SHADOW_INDEX = TABLE + "_embedding_next_hnsw_idx";
+    private static final String LEASE = "interval '2 minutes'";
+
+    public enum State { RUNNING, PAUSED, SWITCHED, CANCELLED, FAILED }
+
+    /**
+     * @param remaining chunks without a vector of the new model yet, null once the migration has ended
+     */
+    public record Status(long id, State state, String sourceModel, String targetModel, int dimensions,
+                         long processed, Long remaining, String worker, String error,
+                         OffsetDateTime startedAt, OffsetDateTime updatedAt, OffsetDateTime switchedAt) {
+        Status withRemaining(Long remaining) {
+            return new Status(id, state, sourceModel, targetModel, dimensions, processed, remaining, worker, error,
+                    startedAt, updatedAt, switchedAt);
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transaction;
+    private final PooledOllamaEmbeddingModel activeModel;
+    private final boolean inProcessModel;
+    private final OllamaEndpointPool endpointPool;
+    private final OllamaScheduler scheduler;
+    private final String keepAlive;
+    private final int batchSize;
+    private final double maxChunksPerSecond;
+    private final long switchTimeoutMillis;
+    private final int hnswM;
+    private final int hnswEfConstruction;
+    private final String maintenanceWorkMem;
+    private final String node = ManagementFactory.getRuntimeMXBean().getName();
+    private final ReentrantReadWriteLock modelLock = new ReentrantReadWriteLock();
+    private final Counter reembedded;
+
+    // The new model while its shadow column exists, so new chunks are embedded with it as well
+    private volatile PooledOllamaEmbeddingModel targetModel;
+    private volatile Thread worker;
+    // Changed under the write lock with every switch of this node's model
+    private volatile long modelGeneration;
+
+    public ReembeddingService(JdbcTemplate jdbcTemplate,
+                              PlatformTransactionManager transactionManager,
+                              PooledOllamaEmbeddingModel ollamaEmbeddingModel,
+                              ObjectProvider<OnnxEmbeddingModel> onnxEmbeddingModel,
+                              OllamaEndpointPool endpointPool,
+                              OllamaScheduler scheduler,
+                              MeterRegistry meterRegistry,
+                              @Value("${rag.ollama.keep-alive.embedding:30m}") String keepAlive,
+                              @Value("${rag.reembed.batch-size:16}") int batchSize,
+                              @Value("${rag.reembed.max-chunks-per-second:20}") double maxChunksPerSecond,
+                              @Value("${rag.reembed.switch-timeout-ms:10000}") long switchTimeoutMillis,
+                              @Value("${rag.vectorstore.hnsw.m:16}") int hnswM,
+                              @Value("${rag.vectorstore.hnsw.ef-construction:64}") int hnswEfConstruction,
+                              @Value("${rag.reembed.maintenance-work-mem:1GB}") String maintenanceWorkMem) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.activeModel = ollamaEmbeddingModel;
+        this.inProcessModel = onnxEmbeddingModel.getIfAvailable() != null;
+        this.endpointPool = endpointPool;
+        this.scheduler = scheduler;
+        this.keepAlive = keepAlive;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxChunksPerSecond = maxChunksPerSecond;
+        this.switchTimeoutMillis = switchTimeoutMillis;
+        this.hnswM = hnswM;
+        this.hnswEfConstruction = hnswEfConstruction;
+        this.maintenanceWorkMem = maintenanceWorkMem;
+        this.reembedded = Counter.builder("rag.reembed.chunks")
+                .description("Stored chunks embedded with the model of a running migration")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS embedding_migrations ("
+                + "id bigserial PRIMARY KEY, "
+                + "source_model text NOT NULL, "
+                + "target_model text NOT NULL, "
+                + "dimensions int NOT NULL, "
+                + "state varchar(16) NOT NULL, "
+                + "last_id bigint NOT NULL DEFAULT 0, "
+                + "last_collection varchar(48) NOT NULL DEFAULT '', "
+                + "processed bigint NOT NULL DEFAULT 0, "
+                + "worker text, "
+                + "error text, "
+                + "started_at timestamptz NOT NULL DEFAULT now(), "
+                + "updated_at timestamptz NOT NULL DEFAULT now(), "
+                + "switched_at timestamptz)");
+        // A shadow column added before the model was stored per chunk
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM information_schema.columns "
+                + "WHERE table_name = ? AND column_name = 'embedding_next')", Boolean.class, TABLE))) {
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " ADD COLUMN IF NOT EXISTS embedding_next_model text");
+        }
+        current().filter(status -> status.state() == State.SWITCHED
+                        && !status.targetModel().equals(activeModel.getModel()))
+                .ifPresent(status -> LOG.warn("The stored chunks were migrated to {}, using it instead of {}; "
+                        + "update spring.ai.ollama.embedding.model", status.targetModel(), activeModel.getModel()));
+        poll();
+    }
+
+    @Override
+    public void destroy() {
+        Thread running = worker;
+        if (running != null) {
+            running.interrupt();
+        }
+    }
+
+    /**
+     * Read lock held by searches and ingestion while they use a vector, never while they embed:
+     * they read {@link #modelGeneration()} before embedding and embed again if it changed meanwhile
+     */
+    public Lock activeModelLock() {
+        return modelLock.readLock();
+    }
+
+    public long modelGeneration() {
+        return modelGeneration;
+    }
+
+    /**
+     * The model new chunks are embedded with, stored with each of them; null for an in-process model
+     */
+    public String activeModelName() {
+        return inProcessModel ? null : activeModel.getModel();
+    }
+
+    /**
+     * The latest migration with the chunks it has left, counted over every partition: for status
+     * requests only, never while polling
+     */
+    public Optional<Status> status() {
+        return current().map(status -> status.state() == State.RUNNING || status.state() == State.PAUSED
+                ? status.withRemaining(remaining()) : status);
+    }
+
+    private Optional<Status> current() {
+        List<Status> latest = jdbcTemplate.query("SELECT * FROM embedding_migrations ORDER BY id DESC LIMIT 1",
+                (rs, rowNum) -> new Status(rs.getLong("id"), State.valueOf(rs.getString("state")),
+                        rs.getString("source_model"), rs.getString("target_model"), rs.getInt("dimensions"),
+                        rs.getLong("processed"), null, rs.getString("worker"), rs.getString("error"),
+                        rs.getObject("started_at", OffsetDateTime.class),
+                        rs.getObject("updated_at", OffsetDateTime.class),
+                        rs.getObject("switched_at", OffsetDateTime.class)));
+        return latest.stream().findFirst();
+    }
+
+    public Status start(String model) {
+        if (inProcessModel) {
+            throw new IllegalStateException("Migrations need rag.embedding.engine=ollama");
+        }
+        Optional<Status> current = current();
+        if (current.isPresent() && (current.get().state() == State.RUNNING || current.get().state() == State.PAUSED)) {
+            throw new IllegalStateException("A migration to " + current.get().targetModel() + " is in progress");
+        }
+        if (model == null || model.isBlank() || model.equals(activeModel.getModel())) {
+            throw new IllegalArgumentException("The chunks are already embedded with " + activeModel.getModel());
+        }
+        PooledOllamaEmbeddingModel target = new PooledOllamaEmbeddingModel(endpointPool, model, keepAlive);
+        int dimensions = embed(target, List.of("dimension probe")).get(0).length;
+
+        // Adding a nullable column without a default does not rewrite the table
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP COLUMN IF EXISTS embedding_next, "
+                + "DROP COLUMN IF EXISTS embedding_next_model");
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ADD COLUMN embedding_next vector(" + dimensions + "), "
+                + "ADD COLUMN embedding_next_model text");
+        jdbcTemplate.update("INSERT INTO embedding_migrations (source_model, target_model, dimensions, state, worker) "
+                + "VALUES (?, ?, ?, ?, ?)", activeModel.getModel(), model, dimensions, State.RUNNING.name(), node);
+        targetModel = target;
+        LOG.info("Migrating the stored chunks from {} to {} ({} dimensions)", activeModel.getModel(), model, dimensions);
+        startWorker();
+        return status().orElseThrow();
+    }
+
+    /**
+     * Stop re-embedding after the current batch; chunks added meanwhile still get both vectors
+     */
+    public Status pause() {
+        if (jdbcTemplate.update("UPDATE embedding_migrations SET state = ?, updated_at = now() WHERE state = ?",
+                State.PAUSED.name(), State.RUNNING.name()) == 0) {
+            throw new IllegalStateException("No migration is running");
+        }
+        return status().orElseThrow();
+    }
+
+    public Status resume() {
+        if (jdbcTemplate.update("UPDATE embedding_migrations SET state = ?, worker = ?, error = NULL, updated_at = now() "
+                + "WHERE id = (SELECT max(id) FROM embedding_migrations) AND state IN (?, ?)",
+                State.RUNNING.name(), node, State.PAUSED.name(), State.FAILED.name()) == 0) {
+            throw new IllegalStateException("No migration is paused or failed");
+        }
+        poll();
+        return status().orElseThrow();
+    }
+
+    /**
+     * Drop the shadow column; searches and ingestion stay on the current model
+     */
+    public Status cancel() {
+        modelLock.writeLock().lock();
+        try {
+            if (jdbcTemplate.update("UPDATE embedding_migrations SET state = ?, updated_at = now() "
+                    + "WHERE id = (SELECT max(id) FROM embedding_migrations) AND state IN (?, ?, ?)",
+                    State.CANCELLED.name(), State.RUNNING.name(), State.PAUSED.name(), State.FAILED.name()) == 0) {
+                throw new IllegalStateException("No migration to cancel");
+            }
+            targetModel = null;
+            jdbcTemplate.execute("DROP INDEX IF EXISTS " + SHADOW_INDEX);
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP COLUMN IF EXISTS embedding_next, "
+                    + "DROP COLUMN IF EXISTS embedding_next_model");
+        } finally {
+            modelLock.writeLock().unlock();
+        }
+        Thread running = worker;
+        if (running != null) {
+            running.interrupt();
+        }
+        LOG.info("Embedding migration cancelled");
+        return status().orElseThrow();
+    }
+
+    /**
+     * Store the new model's vector of a chunk just added, while a migration has a shadow column.
+     * Called after the chunk is saved, without the lock. A failure, including a shadow column
+     * swapped or dropped meanwhile, leaves the vector empty for the backfill or the switch to fill in.
+     */
+    public void dualWrite(DocumentEmbedding saved) {
+        PooledOllamaEmbeddingModel target = targetModel;
+        if (target == null || saved.getId() == null) {
+            return;
+        }
+        try {
+            float[] vector = embed(target, List.of(saved.getChunk())).get(0);
+            jdbcTemplate.update("UPDATE " + TABLE + " SET embedding_next = ?, embedding_next_model = ? "
+                    + "WHERE id = ? AND collection = ?",
+                    new PGvector(vector), target.getModel(), saved.getId(), saved.getCollection());
+        } catch (RuntimeException e) {
+            LOG.warn("Could not embed chunk {} with {}, the migration will: {}", saved.getId(), target.getModel(),
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Follow the migration state written by any node: switch models, enable dual writes, renew
+     * the lease of this node's worker or take over a running migration whose lease has expired
+     */
+    @Scheduled(fixedDelayString = "${rag.reembed.poll-interval-ms:5000}", initialDelayString = "${rag.reembed.poll-interval-ms:5000}")
+    public void poll() {
+        Status status = current().orElse(null);
+        if (status == null) {
+            return;
+        }
+        switch (status.state()) {
+            case SWITCHED -> {
+                if (!status.targetModel().equals(activeModel.getModel())) {
+                    modelLock.writeLock().lock();
+                    try {
+                        activate(status.targetModel());
+                    } finally {
+                        modelLock.writeLock().unlock();
+                    }
+                    // This node stored chunks with the old model until now; from here on it no longer does
+                    PooledOllamaEmbeddingModel model = new PooledOllamaEmbeddingModel(endpointPool,
+                            status.targetModel(), keepAlive);
+                    Thread.ofPlatform().name("reembedding-repair").daemon().start(() -> repair(model));
+                }
+            }
+            case RUNNING, PAUSED -> {
+                PooledOllamaEmbeddingModel target = targetModel;
+                if (target == null || !target.getModel().equals(status.targetModel())) {
+                    targetModel = new PooledOllamaEmbeddingModel(endpointPool, status.targetModel(), keepAlive);
+                }
+                if (status.state() == State.RUNNING) {
+                    Thread running = worker;
+                    if (running != null && running.isAlive()) {
+                        jdbcTemplate.update("UPDATE embedding_migrations SET updated_at = now() "
+                                + "WHERE id = ? AND state = ? AND worker = ?", status.id(), State.RUNNING.name(), node);
+                    } else if (jdbcTemplate.update("UPDATE embedding_migrations SET worker = ?, updated_at = now() "
+                            + "WHERE id = ? AND state = ? AND (worker IS NULL OR worker = ? OR updated_at < now() - "
+                            + LEASE + ")", node, status.id(), State.RUNNING.name(), node) == 1) {
+                        LOG.info("Continuing the migration to {} after {} chunks", status.targetModel(), status.processed());
+                        startWorker();
+                    }
+                }
+            }
+            case CANCELLED, FAILED -> targetModel = null;
+        }
+    }
+
+    private synchronized void startWorker() {
+        Thread running = worker;
+        if (running != null && running.isAlive()) {
+            return;
+        }
+        worker = Thread.ofPlatform().name("reembedding").daemon().start(this::migrate);
+    }
+
+    private void migrate() {
+        Status status = current().orElse(null);
+        if (status == null || status.state() != State.RUNNING) {
+            return;
+        }
+        try {
+            PooledOllamaEmbeddingModel target = new PooledOllamaEmbeddingModel(endpointPool, status.targetModel(), keepAlive);
+            if (backfill(status.id(), target) && buildShadowIndex(status.id())) {
+                switchOver(status.id(), target);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            if (jdbcTemplate.update("UPDATE embedding_migrations SET state = ?, error = ?, updated_at = now() "
+                    + "WHERE id = ? AND state = ? AND worker = ?",
+                    State.FAILED.name(), e.getMessage(), status.id(), State.RUNNING.name(), node) == 1) {
+                LOG.error("Embedding migration to {} failed: {}", status.targetModel(), e.getMessage(), e);
+            }
+        } finally {
+            worker = null;
+        }
+    }
+
+    /**
+     * @return false if the migration was paused, cancelled or taken over by another node
+     */
+    private boolean backfill(long id, PooledOllamaEmbeddingModel target) throws InterruptedException {
+        Map<String, Object> checkpoint = jdbcTemplate.queryForMap(
+                "SELECT last_id, last_collection FROM embedding_migrations WHERE id = ?", id);
+        long lastId = ((Number) checkpoint.get("last_id")).longValue();
+        String lastCollection = (String) checkpoint.get("last_collection");
+        while (true) {
+            long start = System.nanoTime();
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList("SELECT id, collection, chunk FROM " + TABLE
+                    + " WHERE embedding_next IS NULL AND (id, collection) > (?, ?) ORDER BY id, collection LIMIT ?",
+                    lastId, lastCollection, batchSize);
+            if (rows.isEmpty()) {
+                break;
+            }
+            embedRows(rows, target, "embedding_next");
+            Map<String, Object> last = rows.get(rows.size() - 1);
+            lastId = ((Number) last.get("id")).longValue();
+            lastCollection = (String) last.get("collection");
+            if (jdbcTemplate.update("UPDATE embedding_migrations SET last_id = ?, last_collection = ?, "
+                    + "processed = processed + ?, updated_at = now() WHERE id = ? AND state = ? AND worker = ?",
+                    lastId, lastCollection, rows.size(), id, State.RUNNING.name(), node) == 0) {
+                LOG.info("Embedding migration stopped after chunk {}", lastId);
+                return false;
+            }
+            // Leave Ollama to interactive traffic: at most max-chunks-per-second on average
+            long minNanos = (long) (rows.size() * 1e9 / maxChunksPerSecond);
+            long elapsed = System.nanoTime() - start;
+            if (elapsed < minNanos) {
+                TimeUnit.NANOSECONDS.sleep(minNanos - elapsed);
+            }
+        }
+        // Chunks whose dual write failed, behind the checkpoint
+        fillMissing("embedding_next", target);
+        return true;
+    }
+
+    /**
+     * Embed every chunk whose vector in the column is missing or from another model. Chunks stored
+     * before the model was recorded per chunk are left alone.
+     */
+    private void fillMissing(String column, PooledOllamaEmbeddingModel model) {
+        int filled = 0;
+        List<Map<String, Object>> rows;
+        while (!(rows = jdbcTemplate.queryForList("SELECT id, collection, chunk FROM " + TABLE + " WHERE " + column
+                + " IS NULL OR " + column + "_model <> ? ORDER BY id, collection LIMIT ?",
+                model.getModel(), batchSize)).isEmpty()) {
+            embedRows(rows, model, column);
+            filled += rows.size();
+        }
+        if (filled > 0) {
+            LOG.info("Embedded {} chunks without {} vector of {}", filled, column, model.getModel());
+        }
+    }
+
+    // After this node switched: the chunks it and lagging nodes stored with the old model
+    private void repair(PooledOllamaEmbeddingModel model) {
+        try {
+            fillMissing("embedding", model);
+        } catch (RuntimeException e) {
+            LOG.error("Could not embed the chunks stored with the old model again with {}: {}",
+                    model.getModel(), e.getMessage(), e);
+        }
+    }
+
+    private void embedRows(List<Map<String, Object>> rows, PooledOllamaEmbeddingModel model, String column) {
+        List<String> texts = rows.stream().map(row -> String.valueOf(row.get("chunk"))).toList();
+        List<float[]> vectors = embed(model, texts);
+        List<Object[]> updates = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            updates.add(new Object[]{new PGvector(vectors.get(i)), model.getModel(),
+                    rows.get(i).get("id"), rows.get(i).get("collection")});
+        }
+        jdbcTemplate.batchUpdate("UPDATE " + TABLE + " SET " + column + " = ?, " + column + "_model = ? "
+                + "WHERE id = ? AND collection = ?", updates);
+        reembedded.increment(rows.size());
+    }
+
+    // At background priority, waiting while the scheduler turns background work away
+    private List<float[]> embed(PooledOllamaEmbeddingModel model, List<String> texts) {
+        while (true) {
+            try {
+                return scheduler.execute(OllamaPriority.BACKGROUND_INGEST, () -> model.embed(texts));
+            } catch (OllamaOverloadedException e) {
+                try {
+                    Thread.sleep(Math.max(1, e.getRetryAfterSeconds()) * 1000L);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Index the shadow column without blocking writes: an index on the parent table only, then
+     * one index per partition built concurrently and attached to it
+     *
+     * @return false if the migration was stopped meanwhile
+     */
+    private boolean buildShadowIndex(long id) {
+        String method = String.format("USING hnsw (embedding_next vector_cosine_ops) WITH (m = %d, ef_construction = %d)",
+                hnswM, hnswEfConstruction);
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + SHADOW_INDEX + " ON ONLY " + TABLE + " " + method);
+        List<Map<String, Object>> collections = jdbcTemplate.queryForList(
+                "SELECT name, partition_name FROM document_collections ORDER BY name");
+        for (Map<String, Object> collection : collections) {
+            if (!isRunning(id)) {
+                return false;
+            }
+            String partition = (String) collection.get("partition_name");
+            // Partitions created after the parent index got theirs already
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM pg_inherits h "
+                    + "JOIN pg_index i ON i.indexrelid = h.inhrelid "
+                    + "WHERE h.inhparent = to_regclass(?) AND i.indrelid = to_regclass(?))",
+                    Boolean.class, SHADOW_INDEX, partition))) {
+                continue;
+            }
+            // Named per migration: the indexes of an earlier one stay attached to the live index
+            String index = "doc_embn_" + id + "_" + collection.get("name");
+            long start = System.nanoTime();
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET maintenance_work_mem = '" + maintenanceWorkMem.replace("'", "") + "'");
+                    try {
+                        // An interrupted concurrent build leaves an invalid index behind
+                        statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + index);
+                        statement.execute("CREATE INDEX CONCURRENTLY " + index + " ON " + partition + " " + method);
+                    } finally {
+                        statement.execute("RESET maintenance_work_mem");
+                    }
+                }
+                return null;
+            });
+            jdbcTemplate.execute("ALTER INDEX " + SHADOW_INDEX + " ATTACH PARTITION " + index);
+            LOG.info("Indexed the new embeddings of {} in {} ms", partition, (System.nanoTime() - start) / 1_000_000);
+        }
+        Boolean valid = jdbcTemplate.queryForObject(
+                "SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass(?)", Boolean.class, SHADOW_INDEX);
+        if (!Boolean.TRUE.equals(valid)) {
+            throw new IllegalStateException(SHADOW_INDEX + " is not valid after indexing every partition");
+        }
+        return true;
+    }
+
+    /**
+     * Swap the columns and the models together. The write lock waits for the searches and
+     * inserts in flight, which hold it only around their SQL, and holds new ones back for the
+     * few statements of the swap.
+     */
+    private void switchOver(long id, PooledOllamaEmbeddingModel target) throws InterruptedException {
+        // Chunks added by nodes that had not noticed the migration yet, embedded before anything is held back
+        fillMissing("embedding_next", target);
+        while (!modelLock.writeLock().tryLock(switchTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            LOG.info("Waiting for searches and uploads to finish before switching to {}", target.getModel());
+            if (!isRunning(id)) {
+                return;
+            }
+        }
+        boolean switched;
+        try {
+            switched = Boolean.TRUE.equals(transaction.execute(status -> {
+                if (jdbcTemplate.update("UPDATE embedding_migrations SET state = ?, switched_at = now(), "
+                        + "updated_at = now() WHERE id = ? AND state = ? AND worker = ?",
+                        State.SWITCHED.name(), id, State.RUNNING.name(), node) == 0) {
+                    return false;
+                }
+                // Rather fail and be resumed than queue every search behind a lock that cannot be granted
+                jdbcTemplate.queryForObject("SELECT set_config('lock_timeout', '5s', true)", String.class);
+                // Dropping the old column drops its HNSW index with it
+                jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP COLUMN embedding, DROP COLUMN embedding_model");
+                jdbcTemplate.execute("ALTER TABLE " + TABLE + " RENAME COLUMN embedding_next TO embedding");
+                jdbcTemplate.execute("ALTER TABLE " + TABLE + " RENAME COLUMN embedding_next_model TO embedding_model");
+                jdbcTemplate.execute("ALTER INDEX " + SHADOW_INDEX + " RENAME TO " + INDEX);
+                return true;
+            }));
+            if (switched) {
+                activate(target.getModel());
+            }
+        } finally {
+            modelLock.writeLock().unlock();
+        }
+        if (switched) {
+            LOG.info("Searches now use {}; update spring.ai.ollama.embedding.model", target.getModel());
+            // Chunks added since the fill have no vector now, those of nodes still on the old model a wrong one
+            repair(target);
+        }
+    }
+
+    // Called with the write lock held
+    private void activate(String model) {
+        activeModel.useModel(model);
+        targetModel = null;
+        modelGeneration++;
+    }
+
+    private boolean isRunning(long id) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM embedding_migrations "
+                + "WHERE id = ? AND state = ? AND worker = ?)", Boolean.class, id, State.RUNNING.name(), node));
+    }
+
+    private Long remaining() {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM " + TABLE + " WHERE embedding_next IS NULL", Long.class);
+    }
+}
@@ -0,0 +1,220 @@
+package de.deltatree.tools.rag.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * At most one running computation per key. A caller arriving while it runs attaches to it instead
+ * of starting its own: it gets the text streamed so far at once, then every further piece, and the
+ * same result or exception. The computation runs on the executor with its own cancellation
+ * signal, which is only cancelled once every attached caller has been. Every caller, the first
+ * one included, writes its text on its own thread, and no callback runs while a lock is held.
+ */
+public class SingleFlight<T> {
+    private final Map<String, Flight<T>> flights = new ConcurrentHashMap<>();
+    private final Executor executor;
+    private final Counter started;
+    private final Counter joined;
+
+    public SingleFlight(String name, Executor executor, MeterRegistry meterRegistry) {
+        this.executor = executor;
+        this.started = Counter.builder("rag.singleflight.calls")
+                .description("Calls that ran their own computation or attached to a running one")
+                .tag("name", name)
+                .tag("role", "leader")
+                .register(meterRegistry);
+        this.joined = Counter.builder("rag.singleflight.calls")
+                .description("Calls that ran their own computation or attached to a running one")
+                .tag("name", name)
+                .tag("role", "joined")
+                .register(meterRegistry);
+        Gauge.builder("rag.singleflight.running", flights, Map::size)
+                .description("Computations currently shared by key")
+                .tag("name", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * The result of the computation for the key, run now or already running
+     *
+     * @param onToken     receives the text the computation streams, always on the calling thread
+     * @param computation runs on the executor, gets the shared cancellation signal and the consumer
+     *                    to stream text to
+     * @throws GenerationCancelledException if this caller is cancelled first
+     */
+    public T execute(String key, CancellationSignal cancellation, Consumer<String> onToken,
+                     BiFunction<CancellationSignal, Consumer<String>, T> computation) {
+        cancellation.throwIfCancelled();
+        while (true) {
+            Flight<T> running = flights.get(key);
+            if (running == null) {
+                Flight<T> flight = new Flight<>();
+                Subscriber me = flight.join(onToken);
+                if (flights.putIfAbsent(key, flight) == null) {
+                    started.increment();
+                    CompletableFuture<T> mine = watch(flight, cancellation, me);
+                    try {
+                        executor.execute(() -> compute(key, flight, computation));
+                    } catch (RejectedExecutionException e) {
+                        flights.remove(key, flight);
+                        flight.result.completeExceptionally(e);
+                        flight.finish();
+                    }
+                    me.deliverUntilEnd();
+                    return await(mine);
+                }
+            } else {
+                Subscriber me = running.join(onToken);
+                if (me != null) {
+                    joined.increment();
+                    CompletableFuture<T> mine = watch(running, cancellation, me);
+                    me.deliverUntilEnd();
+                    return await(mine);
+                }
+                // Every caller of that one has left and it is being cancelled
+                flights.remove(key, running);
+            }
+        }
+    }
+
+    private void compute(String key, Flight<T> flight, BiFunction<CancellationSignal, Consumer<String>, T> computation) {
+        try {
+            flight.result.complete(computation.apply(flight.cancellation, flight::publish));
+        } catch (RuntimeException e) {
+            flight.result.completeExceptionally(e);
+        } finally {
+            flights.remove(key, flight);
+            flight.finish();
+        }
+    }
+
+    // Cancelling this caller's copy of the result leaves the shared one alone
+    private CompletableFuture<T> watch(Flight<T> flight, CancellationSignal cancellation, Subscriber subscriber) {
+        CompletableFuture<T> mine = flight.result.thenApply(Function.identity());
+        cancellation.onCancel(() -> {
+            mine.cancel(false);
+            flight.leave(subscriber);
+        });
+        return mine;
+    }
+
+    private T await(CompletableFuture<T> mine) {
+        try {
+            return mine.join();
+        } catch (CancellationException e) {
+            throw new GenerationCancelledException();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    /**
+     * A caller's own queue of streamed text. The flight only appends to it; the caller writes it
+     * out on its own thread, so a slow client holds up neither the computation nor other callers.
+     */
+    private static final class Subscriber {
+        private static final Optional<String> END = Optional.empty();
+        private final Consumer<String> onToken;
+        private final BlockingQueue<Optional<String>> pending = new LinkedBlockingQueue<>();
+
+        Subscriber(Consumer<String> onToken) {
+            this.onToken = onToken;
+        }
+
+        void offer(String text) {
+            pending.add(Optional.of(text));
+        }
+
+        void end() {
+            pending.add(END);
+        }
+
+        // Until the computation has finished or the caller has left
+        void deliverUntilEnd() {
+            try {
+                Optional<String> text;
+                while ((text = pending.take()).isPresent()) {
+                    onToken.accept(text.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class Flight<T> {
+        private final CancellationSignal cancellation = new CancellationSignal();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private final StringBuilder streamed = new StringBuilder();
+        private boolean finished;
+        private boolean abandoned;
+
+        /**
+         * @return the new caller's subscription, starting with the text streamed so far, or null
+         * if every earlier caller has left and the computation is being cancelled
+         */
+        synchronized Subscriber join(Consumer<String> onToken) {
+            if (abandoned) {
+                return null;
+            }
+            Subscriber subscriber = new Subscriber(onToken);
+            if (!streamed.isEmpty()) {
+                subscriber.offer(streamed.toString());
+            }
+            if (finished) {
+                subscriber.end();
+            } else {
+                subscribers.add(subscriber);
+            }
+            return subscriber;
+        }
+
+        void leave(Subscriber subscriber) {
+            boolean cancel;
+            synchronized (this) {
+                if (!subscribers.remove(subscriber)) {
+                    return;
+                }
+                abandoned = subscribers.isEmpty() && !result.isDone();
+                cancel = abandoned;
+            }
+            subscriber.end();
+            if (cancel) {
+                cancellation.cancel();
+            }
+        }
+
+        // Queued under the lock, so every caller gets each piece once and in order, whenever it joined
+        synchronized void publish(String token) {
+            streamed.append(token);
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(token);
+            }
+        }
+
+        synchronized void finish() {
+            finished = true;
+            for (Subscriber subscriber : subscribers) {
+                subscriber.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package de.deltatree.tools.rag.service;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentTransformer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits documents along their structure: a chunk ends before a heading if it can, otherwise at a
+ * paragraph, otherwise after a sentence; only a sentence longer than a chunk is cut between words.
+ * A chunk starts with up to rag.splitter.overlap tokens of whole sentences from the previous one,
+ * except at a new section.
+ * <p>
+ * The text is scanned once into sentences, each tokenized once with a shared cl100k encoder, and the
+ * chunks are substrings of the original text. Thread-safe; chunks carry token_count, chunk_index,
+ * start_offset, end_offset and section (the heading they belong to) in their metadata.
+ */
+@Service
+public class StructureAwareTextSplitter implements DocumentTransformer {
+
+    // Boundary before a unit, the higher the better the place to end a chunk
+    private static final byte WORD = 0;
+    private static final byte SENTENCE = 1;
+    private static final byte PARAGRAPH = 2;
+    private static final byte HEADING = 3;
+
+    private static final int MAX_HEADING_CHARS = 100;
+
+    // Word before a period that does not end a sentence, lower case without the final period
+    private static final Set<String> ABBREVIATIONS = Set.of(
+            "z.b", "bzw", "ca", "nr", "abs", "usw", "d.h", "u.a", "ggf", "inkl", "exkl", "vgl", "s", "dr",
+            "etc", "evtl", "max", "min", "bspw", "sog", "art", "tel", "str", "gem", "lt", "zzgl", "ggü",
+            "i.d.r", "u.u", "z.t", "o.g", "e.v", "mio", "mrd", "jh", "bzgl", "insb", "kap", "anm", "e.g",
+            "i.e", "vs", "no", "fig", "approx", "incl", "mr", "mrs", "prof", "hr", "fr");
+
+    private final int chunkSize;
+    private final int overlap;
+    private final int minChunkChars;
+    private final int maxChunks;
+
+    public StructureAwareTextSplitter(@Value("${rag.splitter.chunk-size:800}") int chunkSize,
+                                      @Value("${rag.splitter.overlap:80}") int overlap,
+                                      @Value("${rag.splitter.min-chunk-chars:50}") int minChunkChars,
+                                      @Value("${rag.splitter.max-chunks:10000}") int maxChunks) {
+        if (chunkSize < 16 || overlap < 0 || overlap >= chunkSize / 2) {
+            throw new IllegalArgumentException("rag.splitter.chunk-size must be at least 16 and overlap below half of it");
+        }
+        this.chunkSize = chunkSize;
+        this.overlap = overlap;
+        this.minChunkChars = minChunkChars;
+        this.maxChunks = maxChunks;
+    }
+
+    @Override
+    public List<Document> apply(List<Document> documents) {
+        List<Document> chunks = new ArrayList<>();
+        for (Document document : documents) {
+            chunks.addAll(split(document));
+        }
+        return chunks;
+    }
+
+    public List<Document> split(Document document) {
+        String text = document.getContent();
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        Units units = segment(text);
+        return pack(text, units, document.getMetadata());
+    }
+
+    /**
+     * Tokens of a text with the encoder the chunks are measured with
+     */
+    public static int countTokens(String text) {
+        return EncoderHolder.ENCODING.countTokens(text);
+    }
+
+    // ---- segmentation ----
+
+    private Units segment(String text) {
+        Units units = new Units(Math.max(16, text.length() / 80));
+        int length = text.length();
+        int pos = 0;
+        byte boundary = PARAGRAPH;
+        boolean afterHeading = false;
+        while (true) {
+            int newlines = 0;
+            while (pos < length && Character.isWhitespace(text.charAt(pos))) {
+                if (text.charAt(pos) == '\n') {
+                    newlines++;
+                }
+                pos++;
+            }
+            if (pos >= length) {
+                break;
+            }
+            if (newlines >= 2) {
+                boundary = (byte) Math.max(boundary, PARAGRAPH);
+            }
+            boolean lineStart = pos == 0 || newlines > 0;
+            int lineEnd = lineEnd(text, pos);
+
+            if (lineStart && isHeading(text, pos, lineEnd)) {
+                int end = trimEnd(text, pos, lineEnd);
+                units.heading(headingText(text, pos, end));
+                addUnit(text, units, pos, end, HEADING);
+                pos = end;
+                // The first sentence below a heading stays with it
+                boundary = WORD;
+                afterHeading = true;
+                continue;
+            }
+            int end = lineStart && isLineItem(text, pos)
+                    ? trimEnd(text, pos, lineEnd)
+                    : sentenceEnd(text, pos);
+            addUnit(text, units, pos, end, afterHeading ? WORD : (byte) Math.max(boundary, SENTENCE));
+            pos = end;
+            boundary = SENTENCE;
+            afterHeading = false;
+        }
+        return units;
+    }
+
+    private void addUnit(String text, Units units, int start, int end, byte boundary) {
+        int tokens = countTokens(text.substring(start, end));
+        if (tokens <= chunkSize) {
+            units.add(start, end, tokens, boundary);
+            return;
+        }
+        // Longer than a chunk: cut between words, sized by the unit's characters per token
+        int remainingTokens = tokens;
+        while (true) {
+            if (remainingTokens <= chunkSize) {
+                int rest = countTokens(text.substring(start, end));
+                if (rest <= chunkSize) {
+                    units.add(start, end, rest, boundary);
+                    return;
+                }
+                remainingTokens = rest;
+            }
+            int cut = start + (int) ((long) (end - start) * chunkSize * 9 / (10L * remainingTokens));
+            int pieceTokens;
+            while (true) {
+                cut = wordBoundary(text, start, Math.max(cut, start + 1), end);
+                pieceTokens = countTokens(text.substring(start, cut));
+                if (pieceTokens <= chunkSize || cut - start <= 1) {
+                    break;
+                }
+                cut = start + (cut - start) * 3 / 4;
+            }
+            units.add(start, trimEnd(text, start, cut), pieceTokens, boundary);
+            boundary = WORD;
+            remainingTokens = Math.max(1, remainingTokens - pieceTokens);
+            start = cut;
+            while (start < end && Character.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            if (start >= end) {
+                return;
+            }
+        }
+    }
+
+    // Last whitespace at or before the wanted position, or the position itself inside one long word
+    private static int wordBoundary(String text, int start, int wanted, int end) {
+        if (wanted >= end) {
+            return end;
+        }
+        for (int i = wanted; i > start; i--) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                return i;
+            }
+        }
+        return wanted;
+    }
+
+    /**
+     * End of the sentence starting at pos: after a terminator followed by whitespace and an upper-case
+     * letter, digit or quote, before a blank line, or before a line that is a heading or list item
+     */
+    private static int sentenceEnd(String text, int pos) {
+        int length = text.length();
+        for (int i = pos; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                int next = i + 1;
+                while (next < length && (text.charAt(next) == ' ' || text.charAt(next) == '\t')) {
+                    next++;
+                }
+                if (next >= length || text.charAt(next) == '\n' || text.charAt(next) == '\r'
+                        || isHeading(text, next, lineEnd(text, next)) || isLineItem(text, next)) {
+                    return trimEnd(text, pos, i);
+                }
+            } else if ((c == '.' || c == '!' || c == '?' || c == ':' && i + 1 < length && text.charAt(i + 1) == '\n')
+                    && isSentenceEnd(text, pos, i)) {
+                int end = i + 1;
+                while (end < length && isClosing(text.charAt(end))) {
+                    end++;
+                }
+                return end;
+            }
+        }
+        return trimEnd(text, pos, length);
+    }
+
+    private static boolean isSentenceEnd(String text, int sentenceStart, int terminator) {
+        int length = text.length();
+        int after = terminator + 1;
+        while (after < length && isClosing(text.charAt(after))) {
+            after++;
+        }
+        if (after < length && !Character.isWhitespace(text.charAt(after))) {
+            return false;
+        }
+        while (after < length && Character.isWhitespace(text.charAt(after))) {
+            after++;
+        }
+        if (after < length) {
+            char next = text.charAt(after);
+            if (!Character.isUpperCase(next) && !Character.isDigit(next) && !isOpening(next)) {
+                return false;
+            }
+        }
+        if (text.charAt(terminator) != '.') {
+            return true;
+        }
+        int wordStart = terminator;
+        while (wordStart > sentenceStart && !Character.isWhitespace(text.charAt(wordStart - 1))
+                && !isOpening(text.charAt(wordStart - 1))) {
+            wordStart--;
+        }
+        if (wordStart == terminator) {
+            return true;
+        }
+        String word = text.substring(wordStart, terminator).toLowerCase(Locale.ROOT);
+        // Ordinals and dates ("3. Mai", "1.2."), abbreviations and initials
+        return !word.chars().allMatch(ch -> Character.isDigit(ch) || ch == '.')
+                && !ABBREVIATIONS.contains(word)
+                && !(word.length() == 1 && Character.isLetter(word.charAt(0)));
+    }
+
+    private static boolean isClosing(char c) {
+        return c == '"' || c == '\'' || c == ')' || c == ']' || c == '“' || c == '”' || c == '»' || c == '«';
+    }
+
+    private static boolean isOpening(char c) {
+        return c == '"' || c == '\'' || c == '(' || c == '[' || c == '„' || c == '“' || c == '»' || c == '«';
+    }
+
+    /**
+     * A whole line that reads like a heading: markdown "#", a numbered title ("3.1 Urlaub"), or a
+     * short line in capitals, none of them ending like a sentence
+     */
+    private static boolean isHeading(String text, int start, int lineEnd) {
+        int end = trimEnd(text, start, lineEnd);
+        int chars = end - start;
+        if (chars == 0 || chars > MAX_HEADING_CHARS) {
+            return false;
+        }
+        char first = text.charAt(start);
+        if (first == '#') {
+            return true;
+        }
+        char last = text.charAt(end - 1);
+        if (last == '.' || last == ',' || last == ';' || last == ':' || last == '?' || last == '!') {
+            return false;
+        }
+        if (Character.isDigit(first)) {
+            int i = start;
+            while (i < end && (Character.isDigit(text.charAt(i)) || text.charAt(i) == '.')) {
+                i++;
+            }
+            return i < end && text.charAt(i) == ' ' && i + 1 < end && Character.isUpperCase(text.charAt(i + 1))
+                    && chars <= 80;
+        }
+        int letters = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (Character.isLowerCase(c)) {
+                return false;
+            }
+            if (Character.isLetter(c)) {
+                letters++;
+            }
+        }
+        return letters >= 3;
+    }
+
+    private static boolean isLineItem(String text, int start) {
+        char first = text.charAt(start);
+        if (first == '|' || first == '•' || first == '–') {
+            return true;
+        }
+        return (first == '-' || first == '*') && start + 1 < text.length() && text.charAt(start + 1) == ' ';
+    }
+
+    private static String headingText(String text, int start, int end) {
+        int i = start;
+        while (i < end && (text.charAt(i) == '#' || text.charAt(i) == ' ')) {
+            i++;
+        }
+        return text.substring(i, end).strip();
+    }
+
+    private static int lineEnd(String text, int pos) {
+        int newline = text.indexOf('\n', pos);
+        return newline < 0 ? text.length() : newline;
+    }
+
+    private static int trimEnd(String text, int start, int end) {
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    // ---- packing ----
+
+    private List<Document> pack(String text, Units units, Map<String, Object> sourceMetadata) {
+        int count = units.size;
+        long[] prefix = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            prefix[i + 1] = prefix[i] + units.tokens[i];
+        }
+        ChunkSink sink = new ChunkSink(text, units, prefix, sourceMetadata);
+        int minFill = chunkSize / 2;
+        int minSection = chunkSize / 4;
+        // Chunk under construction: units [first, i]; [first, body) is overlap from the previous chunk
+        int first = 0;
+        int body = 0;
+        for (int i = 0; i < count && sink.size() < maxChunks; i++) {
+            if (units.boundary[i] == HEADING && i > first) {
+                if (i == body) {
+                    first = i;
+                } else if (prefix[i] - prefix[first] >= minSection) {
+                    sink.emit(first, body, i);
+                    first = i;
+                    body = i;
+                }
+            }
+            while (prefix[i + 1] - prefix[first] > chunkSize && i > first) {
+                if (i == body) {
+                    first = i;
+                    break;
+                }
+                int cut = i;
+                byte best = -1;
+                for (int j = i; j > body; j--) {
+                    if (prefix[j] - prefix[first] < minFill) {
+                        break;
+                    }
+                    if (units.boundary[j] > best) {
+                        best = units.boundary[j];
+                        cut = j;
+                    }
+                }
+                sink.emit(first, body, cut);
+                first = overlapStart(units, prefix, body, cut, i);
+                body = cut;
+            }
+        }
+        if (body < count && sink.size() < maxChunks) {
+            sink.emit(first, body, count);
+        }
+        return sink.chunks;
+    }
+
+    // Whole sentences before the cut, as many as fit the overlap and still leave room for unit i
+    private int overlapStart(Units units, long[] prefix, int body, int cut, int i) {
+        if (overlap == 0 || units.boundary[cut] == HEADING) {
+            return cut;
+        }
+        int start = cut;
+        while (start - 1 > body && units.boundary[start] < HEADING
+                && prefix[cut] - prefix[start - 1] <= overlap
+                && prefix[i + 1] - prefix[start - 1] <= chunkSize) {
+            start--;
+        }
+        return start;
+    }
+
+    private final class ChunkSink {
+        private final String text;
+        private final Units units;
+        private final long[] prefix;
+        private final Map<String, Object> sourceMetadata;
+        private final List<Document> chunks = new ArrayList<>();
+
+        ChunkSink(String text, Units units, long[] prefix, Map<String, Object> sourceMetadata) {
+            this.text = text;
+            this.units = units;
+            this.prefix = prefix;
+            this.sourceMetadata = sourceMetadata;
+        }
+
+        int size() {
+            return chunks.size();
+        }
+
+        void emit(int first, int body, int end) {
+            int startOffset = units.start[first];
+            int endOffset = units.end[end - 1];
+            if (endOffset - startOffset < minChunkChars || chunks.size() >= maxChunks) {
+                return;
+            }
+            Map<String, Object> metadata = new HashMap<>(sourceMetadata);
+            metadata.put("token_count", (int) (prefix[end] - prefix[first]));
+            metadata.put("chunk_index", chunks.size());
+            metadata.put("start_offset", startOffset);
+            metadata.put("end_offset", endOffset);
+            String section = units.sectionOf(body);
+            if (section != null) {
+                metadata.put("section", section);
+            }
+            chunks.add(new Document(text.substring(startOffset, endOffset), metadata));
+        }
+    }
+
+    /**
+     * Sentences (or list lines, headings, word runs) as parallel arrays: character range, tokens,
+     * the boundary before the unit and the heading it falls under
+     */
+    private static final class Units {
+        int[] start;
+        int[] end;
+        int[] tokens;
+        byte[] boundary;
+        int[] section;
+        final List<String> headings = new ArrayList<>();
+        int size;
+
+        Units(int capacity) {
+            start = new int[capacity];
+            end = new int[capacity];
+            tokens = new int[capacity];
+            boundary = new byte[capacity];
+            section = new int[capacity];
+        }
+
+        void heading(String title) {
+            headings.add(title);
+        }
+
+        void add(int unitStart, int unitEnd, int unitTokens, byte unitBoundary) {
+            if (size == start.length) {
+                int capacity = size * 2;
+                start = Arrays.copyOf(start, capacity);
+                end = Arrays.copyOf(end, capacity);
+                tokens = Arrays.copyOf(tokens, capacity);
+                boundary = Arrays.copyOf(boundary, capacity);
+                section = Arrays.copyOf(section, capacity);
+            }
+            start[size] = unitStart;
+            end[size] = unitEnd;
+            tokens[size] = unitTokens;
+            boundary[size] = unitBoundary;
+            section[size] = headings.size() - 1;
+            size++;
+        }
+
+        String sectionOf(int unit) {
+            int heading = section[unit];
+            return heading < 0 ? null : headings.get(heading);
+        }
+    }
+
+    // Building the encoder loads the BPE ranks; done once per JVM, the encoder itself is thread-safe
+    private static final class EncoderHolder {
+        static final Encoding ENCODING = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+    }
+}
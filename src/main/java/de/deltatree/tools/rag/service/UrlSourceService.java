@@ -0,0 +1,331 @@
+package de.deltatree.tools.rag.service;
+
+import de.deltatree.tools.rag.model.DocumentEmbedding;
+import de.deltatree.tools.rag.model.UrlSource;
+import de.deltatree.tools.rag.reader.UrlDocumentReader;
+import de.deltatree.tools.rag.repository.DocumentEmbeddingRepository;
+import de.deltatree.tools.rag.repository.UrlSourceRepository;
+import de.deltatree.tools.rag.vectorstore.CorpusVersions;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Registry of URL sources and their incremental refresh. Every ingested page is recorded with
+ * its ETag, Last-Modified and a hash of its text. A scheduled check re-fetches due sources with
+ * a conditional GET: a 304 or an unchanged text hash costs no embeddings at all. A changed page
+ * is split again and only chunks whose text is new are embedded; chunks that disappeared are
+ * deleted, identical ones are kept. Each node claims the due sources it refreshes, so a source is
+ * refreshed by one node at a time.
+ */
+@Service
+public class UrlSourceService {
+    private static final Logger LOG = LoggerFactory.getLogger(UrlSourceService.class);
+    private static final int LOCK_STRIPES = 64;
+
+    public enum Outcome { NEW, CHANGED, UNCHANGED, NOT_MODIFIED }
+
+    public record IngestResult(String url, String title, Outcome outcome, int chunkCount, int added, int removed) {
+    }
+
+    private final UrlSourceRepository sources;
+    private final DocumentEmbeddingRepository chunks;
+    private final VectorStore vectorStore;
+    private final StructureAwareTextSplitter splitter;
+    private final CorpusVersions corpusVersions;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService refreshExecutor;
+    private final boolean refreshEnabled;
+    private final long refreshIntervalMinutes;
+    private final int batchSize;
+    private final String userAgent;
+    private final int timeoutMillis;
+    // The same page must not be synced twice at once (e.g. crawler and scheduled refresh)
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    public UrlSourceService(UrlSourceRepository sources,
+                            DocumentEmbeddingRepository chunks,
+                            VectorStore vectorStore,
+                            StructureAwareTextSplitter splitter,
+                            CorpusVersions corpusVersions,
+                            MeterRegistry meterRegistry,
+                            @Qualifier("crawlerExecutor") ExecutorService refreshExecutor,
+                            @Value("${rag.sources.refresh.enabled:true}") boolean refreshEnabled,
+                            @Value("${rag.sources.refresh.interval-minutes:1440}") long refreshIntervalMinutes,
+                            @Value("${rag.sources.refresh.batch-size:50}") int batchSize,
+                            @Value("${rag.crawler.user-agent:rag4all-crawler}") String userAgent,
+                            @Value("${rag.crawler.timeout-ms:30000}") int timeoutMillis) {
+        this.sources = sources;
+        this.chunks = chunks;
+        this.vectorStore = vectorStore;
+        this.splitter = splitter;
+        this.corpusVersions = corpusVersions;
+        this.meterRegistry = meterRegistry;
+        this.refreshExecutor = refreshExecutor;
+        this.refreshEnabled = refreshEnabled;
+        this.refreshIntervalMinutes = refreshIntervalMinutes;
+        this.batchSize = batchSize;
+        this.userAgent = userAgent;
+        this.timeoutMillis = timeoutMillis;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Fetch a page and bring its chunks in the collection up to date
+     */
+    public IngestResult ingest(String url, String collection) throws IOException {
+        Connection.Response response = fetch(url, null, null);
+        if (response.statusCode() >= 400) {
+            throw new IOException("HTTP " + response.statusCode() + " for " + url);
+        }
+        return ingestFetched(url, collection, response, response.parse());
+    }
+
+    /**
+     * Bring a page's chunks up to date from a response fetched elsewhere (the crawler)
+     */
+    public IngestResult ingestFetched(String url, String collection, Connection.Response response,
+                                      org.jsoup.nodes.Document page) {
+        return withLock(url, collection, () -> {
+            UrlSource source = sources.findByUrlAndCollection(url, collection)
+                    .orElseGet(() -> new UrlSource(url, collection));
+            return sync(source, response, page);
+        });
+    }
+
+    @Scheduled(initialDelayString = "${rag.sources.refresh.check-interval-ms:60000}",
+            fixedDelayString = "${rag.sources.refresh.check-interval-ms:60000}")
+    public void refreshDueSources() {
+        // One batch at a time, run on the crawler pool: fetches and embeddings of a batch take
+        // minutes, and the scheduler thread is shared with lag, health and lease checks
+        if (!refreshEnabled || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    refreshBatch();
+                } catch (RuntimeException e) {
+                    LOG.error("Refreshing URL sources failed: {}", e.getMessage(), e);
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.set(false);
+            LOG.warn("URL source refresh not started: {}", e.getMessage());
+        }
+    }
+
+    private void refreshBatch() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(refreshIntervalMinutes);
+        List<UrlSource> due = sources.findDueForRefresh(cutoff, PageRequest.of(0, batchSize));
+        Map<Outcome, Integer> outcomes = new HashMap<>();
+        int refreshed = 0;
+        for (UrlSource source : due) {
+            // Another node may have taken it since the query
+            if (sources.claimForRefresh(source.getId(), cutoff, LocalDateTime.now()) == 0) {
+                continue;
+            }
+            refreshed++;
+            try {
+                outcomes.merge(refresh(source).outcome(), 1, Integer::sum);
+            } catch (Exception e) {
+                LOG.warn("Refreshing {} failed: {}", source.getUrl(), e.getMessage());
+            }
+        }
+        if (refreshed > 0) {
+            LOG.info("Refreshed {} URL sources: {}", refreshed, outcomes);
+        }
+    }
+
+    /**
+     * Re-check one source with a conditional GET
+     */
+    public IngestResult refresh(UrlSource dueSource) throws IOException {
+        String url = dueSource.getUrl();
+        String collection = dueSource.getCollection();
+        try {
+            return withLock(url, collection, () -> {
+                UrlSource source = sources.findById(dueSource.getId()).orElse(dueSource);
+                Connection.Response response;
+                try {
+                    response = fetch(url, source.getEtag(), source.getLastModified());
+                } catch (IOException e) {
+                    throw new RefreshFailedException(e);
+                }
+                if (response.statusCode() == 304) {
+                    source.setLastCheckedAt(LocalDateTime.now());
+                    source.setLastError(null);
+                    sources.save(source);
+                    count(Outcome.NOT_MODIFIED);
+                    return new IngestResult(url, source.getTitle(), Outcome.NOT_MODIFIED, source.getChunkCount(), 0, 0);
+                }
+                if (response.statusCode() >= 400) {
+                    throw new RefreshFailedException(new IOException("HTTP " + response.statusCode()));
+                }
+                try {
+                    return sync(source, response, response.parse());
+                } catch (IOException e) {
+                    throw new RefreshFailedException(e);
+                }
+            });
+        } catch (RefreshFailedException e) {
+            // Keep the chunks, record the error and try again at the next interval
+            dueSource.setLastCheckedAt(LocalDateTime.now());
+            dueSource.setLastError(e.getCause().getMessage());
+            sources.save(dueSource);
+            meterRegistry.counter("rag.sources.refresh", "result", "failed").increment();
+            throw (IOException) e.getCause();
+        }
+    }
+
+    public List<UrlSource> findAll() {
+        return sources.findAllOrderByCollectionAndUrl();
+    }
+
+    public Optional<UrlSource> find(Long id) {
+        return sources.findById(id);
+    }
+
+    private IngestResult sync(UrlSource source, Connection.Response response, org.jsoup.nodes.Document page) {
+        String url = source.getUrl();
+        Document document = UrlDocumentReader.toDocument(url, page);
+        String title = String.valueOf(document.getMetadata().get("title"));
+        String hash = sha256(document.getContent());
+        boolean isNew = source.getId() == null;
+
+        source.setTitle(title);
+        source.setEtag(response.header("ETag"));
+        source.setLastModified(response.header("Last-Modified"));
+        source.setLastCheckedAt(LocalDateTime.now());
+        source.setLastError(null);
+
+        if (!isNew && hash.equals(source.getContentHash())) {
+            sources.save(source);
+            count(Outcome.UNCHANGED);
+            return new IngestResult(url, title, Outcome.UNCHANGED, source.getChunkCount(), 0, 0);
+        }
+
+        document.getMetadata().put("filename", url);
+        document.getMetadata().put("collection", source.getCollection());
+        List<Document> newChunks = document.getContent().isBlank()
+                ? List.of()
+                : splitter.split(document);
+
+        // Match the new chunks against the stored ones by text; only unmatched ones are embedded
+        Map<String, Deque<DocumentEmbedding>> stored = new HashMap<>();
+        for (DocumentEmbedding existing : chunks.findByFileNameAndCollection(url, source.getCollection())) {
+            stored.computeIfAbsent(sha256(existing.getChunk()), key -> new ArrayDeque<>()).add(existing);
+        }
+        List<Document> toEmbed = new ArrayList<>();
+        for (Document chunk : newChunks) {
+            Deque<DocumentEmbedding> matches = stored.get(sha256(chunk.getContent()));
+            if (matches == null || matches.pollFirst() == null) {
+                toEmbed.add(chunk);
+            }
+        }
+        List<Long> toDelete = stored.values().stream()
+                .flatMap(Deque::stream)
+                .map(DocumentEmbedding::getId)
+                .toList();
+
+        // Add before delete, so the page never disappears from search results in between
+        if (!toEmbed.isEmpty()) {
+            vectorStore.add(toEmbed);
+        }
+        if (!toDelete.isEmpty()) {
+            chunks.deleteAllById(toDelete);
+            corpusVersions.changed(source.getCollection());
+        }
+
+        source.setContentHash(hash);
+        source.setChunkCount(newChunks.size());
+        source.setLastChangedAt(LocalDateTime.now());
+        sources.save(source);
+
+        Outcome outcome = isNew ? Outcome.NEW : Outcome.CHANGED;
+        count(outcome);
+        meterRegistry.counter("rag.sources.chunks", "action", "kept").increment(newChunks.size() - toEmbed.size());
+        meterRegistry.counter("rag.sources.chunks", "action", "added").increment(toEmbed.size());
+        meterRegistry.counter("rag.sources.chunks", "action", "removed").increment(toDelete.size());
+        LOG.info("{} {}: {} chunks, {} embedded, {} removed", outcome, url, newChunks.size(), toEmbed.size(), toDelete.size());
+        return new IngestResult(url, title, outcome, newChunks.size(), toEmbed.size(), toDelete.size());
+    }
+
+    private Connection.Response fetch(String url, String etag, String lastModified) throws IOException {
+        Connection connection = Jsoup.connect(url)
+                .userAgent(userAgent)
+                .timeout(timeoutMillis)
+                .ignoreHttpErrors(true);
+        if (etag != null) {
+            connection.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            connection.header("If-Modified-Since", lastModified);
+        }
+        return connection.execute();
+    }
+
+    private void count(Outcome outcome) {
+        meterRegistry.counter("rag.sources.refresh", "result", outcome.name().toLowerCase(Locale.ROOT)).increment();
+    }
+
+    private <T> T withLock(String url, String collection, Supplier<T> action) {
+        ReentrantLock lock = locks[Math.floorMod((collection + "|" + url).hashCode(), LOCK_STRIPES)];
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Carries an IOException out of the locked section
+    private static final class RefreshFailedException extends RuntimeException {
+        private RefreshFailedException(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package de.deltatree.tools.rag.service;
+
+import de.deltatree.tools.rag.embedding.PooledOllamaEmbeddingModel;
+import de.deltatree.tools.rag.model.CollectionName;
+import de.deltatree.tools.rag.repository.DocumentEmbeddingRepositoryImpl;
+import de.deltatree.tools.rag.vectorstore.CorpusVersions;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyOut;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Binary snapshots of the embeddings table, so a new node or a staging copy starts with the
+ * stored chunks and vectors instead of re-embedding every document. A snapshot is a header
+ * (embedding model, vector dimensions) followed by one section per collection holding the rows
+ * in PostgreSQL's binary COPY format, where a vector is its float4 values. Export and restore
+ * stream the COPY data through, so memory use does not depend on the snapshot size.
+ * <p>
+ * A collection is restored into a new table without indexes. Its indexes are built after the
+ * bulk load, and the table then replaces the collection's partition in one short transaction,
+ * so searches keep using the old partition until the new one is complete.
+ */
+@Service
+@ConditionalOnProperty(name = "rag.snapshot.enabled", havingValue = "true", matchIfMissing = true)
+public class VectorSnapshotService implements ApplicationRunner {
+    private static final Logger LOG = LoggerFactory.getLogger(VectorSnapshotService.class);
+    private static final String TABLE = "document_embeddings_ollama";
+    private static final byte[] MAGIC = "RAGSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    // Ids are left out: restored rows get new ones from the table's sequence
+    private static final String COLUMNS = "collection, file_name, chunk, metadata, simhash, embedding, created_at";
+    private static final int SECTION = 'C';
+    private static final int END = 'E';
+    private static final Pattern INDEX_TARGET = Pattern.compile("^CREATE (UNIQUE )?INDEX \\S+ ON (?:ONLY )?\\S+ ");
+
+    public record RestoredCollection(String collection, long rows, long loadMs, long indexMs) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transaction;
+    private final TransactionTemplate exportTransaction;
+    private final PooledOllamaEmbeddingModel embeddingModel;
+    private final CorpusVersions corpusVersions;
+    private final String restoreFrom;
+    private final String maintenanceWorkMem;
+    private final int maintenanceWorkers;
+    private final ReentrantLock restoreLock = new ReentrantLock();
+
+    public VectorSnapshotService(JdbcTemplate jdbcTemplate,
+                                 PlatformTransactionManager transactionManager,
+                                 PooledOllamaEmbeddingModel embeddingModel,
+                                 CorpusVersions corpusVersions,
+                                 @Value("${rag.snapshot.restore-from:}") String restoreFrom,
+                                 @Value("${rag.snapshot.maintenance-work-mem:1GB}") String maintenanceWorkMem,
+                                 @Value("${rag.snapshot.max-parallel-maintenance-workers:2}") int maintenanceWorkers) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transaction = new TransactionTemplate(transactionManager);
+        // One consistent view of all collections; read-only, so it may run on the replica
+        this.exportTransaction = new TransactionTemplate(transactionManager);
+        this.exportTransaction.setReadOnly(true);
+        this.exportTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.embeddingModel = embeddingModel;
+        this.corpusVersions = corpusVersions;
+        this.restoreFrom = restoreFrom;
+        this.maintenanceWorkMem = maintenanceWorkMem;
+        this.maintenanceWorkers = maintenanceWorkers;
+    }
+
+    /**
+     * Restore rag.snapshot.restore-from at startup, before the node reports ready. Collections
+     * that already hold chunks are kept, so restarting the node does not restore them again.
+     */
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        if (restoreFrom.isBlank()) {
+            return;
+        }
+        Path path = Path.of(restoreFrom);
+        if (!Files.isRegularFile(path)) {
+            LOG.warn("Snapshot {} not found, starting without it", path);
+            return;
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            List<RestoredCollection> restored = restore(in, false, true);
+            LOG.info("Restored {} collections from {}", restored.size(), path);
+        }
+    }
+
+    /**
+     * Write a snapshot of the given collections, or of all collections if none are given
+     *
+     * @return the number of chunks written
+     */
+    public long export(OutputStream target, List<String> collections) {
+        long start = System.nanoTime();
+        Long rows = exportTransaction.execute(status -> jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            List<String> names = collections == null || collections.isEmpty()
+                    ? jdbcTemplate.queryForList("SELECT name FROM document_collections ORDER BY name", String.class)
+                    : collections.stream().map(CollectionName::normalize).distinct().toList();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target, 1 << 16));
+            CopyOut copyOut = null;
+            try {
+                out.write(MAGIC);
+                out.writeByte(VERSION);
+                out.writeUTF(embeddingModel.getModel());
+                out.writeInt(dimensions());
+                long total = 0;
+                for (String name : names) {
+                    out.writeByte(SECTION);
+                    out.writeUTF(name);
+                    // Collection names are validated by CollectionName, so they are safe to inline
+                    copyOut = connection.unwrap(PGConnection.class).getCopyAPI().copyOut("COPY (SELECT " + COLUMNS
+                            + " FROM " + TABLE + " WHERE collection = '" + name + "') TO STDOUT (FORMAT binary)");
+                    byte[] data;
+                    while ((data = copyOut.readFromCopy()) != null) {
+                        out.writeInt(data.length);
+                        out.write(data);
+                    }
+                    out.writeInt(0);
+                    out.writeLong(copyOut.getHandledRowCount());
+                    total += copyOut.getHandledRowCount();
+                    LOG.info("Exported {} chunks of collection {}", copyOut.getHandledRowCount(), name);
+                }
+                out.writeByte(END);
+                out.flush();
+                return total;
+            } catch (IOException e) {
+                // The client went away; the connection can only be reused once the copy is cancelled
+                if (copyOut != null && copyOut.isActive()) {
+                    copyOut.cancelCopy();
+                }
+                throw new UncheckedIOException(e);
+            }
+        }));
+        LOG.info("Exported a snapshot of {} chunks in {} ms", rows, (System.nanoTime() - start) / 1_000_000);
+        return rows == null ? 0 : rows;
+    }
+
+    /**
+     * Restore the collections of a snapshot, replacing collections of the same name
+     *
+     * @param force        restore even if the snapshot was taken with a different embedding model
+     * @param skipExisting keep collections that already hold chunks instead of replacing them
+     */
+    public List<RestoredCollection> restore(InputStream source, boolean force, boolean skipExisting) throws IOException {
+        if (!restoreLock.tryLock()) {
+            throw new IllegalStateException("Another snapshot restore is running");
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(source, 1 << 16));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readByte() != VERSION) {
+                throw new IllegalArgumentException("Not a version " + VERSION + " vector store snapshot");
+            }
+            String model = in.readUTF();
+            int dimensions = in.readInt();
+            if (dimensions != dimensions()) {
+                throw new IllegalStateException("The snapshot holds " + dimensions + "-dimensional vectors, the table "
+                        + dimensions() + "-dimensional ones");
+            }
+            if (!model.equals(embeddingModel.getModel())) {
+                if (!force) {
+                    throw new IllegalStateException("The snapshot was embedded with " + model + ", this node uses "
+                            + embeddingModel.getModel() + "; queries would not match its vectors");
+                }
+                LOG.warn("Restoring a snapshot embedded with {} although this node uses {}", model,
+                        embeddingModel.getModel());
+            }
+
+            List<RestoredCollection> restored = new ArrayList<>();
+            int marker;
+            while ((marker = in.readByte()) == SECTION) {
+                String name = CollectionName.normalize(in.readUTF());
+                if (skipExisting && Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                        "SELECT EXISTS (SELECT 1 FROM " + TABLE + " WHERE collection = ?)", Boolean.class, name))) {
+                    LOG.info("Collection {} already holds chunks, skipping it", name);
+                    skipSection(in);
+                    continue;
+                }
+                restored.add(restoreCollection(in, name));
+            }
+            if (marker != END) {
+                throw new IOException("Corrupt snapshot: unexpected section marker " + marker);
+            }
+            return restored;
+        } finally {
+            restoreLock.unlock();
+        }
+    }
+
+    private RestoredCollection restoreCollection(DataInputStream in, String name) {
+        String partition = DocumentEmbeddingRepositoryImpl.partitionName(name);
+        String staging = "doc_rst_" + name;
+        long start = System.nanoTime();
+        // Left over if an earlier restore of this collection was interrupted
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + staging);
+        jdbcTemplate.execute("CREATE TABLE " + staging + " (LIKE " + TABLE + " INCLUDING DEFAULTS)");
+        try {
+            // Lets ATTACH PARTITION skip scanning the table for rows of other collections
+            jdbcTemplate.execute("ALTER TABLE " + staging + " ADD CONSTRAINT snapshot_collection_check "
+                    + "CHECK (collection = '" + name + "')");
+            long rows = copyIn(in, staging);
+            long loaded = System.nanoTime();
+
+            jdbcTemplate.execute("ALTER TABLE " + staging + " ADD PRIMARY KEY (id, collection)");
+            for (String definition : partitionIndexes()) {
+                String create = INDEX_TARGET.matcher(definition).replaceFirst("CREATE $1INDEX ON " + staging + " ");
+                // Building the HNSW graph once over all rows is much faster than inserting into it row by row
+                transaction.executeWithoutResult(status -> {
+                    jdbcTemplate.queryForObject("SELECT set_config('maintenance_work_mem', ?, true)",
+                            String.class, maintenanceWorkMem);
+                    jdbcTemplate.queryForObject("SELECT set_config('max_parallel_maintenance_workers', ?, true)",
+                            String.class, String.valueOf(maintenanceWorkers));
+                    jdbcTemplate.execute(create);
+                });
+            }
+            jdbcTemplate.execute("ANALYZE " + staging);
+            long indexed = System.nanoTime();
+
+            // The parent's indexes match the ones just built, so attaching does not build any
+            transaction.executeWithoutResult(status -> {
+                if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                        "SELECT to_regclass(?) IS NOT NULL", Boolean.class, partition))) {
+                    jdbcTemplate.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + partition);
+                    jdbcTemplate.execute("DROP TABLE " + partition);
+                }
+                jdbcTemplate.execute("ALTER TABLE " + staging + " RENAME TO " + partition);
+                jdbcTemplate.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + partition
+                        + " FOR VALUES IN ('" + name + "')");
+                jdbcTemplate.execute("ALTER TABLE " + partition + " DROP CONSTRAINT snapshot_collection_check");
+                jdbcTemplate.update("INSERT INTO document_collections (name, partition_name) VALUES (?, ?) "
+                        + "ON CONFLICT (name) DO NOTHING", name, partition);
+            });
+            corpusVersions.changed(name);
+            RestoredCollection result = new RestoredCollection(name, rows,
+                    (loaded - start) / 1_000_000, (indexed - loaded) / 1_000_000);
+            LOG.info("Restored {} chunks of collection {}: loaded in {} ms, indexed in {} ms",
+                    rows, name, result.loadMs(), result.indexMs());
+            return result;
+        } catch (RuntimeException e) {
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + staging);
+            throw e;
+        }
+    }
+
+    private long copyIn(DataInputStream in, String staging) {
+        Long rows = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI()
+                    .copyIn("COPY " + staging + " (" + COLUMNS + ") FROM STDIN (FORMAT binary)");
+            try {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = in.readInt()) > 0) {
+                    if (length > buffer.length) {
+                        buffer = new byte[length];
+                    }
+                    in.readFully(buffer, 0, length);
+                    copyIn.writeToCopy(buffer, 0, length);
+                }
+                long loaded = copyIn.endCopy();
+                long expected = in.readLong();
+                if (loaded != expected) {
+                    throw new IOException("Corrupt snapshot: loaded " + loaded + " of " + expected + " chunks");
+                }
+                return loaded;
+            } catch (IOException e) {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+                throw new UncheckedIOException(e);
+            }
+        });
+        return rows == null ? 0 : rows;
+    }
+
+    private static void skipSection(DataInputStream in) throws IOException {
+        int length;
+        while ((length = in.readInt()) > 0) {
+            in.skipNBytes(length);
+        }
+        in.readLong();
+    }
+
+    // The embedding column's declared dimensions, vector(n) stores n as its type modifier
+    private int dimensions() {
+        Integer dimensions = jdbcTemplate.queryForObject("SELECT atttypmod FROM pg_attribute "
+                + "WHERE attrelid = to_regclass(?) AND attname = 'embedding'", Integer.class, TABLE);
+        return dimensions == null ? -1 : dimensions;
+    }
+
+    // The partitioned indexes every partition gets, except the primary key's, which is added as a constraint
+    private List<String> partitionIndexes() {
+        return jdbcTemplate.queryForList("SELECT pg_get_indexdef(i.indexrelid) FROM pg_index i "
+                + "WHERE i.indrelid = to_regclass(?) "
+                + "AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conindid = i.indexrelid)", String.class, TABLE);
+    }
+}
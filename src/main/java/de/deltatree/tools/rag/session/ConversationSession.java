@@ -0,0 +1,114 @@
+package de.deltatree.tools.rag.session;
+
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Server-side state of one conversation: the chat messages exactly as they were sent to Ollama,
+ * and the chunks retrieved so far. Callers hold {@link #lock()} while reading or appending, so
+ * the turns of one conversation are answered one after another.
+ */
+public class ConversationSession {
+
+    public record Turn(String userMessage, String answer) {
+        int chars() {
+            return userMessage.length() + answer.length();
+        }
+    }
+
+    private final String id;
+    private final String collection;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Turn> turns = new ArrayList<>();
+    // Retrieved chunks by content, in the order they were first put into the conversation
+    private final Map<String, Document> documents = new LinkedHashMap<>();
+    private volatile long lastAccessNanos = System.nanoTime();
+    private volatile long chars;
+
+    ConversationSession(String id, String collection) {
+        this.id = id;
+        this.collection = collection;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public ReentrantLock lock() {
+        return lock;
+    }
+
+    public List<Turn> getTurns() {
+        return List.copyOf(turns);
+    }
+
+    public boolean isFollowUp() {
+        return !turns.isEmpty();
+    }
+
+    public List<Document> getDocuments() {
+        return List.copyOf(documents.values());
+    }
+
+    /**
+     * @return the chunks that were not part of the conversation yet
+     */
+    List<Document> addDocuments(List<Document> retrieved) {
+        List<Document> added = new ArrayList<>();
+        for (Document document : retrieved) {
+            if (documents.putIfAbsent(document.getContent(), document) == null) {
+                added.add(document);
+                chars += document.getContent().length();
+            }
+        }
+        return added;
+    }
+
+    void addTurn(Turn turn) {
+        turns.add(turn);
+        chars += turn.chars();
+    }
+
+    /**
+     * Drop the oldest turn, and with it the chunks that were only shown in it
+     *
+     * @return the number of characters freed
+     */
+    long dropOldestTurn() {
+        if (turns.isEmpty()) {
+            return 0;
+        }
+        Turn oldest = turns.remove(0);
+        documents.values().removeIf(document -> oldest.userMessage().contains(document.getContent())
+                && turns.stream().noneMatch(turn -> turn.userMessage().contains(document.getContent())));
+        long documentChars = documents.values().stream().mapToLong(document -> document.getContent().length()).sum();
+        long before = chars;
+        chars = documentChars + turns.stream().mapToLong(Turn::chars).sum();
+        return before - chars;
+    }
+
+    long getChars() {
+        return chars;
+    }
+
+    int turnCount() {
+        return turns.size();
+    }
+
+    void touch() {
+        lastAccessNanos = System.nanoTime();
+    }
+
+    long getLastAccessNanos() {
+        return lastAccessNanos;
+    }
+}
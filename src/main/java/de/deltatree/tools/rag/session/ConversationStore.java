@@ -0,0 +1,170 @@
+package de.deltatree.tools.rag.session;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory store of conversation sessions. Each session keeps at most
+ * {@code max-turns} turns and {@code max-chars-per-session} characters, dropping its oldest
+ * turns first. Across all sessions the store keeps at most {@code max-sessions} sessions and
+ * {@code max-total-chars} characters, evicting the least recently used sessions, and sessions
+ * idle for longer than {@code idle-ttl-minutes} are removed.
+ */
+@Service
+public class ConversationStore {
+    private static final Logger LOG = LoggerFactory.getLogger(ConversationStore.class);
+
+    private final Map<String, ConversationSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong totalChars = new AtomicLong();
+    private final int maxTurns;
+    private final long maxCharsPerSession;
+    private final long maxTotalChars;
+    private final int maxSessions;
+    private final long idleTtlNanos;
+    private final MeterRegistry meterRegistry;
+
+    public ConversationStore(@Value("${rag.sessions.max-turns:8}") int maxTurns,
+                             @Value("${rag.sessions.max-chars-per-session:24000}") long maxCharsPerSession,
+                             @Value("${rag.sessions.max-total-chars:50000000}") long maxTotalChars,
+                             @Value("${rag.sessions.max-sessions:2000}") int maxSessions,
+                             @Value("${rag.sessions.idle-ttl-minutes:30}") long idleTtlMinutes,
+                             MeterRegistry meterRegistry) {
+        this.maxTurns = Math.max(1, maxTurns);
+        this.maxCharsPerSession = maxCharsPerSession;
+        this.maxTotalChars = maxTotalChars;
+        this.maxSessions = Math.max(1, maxSessions);
+        this.idleTtlNanos = TimeUnit.MINUTES.toNanos(idleTtlMinutes);
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("rag.sessions.active", sessions, Map::size)
+                .description("Conversation sessions held in memory")
+                .register(meterRegistry);
+        Gauge.builder("rag.sessions.chars", totalChars, AtomicLong::get)
+                .description("Characters of history and retrieved chunks held by all sessions")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The session with the given id, or a new one if the id is unknown, expired or belongs to
+     * another collection
+     */
+    public ConversationSession open(String sessionId, String collection) {
+        if (sessionId != null) {
+            ConversationSession existing = sessions.get(sessionId);
+            if (existing != null && existing.getCollection().equals(collection)) {
+                existing.touch();
+                return existing;
+            }
+        }
+        ConversationSession session = new ConversationSession(UUID.randomUUID().toString(), collection);
+        sessions.put(session.getId(), session);
+        if (sessions.size() > maxSessions) {
+            evictLeastRecentlyUsed(session, "count");
+        }
+        return session;
+    }
+
+    public Optional<ConversationSession> find(String sessionId) {
+        return Optional.ofNullable(sessions.get(sessionId));
+    }
+
+    public boolean end(String sessionId) {
+        ConversationSession session = sessions.remove(sessionId);
+        if (session == null) {
+            return false;
+        }
+        totalChars.addAndGet(-session.getChars());
+        return true;
+    }
+
+    /**
+     * Add retrieved chunks to the session, called with the session lock held
+     *
+     * @return the chunks that are new to the conversation
+     */
+    public List<Document> addDocuments(ConversationSession session, List<Document> retrieved) {
+        long before = session.getChars();
+        List<Document> added = session.addDocuments(retrieved);
+        totalChars.addAndGet(session.getChars() - before);
+        return added;
+    }
+
+    /**
+     * Append an answered turn and enforce the limits, called with the session lock held
+     */
+    public void recordTurn(ConversationSession session, ConversationSession.Turn turn, long elapsedNanos) {
+        Timer.builder("rag.chat.turn")
+                .description("Latency of answering a question, first turn or follow-up")
+                .tag("turn", session.isFollowUp() ? "followup" : "first")
+                .register(meterRegistry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+
+        long before = session.getChars();
+        session.addTurn(turn);
+        while (session.turnCount() > 1
+                && (session.turnCount() > maxTurns || session.getChars() > maxCharsPerSession)) {
+            session.dropOldestTurn();
+        }
+        if (!sessions.containsKey(session.getId())) {
+            // Evicted while the turn was answered; its characters are no longer counted
+            return;
+        }
+        totalChars.addAndGet(session.getChars() - before);
+        while (totalChars.get() > maxTotalChars && sessions.size() > 1) {
+            evictLeastRecentlyUsed(session, "memory");
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${rag.sessions.eviction-interval-ms:60000}")
+    public void evictIdleSessions() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (ConversationSession session : sessions.values()) {
+            if (now - session.getLastAccessNanos() > idleTtlNanos && remove(session, "idle")) {
+                evicted++;
+            }
+        }
+        // Sessions evicted while a turn was answered can leave the running total slightly off
+        totalChars.set(sessions.values().stream().mapToLong(ConversationSession::getChars).sum());
+        if (evicted > 0) {
+            LOG.info("Evicted {} idle conversation sessions, {} remain", evicted, sessions.size());
+        }
+    }
+
+    private void evictLeastRecentlyUsed(ConversationSession keep, String reason) {
+        sessions.values().stream()
+                .filter(session -> session != keep)
+                .min(Comparator.comparingLong(ConversationSession::getLastAccessNanos))
+                .ifPresent(session -> remove(session, reason));
+    }
+
+    private boolean remove(ConversationSession session, String reason) {
+        if (!sessions.remove(session.getId(), session)) {
+            return false;
+        }
+        totalChars.addAndGet(-session.getChars());
+        Counter.builder("rag.sessions.evicted")
+                .description("Conversation sessions removed by the store")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+        LOG.debug("Evicted conversation session {} ({})", session.getId(), reason);
+        return true;
+    }
+}
@@ -0,0 +1,184 @@
+package de.deltatree.tools.rag.session;
+
+import de.deltatree.tools.rag.vectorstore.CorpusVersions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Chunks retrieved for a question while it is still being typed. The page sends its draft to
+ * POST /chat/retrieve as the user types, and the question it finally sends reuses that retrieval
+ * if it is close enough to the draft, so the query embedding and the pgvector search are already
+ * done when the answer starts. One entry per draft id, i.e. per open chat page; entries expire
+ * after {@code ttl-ms} and at most {@code max-entries} are kept.
+ */
+@Service
+public class RetrievalPrefetchCache {
+    private static final Logger LOG = LoggerFactory.getLogger(RetrievalPrefetchCache.class);
+
+    private final Map<String, Prefetch> prefetches = new ConcurrentHashMap<>();
+    private final CorpusVersions corpusVersions;
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final double minOverlap;
+    private final MeterRegistry meterRegistry;
+
+    public RetrievalPrefetchCache(CorpusVersions corpusVersions,
+                                  @Value("${rag.chat.prefetch.enabled:true}") boolean enabled,
+                                  @Value("${rag.chat.prefetch.ttl-ms:30000}") long ttlMillis,
+                                  @Value("${rag.chat.prefetch.max-entries:2000}") int maxEntries,
+                                  @Value("${rag.chat.prefetch.min-overlap:0.8}") double minOverlap,
+                                  MeterRegistry meterRegistry) {
+        this.corpusVersions = corpusVersions;
+        this.enabled = enabled;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.minOverlap = minOverlap;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("rag.chat.prefetch.entries", prefetches, Map::size)
+                .description("Retrievals of typed drafts held for the question that follows")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Lower case, single spaces, without trailing punctuation: the form in which two questions
+     * count as the same
+     */
+    public static String normalize(String question) {
+        return question.toLowerCase(Locale.ROOT)
+                .replaceAll("\\s+", " ")
+                .replaceAll("[\\s?!.]+$", "")
+                .trim();
+    }
+
+    /**
+     * Run the retrieval for a draft on the calling thread and keep its result, replacing the
+     * earlier draft. Nothing is done if the same draft was already retrieved.
+     */
+    public void prefetch(String draftId, String question, String collection, String filter,
+                         Supplier<List<Document>> retrieval) {
+        if (!enabled || draftId == null || draftId.isBlank()) {
+            return;
+        }
+        Prefetch prefetch = new Prefetch(normalize(question), collection, Objects.toString(filter, "").trim(),
+                corpusVersions.current(collection), System.nanoTime(), new CompletableFuture<>());
+        Prefetch current = prefetches.compute(draftId, (id, previous) -> previous != null
+                && previous.sameRequest(prefetch)
+                && !isExpired(previous, prefetch.createdNanos())
+                && !previous.result().isCompletedExceptionally() ? previous : prefetch);
+        if (current != prefetch) {
+            return;
+        }
+        if (prefetches.size() > maxEntries) {
+            evictOldest(draftId);
+        }
+        try {
+            prefetch.result().complete(retrieval.get());
+        } catch (RuntimeException e) {
+            prefetch.result().completeExceptionally(e);
+            prefetches.remove(draftId, prefetch);
+            LOG.debug("Prefetch for draft {} failed: {}", draftId, e.getMessage());
+        } finally {
+            // Only after an Error: a question waiting for this prefetch must never wait forever
+            if (!prefetch.result().isDone()) {
+                prefetch.result().completeExceptionally(new IllegalStateException("Prefetch did not finish"));
+                prefetches.remove(draftId, prefetch);
+            }
+        }
+    }
+
+    /**
+     * The chunks prefetched for the draft if the question is close enough to it and nothing in
+     * the collection changed since. Waits for a prefetch that is still running. The entry is
+     * removed either way.
+     */
+    public Optional<List<Document>> take(String draftId, String question, String collection, String filter) {
+        if (!enabled || draftId == null || draftId.isBlank()) {
+            return Optional.empty();
+        }
+        Prefetch prefetch = prefetches.remove(draftId);
+        if (prefetch == null) {
+            return result("none", Optional.empty());
+        }
+        if (isExpired(prefetch, System.nanoTime())
+                || !prefetch.collection().equals(collection)
+                || !prefetch.filter().equals(Objects.toString(filter, "").trim())
+                || !prefetch.corpusVersion().equals(corpusVersions.current(collection))) {
+            return result("stale", Optional.empty());
+        }
+        String normalized = normalize(question);
+        if (!normalized.equals(prefetch.question()) && overlap(normalized, prefetch.question()) < minOverlap) {
+            return result("different", Optional.empty());
+        }
+        try {
+            return result("hit", Optional.of(prefetch.result().join()));
+        } catch (RuntimeException e) {
+            return result("failed", Optional.empty());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${rag.chat.prefetch.eviction-interval-ms:60000}")
+    public void evictExpired() {
+        long now = System.nanoTime();
+        prefetches.entrySet().removeIf(entry -> isExpired(entry.getValue(), now));
+    }
+
+    // Share of distinct words the two questions have in common
+    static double overlap(String a, String b) {
+        Set<String> wordsA = new HashSet<>(Arrays.asList(a.split(" ")));
+        Set<String> wordsB = new HashSet<>(Arrays.asList(b.split(" ")));
+        Set<String> union = new HashSet<>(wordsA);
+        union.addAll(wordsB);
+        wordsA.retainAll(wordsB);
+        return union.isEmpty() ? 0 : (double) wordsA.size() / union.size();
+    }
+
+    private boolean isExpired(Prefetch prefetch, long now) {
+        return now - prefetch.createdNanos() > ttlNanos;
+    }
+
+    private void evictOldest(String keep) {
+        prefetches.entrySet().stream()
+                .filter(entry -> !entry.getKey().equals(keep))
+                .min(Comparator.comparingLong(entry -> entry.getValue().createdNanos()))
+                .ifPresent(entry -> prefetches.remove(entry.getKey(), entry.getValue()));
+    }
+
+    private <T> Optional<T> result(String result, Optional<T> value) {
+        Counter.builder("rag.chat.prefetch")
+                .description("Questions by whether they reused the retrieval of their typed draft")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+        return value;
+    }
+
+    private record Prefetch(String question, String collection, String filter, String corpusVersion,
+                            long createdNanos, CompletableFuture<List<Document>> result) {
+        boolean sameRequest(Prefetch other) {
+            return question.equals(other.question) && collection.equals(other.collection)
+                    && filter.equals(other.filter) && corpusVersion.equals(other.corpusVersion);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package de.deltatree.tools.rag.vectorstore;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the changes made on this node to the chunks of each collection. Concurrent answers to the
+ * same question are only shared while the version they started with is current, so a question
+ * asked after an upload finished never gets an answer computed before it.
+ */
+@Component
+public class CorpusVersions {
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    // Bumped by changes whose collection is not known, e.g. deleting a single chunk by id
+    private final AtomicLong all = new AtomicLong();
+
+    public String current(String collection) {
+        AtomicLong version = versions.get(collection);
+        return all.get() + "." + (version == null ? 0 : version.get());
+    }
+
+    public void changed(String collection) {
+        versions.computeIfAbsent(collection, name -> new AtomicLong()).incrementAndGet();
+    }
+
+    public void changedAll() {
+        all.incrementAndGet();
+    }
+}
@@ -0,0 +1,171 @@
+package de.deltatree.tools.rag.vectorstore;
+
+import de.deltatree.tools.rag.repository.DocumentEmbeddingRepository;
+import de.deltatree.tools.rag.repository.DocumentEmbeddingRepositoryCustom.StoredFingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Drops chunks that are near-duplicates (SimHash distance of at most rag.ingest.dedup.max-distance
+ * bits) of a chunk stored in the same collection, or of an earlier chunk of the same batch,
+ * before they are embedded. Repeated headers, disclaimers and near-identical document versions
+ * then cost neither embedding calls nor rows in the HNSW index, and no longer take several
+ * top-K slots of a search.
+ * <p>
+ * With mode {@code link} the file name of a dropped chunk is added to the {@code also_in}
+ * metadata of the chunk it duplicates, so the other source stays visible.
+ */
+public class NearDuplicateFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(NearDuplicateFilter.class);
+
+    public enum Mode { OFF, DROP, LINK }
+
+    /**
+     * A chunk to store, with its fingerprint (null if too short) and the sources of the
+     * near-duplicates that were dropped in its favour
+     */
+    public record Chunk(Document document, Long fingerprint, List<String> alsoIn) {
+    }
+
+    private final DocumentEmbeddingRepository repository;
+    private final Mode mode;
+    private final int maxDistance;
+    private final int minWords;
+    private final Counter unique;
+    private final Counter duplicates;
+
+    public NearDuplicateFilter(DocumentEmbeddingRepository repository, String mode, int maxDistance, int minWords,
+                               MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.mode = Mode.valueOf(mode.toUpperCase(Locale.ROOT));
+        this.maxDistance = maxDistance;
+        this.minWords = minWords;
+        this.unique = Counter.builder("rag.ingest.dedup")
+                .description("Chunks checked for near-duplicates before embedding")
+                .tag("result", "unique")
+                .register(meterRegistry);
+        this.duplicates = Counter.builder("rag.ingest.dedup")
+                .description("Chunks checked for near-duplicates before embedding")
+                .tag("result", "duplicate")
+                .register(meterRegistry);
+        if (maxDistance > 3) {
+            // The four band indexes only guarantee to find fingerprints up to three bits apart
+            LOG.warn("rag.ingest.dedup.max-distance {} is above 3, more distant near-duplicates are only found by chance",
+                    maxDistance);
+        }
+        LOG.info("Near-duplicate detection {} (max distance {} bits, min {} words)",
+                this.mode.name().toLowerCase(Locale.ROOT), maxDistance, minWords);
+    }
+
+    /**
+     * The chunks to embed, in their original order. Fingerprints are computed in every mode, so
+     * the index is complete when detection is switched on later.
+     */
+    public List<Chunk> filter(List<Document> documents) {
+        List<Chunk> chunks = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            chunks.add(new Chunk(document, SimHash.fingerprint(document.getContent(), minWords), new ArrayList<>()));
+        }
+        if (mode == Mode.OFF) {
+            return chunks;
+        }
+
+        Map<String, List<Chunk>> byCollection = new LinkedHashMap<>();
+        for (Chunk chunk : chunks) {
+            byCollection.computeIfAbsent(PostgresVectorStore.collectionOf(chunk.document()), c -> new ArrayList<>())
+                    .add(chunk);
+        }
+        Set<Chunk> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+        byCollection.forEach((collection, group) -> dropped.addAll(findDuplicates(collection, group)));
+
+        unique.increment(chunks.size() - dropped.size());
+        duplicates.increment(dropped.size());
+        if (dropped.isEmpty()) {
+            return chunks;
+        }
+        LOG.info("Dropping {} of {} chunks as near-duplicates", dropped.size(), chunks.size());
+        return chunks.stream().filter(chunk -> !dropped.contains(chunk)).toList();
+    }
+
+    private List<Chunk> findDuplicates(String collection, List<Chunk> group) {
+        List<Long> fingerprints = group.stream().map(Chunk::fingerprint).filter(Objects::nonNull).distinct().toList();
+        BandIndex index = new BandIndex();
+        for (StoredFingerprint stored : repository.findFingerprintCandidates(collection, fingerprints)) {
+            index.add(new Entry(stored.simhash(), stored.fileName(), stored.id(), null));
+        }
+
+        List<Chunk> duplicates = new ArrayList<>();
+        for (Chunk chunk : group) {
+            if (chunk.fingerprint() == null) {
+                continue;
+            }
+            String fileName = PostgresVectorStore.fileNameOf(chunk.document());
+            Entry match = index.find(chunk.fingerprint(), fileName);
+            if (match == null) {
+                index.add(new Entry(chunk.fingerprint(), fileName, null, chunk));
+                continue;
+            }
+            duplicates.add(chunk);
+            LOG.debug("Chunk of {} is a near-duplicate of a chunk of {}", fileName, match.fileName());
+            if (mode == Mode.LINK && !fileName.equals(match.fileName())) {
+                if (match.chunk() != null) {
+                    if (!match.chunk().alsoIn().contains(fileName)) {
+                        match.chunk().alsoIn().add(fileName);
+                    }
+                } else {
+                    repository.addDuplicateSource(match.storedId(), collection, fileName);
+                }
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * Fingerprints bucketed by each of their bands; a near-duplicate shares at least one bucket
+     */
+    private final class BandIndex {
+        private final Map<Integer, List<Entry>> buckets = new HashMap<>();
+
+        void add(Entry entry) {
+            for (int band = 0; band < SimHash.BANDS; band++) {
+                buckets.computeIfAbsent(key(entry.fingerprint(), band), k -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        Entry find(long fingerprint, String fileName) {
+            for (int band = 0; band < SimHash.BANDS; band++) {
+                for (Entry entry : buckets.getOrDefault(key(fingerprint, band), List.of())) {
+                    // A stored chunk of the same source does not count: a source refresh deletes its
+                    // stale chunks only after the new ones were added
+                    boolean comparable = entry.chunk() != null || !fileName.equals(entry.fileName());
+                    if (comparable && SimHash.distance(fingerprint, entry.fingerprint()) <= maxDistance) {
+                        return entry;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static int key(long fingerprint, int band) {
+            return band << 16 | SimHash.band(fingerprint, band);
+        }
+    }
+
+    // A stored chunk (storedId) or a chunk accepted earlier in the same batch (chunk)
+    private record Entry(long fingerprint, String fileName, Long storedId, Chunk chunk) {
+    }
+}
@@ -1,21 +1,39 @@
 package de.deltatree.tools.rag.vectorstore;
 
 import com.pgvector.PGvector;
+import de.deltatree.tools.rag.model.CollectionName;
 import de.deltatree.tools.rag.model.DocumentEmbedding;
 import de.deltatree.tools.rag.repository.DocumentEmbeddingRepository;
+import de.deltatree.tools.rag.service.OllamaOverloadedException;
+import de.deltatree.tools.rag.service.OllamaPriority;
+import de.deltatree.tools.rag.service.OllamaScheduler;
+import de.deltatree.tools.rag.service.ReembeddingService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.embedding.EmbeddingModel;
-import org.springframework.ai.embedding.EmbeddingResponse;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.stereotype.Component;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 //@Component
@@ -23,73 +41,257 @@ public class PostgresVectorStore implements VectorStore {
     private static final Logger LOG = LoggerFactory.getLogger(PostgresVectorStore.class);
     private final DocumentEmbeddingRepository repository;
     private final EmbeddingModel embeddingModel;
+    private final QueryEmbeddingBatcher queryEmbedder;
+    private final NearDuplicateFilter duplicateFilter;
+    private final RetrievalDiagnostics diagnostics;
+    private final CorpusVersions corpusVersions;
+    private final ReembeddingService reembedding;
+    // Held while a vector is searched or stored, never while it is embedded, so a migration never switches models in between
+    private final Lock activeModelLock;
+    private final OllamaScheduler scheduler;
+    private final ExecutorService ioExecutor;
+    private final int ingestParallelism;
 
-    public PostgresVectorStore(DocumentEmbeddingRepository repository, EmbeddingModel embeddingModel) {
+    // Metrics for the retrieval and ingestion stages handled by the vector store
+    private final Timer queryEmbeddingTimer;
+    private final Timer searchSqlTimer;
+    private final DistributionSummary searchRows;
+    private final Timer ingestDedupTimer;
+    private final Timer ingestEmbedTimer;
+    private final Timer ingestPersistTimer;
+
+    public PostgresVectorStore(DocumentEmbeddingRepository repository, EmbeddingModel embeddingModel,
+                               QueryEmbeddingBatcher queryEmbedder, NearDuplicateFilter duplicateFilter,
+                               RetrievalDiagnostics diagnostics, CorpusVersions corpusVersions,
+                               ReembeddingService reembedding, OllamaScheduler scheduler, MeterRegistry meterRegistry,
+                               ExecutorService ioExecutor, int ingestParallelism) {
         this.repository = repository;
         this.embeddingModel = embeddingModel;
+        this.queryEmbedder = queryEmbedder;
+        this.duplicateFilter = duplicateFilter;
+        this.diagnostics = diagnostics;
+        this.corpusVersions = corpusVersions;
+        this.reembedding = reembedding;
+        this.activeModelLock = reembedding != null
+                ? reembedding.activeModelLock()
+                : new ReentrantReadWriteLock().readLock();
+        this.scheduler = scheduler;
+        this.ioExecutor = ioExecutor;
+        this.ingestParallelism = Math.max(1, ingestParallelism);
+        this.queryEmbeddingTimer = Timer.builder("rag.search.embedding")
+                .description("Latency of embedding the search query")
+                .register(meterRegistry);
+        this.searchSqlTimer = Timer.builder("rag.search.sql")
+                .description("Latency of the nearest neighbor SQL query")
+                .register(meterRegistry);
+        this.searchRows = DistributionSummary.builder("rag.search.rows")
+                .description("Rows returned by the nearest neighbor SQL query")
+                .register(meterRegistry);
+        this.ingestDedupTimer = Timer.builder("rag.ingest.stage")
+                .description("Latency of a single ingestion stage")
+                .tag("stage", "dedup")
+                .register(meterRegistry);
+        this.ingestEmbedTimer = Timer.builder("rag.ingest.stage")
+                .description("Latency of a single ingestion stage")
+                .tag("stage", "embed")
+                .register(meterRegistry);
+        this.ingestPersistTimer = Timer.builder("rag.ingest.stage")
+                .description("Latency of a single ingestion stage")
+                .tag("stage", "persist")
+                .register(meterRegistry);
     }
 
     @Override
     public void add(List<Document> documents) {
-        LOG.info("Adding {} documents to vector store", documents.size());
+        LOG.info("Adding {} documents to vector store with parallelism {}", documents.size(), ingestParallelism);
 
-        for (Document doc : documents) {
-            try {
-                // Generate embedding for the document content
-                float[] embedding = embeddingModel.embed(List.of(doc.getContent())).get(0);
+        // Every collection lives in its own partition, which has to exist before the first insert
+        documents.stream()
+                .map(PostgresVectorStore::collectionOf)
+                .distinct()
+                .forEach(repository::createCollectionIfMissing);
 
-                // Create and save the document embedding
-                DocumentEmbedding docEmbedding = new DocumentEmbedding();
-                docEmbedding.setChunk(doc.getContent());
+        // Near-duplicates of stored chunks, or of earlier chunks in this batch, are not embedded at all
+        Timer.Sample dedupSample = Timer.start();
+        List<NearDuplicateFilter.Chunk> chunks = duplicateFilter.filter(documents);
+        dedupSample.stop(ingestDedupTimer);
+
+        // Embed and persist chunks concurrently; the semaphore bounds the fan-out,
+        // which matters when the executor runs on (unbounded) virtual threads
+        Semaphore permits = new Semaphore(ingestParallelism);
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Future<?>> futures = new ArrayList<>(chunks.size());
+        try {
+            for (NearDuplicateFilter.Chunk chunk : chunks) {
+                permits.acquire();
+                // The upload fails anyway once a chunk has, so the rest are not embedded at all
+                if (failed.get()) {
+                    permits.release();
+                    break;
+                }
+                futures.add(ioExecutor.submit(() -> {
+                    try {
+                        addDocument(chunk);
+                    } catch (RuntimeException | Error e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new RuntimeException("Interrupted while adding documents to vector store", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e.getCause() instanceof RuntimeException runtimeException
+                    ? runtimeException
+                    : new RuntimeException("Failed to add document to vector store", e.getCause());
+        } finally {
+            documents.stream()
+                    .map(PostgresVectorStore::collectionOf)
+                    .distinct()
+                    .forEach(corpusVersions::changed);
+        }
+
+        LOG.info("Successfully added {} of {} documents to vector store", chunks.size(), documents.size());
+    }
+
+    // Without a scheduler (in-process embedding model) the call runs directly
+    private <T> T schedule(OllamaPriority priority, Supplier<T> call) {
+        return scheduler != null ? scheduler.execute(priority, call) : call.get();
+    }
+
+    // The generation of the active model, which a migration changes when it switches models
+    private long modelGeneration() {
+        return reembedding != null ? reembedding.modelGeneration() : 0;
+    }
+
+    /**
+     * Lock the active model for using a vector embedded since the generation was read
+     *
+     * @return false, without the lock, if a migration switched models meanwhile and the vector has to be embedded again
+     */
+    private boolean lockModel(long generation) {
+        activeModelLock.lock();
+        if (modelGeneration() == generation) {
+            return true;
+        }
+        activeModelLock.unlock();
+        LOG.info("Embedding model switched while embedding, embedding again");
+        return false;
+    }
+
+    private void addDocument(NearDuplicateFilter.Chunk chunk) {
+        Document doc = chunk.document();
+        try {
+            // Generate embedding for the document content, without holding up a model switch while queued
+            float[] embedding;
+            long generation;
+            do {
+                generation = modelGeneration();
+                Timer.Sample embedSample = Timer.start();
+                embedding = schedule(OllamaPriority.BACKGROUND_INGEST,
+                        () -> embeddingModel.embed(List.of(doc.getContent())).get(0));
+                embedSample.stop(ingestEmbedTimer);
+            } while (!lockModel(generation));
+
+            // Create and save the document embedding
+            DocumentEmbedding docEmbedding = new DocumentEmbedding();
+            Timer.Sample persistSample = Timer.start();
+            try {
                 docEmbedding.setEmbedding(new PGvector(embedding));
-                docEmbedding.setFileName(doc.getMetadata().getOrDefault("filename", "unknown").toString());
+                if (reembedding != null) {
+                    docEmbedding.setEmbeddingModel(reembedding.activeModelName());
+                }
+                docEmbedding.setChunk(doc.getContent());
+                docEmbedding.setFileName(fileNameOf(doc));
+                docEmbedding.setCollection(collectionOf(doc));
+                Map<String, Object> metadata = storedMetadata(doc.getMetadata());
+                if (!chunk.alsoIn().isEmpty()) {
+                    metadata.put("also_in", List.copyOf(chunk.alsoIn()));
+                }
+                docEmbedding.setMetadata(metadata);
+                docEmbedding.setSimhash(chunk.fingerprint());
                 docEmbedding.setCreatedAt(LocalDateTime.now());
-
                 repository.save(docEmbedding);
-                LOG.debug("Saved document chunk: {} characters from {}",
-                        doc.getContent().length(), docEmbedding.getFileName());
-
-            } catch (Exception e) {
-                LOG.error("Failed to add document to vector store: {}", e.getMessage(), e);
-                throw new RuntimeException("Failed to add document to vector store", e);
+            } finally {
+                activeModelLock.unlock();
             }
-        }
+            persistSample.stop(ingestPersistTimer);
+            if (reembedding != null) {
+                // While a migration runs, new chunks get the new model's vector as well
+                reembedding.dualWrite(docEmbedding);
+            }
+            LOG.debug("Saved document chunk: {} characters from {}",
+                    doc.getContent().length(), docEmbedding.getFileName());
 
-        LOG.info("Successfully added all {} documents to vector store", documents.size());
+        } catch (OllamaOverloadedException e) {
+            throw e;
+        } catch (Exception e) {
+            LOG.error("Failed to add document to vector store: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to add document to vector store", e);
+        }
     }
 
     @Override
     public List<Document> similaritySearch(SearchRequest request) {
-        LOG.info("Starting similarity search for query: '{}'", request.getQuery());
+        return similaritySearch(request, CollectionName.DEFAULT);
+    }
+
+    public List<Document> similaritySearch(SearchRequest request, String collection) {
+        LOG.info("Starting similarity search in collection {} for query: '{}'", collection, request.getQuery());
         LOG.info("Search parameters - TopK: {}, Similarity threshold: {}",
                 request.getTopK(), request.getSimilarityThreshold());
 
+        long start = System.nanoTime();
         try {
-            // Generate embedding for the search query
-            EmbeddingResponse response = embeddingModel.embedForResponse(List.of(request.getQuery()));
-            float[] queryEmbedding = response.getResults().get(0).getOutput();
-            LOG.debug("Generated query embedding vector of size: {}", queryEmbedding.length);
-
-            // Find nearest neighbors from the database
+            float[] queryEmbedding;
+            long embedNanos;
             List<DocumentEmbedding> nearest;
-            if (request.getSimilarityThreshold() > 0) {
-                nearest = repository.findNearestNeighborsWithThreshold(
-                        queryEmbedding, request.getTopK(), request.getSimilarityThreshold());
-                LOG.info("Using similarity threshold: {}", request.getSimilarityThreshold());
-            } else {
-                nearest = repository.findNearestNeighbors(queryEmbedding, request.getTopK());
+            long sqlNanos;
+            long generation;
+            do {
+                // Generate embedding for the search query (coalesced with concurrent queries)
+                generation = modelGeneration();
+                Timer.Sample embedSample = Timer.start();
+                queryEmbedding = queryEmbedder.embed(request.getQuery());
+                embedNanos = embedSample.stop(queryEmbeddingTimer);
+                LOG.debug("Generated query embedding vector of size: {} in {} ms",
+                        queryEmbedding.length, embedNanos / 1_000_000);
+            } while (!lockModel(generation));
+            try {
+                // Find nearest neighbors from the database, with the metadata filter pushed into the SQL
+                Timer.Sample sqlSample = Timer.start();
+                nearest = repository.searchNearest(queryEmbedding, collection, request.getTopK(),
+                        request.getSimilarityThreshold(), request.getFilterExpression());
+                if (request.hasFilterExpression()) {
+                    LOG.info("Using metadata filter: {}", request.getFilterExpression());
+                }
+                sqlNanos = sqlSample.stop(searchSqlTimer);
+            } finally {
+                activeModelLock.unlock();
             }
+            searchRows.record(nearest.size());
 
-            LOG.info("Found {} documents in database", nearest.size());
+            LOG.info("Found {} documents in database in {} ms", nearest.size(), sqlNanos / 1_000_000);
 
             // Convert to Document objects
             List<Document> results = nearest.stream()
                     .map(de -> {
-                        Map<String, Object> metadata = Map.of(
-                                "filename", de.getFileName(),
-                                "id", de.getId(),
-                                "created_at", de.getCreatedAt()
-                        );
+                        Map<String, Object> metadata = new HashMap<>();
+                        if (de.getMetadata() != null) {
+                            metadata.putAll(de.getMetadata());
+                        }
+                        metadata.put("filename", de.getFileName());
+                        metadata.put("collection", de.getCollection());
+                        metadata.put("id", de.getId());
+                        metadata.put("created_at", de.getCreatedAt());
                         return new Document(de.getChunk(), metadata);
                     })
                     .collect(Collectors.toList());
@@ -103,14 +305,106 @@ public class PostgresVectorStore implements VectorStore {
             }
 
             LOG.info("Returning {} documents from similarity search", results.size());
+            long totalNanos = System.nanoTime() - start;
+            if (diagnostics.isSampledSlowSearch(totalNanos)) {
+                logSlowSearch(request, collection, queryEmbedding, embedNanos, sqlNanos, totalNanos, results.size());
+            }
             return results;
 
+        } catch (OllamaOverloadedException e) {
+            throw e;
         } catch (Exception e) {
             LOG.error("Error during similarity search: {}", e.getMessage(), e);
             throw new RuntimeException("Similarity search failed", e);
         }
     }
 
+    /**
+     * Run a search and capture the plan of its ANN query, whatever the diagnostics settings
+     */
+    public RetrievalDiagnostics.SlowSearch diagnose(SearchRequest request, String collection) {
+        long start;
+        float[] queryEmbedding;
+        long embedNanos;
+        long generation;
+        do {
+            generation = modelGeneration();
+            start = System.nanoTime();
+            queryEmbedding = queryEmbedder.embed(request.getQuery());
+            embedNanos = System.nanoTime() - start;
+        } while (!lockModel(generation));
+        try {
+            long sqlStart = System.nanoTime();
+            int rows = repository.searchNearest(queryEmbedding, collection, request.getTopK(),
+                    request.getSimilarityThreshold(), request.getFilterExpression()).size();
+            long sqlNanos = System.nanoTime() - sqlStart;
+            return slowSearch(request, collection, embedNanos, sqlNanos, System.nanoTime() - start, rows,
+                    explain(request, collection, queryEmbedding));
+        } finally {
+            activeModelLock.unlock();
+        }
+    }
+
+    // The EXPLAIN reruns the query, so it runs in the background instead of delaying the slow search further
+    private void logSlowSearch(SearchRequest request, String collection, float[] queryEmbedding,
+                               long embedNanos, long sqlNanos, long totalNanos, int rows) {
+        if (!diagnostics.tryAcquireExplain()) {
+            diagnostics.record(slowSearch(request, collection, embedNanos, sqlNanos, totalNanos, rows, null));
+            return;
+        }
+        ioExecutor.execute(() -> {
+            RetrievalDiagnostics.PlanSummary plan = null;
+            try {
+                plan = explain(request, collection, queryEmbedding);
+            } catch (Exception e) {
+                LOG.warn("Could not capture the plan of a slow similarity search: {}", e.getMessage());
+            }
+            diagnostics.record(slowSearch(request, collection, embedNanos, sqlNanos, totalNanos, rows, plan));
+        });
+    }
+
+    private RetrievalDiagnostics.PlanSummary explain(SearchRequest request, String collection, float[] queryEmbedding) {
+        return RetrievalDiagnostics.summarize(repository.explainNearest(queryEmbedding, collection,
+                request.getTopK(), request.getSimilarityThreshold(), request.getFilterExpression()));
+    }
+
+    private static RetrievalDiagnostics.SlowSearch slowSearch(SearchRequest request, String collection,
+                                                              long embedNanos, long sqlNanos, long totalNanos,
+                                                              int rows, RetrievalDiagnostics.PlanSummary plan) {
+        return new RetrievalDiagnostics.SlowSearch(Instant.now(), request.getQuery(), collection, request.getTopK(),
+                request.getSimilarityThreshold(),
+                request.hasFilterExpression() ? String.valueOf(request.getFilterExpression()) : null,
+                embedNanos / 1e6, sqlNanos / 1e6, totalNanos / 1e6, rows, plan);
+    }
+
+    /**
+     * The filterable part of a chunk's metadata: plain values and lists of them, without the
+     * file name and the collection (stored in their own columns)
+     */
+    private static Map<String, Object> storedMetadata(Map<String, Object> metadata) {
+        Map<String, Object> stored = new HashMap<>();
+        metadata.forEach((key, value) -> {
+            if (!"filename".equals(key) && !"collection".equals(key) && (isPlainValue(value)
+                    || value instanceof List<?> list && list.stream().allMatch(PostgresVectorStore::isPlainValue))) {
+                stored.put(key, value);
+            }
+        });
+        return stored;
+    }
+
+    static String collectionOf(Document doc) {
+        Object collection = doc.getMetadata().get("collection");
+        return CollectionName.normalize(collection == null ? null : collection.toString());
+    }
+
+    static String fileNameOf(Document doc) {
+        return doc.getMetadata().getOrDefault("filename", "unknown").toString();
+    }
+
+    private static boolean isPlainValue(Object value) {
+        return value instanceof String || value instanceof Number || value instanceof Boolean;
+    }
+
     @Override
     public Optional<Boolean> delete(List<String> ids) {
         LOG.warn("Delete operation called but not implemented");
@@ -124,6 +418,21 @@ public class PostgresVectorStore implements VectorStore {
         return count;
     }
 
+    public long getDocumentCount(String collection) {
+        long count = repository.countByCollection(collection);
+        LOG.info("Collection {} contains {} documents", collection, count);
+        return count;
+    }
+
+    public List<String> getCollections() {
+        return repository.findCollections();
+    }
+
+    public void dropCollection(String collection) {
+        repository.dropCollection(collection);
+        corpusVersions.changed(collection);
+    }
+
     // Method to get unique filenames in the vector store
     public List<String> getAvailableFiles() {
         return repository.findDistinctFileNames();
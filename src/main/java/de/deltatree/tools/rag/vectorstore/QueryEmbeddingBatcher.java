@@ -0,0 +1,157 @@
+package de.deltatree.tools.rag.vectorstore;
+
+import de.deltatree.tools.rag.service.OllamaPriority;
+import de.deltatree.tools.rag.service.OllamaScheduler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent query embeddings into one batched embedding call.
+ * <p>
+ * The first caller of a batch becomes its leader. If no batch is currently running it sends
+ * its text right away (no added latency when idle); otherwise it waits up to the window
+ * for more texts, or until the batch is full, then embeds the whole batch with a single
+ * scheduler slot and hands each waiting caller its vector.
+ */
+public class QueryEmbeddingBatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(QueryEmbeddingBatcher.class);
+
+    private final EmbeddingModel embeddingModel;
+    private final OllamaScheduler scheduler;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger runningBatches = new AtomicInteger();
+    private Batch openBatch;
+
+    private final DistributionSummary batchSize;
+    private final Timer windowTimer;
+    private final Counter batches;
+
+    public QueryEmbeddingBatcher(EmbeddingModel embeddingModel, OllamaScheduler scheduler, boolean enabled,
+                                 long windowMillis, int maxBatchSize, MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.scheduler = scheduler;
+        this.enabled = enabled;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.batchSize = DistributionSummary.builder("rag.embedding.batch.size")
+                .description("Query texts embedded per batched call")
+                .register(meterRegistry);
+        this.windowTimer = Timer.builder("rag.embedding.batch.window")
+                .description("Time a batch stayed open collecting query texts")
+                .register(meterRegistry);
+        this.batches = Counter.builder("rag.embedding.batches")
+                .description("Batched query embedding calls")
+                .register(meterRegistry);
+        LOG.info("Query embedding batching {} (window {} ms, max batch size {})",
+                enabled ? "enabled" : "disabled", windowMillis, maxBatchSize);
+    }
+
+    public float[] embed(String text) {
+        if (!enabled) {
+            return schedule(OllamaPriority.INTERACTIVE_QUERY,
+                    () -> embeddingModel.embed(List.of(text)).get(0));
+        }
+
+        Batch batch;
+        int index;
+        boolean leader = false;
+        lock.lock();
+        try {
+            if (openBatch == null) {
+                openBatch = new Batch();
+                leader = true;
+            }
+            batch = openBatch;
+            index = batch.texts.size();
+            batch.texts.add(text);
+            if (batch.texts.size() >= maxBatchSize) {
+                openBatch = null;
+                batch.full.countDown();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (leader) {
+            runBatch(batch);
+        }
+        try {
+            return batch.result.get().get(index);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a batched query embedding", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException
+                    ? runtimeException
+                    : new IllegalStateException("Batched query embedding failed", e.getCause());
+        }
+    }
+
+    private void runBatch(Batch batch) {
+        long opened = System.nanoTime();
+        try {
+            // Only hold the batch open while other batches are in flight; an idle system sends immediately
+            if (runningBatches.get() > 0 && windowNanos > 0) {
+                batch.full.await(windowNanos, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<String> texts;
+        lock.lock();
+        try {
+            if (openBatch == batch) {
+                openBatch = null;
+            }
+            texts = new ArrayList<>(batch.texts);
+        } finally {
+            lock.unlock();
+        }
+        windowTimer.record(System.nanoTime() - opened, TimeUnit.NANOSECONDS);
+
+        runningBatches.incrementAndGet();
+        try {
+            List<float[]> vectors = schedule(OllamaPriority.INTERACTIVE_QUERY,
+                    () -> embeddingModel.embed(texts));
+            batches.increment();
+            batchSize.record(texts.size());
+            LOG.debug("Embedded batch of {} query texts", texts.size());
+            batch.result.complete(vectors);
+        } catch (RuntimeException e) {
+            batch.result.completeExceptionally(e);
+        } finally {
+            runningBatches.decrementAndGet();
+        }
+    }
+
+    // Without a scheduler (in-process embedding model) the call runs directly
+    private <T> T schedule(OllamaPriority priority, Supplier<T> call) {
+        return scheduler != null ? scheduler.execute(priority, call) : call.get();
+    }
+
+    private static final class Batch {
+        private final List<String> texts = new ArrayList<>();
+        private final CountDownLatch full = new CountDownLatch(1);
+        private final CompletableFuture<List<float[]>> result = new CompletableFuture<>();
+    }
+}
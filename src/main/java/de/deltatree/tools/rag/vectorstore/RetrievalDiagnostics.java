@@ -0,0 +1,195 @@
+package de.deltatree.tools.rag.vectorstore;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Slow-search log for similarity searches. Searches slower than rag.diagnostics.slow-search-ms
+ * are kept, sampled by rag.diagnostics.sample-rate, in a bounded in-memory log with the time
+ * spent on the query embedding and on the SQL. With rag.diagnostics.explain=true, up to
+ * rag.diagnostics.explain-per-minute of them also run the ANN query again under
+ * EXPLAIN (ANALYZE, BUFFERS), so the log shows whether the HNSW index was used, which nodes
+ * ran and how many buffers they touched. The rerun finds the pages in cache, so its buffer
+ * reads understate those of the original search.
+ */
+@Component
+public class RetrievalDiagnostics {
+    private static final Logger LOG = LoggerFactory.getLogger(RetrievalDiagnostics.class);
+    private static final Pattern NODE = Pattern.compile("^\\s*(?:->\\s*)?([A-Z][A-Za-z ]+?)(?: using (\\S+))?(?: on \\S+.*?)?\\s+\\(cost=");
+    private static final Pattern BUFFERS = Pattern.compile("Buffers: shared(?: hit=(\\d+))?(?: read=(\\d+))?");
+    private static final Pattern TIME = Pattern.compile("^\\s*(Planning|Execution) Time: ([\\d.]+) ms");
+
+    /**
+     * @param plan the EXPLAIN output, or null if no plan was captured for this search
+     */
+    public record SlowSearch(Instant at, String query, String collection, int topK, double threshold, String filter,
+                             double embeddingMs, double sqlMs, double totalMs, int rows, PlanSummary plan) {
+    }
+
+    /**
+     * @param indexes           indexes the plan scanned
+     * @param sequentialScan    whether a table was read sequentially (no ANN index used)
+     * @param sharedHitBlocks   buffers found in shared buffers, for the whole query
+     * @param sharedReadBlocks  buffers read from disk or the OS cache, for the whole query
+     */
+    public record PlanSummary(List<String> nodes, List<String> indexes, boolean sequentialScan,
+                              long sharedHitBlocks, long sharedReadBlocks, double planningMs, double executionMs,
+                              List<String> plan) {
+    }
+
+    private final long slowSearchNanos;
+    private final double sampleRate;
+    private final boolean explainEnabled;
+    private final int explainPerMinute;
+    private final int logSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<SlowSearch> log = new ArrayDeque<>();
+    private final AtomicLong explainWindowStart = new AtomicLong();
+    private final AtomicInteger explainsInWindow = new AtomicInteger();
+    private final Counter slowSearches;
+
+    public RetrievalDiagnostics(
+            @Value("${rag.diagnostics.slow-search-ms:500}") long slowSearchMs,
+            @Value("${rag.diagnostics.sample-rate:1.0}") double sampleRate,
+            @Value("${rag.diagnostics.explain:false}") boolean explainEnabled,
+            @Value("${rag.diagnostics.explain-per-minute:6}") int explainPerMinute,
+            @Value("${rag.diagnostics.log-size:100}") int logSize,
+            MeterRegistry meterRegistry) {
+        this.slowSearchNanos = TimeUnit.MILLISECONDS.toNanos(slowSearchMs);
+        this.sampleRate = sampleRate;
+        this.explainEnabled = explainEnabled;
+        this.explainPerMinute = explainPerMinute;
+        this.logSize = Math.max(1, logSize);
+        this.slowSearches = Counter.builder("rag.search.slow")
+                .description("Similarity searches slower than rag.diagnostics.slow-search-ms")
+                .register(meterRegistry);
+        LOG.info("Retrieval diagnostics: slow searches over {} ms, sample rate {}, EXPLAIN {}",
+                slowSearchMs, sampleRate, explainEnabled ? "up to " + explainPerMinute + "/min" : "disabled");
+    }
+
+    /**
+     * Whether a search that took this long goes into the log
+     */
+    public boolean isSampledSlowSearch(long totalNanos) {
+        if (totalNanos < slowSearchNanos) {
+            return false;
+        }
+        slowSearches.increment();
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Whether a logged slow search may capture a plan, limited to rag.diagnostics.explain-per-minute
+     */
+    public boolean tryAcquireExplain() {
+        if (!explainEnabled) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long windowStart = explainWindowStart.get();
+        if (now - windowStart >= TimeUnit.MINUTES.toNanos(1) && explainWindowStart.compareAndSet(windowStart, now)) {
+            explainsInWindow.set(0);
+        }
+        return explainsInWindow.incrementAndGet() <= explainPerMinute;
+    }
+
+    public void record(SlowSearch search) {
+        LOG.warn("Slow similarity search in {}: {} ms (embedding {} ms, SQL {} ms, {} rows){}",
+                search.collection(), Math.round(search.totalMs()), Math.round(search.embeddingMs()),
+                Math.round(search.sqlMs()), search.rows(),
+                search.plan() == null ? "" : ", plan nodes " + search.plan().nodes());
+        lock.lock();
+        try {
+            if (log.size() >= logSize) {
+                log.pollFirst();
+            }
+            log.addLast(search);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Logged slow searches, newest first
+     */
+    public List<SlowSearch> recent() {
+        lock.lock();
+        try {
+            List<SlowSearch> recent = new ArrayList<>(log);
+            Collections.reverse(recent);
+            return recent;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            log.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pick the essentials out of a text EXPLAIN (ANALYZE, BUFFERS) plan
+     */
+    public static PlanSummary summarize(List<String> plan) {
+        Set<String> nodes = new LinkedHashSet<>();
+        Set<String> indexes = new LinkedHashSet<>();
+        boolean sequentialScan = false;
+        long hit = -1;
+        long read = -1;
+        double planningMs = 0;
+        double executionMs = 0;
+        for (String line : plan) {
+            Matcher node = NODE.matcher(line);
+            if (node.find()) {
+                nodes.add(node.group(1));
+                if (node.group(2) != null) {
+                    indexes.add(node.group(2));
+                }
+                sequentialScan |= node.group(1).contains("Seq Scan");
+                continue;
+            }
+            // The first Buffers line belongs to the top node and covers the whole query
+            Matcher buffers = BUFFERS.matcher(line);
+            if (hit < 0 && buffers.find()) {
+                hit = buffers.group(1) == null ? 0 : Long.parseLong(buffers.group(1));
+                read = buffers.group(2) == null ? 0 : Long.parseLong(buffers.group(2));
+                continue;
+            }
+            Matcher time = TIME.matcher(line);
+            if (time.find()) {
+                double ms = Double.parseDouble(time.group(2));
+                if ("Planning".equals(time.group(1))) {
+                    planningMs = ms;
+                } else {
+                    executionMs = ms;
+                }
+            }
+        }
+        return new PlanSummary(List.copyOf(nodes), List.copyOf(indexes), sequentialScan,
+                Math.max(0, hit), Math.max(0, read), planningMs, executionMs, List.copyOf(plan));
+    }
+}
@@ -0,0 +1,54 @@
+package de.deltatree.tools.rag.vectorstore;
+
+import de.deltatree.tools.rag.model.CollectionName;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * /actuator/retrieval: GET lists the logged slow searches, POST runs a search the way /chat does
+ * (top 20 unless topK is given) with its plan captured, DELETE clears the log
+ */
+@Component
+@Endpoint(id = "retrieval")
+public class RetrievalDiagnosticsEndpoint {
+    private final RetrievalDiagnostics diagnostics;
+    private final PostgresVectorStore vectorStore;
+    private final double similarityThreshold;
+
+    public RetrievalDiagnosticsEndpoint(RetrievalDiagnostics diagnostics, PostgresVectorStore vectorStore,
+                                        @Value("${rag.vectorstore.similarity-threshold:0.3}") double similarityThreshold) {
+        this.diagnostics = diagnostics;
+        this.vectorStore = vectorStore;
+        this.similarityThreshold = similarityThreshold;
+    }
+
+    @ReadOperation
+    public List<RetrievalDiagnostics.SlowSearch> slowSearches() {
+        return diagnostics.recent();
+    }
+
+    @WriteOperation
+    public RetrievalDiagnostics.SlowSearch explain(String query, @Nullable String collection,
+                                                   @Nullable Integer topK, @Nullable String filter) {
+        SearchRequest request = SearchRequest.query(query)
+                .withTopK(topK == null ? 20 : topK)
+                .withSimilarityThreshold(similarityThreshold);
+        if (filter != null && !filter.isBlank()) {
+            request = request.withFilterExpression(filter);
+        }
+        return vectorStore.diagnose(request, CollectionName.normalize(collection));
+    }
+
+    @DeleteOperation
+    public void clear() {
+        diagnostics.clear();
+    }
+}
@@ -0,0 +1,79 @@
+package de.deltatree.tools.rag.vectorstore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 64-bit SimHash over word 3-shingles. Texts that differ in a few words get fingerprints that
+ * differ in a few bits, so near-duplicates are found by Hamming distance. The fingerprint is
+ * split into four 16-bit bands: two fingerprints at most three bits apart agree on at least
+ * one band, which is what the band indexes look up.
+ */
+public final class SimHash {
+    public static final int BANDS = 4;
+    private static final int BAND_BITS = 16;
+    private static final int SHINGLE_WORDS = 3;
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private SimHash() {
+    }
+
+    /**
+     * @return the fingerprint, or null for texts with fewer than minWords words, whose
+     * fingerprints are too noisy to compare
+     */
+    public static Long fingerprint(String text, int minWords) {
+        List<String> words = new ArrayList<>();
+        for (String word : NON_WORD.split(text.toLowerCase(Locale.ROOT))) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        if (words.size() < Math.max(SHINGLE_WORDS, minWords)) {
+            return null;
+        }
+
+        int[] votes = new int[Long.SIZE];
+        for (int i = 0; i + SHINGLE_WORDS <= words.size(); i++) {
+            long hash = hash(words, i);
+            for (int bit = 0; bit < Long.SIZE; bit++) {
+                votes[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+            }
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (votes[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    public static int band(long fingerprint, int band) {
+        return (int) ((fingerprint >>> band * BAND_BITS) & 0xFFFF);
+    }
+
+    // FNV-1a over the shingle's words, finished with the MurmurHash3 mixer so every bit is well spread
+    private static long hash(List<String> words, int from) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = from; i < from + SHINGLE_WORDS; i++) {
+            String word = words.get(i);
+            for (int c = 0; c < word.length(); c++) {
+                hash = (hash ^ word.charAt(c)) * 0x100000001b3L;
+            }
+            hash = (hash ^ ' ') * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
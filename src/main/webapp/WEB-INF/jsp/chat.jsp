@@ -91,6 +91,7 @@
             <h2>Upload a file</h2>
             <form id="uploadForm" method="post" action="<%= contextPath %>/upload" enctype="multipart/form-data" target="hiddenUploadFrame">
                 <input type="file" name="file" id="file" required/>
+                <input type="hidden" name="collection" id="uploadCollection"/>
                 <input type="submit" value="Upload" class="submit-btn"/>
             </form>
             <div class="loader" id="loader">
@@ -135,6 +136,10 @@
             <button id="processUrl" class="upload-btn">Process URL</button>
         </div>
         <%}%>
+        <div class="collection-area">
+            <label for="collectionInput">Collection</label>
+            <input type="text" id="collectionInput" value="default" pattern="[a-z0-9][a-z0-9_]{0,47}"/>
+        </div>
         <div class="input-area">
             <textarea id="userInput" placeholder="Type your question here..." rows="3"></textarea>
             <button id="typedTextSubmit" class="submit-btn">Send</button>
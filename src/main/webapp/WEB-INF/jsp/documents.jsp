@@ -8,10 +8,30 @@
 </head>
 <body>
 <h1>Embedded Documents</h1>
+<h2>Collections</h2>
+<table border="1" cellpadding="5" cellspacing="0">
+    <tr>
+        <th>Collection</th>
+        <th>Actions</th>
+    </tr>
+    <c:forEach var="name" items="${collections}">
+        <tr>
+            <td><a href="<%= request.getContextPath() %>/documents?collection=${name}">${name}</a></td>
+            <td>
+                <form method="post" action="<%= request.getContextPath() %>/documents/collections/delete/${name}" style="display:inline;"
+                      onsubmit="return confirm('Delete collection ${name} and all its documents?');">
+                    <input type="submit" value="Delete collection" class="submit-btn" />
+                </form>
+            </td>
+        </tr>
+    </c:forEach>
+</table>
+<h2><c:out value="${empty collection ? 'All documents' : collection}"/></h2>
 <table border="1" cellpadding="5" cellspacing="0">
     <tr>
         <th>ID</th>
         <th>File Name</th>
+        <th>Collection</th>
         <th>Created At</th>
         <th>Actions</th>
     </tr>
@@ -19,6 +39,7 @@
         <tr>
             <td>${doc.id}</td>
             <td>${doc.fileName}</td>
+            <td>${doc.collection}</td>
             <td>${doc.createdAt}</td>
             <td>
                 <form method="post" action="<%= request.getContextPath() %>/documents/delete/${doc.id}" style="display:inline;">
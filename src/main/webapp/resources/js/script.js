@@ -128,24 +128,142 @@ const createTranscriptEntry = (who, name, text) => {
     </div>`;
 };
 
-const handleResponse = (response) => {
-    addToTranscript("AI", response.answer);
+// Conversation the next question continues; the server starts a new one when it is unknown
+let sessionId = null;
+let sessionCollection = null;
+
+// Transcript entry of an answer that is still streaming in
+const addStreamingEntry = () => {
+    addToTranscript("AI", '<span class="streamingAnswer"></span>');
+    const entries = document.querySelectorAll('#transcript .streamingAnswer');
+    return entries[entries.length - 1];
+};
+
+// Server-sent events from a fetch response body: calls onEvent(name, parsed JSON data)
+const readEvents = async (response, onEvent) => {
+    const reader = response.body.getReader();
+    const decoder = new TextDecoder();
+    let buffer = "";
+    for (;;) {
+        const { done, value } = await reader.read();
+        if (done) {
+            return;
+        }
+        buffer += decoder.decode(value, { stream: true });
+        let end;
+        while ((end = buffer.indexOf("\n\n")) >= 0) {
+            const block = buffer.slice(0, end);
+            buffer = buffer.slice(end + 2);
+            let name = "message";
+            const data = [];
+            block.split("\n").forEach(line => {
+                if (line.startsWith("event:")) {
+                    name = line.slice(6).trim();
+                } else if (line.startsWith("data:")) {
+                    data.push(line.slice(5));
+                }
+            });
+            if (data.length > 0) {
+                onEvent(name, JSON.parse(data.join("\n")));
+            }
+        }
+    }
+};
+
+// Giving up on an answer aborts its request, and the server stops generating it
+const ANSWER_TIMEOUT_MS = 180000;
+const pendingAnswers = new Set();
+window.addEventListener('pagehide', () => pendingAnswers.forEach(controller => controller.abort()));
+
+// Collection used for chat, uploads and URLs
+const currentCollection = () => {
+    const input = document.getElementById("collectionInput");
+    return input && input.value.trim() ? input.value.trim().toLowerCase() : "default";
+};
+
+// The question being typed is sent for retrieval after a pause in typing; the question finally
+// sent with the same draft id reuses that retrieval
+const PREFETCH_DEBOUNCE_MS = 400;
+const PREFETCH_MIN_CHARS = 12;
+const newDraftId = () => window.crypto && crypto.randomUUID
+    ? crypto.randomUUID()
+    : Date.now().toString(36) + Math.random().toString(36).slice(2);
+let draftId = newDraftId();
+let prefetchTimer = null;
+let prefetchedText = null;
+
+const schedulePrefetch = (text) => {
+    clearTimeout(prefetchTimer);
+    const question = text.trim();
+    if (question.length < PREFETCH_MIN_CHARS || question === prefetchedText) {
+        return;
+    }
+    prefetchTimer = setTimeout(() => {
+        prefetchedText = question;
+        fetch(contextPath + "/chat/retrieve", {
+            method: "POST",
+            headers: {
+                "Content-Type": "application/json"
+            },
+            body: JSON.stringify({ question: question, collection: currentCollection(), draftId: draftId })
+        }).catch(error => console.debug('Prefetch failed:', error));
+    }, PREFETCH_DEBOUNCE_MS);
 };
 
 // API Interactions
 const postQuestion = (question) => {
-    fetch(contextPath + "/chat", {
+    // A conversation belongs to one collection
+    if (sessionCollection !== currentCollection()) {
+        sessionId = null;
+        sessionCollection = currentCollection();
+    }
+    const questionDraftId = draftId;
+    clearTimeout(prefetchTimer);
+    draftId = newDraftId();
+    prefetchedText = null;
+    const controller = new AbortController();
+    const timeout = setTimeout(() => controller.abort(), ANSWER_TIMEOUT_MS);
+    pendingAnswers.add(controller);
+    const entry = addStreamingEntry();
+    const transcript = document.querySelector('#transcript');
+    fetch(contextPath + "/chat/stream", {
         method: "POST",
         headers: {
-            "Content-Type": "application/json"
+            "Content-Type": "application/json",
+            "Accept": "text/event-stream"
         },
-        body: JSON.stringify({ question: question })
+        body: JSON.stringify({ question: question, collection: currentCollection(), sessionId: sessionId, draftId: questionDraftId }),
+        signal: controller.signal
     })
-        .then(res => res.json())
-        .then(handleResponse)
+        .then(res => {
+            if (!res.ok) {
+                throw new Error(`HTTP error! Status: ${res.status}`);
+            }
+            return readEvents(res, (name, data) => {
+                if (name === "token") {
+                    entry.textContent += data.text;
+                } else if (name === "answer") {
+                    if (data.sessionId) {
+                        sessionId = data.sessionId;
+                    }
+                    entry.innerHTML = data.answer;
+                } else if (name === "error") {
+                    entry.innerHTML = data.retryAfterSeconds
+                        ? `The AI model is busy right now. Please try again in ${data.retryAfterSeconds} seconds.`
+                        : "Sorry, there was an error processing your request.";
+                }
+                transcript.scrollTop = transcript.scrollHeight;
+            });
+        })
         .catch(error => {
             console.error('Error:', error);
-            addToTranscript("AI", "Sorry, there was an error processing your request.");
+            entry.innerHTML = error.name === "AbortError"
+                ? "The answer took too long and was cancelled. Please try again."
+                : "Sorry, there was an error processing your request.";
+        })
+        .finally(() => {
+            clearTimeout(timeout);
+            pendingAnswers.delete(controller);
         });
 };
 
@@ -155,7 +273,7 @@ const processUrl = (url) => {
         headers: {
             "Content-Type": "application/json"
         },
-        body: JSON.stringify({ url: url })
+        body: JSON.stringify({ url: url, collection: currentCollection() })
     })
         .then(res => {
             if (!res.ok) {
@@ -206,6 +324,7 @@ const initUIEvents = () => {
             submitTypedText(e);
         }
     });
+    textarea.addEventListener('input', () => schedulePrefetch(textarea.value));
 
     // File upload modal
     const modal = document.getElementById("uploadModal");
@@ -260,6 +379,7 @@ const initUIEvents = () => {
     // File upload handling
     const uploadForm = document.getElementById("uploadForm");
     uploadForm.addEventListener('submit', () => {
+        document.getElementById("uploadCollection").value = currentCollection();
         const filename = uploadForm.elements[0].value;
         if (filename && filename.length > 0) {
             document.getElementById("loader").style.visibility = "visible";
@@ -0,0 +1,82 @@
+package de.deltatree.tools.rag.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReplicaRoutingDataSourceTest {
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DataSource primary = mock(DataSource.class);
+    private final DataSource replica = mock(DataSource.class);
+    private final Connection primaryConnection = mock(Connection.class);
+    private final Connection replicaConnection = mock(Connection.class);
+    private ReplicaRoutingDataSource routing;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica.getConnection()).thenReturn(replicaConnection);
+        routing = new ReplicaRoutingDataSource(primary, replica, meterRegistry);
+        routing.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    void writesGoToThePrimary() throws SQLException {
+        assertThat(routing.getConnection()).isEqualTo(primaryConnection);
+        assertThat(routes("primary")).isEqualTo(1.0);
+    }
+
+    @Test
+    void readOnlyTransactionsGoToTheReplica() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertThat(routing.getConnection()).isEqualTo(replicaConnection);
+        assertThat(routes("replica")).isEqualTo(1.0);
+    }
+
+    @Test
+    void readOnlyTransactionsFallBackToThePrimaryWhileTheReplicaIsUnusable() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        routing.setReplicaUsable(false);
+
+        assertThat(routing.getConnection()).isEqualTo(primaryConnection);
+        assertThat(routes("primary-fallback")).isEqualTo(1.0);
+
+        routing.setReplicaUsable(true);
+        assertThat(routing.getConnection()).isEqualTo(replicaConnection);
+    }
+
+    @Test
+    void failedLagCheckSendsReadsToThePrimary() throws SQLException {
+        DataSource unreachable = mock(DataSource.class);
+        when(unreachable.getConnection()).thenThrow(new SQLException("Connection refused"));
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(unreachable, unreachable, routing, 1_000, meterRegistry);
+
+        monitor.checkLag();
+
+        assertThat(routing.isReplicaUsable()).isFalse();
+        assertThat(meterRegistry.get("rag.datasource.replica.usable").gauge().value()).isEqualTo(0.0);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertThat(routing.getConnection()).isEqualTo(primaryConnection);
+    }
+
+    private double routes(String target) {
+        return meterRegistry.get("rag.datasource.routes").tag("target", target).counter().count();
+    }
+}
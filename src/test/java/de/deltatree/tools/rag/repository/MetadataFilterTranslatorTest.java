@@ -0,0 +1,121 @@
+package de.deltatree.tools.rag.repository;
+
+import de.deltatree.tools.rag.repository.MetadataFilterTranslator.SqlFilter;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.Filter.ExpressionType;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetadataFilterTranslatorTest {
+
+    @Test
+    void equalityOnMetadataKeyIsAContainmentCheck() {
+        SqlFilter filter = MetadataFilterTranslator.translate(compare(ExpressionType.EQ, "type", "manual"));
+
+        assertThat(filter.sql()).isEqualTo("metadata @> CAST(:filter0 AS jsonb)");
+        assertThat(filter.parameters()).containsEntry("filter0", "{\"type\":\"manual\"}");
+    }
+
+    @Test
+    void equalityOnTagsMeansContainsTheTag() {
+        SqlFilter filter = MetadataFilterTranslator.translate(compare(ExpressionType.EQ, "tags", "hr"));
+
+        assertThat(filter.parameters()).containsEntry("filter0", "{\"tags\":[\"hr\"]}");
+    }
+
+    @Test
+    void filenameIsTheFileNameColumn() {
+        SqlFilter equal = MetadataFilterTranslator.translate(compare(ExpressionType.EQ, "filename", "a.pdf"));
+        SqlFilter in = MetadataFilterTranslator.translate(compare(ExpressionType.IN, "filename", List.of("a.pdf", "b.pdf")));
+
+        assertThat(equal.sql()).isEqualTo("file_name = :filter0");
+        assertThat(equal.parameters()).containsEntry("filter0", "a.pdf");
+        assertThat(in.sql()).isEqualTo("file_name IN (:filter0)");
+        assertThat(in.parameters()).containsEntry("filter0", List.of("a.pdf", "b.pdf"));
+    }
+
+    @Test
+    void inOnMetadataKeyIsOneContainmentCheckPerValue() {
+        SqlFilter filter = MetadataFilterTranslator.translate(compare(ExpressionType.IN, "type", List.of("manual", "faq")));
+
+        assertThat(filter.sql()).isEqualTo(
+                "(metadata @> CAST(:filter0 AS jsonb) OR metadata @> CAST(:filter1 AS jsonb))");
+        assertThat(filter.parameters()).containsEntry("filter0", "{\"type\":\"manual\"}");
+        assertThat(filter.parameters()).containsEntry("filter1", "{\"type\":\"faq\"}");
+    }
+
+    @Test
+    void emptyInMatchesNothingAndEmptyNotInEverything() {
+        assertThat(MetadataFilterTranslator.translate(compare(ExpressionType.IN, "type", List.of())).sql())
+                .isEqualTo("FALSE");
+        assertThat(MetadataFilterTranslator.translate(compare(ExpressionType.NIN, "type", List.of())).sql())
+                .isEqualTo("NOT (FALSE)");
+    }
+
+    @Test
+    void numericRangeComparesAsNumeric() {
+        SqlFilter filter = MetadataFilterTranslator.translate(compare(ExpressionType.GTE, "year", 2020));
+
+        assertThat(filter.sql()).isEqualTo("CAST(metadata ->> CAST(:filter0 AS text) AS numeric) >= :filter1");
+        assertThat(filter.parameters()).containsEntry("filter0", "year");
+        assertThat(filter.parameters()).containsEntry("filter1", 2020);
+    }
+
+    @Test
+    void textRangeComparesAsText() {
+        SqlFilter filter = MetadataFilterTranslator.translate(compare(ExpressionType.LT, "version", "2.0"));
+
+        assertThat(filter.sql()).isEqualTo("metadata ->> CAST(:filter0 AS text) < :filter1");
+        assertThat(filter.parameters()).containsEntry("filter1", "2.0");
+    }
+
+    @Test
+    void logicalOperatorsAndGroupsNest() {
+        Filter.Expression expression = new Filter.Expression(ExpressionType.AND,
+                compare(ExpressionType.EQ, "type", "manual"),
+                new Filter.Group(new Filter.Expression(ExpressionType.OR,
+                        compare(ExpressionType.NE, "filename", "old.pdf"),
+                        new Filter.Expression(ExpressionType.NOT, compare(ExpressionType.EQ, "tags", "draft"), null))));
+
+        SqlFilter filter = MetadataFilterTranslator.translate(expression);
+
+        assertThat(filter.sql()).isEqualTo("(metadata @> CAST(:filter0 AS jsonb) AND "
+                + "((NOT (file_name = :filter1) OR NOT (metadata @> CAST(:filter2 AS jsonb)))))");
+        assertThat(filter.parameters()).hasSize(3);
+    }
+
+    @Test
+    void quotesAroundKeysAreRemoved() {
+        SqlFilter filter = MetadataFilterTranslator.translate(compare(ExpressionType.EQ, "'my key'", "x"));
+
+        assertThat(filter.parameters()).containsEntry("filter0", "{\"my key\":\"x\"}");
+    }
+
+    @Test
+    void valuesAreBoundAndNeverPartOfTheSql() {
+        String hostile = "x') OR TRUE; --";
+        SqlFilter filter = MetadataFilterTranslator.translate(new Filter.Expression(ExpressionType.OR,
+                compare(ExpressionType.EQ, "filename", hostile),
+                compare(ExpressionType.GT, hostile, hostile)));
+
+        assertThat(filter.sql()).doesNotContain(hostile);
+        assertThat(filter.parameters()).containsEntry("filter0", hostile);
+    }
+
+    @Test
+    void keyOnTheRightIsRejected() {
+        Filter.Expression expression = new Filter.Expression(ExpressionType.EQ,
+                new Filter.Value("manual"), new Filter.Key("type"));
+
+        assertThatThrownBy(() -> MetadataFilterTranslator.translate(expression))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Filter.Expression compare(ExpressionType type, String key, Object value) {
+        return new Filter.Expression(type, new Filter.Key(key), new Filter.Value(value));
+    }
+}
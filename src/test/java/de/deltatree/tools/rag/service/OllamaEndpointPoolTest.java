@@ -0,0 +1,196 @@
+package de.deltatree.tools.rag.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OllamaEndpointPoolTest {
+    private static final String A = "http://ollama-a:11434";
+    private static final String B = "http://ollama-b:11434";
+    private static final String C = "http://ollama-c:11434";
+    private static final String EMBED = "/api/embed";
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    @SuppressWarnings("unchecked")
+    private final ObjectProvider<OllamaScheduler> schedulerProvider = mock(ObjectProvider.class);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private OllamaEndpointPool pool;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    void failedCallIsRetriedOnAnotherEndpoint() {
+        pool = pool(List.of(A, B), 2, 3, 0);
+        List<String> tried = new ArrayList<>();
+
+        String answeredBy = pool.execute(EMBED, null, url -> {
+            tried.add(url);
+            if (tried.size() == 1) {
+                throw new ResourceAccessException("Connection refused");
+            }
+            return url;
+        });
+
+        assertThat(tried).hasSize(2);
+        assertThat(answeredBy).isNotEqualTo(tried.get(0));
+        assertThat(meterRegistry.get("rag.ollama.pool.retries").tag("operation", EMBED).counter().count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void clientErrorIsNotRetried() {
+        pool = pool(List.of(A, B), 2, 3, 0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> pool.execute(EMBED, null, url -> {
+            attempts.incrementAndGet();
+            throw new HttpClientErrorException(HttpStatus.BAD_REQUEST);
+        })).isInstanceOf(HttpClientErrorException.class);
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    void retriesStopAtMaxAttempts() {
+        pool = pool(List.of(A, B, C), 2, 3, 0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> pool.execute(EMBED, null, url -> {
+            attempts.incrementAndGet();
+            throw new HttpClientErrorException(HttpStatus.NOT_FOUND);
+        })).isInstanceOf(HttpClientErrorException.class);
+        assertThat(attempts).hasValue(2);
+    }
+
+    @Test
+    void endpointIsEjectedAfterConsecutiveFailuresAndGetsNoMoreCalls() {
+        pool = pool(List.of(A, B), 2, 2, 0);
+        for (int i = 0; i < 100 && pool.availableEndpoints().size() == 2; i++) {
+            pool.execute(EMBED, null, url -> {
+                if (url.equals(A)) {
+                    throw new ResourceAccessException("Connection refused");
+                }
+                return url;
+            });
+        }
+        assertThat(pool.availableEndpoints()).containsExactly(B);
+        assertThat(ejections(A)).isEqualTo(1.0);
+
+        List<String> used = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            used.add(pool.execute(EMBED, null, url -> url));
+        }
+        assertThat(used).doesNotContain(A);
+        assertThat(pool.health().getStatus()).isEqualTo(Status.UP);
+    }
+
+    @Test
+    void callsStillGoOutWhenEveryEndpointIsEjected() {
+        pool = pool(List.of(A), 1, 1, 0);
+
+        assertThatThrownBy(() -> pool.execute(EMBED, null, url -> {
+            throw new ResourceAccessException("Connection refused");
+        })).isInstanceOf(ResourceAccessException.class);
+
+        assertThat(ejections(A)).isEqualTo(1.0);
+        assertThat(pool.health().getStatus()).isEqualTo(Status.DOWN);
+        assertThat(pool.execute(EMBED, null, url -> url)).isEqualTo(A);
+    }
+
+    @Test
+    void slowCallIsHedgedToASecondEndpointAndTheFirstAnswerWins() {
+        pool = pool(List.of(A, B), 2, 3, 20);
+        AtomicReference<String> slow = new AtomicReference<>();
+
+        String answeredBy = pool.executeHedged(EMBED, url -> {
+            if (slow.compareAndSet(null, url)) {
+                awaitRelease();
+            }
+            return url;
+        });
+
+        assertThat(answeredBy).isNotEqualTo(slow.get());
+        assertThat(hedges("sent")).isEqualTo(1.0);
+        assertThat(hedges("won")).isEqualTo(1.0);
+        // The slower call was cancelled, which is not a failure of its endpoint
+        assertThat(pool.availableEndpoints()).hasSize(2);
+    }
+
+    @Test
+    void hedgeIsOnlySentWithAFreeSchedulerSlot() {
+        pool = pool(List.of(A, B), 2, 3, 20);
+        OllamaScheduler scheduler = new OllamaScheduler(new MockEnvironment()
+                .withProperty("rag.ollama.scheduler.max-in-flight", "1"), pool, meterRegistry);
+        when(schedulerProvider.getIfAvailable()).thenReturn(scheduler);
+        assertThat(scheduler.tryAcquireExtraSlot()).isTrue();
+        AtomicInteger attempts = new AtomicInteger();
+
+        pool.executeHedged(EMBED, url -> {
+            attempts.incrementAndGet();
+            sleep(100);
+            return url;
+        });
+
+        assertThat(attempts).hasValue(1);
+        assertThat(hedges("no-slot")).isEqualTo(1.0);
+        scheduler.releaseExtraSlot();
+    }
+
+    private OllamaEndpointPool pool(List<String> urls, int maxAttempts, int ejectAfterFailures, long hedgeDelayMs) {
+        return new OllamaEndpointPool(urls, maxAttempts, ejectAfterFailures, 60_000, hedgeDelayMs, 1.0, 2,
+                false, schedulerProvider, meterRegistry);
+    }
+
+    private double ejections(String url) {
+        return meterRegistry.get("rag.ollama.endpoint.ejections").tag("node", url).counter().count();
+    }
+
+    private double hedges(String result) {
+        return meterRegistry.get("rag.ollama.pool.hedges").tag("operation", EMBED).tag("result", result)
+                .counter().count();
+    }
+
+    private void awaitRelease() {
+        try {
+            if (!release.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Not released within 5 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package de.deltatree.tools.rag.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static de.deltatree.tools.rag.service.OllamaPriority.BACKGROUND_INGEST;
+import static de.deltatree.tools.rag.service.OllamaPriority.INTERACTIVE_GENERATE;
+import static de.deltatree.tools.rag.service.OllamaPriority.INTERACTIVE_QUERY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OllamaSchedulerTest {
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OllamaEndpointPool endpointPool = mock(OllamaEndpointPool.class);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void freeSlotsGoToTheClassesByWeightWithoutStarvingBackgroundWork() throws Exception {
+        OllamaScheduler scheduler = scheduler(new MockEnvironment()
+                .withProperty("rag.ollama.scheduler.max-in-flight", "1"));
+        Future<?> blocker = executor.submit(() -> scheduler.execute(BACKGROUND_INGEST, this::awaitRelease));
+        waitUntil(() -> inFlight(BACKGROUND_INGEST) == 1);
+
+        List<OllamaPriority> order = new CopyOnWriteArrayList<>();
+        List<Future<?>> calls = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            calls.add(executor.submit(() -> scheduler.execute(INTERACTIVE_QUERY, () -> order.add(INTERACTIVE_QUERY))));
+            calls.add(executor.submit(() -> scheduler.execute(BACKGROUND_INGEST, () -> order.add(BACKGROUND_INGEST))));
+        }
+        waitUntil(() -> queued(INTERACTIVE_QUERY) == 10 && queued(BACKGROUND_INGEST) == 10);
+        release.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        for (Future<?> call : calls) {
+            call.get(5, TimeUnit.SECONDS);
+        }
+
+        // Weights 8:1 on a single slot: background work gets one of the first ten slots, not the eleventh
+        List<OllamaPriority> firstTen = order.subList(0, 10);
+        assertThat(Collections.frequency(firstTen, BACKGROUND_INGEST)).isEqualTo(1);
+        assertThat(order).hasSize(20);
+    }
+
+    @Test
+    void fullQueueRejectsAtOnce() throws Exception {
+        OllamaScheduler scheduler = scheduler(new MockEnvironment()
+                .withProperty("rag.ollama.scheduler.max-in-flight", "1")
+                .withProperty("rag.ollama.scheduler.background-ingest.max-queued", "1"));
+        executor.submit(() -> scheduler.execute(BACKGROUND_INGEST, this::awaitRelease));
+        waitUntil(() -> inFlight(BACKGROUND_INGEST) == 1);
+        Future<String> queuedCall = executor.submit(() -> scheduler.execute(BACKGROUND_INGEST, () -> "queued"));
+        waitUntil(() -> queued(BACKGROUND_INGEST) == 1);
+
+        assertThatThrownBy(() -> scheduler.execute(BACKGROUND_INGEST, () -> "rejected"))
+                .isInstanceOf(OllamaOverloadedException.class);
+        assertThat(meterRegistry.get("rag.ollama.queue.rejected").tag("class", "background-ingest").counter().count())
+                .isEqualTo(1.0);
+
+        release.countDown();
+        assertThat(queuedCall.get(5, TimeUnit.SECONDS)).isEqualTo("queued");
+    }
+
+    @Test
+    void cancelledWaiterLeavesTheQueueAndTakesNoSlot() throws Exception {
+        OllamaScheduler scheduler = scheduler(new MockEnvironment()
+                .withProperty("rag.ollama.scheduler.max-in-flight", "1"));
+        Future<?> blocker = executor.submit(() -> scheduler.execute(INTERACTIVE_GENERATE, this::awaitRelease));
+        waitUntil(() -> inFlight(INTERACTIVE_GENERATE) == 1);
+        CancellationSignal cancellation = new CancellationSignal();
+        Future<String> waiter = executor.submit(() -> scheduler.execute(INTERACTIVE_GENERATE, cancellation, () -> "ran"));
+        waitUntil(() -> queued(INTERACTIVE_GENERATE) == 1);
+
+        cancellation.cancel();
+
+        assertThatThrownBy(() -> waiter.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(GenerationCancelledException.class);
+        assertThat(queued(INTERACTIVE_GENERATE)).isEqualTo(0.0);
+        release.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        assertThat(executor.submit(() -> scheduler.execute(INTERACTIVE_QUERY, () -> "next")).get(5, TimeUnit.SECONDS))
+                .isEqualTo("next");
+    }
+
+    @Test
+    void freeSlotOnlyWhileNothingOfTheClassWaits() throws Exception {
+        OllamaScheduler scheduler = scheduler(new MockEnvironment()
+                .withProperty("rag.ollama.scheduler.interactive-query.max-in-flight", "1"));
+        assertThat(scheduler.hasFreeSlot(INTERACTIVE_QUERY)).isTrue();
+
+        executor.submit(() -> scheduler.execute(INTERACTIVE_QUERY, this::awaitRelease));
+        waitUntil(() -> inFlight(INTERACTIVE_QUERY) == 1);
+        assertThat(scheduler.hasFreeSlot(INTERACTIVE_QUERY)).isFalse();
+        assertThat(scheduler.hasFreeSlot(INTERACTIVE_GENERATE)).isTrue();
+
+        release.countDown();
+        waitUntil(() -> inFlight(INTERACTIVE_QUERY) == 0);
+        assertThat(scheduler.hasFreeSlot(INTERACTIVE_QUERY)).isTrue();
+    }
+
+    @Test
+    void extraSlotCountsAgainstTheGlobalLimitAndIsNeverTakenFromAWaitingCall() throws Exception {
+        OllamaScheduler scheduler = scheduler(new MockEnvironment()
+                .withProperty("rag.ollama.scheduler.max-in-flight", "2"));
+        executor.submit(() -> scheduler.execute(INTERACTIVE_QUERY, this::awaitRelease));
+        waitUntil(() -> inFlight(INTERACTIVE_QUERY) == 1);
+
+        assertThat(scheduler.tryAcquireExtraSlot()).isTrue();
+        Future<String> waiting = executor.submit(() -> scheduler.execute(BACKGROUND_INGEST, () -> "ran"));
+        waitUntil(() -> queued(BACKGROUND_INGEST) == 1);
+        assertThat(scheduler.tryAcquireExtraSlot()).isFalse();
+
+        scheduler.releaseExtraSlot();
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isEqualTo("ran");
+    }
+
+    @Test
+    void defaultInFlightLimitsGrowWithThePool() throws Exception {
+        when(endpointPool.size()).thenReturn(2);
+        OllamaScheduler scheduler = scheduler(new MockEnvironment());
+        List<Future<?>> calls = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            calls.add(executor.submit(() -> scheduler.execute(INTERACTIVE_GENERATE, this::awaitRelease)));
+        }
+
+        // Two generations per Ollama instance
+        waitUntil(() -> inFlight(INTERACTIVE_GENERATE) == 4 && queued(INTERACTIVE_GENERATE) == 1);
+        release.countDown();
+        for (Future<?> call : calls) {
+            call.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void configuredInFlightLimitsDoNotGrowWithThePool() throws Exception {
+        when(endpointPool.size()).thenReturn(2);
+        OllamaScheduler scheduler = scheduler(new MockEnvironment()
+                .withProperty("rag.ollama.scheduler.interactive-generate.max-in-flight", "1"));
+        executor.submit(() -> scheduler.execute(INTERACTIVE_GENERATE, this::awaitRelease));
+        executor.submit(() -> scheduler.execute(INTERACTIVE_GENERATE, this::awaitRelease));
+
+        waitUntil(() -> inFlight(INTERACTIVE_GENERATE) == 1 && queued(INTERACTIVE_GENERATE) == 1);
+    }
+
+    private OllamaScheduler scheduler(MockEnvironment environment) {
+        return new OllamaScheduler(environment, endpointPool, meterRegistry);
+    }
+
+    private double queued(OllamaPriority priority) {
+        return meterRegistry.get("rag.ollama.queue.depth").tag("class", priority.propertyName()).gauge().value();
+    }
+
+    private double inFlight(OllamaPriority priority) {
+        return meterRegistry.get("rag.ollama.in.flight").tag("class", priority.propertyName()).gauge().value();
+    }
+
+    private Void awaitRelease() {
+        try {
+            if (!release.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Not released within 5 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return null;
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within 5 seconds");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
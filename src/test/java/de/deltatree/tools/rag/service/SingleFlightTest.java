@@ -0,0 +1,201 @@
+package de.deltatree.tools.rag.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final SingleFlight<String> singleFlight = new SingleFlight<>("test", executor, meterRegistry);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void callerJoiningWhileStreamingGetsEarlierTextFirstThenTheRestInOrder() throws Exception {
+        CountDownLatch joined = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+        List<String> leaderTokens = new CopyOnWriteArrayList<>();
+        List<String> joinerTokens = new CopyOnWriteArrayList<>();
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", new CancellationSignal(),
+                leaderTokens::add, (cancellation, onToken) -> {
+                    computations.incrementAndGet();
+                    onToken.accept("a");
+                    onToken.accept("b");
+                    await(joined);
+                    onToken.accept("c");
+                    onToken.accept("d");
+                    return "abcd";
+                }));
+        waitUntil(() -> leaderTokens.size() == 2);
+        Future<String> joiner = executor.submit(() -> singleFlight.execute("q", new CancellationSignal(),
+                joinerTokens::add, (cancellation, onToken) -> {
+                    computations.incrementAndGet();
+                    return "second computation";
+                }));
+        awaitCount("joined", 1);
+        joined.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("abcd");
+        assertThat(joiner.get(5, TimeUnit.SECONDS)).isEqualTo("abcd");
+        assertThat(computations).hasValue(1);
+        assertThat(leaderTokens).containsExactly("a", "b", "c", "d");
+        assertThat(joinerTokens).containsExactly("ab", "c", "d");
+    }
+
+    @Test
+    void computationIsCancelledOnlyWhenTheLastCallerLeaves() throws Exception {
+        AtomicReference<CancellationSignal> shared = new AtomicReference<>();
+        CountDownLatch sharedCancelled = new CountDownLatch(1);
+        CancellationSignal leaderCancellation = new CancellationSignal();
+        CancellationSignal joinerCancellation = new CancellationSignal();
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", leaderCancellation,
+                token -> {
+                }, (cancellation, onToken) -> {
+                    cancellation.onCancel(sharedCancelled::countDown);
+                    shared.set(cancellation);
+                    await(sharedCancelled);
+                    throw new GenerationCancelledException();
+                }));
+        waitUntil(() -> shared.get() != null);
+        Future<String> joiner = executor.submit(() -> singleFlight.execute("q", joinerCancellation,
+                token -> {
+                }, (cancellation, onToken) -> "second computation"));
+        awaitCount("joined", 1);
+
+        leaderCancellation.cancel();
+        assertThat(shared.get().isCancelled()).isFalse();
+
+        joinerCancellation.cancel();
+        assertThat(shared.get().isCancelled()).isTrue();
+        assertCancelled(leader);
+        assertCancelled(joiner);
+    }
+
+    @Test
+    void slowCallerDoesNotHoldUpTheComputation() throws Exception {
+        CountDownLatch joined = new CountDownLatch(1);
+        CountDownLatch slowClient = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", new CancellationSignal(),
+                token -> {
+                }, (cancellation, onToken) -> {
+                    onToken.accept("a");
+                    await(joined);
+                    onToken.accept("b");
+                    onToken.accept("c");
+                    return "abc";
+                }));
+        awaitCount("leader", 1);
+        Future<String> joiner = executor.submit(() -> singleFlight.execute("q", new CancellationSignal(),
+                token -> await(slowClient), (cancellation, onToken) -> "second computation"));
+        awaitCount("joined", 1);
+        joined.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("abc");
+        assertThat(joiner.isDone()).isFalse();
+        slowClient.countDown();
+        assertThat(joiner.get(5, TimeUnit.SECONDS)).isEqualTo("abc");
+    }
+
+    @Test
+    void slowFirstCallerDoesNotHoldUpTheComputationOrOtherCallers() throws Exception {
+        CountDownLatch joined = new CountDownLatch(1);
+        CountDownLatch slowClient = new CountDownLatch(1);
+        List<String> joinerTokens = new CopyOnWriteArrayList<>();
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", new CancellationSignal(),
+                token -> await(slowClient), (cancellation, onToken) -> {
+                    await(joined);
+                    onToken.accept("a");
+                    onToken.accept("b");
+                    return "ab";
+                }));
+        awaitCount("leader", 1);
+        Future<String> joiner = executor.submit(() -> singleFlight.execute("q", new CancellationSignal(),
+                joinerTokens::add, (cancellation, onToken) -> "second computation"));
+        awaitCount("joined", 1);
+        joined.countDown();
+
+        assertThat(joiner.get(5, TimeUnit.SECONDS)).isEqualTo("ab");
+        assertThat(joinerTokens).containsExactly("a", "b");
+        assertThat(leader.isDone()).isFalse();
+        slowClient.countDown();
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("ab");
+    }
+
+    @Test
+    void failureReachesEveryCallerAndTheNextCallComputesAgain() throws Exception {
+        CountDownLatch joined = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", new CancellationSignal(),
+                token -> {
+                }, (cancellation, onToken) -> {
+                    await(joined);
+                    throw new IllegalStateException("Ollama down");
+                }));
+        awaitCount("leader", 1);
+        Future<String> joiner = executor.submit(() -> singleFlight.execute("q", new CancellationSignal(),
+                token -> {
+                }, (cancellation, onToken) -> "second computation"));
+        awaitCount("joined", 1);
+        joined.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> joiner.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+        assertThat(singleFlight.execute("q", new CancellationSignal(), token -> {
+        }, (cancellation, onToken) -> "fresh")).isEqualTo("fresh");
+    }
+
+    private void awaitCount(String role, int count) throws InterruptedException {
+        waitUntil(() -> meterRegistry.get("rag.singleflight.calls").tag("role", role).counter().count() == count);
+    }
+
+    private static void assertCancelled(Future<String> caller) {
+        assertThatThrownBy(() -> caller.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(GenerationCancelledException.class);
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within 5 seconds");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Latch not released within 5 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package de.deltatree.tools.rag.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StructureAwareTextSplitterTest {
+
+    @Test
+    void overlapOfHalfAChunkOrMoreIsRejected() {
+        assertThatThrownBy(() -> new StructureAwareTextSplitter(100, 50, 0, 100))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new StructureAwareTextSplitter(8, 0, 0, 100))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void blankDocumentHasNoChunks() {
+        assertThat(new StructureAwareTextSplitter(100, 0, 0, 100).split(new Document(" \n\n "))).isEmpty();
+    }
+
+    @Test
+    void chunksAreWholeSentencesOfTheTextAndNoLongerThanAChunk() {
+        String text = sentences(0, 30);
+        List<Document> chunks = new StructureAwareTextSplitter(60, 0, 0, 100)
+                .split(new Document(text, Map.of("filename", "travel.pdf")));
+
+        assertThat(chunks.size()).isGreaterThan(3);
+        for (int i = 0; i < chunks.size(); i++) {
+            Document chunk = chunks.get(i);
+            assertThat(chunk.getContent()).isEqualTo(text.substring(startOffset(chunk), endOffset(chunk)));
+            assertThat(chunk.getContent()).endsWith(".");
+            assertThat((int) chunk.getMetadata().get("token_count")).isLessThanOrEqualTo(60);
+            assertThat(chunk.getMetadata()).containsEntry("chunk_index", i);
+            assertThat(chunk.getMetadata()).containsEntry("filename", "travel.pdf");
+            if (i > 0) {
+                // Without overlap, each chunk continues where the previous one ended
+                assertThat(text.substring(endOffset(chunks.get(i - 1)), startOffset(chunk)).isBlank()).isTrue();
+            }
+        }
+    }
+
+    @Test
+    void newSectionStartsANewChunkWithoutOverlap() {
+        // Both sections would fit into one chunk together
+        String text = "# Vacation\n\n" + sentences(0, 5) + "\n\n# Parking\n\n" + sentences(5, 10);
+        List<Document> chunks = new StructureAwareTextSplitter(200, 40, 0, 100).split(new Document(text));
+
+        assertThat(chunks).hasSize(2);
+        assertThat(chunks.get(0).getContent()).startsWith("# Vacation");
+        assertThat(chunks.get(0).getMetadata()).containsEntry("section", "Vacation");
+        assertThat(chunks.get(1).getContent()).startsWith("# Parking");
+        assertThat(chunks.get(1).getMetadata()).containsEntry("section", "Parking");
+    }
+
+    @Test
+    void overlapRepeatsWholeSentencesOfThePreviousChunk() {
+        String text = sentences(0, 30);
+        List<Document> chunks = new StructureAwareTextSplitter(60, 20, 0, 100).split(new Document(text));
+
+        assertThat(chunks.size()).isGreaterThan(3);
+        for (int i = 1; i < chunks.size(); i++) {
+            int start = startOffset(chunks.get(i));
+            assertThat(start).isLessThan(endOffset(chunks.get(i - 1)));
+            assertThat(text.substring(0, start).stripTrailing()).endsWith(".");
+            assertThat((int) chunks.get(i).getMetadata().get("token_count")).isLessThanOrEqualTo(60);
+        }
+    }
+
+    @Test
+    void abbreviationsDoNotEndASentence() {
+        String text = IntStream.range(0, 30)
+                .mapToObj(i -> "Office " + i + " is closed on some days, e.g. Friday and Monday.")
+                .collect(Collectors.joining(" "));
+        List<Document> chunks = new StructureAwareTextSplitter(40, 0, 0, 100).split(new Document(text));
+
+        assertThat(chunks.size()).isGreaterThan(3);
+        for (Document chunk : chunks) {
+            assertThat(chunk.getContent()).startsWith("Office ");
+            assertThat(chunk.getContent()).endsWith("Monday.");
+        }
+    }
+
+    @Test
+    void sentenceLongerThanAChunkIsCutBetweenWords() {
+        String text = IntStream.range(0, 300).mapToObj(i -> "word" + i).collect(Collectors.joining(" "));
+        List<Document> chunks = new StructureAwareTextSplitter(50, 0, 0, 100).split(new Document(text));
+
+        assertThat(chunks.size()).isGreaterThan(3);
+        for (Document chunk : chunks) {
+            assertThat((int) chunk.getMetadata().get("token_count")).isLessThanOrEqualTo(50);
+        }
+        String rejoined = chunks.stream().map(Document::getContent).collect(Collectors.joining(" "));
+        assertThat(rejoined).isEqualTo(text);
+    }
+
+    @Test
+    void atMostMaxChunksAreReturned() {
+        List<Document> chunks = new StructureAwareTextSplitter(60, 0, 0, 3).split(new Document(sentences(0, 30)));
+
+        assertThat(chunks).hasSize(3);
+    }
+
+    // Short sentences, each one distinct
+    private static String sentences(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(i -> "Rule " + i + " of the travel policy applies to every trip abroad.")
+                .collect(Collectors.joining(" "));
+    }
+
+    private static int startOffset(Document chunk) {
+        return (int) chunk.getMetadata().get("start_offset");
+    }
+
+    private static int endOffset(Document chunk) {
+        return (int) chunk.getMetadata().get("end_offset");
+    }
+}
@@ -0,0 +1,182 @@
+package de.deltatree.tools.rag.service;
+
+import de.deltatree.tools.rag.embedding.PooledOllamaEmbeddingModel;
+import de.deltatree.tools.rag.vectorstore.CorpusVersions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOut;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class VectorSnapshotServiceTest {
+    private static final String MODEL = "nomic-embed-text";
+    private static final Pattern EXPORTED_COLLECTION = Pattern.compile("WHERE collection = '([a-z0-9_]+)'");
+    private static final Pattern STAGING_TABLE = Pattern.compile("^COPY (\\S+) ");
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final PooledOllamaEmbeddingModel embeddingModel = mock(PooledOllamaEmbeddingModel.class);
+    private final CopyManager copyManager = mock(CopyManager.class);
+    private final Map<String, ByteArrayOutputStream> copiedIn = new ConcurrentHashMap<>();
+    private VectorSnapshotService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Connection connection = mock(Connection.class);
+        PGConnection pgConnection = mock(PGConnection.class);
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenAnswer(invocation ->
+                invocation.<ConnectionCallback<?>>getArgument(0).doInConnection(connection));
+        when(jdbcTemplate.queryForObject(startsWith("SELECT atttypmod"), eq(Integer.class), any())).thenReturn(768);
+        when(embeddingModel.getModel()).thenReturn(MODEL);
+        when(copyManager.copyOut(anyString())).thenAnswer(invocation -> copyOut(invocation.getArgument(0)));
+        when(copyManager.copyIn(anyString())).thenAnswer(invocation -> copyIn(invocation.getArgument(0)));
+        service = new VectorSnapshotService(jdbcTemplate, mock(PlatformTransactionManager.class), embeddingModel,
+                new CorpusVersions(), "", "1GB", 2);
+    }
+
+    @Test
+    void snapshotRestoresTheRowsOfEveryCollection() throws IOException {
+        byte[] snapshot = export("wiki", "hr");
+
+        List<VectorSnapshotService.RestoredCollection> restored = restore(snapshot, false, false);
+
+        assertThat(restored.stream().map(VectorSnapshotService.RestoredCollection::collection).toList())
+                .containsExactly("wiki", "hr");
+        assertThat(restored.get(0).rows()).isEqualTo(2L);
+        assertThat(copiedIn.get("doc_rst_wiki").toString(StandardCharsets.UTF_8)).isEqualTo(rowsOf("wiki"));
+        assertThat(copiedIn.get("doc_rst_hr").toString(StandardCharsets.UTF_8)).isEqualTo(rowsOf("hr"));
+    }
+
+    @Test
+    void existingCollectionIsSkippedAndTheNextOneStillRestores() throws IOException {
+        byte[] snapshot = export("wiki", "hr");
+        when(jdbcTemplate.queryForObject(startsWith("SELECT EXISTS"), eq(Boolean.class), eq("wiki"))).thenReturn(true);
+
+        List<VectorSnapshotService.RestoredCollection> restored = restore(snapshot, false, true);
+
+        assertThat(restored.stream().map(VectorSnapshotService.RestoredCollection::collection).toList())
+                .containsExactly("hr");
+        assertThat(copiedIn).doesNotContainKey("doc_rst_wiki");
+        assertThat(copiedIn.get("doc_rst_hr").toString(StandardCharsets.UTF_8)).isEqualTo(rowsOf("hr"));
+    }
+
+    @Test
+    void snapshotOfAnotherModelIsRestoredOnlyWhenForced() throws IOException {
+        byte[] snapshot = export("wiki");
+        when(embeddingModel.getModel()).thenReturn("mxbai-embed-large");
+
+        assertThatThrownBy(() -> restore(snapshot, false, false))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining(MODEL);
+        assertThat(restore(snapshot, true, false)).hasSize(1);
+    }
+
+    @Test
+    void snapshotWithOtherDimensionsIsRefusedEvenWhenForced() throws IOException {
+        byte[] snapshot = export("wiki");
+        when(jdbcTemplate.queryForObject(startsWith("SELECT atttypmod"), eq(Integer.class), any())).thenReturn(1024);
+
+        assertThatThrownBy(() -> restore(snapshot, true, false))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("768-dimensional");
+    }
+
+    @Test
+    void otherFileIsNotTakenForASnapshot() {
+        assertThatThrownBy(() -> restore("not a snapshot".getBytes(StandardCharsets.UTF_8), false, false))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void truncatedSnapshotFailsAndDropsTheStagingTable() throws IOException {
+        byte[] snapshot = export("wiki");
+
+        assertThatThrownBy(() -> restore(Arrays.copyOf(snapshot, snapshot.length - 12), false, false))
+                .isInstanceOf(UncheckedIOException.class);
+        // Once before loading, once after the failure
+        verify(jdbcTemplate, times(2)).execute("DROP TABLE IF EXISTS doc_rst_wiki");
+    }
+
+    @Test
+    void unknownSectionMarkerIsRejected() throws IOException {
+        byte[] snapshot = export("wiki");
+        snapshot[snapshot.length - 1] = 'X';
+
+        assertThatThrownBy(() -> restore(snapshot, false, false))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Corrupt snapshot");
+    }
+
+    private byte[] export(String... collections) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.export(out, List.of(collections));
+        return out.toByteArray();
+    }
+
+    private List<VectorSnapshotService.RestoredCollection> restore(byte[] snapshot, boolean force,
+                                                                   boolean skipExisting) throws IOException {
+        return service.restore(new ByteArrayInputStream(snapshot), force, skipExisting);
+    }
+
+    // Stands in for a collection's rows in COPY's binary format, one line per row
+    private static String rowsOf(String collection) {
+        return collection + " chunk 1\n" + collection + " chunk 2\n";
+    }
+
+    private static CopyOut copyOut(String sql) throws Exception {
+        Matcher collection = EXPORTED_COLLECTION.matcher(sql);
+        assertThat(collection.find()).isTrue();
+        String[] rows = rowsOf(collection.group(1)).split("(?<=\n)");
+        CopyOut copyOut = mock(CopyOut.class);
+        when(copyOut.readFromCopy()).thenReturn(rows[0].getBytes(StandardCharsets.UTF_8),
+                rows[1].getBytes(StandardCharsets.UTF_8), (byte[]) null);
+        when(copyOut.getHandledRowCount()).thenReturn((long) rows.length);
+        return copyOut;
+    }
+
+    private CopyIn copyIn(String sql) throws Exception {
+        Matcher staging = STAGING_TABLE.matcher(sql);
+        assertThat(staging.find()).isTrue();
+        ByteArrayOutputStream data = copiedIn.computeIfAbsent(staging.group(1), table -> new ByteArrayOutputStream());
+        CopyIn copyIn = mock(CopyIn.class);
+        when(copyIn.isActive()).thenReturn(true);
+        when(copyIn.endCopy()).thenAnswer(invocation ->
+                data.toString(StandardCharsets.UTF_8).chars().filter(c -> c == '\n').count());
+        doAnswer(invocation -> {
+            data.write(invocation.<byte[]>getArgument(0), invocation.getArgument(1), invocation.getArgument(2));
+            return null;
+        }).when(copyIn).writeToCopy(any(byte[].class), anyInt(), anyInt());
+        return copyIn;
+    }
+}
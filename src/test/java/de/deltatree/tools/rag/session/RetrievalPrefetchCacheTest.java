@@ -0,0 +1,172 @@
+package de.deltatree.tools.rag.session;
+
+import de.deltatree.tools.rag.vectorstore.CorpusVersions;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetrievalPrefetchCacheTest {
+    private static final List<Document> CHUNKS = List.of(new Document("Thirty days of vacation per year."));
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CorpusVersions corpusVersions = new CorpusVersions();
+    private final RetrievalPrefetchCache cache = cache(30_000);
+    private final AtomicInteger retrievals = new AtomicInteger();
+
+    @Test
+    void overlapIsTheShareOfDistinctWordsInCommon() {
+        assertThat(RetrievalPrefetchCache.overlap("how many vacation days", "how many vacation days")).isEqualTo(1.0);
+        assertThat(RetrievalPrefetchCache.overlap("how many vacation days", "how many vacation days do i get"))
+                .isEqualTo(4.0 / 7);
+        assertThat(RetrievalPrefetchCache.overlap("vacation days", "parking spaces")).isEqualTo(0.0);
+    }
+
+    @Test
+    void questionEqualToTheDraftReusesItsRetrieval() {
+        cache.prefetch("page-1", "How many vacation days do I get", "default", null, retrieval());
+
+        assertThat(cache.take("page-1", "how many  vacation days do I get?", "default", null)).hasValue(CHUNKS);
+        assertThat(result("hit")).isEqualTo(1.0);
+    }
+
+    @Test
+    void questionCloseToTheDraftReusesItsRetrieval() {
+        cache.prefetch("page-1", "how many vacation days do employees get per year", "default", null, retrieval());
+
+        assertThat(cache.take("page-1", "how many vacation days do new employees get per year", "default", null))
+                .hasValue(CHUNKS);
+    }
+
+    @Test
+    void differentQuestionDoesNotReuseTheDraft() {
+        cache.prefetch("page-1", "how many vacation days", "default", null, retrieval());
+
+        assertThat(cache.take("page-1", "where can I park my car", "default", null)).isEmpty();
+        assertThat(result("different")).isEqualTo(1.0);
+    }
+
+    @Test
+    void changeToTheCollectionMakesTheDraftStale() {
+        cache.prefetch("page-1", "how many vacation days", "default", null, retrieval());
+        corpusVersions.changed("default");
+
+        assertThat(cache.take("page-1", "how many vacation days", "default", null)).isEmpty();
+        assertThat(result("stale")).isEqualTo(1.0);
+    }
+
+    @Test
+    void changeToAnotherCollectionKeepsTheDraft() {
+        cache.prefetch("page-1", "how many vacation days", "default", null, retrieval());
+        corpusVersions.changed("archive");
+
+        assertThat(cache.take("page-1", "how many vacation days", "default", null)).hasValue(CHUNKS);
+    }
+
+    @Test
+    void otherCollectionOrFilterMakesTheDraftStale() {
+        cache.prefetch("page-1", "how many vacation days", "default", "type == 'policy'", retrieval());
+        cache.prefetch("page-2", "how many vacation days", "default", null, retrieval());
+
+        assertThat(cache.take("page-1", "how many vacation days", "default", null)).isEmpty();
+        assertThat(cache.take("page-2", "how many vacation days", "archive", null)).isEmpty();
+        assertThat(result("stale")).isEqualTo(2.0);
+    }
+
+    @Test
+    void expiredDraftIsStale() throws InterruptedException {
+        RetrievalPrefetchCache shortLived = cache(1);
+        shortLived.prefetch("page-1", "how many vacation days", "default", null, retrieval());
+        Thread.sleep(10);
+
+        assertThat(shortLived.take("page-1", "how many vacation days", "default", null)).isEmpty();
+    }
+
+    @Test
+    void draftIsTakenOnlyOnce() {
+        cache.prefetch("page-1", "how many vacation days", "default", null, retrieval());
+
+        assertThat(cache.take("page-1", "how many vacation days", "default", null)).isPresent();
+        assertThat(cache.take("page-1", "how many vacation days", "default", null)).isEmpty();
+    }
+
+    @Test
+    void sameDraftIsRetrievedOnceAndANewDraftReplacesIt() {
+        cache.prefetch("page-1", "how many vacation days", "default", null, retrieval());
+        cache.prefetch("page-1", "How many vacation days?", "default", null, retrieval());
+        assertThat(retrievals).hasValue(1);
+
+        cache.prefetch("page-1", "where can I park my car", "default", null, retrieval());
+        assertThat(retrievals).hasValue(2);
+        assertThat(cache.take("page-1", "how many vacation days", "default", null)).isEmpty();
+    }
+
+    @Test
+    void failedRetrievalIsNotReused() {
+        cache.prefetch("page-1", "how many vacation days", "default", null, () -> {
+            throw new IllegalStateException("Ollama down");
+        });
+
+        assertThat(cache.take("page-1", "how many vacation days", "default", null)).isEmpty();
+        cache.prefetch("page-1", "how many vacation days", "default", null, retrieval());
+        assertThat(cache.take("page-1", "how many vacation days", "default", null)).hasValue(CHUNKS);
+    }
+
+    @Test
+    void questionWaitsForTheRetrievalOfItsDraftStillRunning() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        CompletableFuture<Void> prefetch = CompletableFuture.runAsync(() ->
+                cache.prefetch("page-1", "how many vacation days", "default", null, () -> {
+                    started.countDown();
+                    await(finish);
+                    return CHUNKS;
+                }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        CompletableFuture<Optional<List<Document>>> taken = CompletableFuture.supplyAsync(() ->
+                cache.take("page-1", "how many vacation days", "default", null));
+        Thread.sleep(50);
+        assertThat(taken.isDone()).isFalse();
+        finish.countDown();
+
+        assertThat(taken.get(5, TimeUnit.SECONDS)).hasValue(CHUNKS);
+        prefetch.get(5, TimeUnit.SECONDS);
+    }
+
+    private RetrievalPrefetchCache cache(long ttlMillis) {
+        return new RetrievalPrefetchCache(corpusVersions, true, ttlMillis, 100, 0.8, meterRegistry);
+    }
+
+    private Supplier<List<Document>> retrieval() {
+        return () -> {
+            retrievals.incrementAndGet();
+            return CHUNKS;
+        };
+    }
+
+    private double result(String result) {
+        return meterRegistry.get("rag.chat.prefetch").tag("result", result).counter().count();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Latch not released within 5 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
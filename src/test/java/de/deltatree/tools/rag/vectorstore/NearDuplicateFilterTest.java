@@ -0,0 +1,177 @@
+package de.deltatree.tools.rag.vectorstore;
+
+import de.deltatree.tools.rag.model.CollectionName;
+import de.deltatree.tools.rag.repository.DocumentEmbeddingRepository;
+import de.deltatree.tools.rag.repository.DocumentEmbeddingRepositoryCustom.StoredFingerprint;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class NearDuplicateFilterTest {
+    private static final int MIN_WORDS = 20;
+    private static final String POLICY = "Employees receive thirty days of paid vacation per calendar year. "
+            + "Vacation requests must be submitted to the team lead at least two weeks in advance and are approved "
+            + "in the order they arrive. Unused vacation days expire at the end of March of the following year. "
+            + "Part-time employees receive vacation in proportion to their working days. During the probation "
+            + "period, vacation can be taken after the first three months. Sick days during vacation do not count "
+            + "as vacation if a medical certificate is submitted on the first day. Special leave is granted for the "
+            + "birth of a child, a wedding, a move to another city and the death of a close relative. The number of "
+            + "days for each occasion is listed in the collective agreement, which is available from the works "
+            + "council. Vacation that is carried over has to be taken before any vacation of the current year. "
+            + "Requests for more than three consecutive weeks need the approval of the department head.";
+    // Two bits from POLICY
+    private static final String POLICY_NEXT_YEAR = POLICY.replace("March", "April");
+    private static final String CANTEEN = "The cafeteria on the ground floor serves breakfast from seven to ten "
+            + "and lunch from half past eleven to two. Vegetarian and vegan dishes are marked on the weekly menu, "
+            + "which is published every Friday on the intranet together with the prices for guests.";
+
+    private final DocumentEmbeddingRepository repository = mock(DocumentEmbeddingRepository.class);
+
+    @Test
+    void fingerprintsAtMostThreeBitsApartShareABand() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long fingerprint = random.nextLong();
+            long near = fingerprint;
+            while (SimHash.distance(fingerprint, near) < 3) {
+                near ^= 1L << random.nextInt(Long.SIZE);
+            }
+            assertThat(sharesBand(fingerprint, near)).isTrue();
+        }
+        // One bit in every band is the closest pair the band lookup can miss
+        long fingerprint = random.nextLong();
+        assertThat(sharesBand(fingerprint, fingerprint ^ 1L ^ 1L << 16 ^ 1L << 32 ^ 1L << 48)).isFalse();
+    }
+
+    @Test
+    void shortTextsHaveNoFingerprint() {
+        assertThat(SimHash.fingerprint("Page 1 of 3", MIN_WORDS)).isNull();
+        assertThat(SimHash.fingerprint(POLICY, MIN_WORDS)).isEqualTo(SimHash.fingerprint(POLICY, MIN_WORDS));
+        assertThat(SimHash.distance(SimHash.fingerprint(POLICY, MIN_WORDS),
+                SimHash.fingerprint(POLICY_NEXT_YEAR, MIN_WORDS))).isLessThanOrEqualTo(3);
+        assertThat(SimHash.distance(SimHash.fingerprint(POLICY, MIN_WORDS),
+                SimHash.fingerprint(CANTEEN, MIN_WORDS))).isGreaterThan(3);
+    }
+
+    @Test
+    void nearDuplicateInTheSameBatchIsDroppedAndTheOrderKept() {
+        List<NearDuplicateFilter.Chunk> chunks = filter("drop").filter(List.of(
+                document(POLICY, "policy-2024.pdf"),
+                document(CANTEEN, "canteen.pdf"),
+                document(POLICY_NEXT_YEAR, "policy-2025.pdf")));
+
+        assertThat(contents(chunks)).containsExactly(POLICY, CANTEEN);
+    }
+
+    @Test
+    void linkModeRecordsTheSourceOfADroppedChunkOfTheBatch() {
+        List<NearDuplicateFilter.Chunk> chunks = filter("link").filter(List.of(
+                document(POLICY, "policy-2024.pdf"),
+                document(POLICY_NEXT_YEAR, "policy-2025.pdf")));
+
+        assertThat(chunks).hasSize(1);
+        assertThat(chunks.get(0).alsoIn()).containsExactly("policy-2025.pdf");
+    }
+
+    @Test
+    void nearDuplicateOfAStoredChunkIsDroppedAndLinkedToIt() {
+        when(repository.findFingerprintCandidates(eq(CollectionName.DEFAULT), anyCollection()))
+                .thenReturn(List.of(new StoredFingerprint(7, "policy-2024.pdf", SimHash.fingerprint(POLICY, MIN_WORDS))));
+
+        List<NearDuplicateFilter.Chunk> chunks = filter("link").filter(List.of(
+                document(POLICY_NEXT_YEAR, "policy-2025.pdf"),
+                document(CANTEEN, "canteen.pdf")));
+
+        assertThat(contents(chunks)).containsExactly(CANTEEN);
+        verify(repository).addDuplicateSource(7L, CollectionName.DEFAULT, "policy-2025.pdf");
+    }
+
+    @Test
+    void storedChunkOfTheSameSourceDoesNotCount() {
+        when(repository.findFingerprintCandidates(eq(CollectionName.DEFAULT), anyCollection()))
+                .thenReturn(List.of(new StoredFingerprint(7, "policy.pdf", SimHash.fingerprint(POLICY, MIN_WORDS))));
+
+        List<NearDuplicateFilter.Chunk> chunks = filter("link").filter(List.of(document(POLICY_NEXT_YEAR, "policy.pdf")));
+
+        assertThat(contents(chunks)).containsExactly(POLICY_NEXT_YEAR);
+        verify(repository, never()).addDuplicateSource(anyLong(), anyString(), anyString());
+    }
+
+    @Test
+    void candidateSharingABandButTooDistantIsKept() {
+        // Five bits apart, all of them in the lowest band
+        long distant = SimHash.fingerprint(POLICY, MIN_WORDS) ^ 0b11111L;
+        when(repository.findFingerprintCandidates(eq(CollectionName.DEFAULT), anyCollection()))
+                .thenReturn(List.of(new StoredFingerprint(7, "other.pdf", distant)));
+
+        List<NearDuplicateFilter.Chunk> chunks = filter("drop").filter(List.of(document(POLICY, "policy.pdf")));
+
+        assertThat(contents(chunks)).containsExactly(POLICY);
+    }
+
+    @Test
+    void chunksOfOtherCollectionsAreNotCompared() {
+        List<NearDuplicateFilter.Chunk> chunks = filter("drop").filter(List.of(
+                document(POLICY, "policy.pdf"),
+                new Document(POLICY_NEXT_YEAR, Map.of("filename", "policy.pdf", "collection", "archive"))));
+
+        assertThat(chunks).hasSize(2);
+    }
+
+    @Test
+    void shortChunksAreNeverDropped() {
+        List<NearDuplicateFilter.Chunk> chunks = filter("drop").filter(List.of(
+                document("Page 1 of 3", "a.pdf"),
+                document("Page 1 of 3", "b.pdf")));
+
+        assertThat(chunks).hasSize(2);
+        assertThat(chunks.get(0).fingerprint()).isNull();
+    }
+
+    @Test
+    void offModeKeepsEverythingButStillFingerprints() {
+        List<NearDuplicateFilter.Chunk> chunks = filter("off").filter(List.of(
+                document(POLICY, "policy-2024.pdf"),
+                document(POLICY_NEXT_YEAR, "policy-2025.pdf")));
+
+        assertThat(chunks).hasSize(2);
+        assertThat(chunks.get(1).fingerprint()).isEqualTo(SimHash.fingerprint(POLICY_NEXT_YEAR, MIN_WORDS));
+        verifyNoInteractions(repository);
+    }
+
+    private NearDuplicateFilter filter(String mode) {
+        return new NearDuplicateFilter(repository, mode, 3, MIN_WORDS, new SimpleMeterRegistry());
+    }
+
+    private static boolean sharesBand(long a, long b) {
+        for (int band = 0; band < SimHash.BANDS; band++) {
+            if (SimHash.band(a, band) == SimHash.band(b, band)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Document document(String text, String fileName) {
+        return new Document(text, Map.of("filename", fileName));
+    }
+
+    private static List<String> contents(List<NearDuplicateFilter.Chunk> chunks) {
+        return chunks.stream().map(chunk -> chunk.document().getContent()).toList();
+    }
+}
@@ -0,0 +1,149 @@
+package de.deltatree.tools.rag.vectorstore;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class QueryEmbeddingBatcherTest {
+    private final EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<List<String>> calls = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        // "blocking" holds its call until released, "failing" fails its call; every vector is the text's length
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> {
+            List<String> texts = new ArrayList<>(invocation.getArgument(0));
+            calls.add(texts);
+            if (texts.contains("blocking")) {
+                awaitRelease();
+            }
+            if (texts.contains("failing")) {
+                throw new IllegalStateException("Ollama down");
+            }
+            return texts.stream().map(text -> new float[]{text.length()}).toList();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void idleBatcherSendsAtOnceWithoutWaitingForTheWindow() {
+        QueryEmbeddingBatcher batcher = batcher(60_000, 16);
+
+        assertThat(batcher.embed("vacation")).containsExactly(8f);
+        assertThat(calls).containsExactly(List.of("vacation"));
+    }
+
+    @Test
+    void textsArrivingWhileABatchRunsShareOneCall() throws Exception {
+        QueryEmbeddingBatcher batcher = batcher(60_000, 3);
+        Future<float[]> running = executor.submit(() -> batcher.embed("blocking"));
+        waitUntil(() -> calls.size() == 1);
+
+        List<Future<float[]>> batched = List.of(
+                executor.submit(() -> batcher.embed("a")),
+                executor.submit(() -> batcher.embed("bb")),
+                executor.submit(() -> batcher.embed("ccc")));
+
+        // The batch is full, so its leader does not wait out the window
+        assertThat(batched.get(0).get(5, TimeUnit.SECONDS)).containsExactly(1f);
+        assertThat(batched.get(1).get(5, TimeUnit.SECONDS)).containsExactly(2f);
+        assertThat(batched.get(2).get(5, TimeUnit.SECONDS)).containsExactly(3f);
+        assertThat(calls).hasSize(2);
+        assertThat(calls.get(1)).containsExactlyInAnyOrder("a", "bb", "ccc");
+        assertThat(running.isDone()).isFalse();
+
+        release.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS)).containsExactly(8f);
+    }
+
+    @Test
+    void windowSendsAPartialBatch() throws Exception {
+        QueryEmbeddingBatcher batcher = batcher(50, 16);
+        executor.submit(() -> batcher.embed("blocking"));
+        waitUntil(() -> calls.size() == 1);
+
+        assertThat(executor.submit(() -> batcher.embed("vacation")).get(5, TimeUnit.SECONDS)).containsExactly(8f);
+        assertThat(calls.get(1)).containsExactly("vacation");
+    }
+
+    @Test
+    void failedBatchFailsEveryCallerOfIt() throws Exception {
+        QueryEmbeddingBatcher batcher = batcher(60_000, 2);
+        executor.submit(() -> batcher.embed("blocking"));
+        waitUntil(() -> calls.size() == 1);
+
+        Future<float[]> failing = executor.submit(() -> batcher.embed("failing"));
+        Future<float[]> other = executor.submit(() -> batcher.embed("vacation"));
+
+        assertThatThrownBy(() -> failing.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> other.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void disabledBatcherEmbedsEachTextOnItsOwn() throws Exception {
+        QueryEmbeddingBatcher batcher = new QueryEmbeddingBatcher(embeddingModel, null, false, 60_000, 16,
+                new SimpleMeterRegistry());
+        executor.submit(() -> batcher.embed("blocking"));
+        waitUntil(() -> calls.size() == 1);
+
+        assertThat(executor.submit(() -> batcher.embed("vacation")).get(5, TimeUnit.SECONDS)).containsExactly(8f);
+        assertThat(calls.get(1)).containsExactly("vacation");
+    }
+
+    // Without a scheduler, as for an in-process embedding model
+    private QueryEmbeddingBatcher batcher(long windowMillis, int maxBatchSize) {
+        return new QueryEmbeddingBatcher(embeddingModel, null, true, windowMillis, maxBatchSize,
+                new SimpleMeterRegistry());
+    }
+
+    private void awaitRelease() {
+        try {
+            if (!release.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Not released within 5 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within 5 seconds");
+            }
+            Thread.sleep(5);
+        }
+    }
+}